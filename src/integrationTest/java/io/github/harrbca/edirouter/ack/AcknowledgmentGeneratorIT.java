@@ -0,0 +1,132 @@
+package io.github.harrbca.edirouter.ack;
+
+import io.github.harrbca.edirouter.aggregation.OutboundAggregator;
+import io.github.harrbca.edirouter.config.AcknowledgmentProperties;
+import io.github.harrbca.edirouter.config.AggregationProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.EnvelopeValidator;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AcknowledgmentGeneratorIT {
+
+    @TempDir
+    Path temp;
+
+    private final AcknowledgmentProperties properties = new AcknowledgmentProperties();
+    private final List<Queued> queued = new ArrayList<>();
+    private AcknowledgmentGenerator generator;
+
+    @BeforeEach
+    void setUp() {
+        properties.setEnabled(true);
+        properties.setDestination("partner-acks");
+        generator = new AcknowledgmentGenerator(properties, new EnvelopeValidator(), new CapturingAggregator());
+    }
+
+    @Test
+    void countsPartiallyAcceptedGroupsIn997() {
+        // The second set's SE01 says 4 but it has 3 segments
+        generator.acknowledge("file-1", parse("004010",
+                "GS*PO*ACME*US*20240101*1200*77*X*004010~"
+                        + "ST*850*0001~BEG*00*SA*1~SE*3*0001~"
+                        + "ST*850*0002~BEG*00*SA*2~SE*4*0002~"
+                        + "ST*850*0003~BEG*00*SA*3~SE*3*0003~"
+                        + "GE*3*77~"));
+
+        assertThat(queued).singleElement().satisfies(ack -> {
+            assertThat(ack.id()).isEqualTo("file-1!ack");
+            assertThat(ack.destination()).isEqualTo("partner-acks");
+            assertThat(ack.isa().getInterchangeSenderId().trim()).isEqualTo("RECEIVER");
+            assertThat(ack.isa().getInterchangeReceiverId().trim()).isEqualTo("SENDER");
+            assertThat(ack.gs().getFunctionalIdentifierCode()).isEqualTo("FA");
+            assertThat(ack.gs().getApplicationSenderCode()).isEqualTo("US");
+            assertThat(ack.gs().getApplicationReceiverCode()).isEqualTo("ACME");
+            assertThat(ack.sets()).containsExactly(List.of(
+                    "ST*997*0001",
+                    "AK1*PO*77",
+                    "AK2*850*0001", "AK5*A",
+                    "AK2*850*0002", "AK5*R*4",
+                    "AK2*850*0003", "AK5*A",
+                    "AK9*P*3*3*2",
+                    "SE*10*0001"));
+        });
+    }
+
+    @Test
+    void countsTheSetsTheTrailerClaimsIn999() {
+        // GE01 claims three sets but only two arrived
+        generator.acknowledge("file-2", parse("005010",
+                "GS*IN*ACME*US*20240101*1200*78*X*005010~"
+                        + "ST*810*0001*005010~BIG*20240101*INV1~SE*3*0001~"
+                        + "ST*810*0002*005010~BIG*20240101*INV2~SE*3*0002~"
+                        + "GE*3*78~"));
+
+        assertThat(queued).singleElement().satisfies(ack -> {
+            assertThat(ack.gs().getVersionReleaseIndustryCode()).isEqualTo("005010X231A1");
+            assertThat(ack.sets()).containsExactly(List.of(
+                    "ST*999*0001*005010X231A1",
+                    "AK1*IN*78*005010",
+                    "AK2*810*0001", "IK5*A",
+                    "AK2*810*0002", "IK5*A",
+                    "AK9*R*3*2*2*5",
+                    "SE*8*0001"));
+        });
+    }
+
+    @Test
+    void neverAcknowledgesAcknowledgments() {
+        generator.acknowledge("file-3", parse("004010",
+                "GS*FA*ACME*US*20240101*1200*79*X*004010~"
+                        + "ST*997*0001~AK1*PO*12~AK9*A*1*1*1~SE*4*0001~"
+                        + "GE*1*79~"));
+
+        assertThat(queued).isEmpty();
+    }
+
+    private static X12ParseResult parse(String version, String groups) {
+        String isa = "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *240101*1200*"
+                + (version.startsWith("005") ? "^*00501" : "U*00401") + "*000000001*1*P*>~";
+        return new X12EnvelopeService().parse(isa + groups + "IEA*1*000000001~");
+    }
+
+    private record Queued(String id, String destination, ISA isa, GS gs, List<List<String>> sets) {}
+
+    // Records the sets instead of spooling them
+    private class CapturingAggregator extends OutboundAggregator {
+
+        CapturingAggregator() {
+            super(new AggregationProperties(), null, null, null, null, null, null, null, null, null, monitor(), cluster());
+        }
+
+        @Override
+        public long add(String sourceId, String destination, ISA isa, GS gs, List<List<String>> sets) {
+            queued.add(new Queued(sourceId, destination, isa, gs, sets));
+            return sets.size();
+        }
+    }
+
+    private FileMonitorProperties monitor() {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        return monitor;
+    }
+
+    private static ClusterProperties cluster() {
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId("node-a");
+        return cluster;
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.harrbca.edirouter.ack;
+
+import io.github.harrbca.edirouter.config.AcknowledgmentProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AcknowledgmentIndexIT {
+
+    @TempDir
+    Path temp;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final AcknowledgmentProperties properties = new AcknowledgmentProperties();
+    private final X12EnvelopeService parser = new X12EnvelopeService();
+
+    @BeforeEach
+    void setUp() {
+        scheduler.initialize();
+        properties.setTracking(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void matchesAcknowledgmentsRegardlessOfPaddingAndCase() throws Exception {
+        AcknowledgmentIndex index = open("node-a");
+        try {
+            index.sent(group("OURCO", "ourapp", "partner", "PO", "000123", "0001"), "po.edi", "partner-sftp");
+            assertThat(index.size()).isEqualTo(1);
+
+            assertThat(index.received(ack("PARTNER", "ourco", "OURAPP", "PO", "123", "A"))).isEqualTo(1);
+            assertThat(index.size()).isZero();
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void matchesOnlyGroupsSentAsTheIdsTheAcknowledgmentIsAddressedTo() throws Exception {
+        AcknowledgmentIndex index = open("node-a");
+        try {
+            // The same group control number sent to the partner by two of our sender ids
+            index.sent(group("OURCO", "OURAPP", "PARTNER", "PO", "77", "0001"), "first.edi", "partner-sftp");
+            index.sent(group("OTHERCO", "OURAPP", "PARTNER", "PO", "77", "0001"), "second.edi", "partner-sftp");
+
+            assertThat(index.received(ack("PARTNER", "OTHERCO", "OURAPP", "PO", "77", "R"))).isEqualTo(1);
+            assertThat(index.received(ack("PARTNER", "OTHERCO", "OURAPP", "PO", "77", "A"))).isZero();
+            assertThat(index.received(ack("PARTNER", "OURCO", "ELSEWHERE", "PO", "77", "A"))).isZero();
+            assertThat(index.received(ack("PARTNER", "OURCO", "OURAPP", "IN", "77", "A"))).isZero();
+            assertThat(index.overdue(-1, 10)).extracting(AcknowledgmentIndex.Outstanding::fileName)
+                    .containsExactly("first.edi");
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void listsOverdueGroupsOldestFirst() throws Exception {
+        AcknowledgmentIndex index = open("node-a");
+        try {
+            for (int i = 1; i <= 3; i++) {
+                index.sent(group("OURCO", "OURAPP", "PARTNER", "PO", Integer.toString(i), "0001"), i + ".edi", "partner-sftp");
+                Thread.sleep(5);
+            }
+            index.received(ack("PARTNER", "OURCO", "OURAPP", "PO", "2", "A"));
+
+            assertThat(index.overdue(-1, 10)).extracting(AcknowledgmentIndex.Outstanding::fileName)
+                    .containsExactly("1.edi", "3.edi");
+            assertThat(index.overdue(-1, 1)).extracting(AcknowledgmentIndex.Outstanding::fileName)
+                    .containsExactly("1.edi");
+            assertThat(index.overdue(60_000, 10)).isEmpty();
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void keepsOutstandingGroupsAcrossARestart() throws Exception {
+        AcknowledgmentIndex index = open("node-a");
+        index.sent(group("OURCO", "OURAPP", "PARTNER", "PO", "5", "0001"), "po.edi", "partner-sftp");
+        index.close();
+
+        AcknowledgmentIndex reopened = open("node-a");
+        try {
+            assertThat(reopened.overdue(-1, 10)).singleElement().satisfies(o -> {
+                assertThat(o.sender()).isEqualTo("OURCO");
+                assertThat(o.partner()).isEqualTo("PARTNER");
+                assertThat(o.transactionSetControlNumbers()).containsExactly("1");
+            });
+            assertThat(reopened.received(ack("PARTNER", "OURCO", "OURAPP", "PO", "5", "A"))).isEqualTo(1);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void passesAcknowledgmentsOnToTheNodeThatSentTheGroup() throws Exception {
+        AcknowledgmentIndex sender = open("node-a");
+        AcknowledgmentIndex other = open("node-b");
+        try {
+            sender.sent(group("OURCO", "OURAPP", "PARTNER", "PO", "8", "0001"), "po.edi", "partner-sftp");
+
+            // Claimed by the node that did not send the group
+            assertThat(other.received(ack("PARTNER", "OURCO", "OURAPP", "PO", "8", "A"))).isZero();
+            assertThat(sender.size()).isEqualTo(1);
+
+            assertThat(sender.checkInbox()).isEqualTo(1);
+            assertThat(sender.size()).isZero();
+            assertThat(sender.checkInbox()).isZero();
+            assertThat(other.checkInbox()).isZero();
+        } finally {
+            sender.close();
+            other.close();
+        }
+    }
+
+    private AcknowledgmentIndex open(String nodeId) throws Exception {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId(nodeId);
+        AcknowledgmentIndex index = new AcknowledgmentIndex(properties, scheduler, monitor, cluster);
+        index.open();
+        return index;
+    }
+
+    // One 850 group from us (ISA06 / GS02) to the partner
+    private X12ParseResult group(String sender, String applicationSender, String receiver, String functionalId,
+                                 String groupControlNumber, String setControlNumber) {
+        return parser.parse(isa(sender, receiver)
+                + "GS*" + functionalId + "*" + applicationSender + "*" + receiver + "*20240101*1200*" + groupControlNumber + "*X*004010~"
+                + "ST*850*" + setControlNumber + "~BEG*00*SA*1~SE*3*" + setControlNumber + "~"
+                + "GE*1*" + groupControlNumber + "~IEA*1*000000001~");
+    }
+
+    // A 997 from the partner to us (ISA08 / GS03) for one group
+    private X12ParseResult ack(String partner, String us, String applicationUs, String functionalId,
+                               String groupControlNumber, String status) {
+        return parser.parse(isa(partner, us)
+                + "GS*FA*" + partner + "*" + applicationUs + "*20240101*1200*9*X*004010~"
+                + "ST*997*0001~AK1*" + functionalId + "*" + groupControlNumber + "~AK9*" + status + "*1*1*1~SE*4*0001~"
+                + "GE*1*9~IEA*1*000000009~");
+    }
+
+    private static String isa(String sender, String receiver) {
+        return "ISA*00*          *00*          *ZZ*" + String.format("%-15s", sender) + "*ZZ*"
+                + String.format("%-15s", receiver) + "*240101*1200*U*00401*000000001*0*P*>~";
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.harrbca.edirouter.aggregation;
+
+import io.github.harrbca.edirouter.config.AggregationProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.RoutingProperties;
+import io.github.harrbca.edirouter.config.X12Properties;
+import io.github.harrbca.edirouter.model.fileTransfer.UploadResult;
+import io.github.harrbca.edirouter.service.RoutingService;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import io.github.harrbca.edirouter.x12.ControlNumberService;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutboundAggregatorIT {
+
+    @TempDir
+    Path temp;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final X12Properties x12Properties = new X12Properties();
+    private final AggregationProperties properties = new AggregationProperties();
+    private ControlNumberService controlNumbers;
+    private OutboundAggregator aggregator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        scheduler.initialize();
+        // Nothing leaves the ready directory: "partner" is not a routing destination, so every send fails
+        properties.setRetryDelayMs(600_000);
+        properties.setMaxWaitMs(600_000);
+        controlNumbers = new ControlNumberService(x12Properties, monitor(), cluster());
+        controlNumbers.open();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (aggregator != null) aggregator.stop();
+        controlNumbers.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void renumbersTheMergedSetsAndCountsThemInTheTrailers() throws Exception {
+        aggregator = start();
+        assertThat(add("first", interchange("SENDER", "000000101", "BEG*00*SA*1", "BEG*00*SA*2")).isSuccess()).isTrue();
+        assertThat(add("second", interchange("SENDER", "000000102", "BEG*00*SA*3")).isSuccess()).isTrue();
+        assertThat(aggregator.flush()).isEqualTo(1);
+
+        List<String[]> segments = segments(onlyReadyFile());
+        assertThat(segments).filteredOn(e -> e[0].equals("ST")).extracting(e -> e[2])
+                .containsExactly("0001", "0002", "0003");
+        assertThat(segments).filteredOn(e -> e[0].equals("SE")).extracting(e -> e[1] + "/" + e[2])
+                .containsExactly("3/0001", "3/0002", "3/0003");
+        assertThat(segments).filteredOn(e -> e[0].equals("BEG")).extracting(e -> e[3])
+                .containsExactly("1", "2", "3");
+
+        String[] isa = segment(segments, "ISA");
+        String[] gs = segment(segments, "GS");
+        assertThat(isa[13]).isEqualTo("000000001");
+        assertThat(segment(segments, "GE")).containsExactly("GE", "3", gs[6]);
+        assertThat(segment(segments, "IEA")).containsExactly("IEA", "1", isa[13]);
+    }
+
+    @Test
+    void namesReadyFilesApartWhenTwoSendersDrawTheSameControlNumber() throws Exception {
+        aggregator = start();
+        add("east", interchange("EAST", "000000500", "BEG*00*SA*1"));
+        add("west", interchange("WEST", "000000500", "BEG*00*SA*2"));
+        assertThat(aggregator.flush()).isEqualTo(2);
+
+        List<Path> ready = readyFiles();
+        assertThat(ready).hasSize(2);
+        assertThat(ready).extracting(file -> segment(segments(file), "ISA")[13])
+                .containsExactly("000000001", "000000001");
+        assertThat(ready).extracting(file -> segment(segments(file), "ISA")[6].trim())
+                .containsExactlyInAnyOrder("EAST", "WEST");
+    }
+
+    @Test
+    void truncatesARecordCutShortAndKeepsTheRest() throws Exception {
+        aggregator = start();
+        add("first", interchange("SENDER", "000000101", "BEG*00*SA*1"));
+        aggregator.stop();
+
+        // A crash part way through appending the next file
+        Path spool = only(openDirectory(), "*.spool");
+        long complete = Files.size(spool);
+        Files.writeString(spool, "#second\t1\t400\nST*850*0002~BEG", StandardOpenOption.APPEND);
+
+        aggregator = start();
+        assertThat(Files.size(spool)).isEqualTo(complete);
+        assertThat(aggregator.getOpenBatches()).singleElement()
+                .satisfies(batch -> assertThat(batch.transactionSets()).isEqualTo(1));
+
+        // The replayed files: the first is already in the batch, the second is added after it
+        assertThat(add("first", interchange("SENDER", "000000101", "BEG*00*SA*1")).getMessage()).contains("Queued 0");
+        assertThat(add("second", interchange("SENDER", "000000102", "BEG*00*SA*2")).getMessage()).contains("Queued 1");
+        aggregator.flush();
+
+        assertThat(segments(onlyReadyFile())).filteredOn(e -> e[0].equals("ST")).extracting(e -> e[2])
+                .containsExactly("0001", "0002");
+    }
+
+    @Test
+    void finishesABatchThatWasClosingWithTheControlNumbersItRecorded() throws Exception {
+        aggregator = start();
+        add("first", interchange("SENDER", "000000101", "BEG*00*SA*1"));
+        aggregator.stop();
+
+        // A crash after the control numbers were recorded, before the ready file was written
+        Path meta = only(openDirectory(), "*.meta");
+        Properties p = BatchMeta.read(meta);
+        p.setProperty("isa13", "000000042");
+        p.setProperty("gs06", "42");
+        BatchMeta.write(meta, p);
+
+        aggregator = start();
+        assertThat(aggregator.getOpenBatches()).isEmpty();
+        assertThat(openDirectory()).isEmptyDirectory();
+        List<String[]> segments = segments(onlyReadyFile());
+        assertThat(segment(segments, "ISA")[13]).isEqualTo("000000042");
+        assertThat(segment(segments, "GE")).containsExactly("GE", "1", "42");
+    }
+
+    private OutboundAggregator start() throws Exception {
+        // Transfer, archive and acknowledgment services are only used once a ready file is sent
+        OutboundAggregator started = new OutboundAggregator(properties, x12Properties, controlNumbers,
+                new X12EnvelopeService(), null, new RoutingService(new RoutingProperties()), null, null, null,
+                scheduler, monitor(), cluster());
+        started.start();
+        return started;
+    }
+
+    private UploadResult add(String sourceId, String content) throws Exception {
+        Path file = Files.writeString(Files.createTempFile(temp, sourceId, ".edi"), content);
+        return aggregator.add(sourceId, UploadSource.of(file), "partner").join();
+    }
+
+    // An 850 interchange from sender to RECEIVER with one set per BEG segment, each numbered from 0001
+    private static String interchange(String sender, String controlNumber, String... begs) {
+        StringBuilder edi = new StringBuilder()
+                .append("ISA*00*          *00*          *ZZ*").append(String.format("%-15s", sender))
+                .append("*ZZ*RECEIVER       *240101*1200*U*00401*").append(controlNumber).append("*0*P*>~")
+                .append("GS*PO*").append(sender).append("*RECEIVER*20240101*1200*1*X*004010~");
+        for (int i = 0; i < begs.length; i++) {
+            String number = String.format("%04d", i + 1);
+            edi.append("ST*850*").append(number).append('~').append(begs[i]).append("~SE*3*").append(number).append('~');
+        }
+        return edi.append("GE*").append(begs.length).append("*1~IEA*1*").append(controlNumber).append('~').toString();
+    }
+
+    private static List<String[]> segments(Path file) {
+        try {
+            return Arrays.stream(Files.readString(file, StandardCharsets.UTF_8).split("~"))
+                    .map(String::strip)
+                    .filter(segment -> !segment.isEmpty())
+                    .map(segment -> segment.split("\\*", -1))
+                    .toList();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String[] segment(List<String[]> segments, String id) {
+        return segments.stream().filter(e -> e[0].equals(id)).findFirst().orElseThrow();
+    }
+
+    private Path openDirectory() {
+        return temp.resolve("aggregation/node-a/open");
+    }
+
+    private Path onlyReadyFile() throws Exception {
+        List<Path> ready = readyFiles();
+        assertThat(ready).hasSize(1);
+        return ready.getFirst();
+    }
+
+    private List<Path> readyFiles() throws Exception {
+        try (Stream<Path> files = Files.list(temp.resolve("aggregation/node-a/ready/partner"))) {
+            return files.filter(file -> file.toString().endsWith(".x12")).sorted().toList();
+        }
+    }
+
+    private static Path only(Path directory, String glob) throws Exception {
+        PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> matches = files.filter(file -> matcher.matches(file.getFileName())).toList();
+            assertThat(matches).hasSize(1);
+            return matches.getFirst();
+        }
+    }
+
+    private FileMonitorProperties monitor() {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        return monitor;
+    }
+
+    private static ClusterProperties cluster() {
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId("node-a");
+        return cluster;
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.ArchiveProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveIndexIT {
+
+    @TempDir
+    Path temp;
+
+    private final ArchiveProperties properties = new ArchiveProperties();
+    private final FileMonitorProperties monitor = new FileMonitorProperties();
+    private final ClusterProperties cluster = new ClusterProperties();
+    private final X12EnvelopeService parser = new X12EnvelopeService();
+
+    @BeforeEach
+    void setUp() {
+        monitor.setBaseDirectory(temp.toString());
+        cluster.setNodeId("node-a");
+    }
+
+    @Test
+    void findsFilesByEnvelopeRegardlessOfPaddingAndCase() throws Exception {
+        ArchiveIndex index = open();
+        try {
+            long now = System.currentTimeMillis();
+            index.add(interchange("acme", "000004711", "856"), "asn.edi", "acme", now);
+            index.add(interchange("OTHER", "000004712", "810"), "invoice.edi", "OTHER", now);
+
+            assertThat(index.search(ArchiveQuery.builder().sender(" ACME ").build()).results())
+                    .singleElement()
+                    .satisfies(r -> {
+                        assertThat(r.getFileName()).isEqualTo("asn.edi");
+                        assertThat(r.getInterchangeControlNumber()).isEqualTo("4711");
+                    });
+            assertThat(index.search(ArchiveQuery.builder().interchangeControlNumber("4712").build()).results())
+                    .extracting(ArchivedInterchange::getFileName).containsExactly("invoice.edi");
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void opensSearchResultsFromThePartitionTheyWereArchivedIn() throws Exception {
+        ArchiveIndex index = open();
+        PackedArchiveStore store = new PackedArchiveStore(properties, monitor, cluster);
+        try {
+            // A compressed file goes under its first entry's sender, as the partner was given in the ISA
+            Path bundle = Files.writeString(temp.resolve("bundle.zip"), "zip bytes");
+            long archivedAt = System.currentTimeMillis();
+            store.store(bundle, "acme", archivedAt).join();
+            index.add(interchange("acme", "000000001", "850"), "bundle.zip", "acme", archivedAt);
+            index.add(interchange("OTHER", "000000002", "850"), "bundle.zip", "acme", archivedAt);
+
+            ArchivedInterchange found = index.search(ArchiveQuery.builder().sender("OTHER").build()).results().getFirst();
+            assertThat(found.getSender()).isEqualTo("OTHER");
+            assertThat(found.getPartner()).isEqualTo("acme");
+            try (InputStream in = store.open(found.getArchivedDay(), found.getPartner(), found.getFileName()).orElseThrow()) {
+                assertThat(new String(in.readAllBytes())).isEqualTo("zip bytes");
+            }
+        } finally {
+            store.close();
+            index.close();
+        }
+    }
+
+    private ArchiveIndex open() throws Exception {
+        ArchiveIndex index = new ArchiveIndex(properties, monitor, cluster);
+        index.open();
+        return index;
+    }
+
+    private X12ParseResult interchange(String sender, String controlNumber, String transactionSetCode) {
+        return parser.parse("ISA*00*          *00*          *ZZ*" + String.format("%-15s", sender) + "*ZZ*"
+                + String.format("%-15s", "OURCO") + "*240101*1200*U*00401*" + controlNumber + "*0*P*>~"
+                + "GS*PO*" + sender + "*OURCO*20240101*1200*1*X*004010~"
+                + "ST*" + transactionSetCode + "*0001~BEG*00*SA*1~SE*3*0001~"
+                + "GE*1*1~IEA*1*" + controlNumber + "~");
+    }
+}
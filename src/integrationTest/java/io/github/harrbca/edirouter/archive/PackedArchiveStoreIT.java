@@ -0,0 +1,168 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.ArchiveProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackedArchiveStoreIT {
+
+    @TempDir
+    Path temp;
+
+    private final ArchiveProperties properties = new ArchiveProperties();
+    private final FileMonitorProperties monitor = new FileMonitorProperties();
+    private final ClusterProperties cluster = new ClusterProperties();
+    private final LocalDate today = LocalDate.now();
+    private Path partition;
+
+    @BeforeEach
+    void setUp() {
+        monitor.setBaseDirectory(temp.toString());
+        cluster.setNodeId("node-a");
+        partition = monitor.getArchiveDirectoryPath().resolve(today.toString()).resolve("ACME");
+    }
+
+    @Test
+    void appendsFilesToOnePackAndStreamsEachBack() throws Exception {
+        byte[] large = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(large);
+        PackedArchiveStore store = new PackedArchiveStore(properties, monitor, cluster);
+        try {
+            store.store(file("po.edi", "ISA*first~".getBytes()), "ACME", now()).join();
+            store.store(file("catalog.edi", large), "ACME", now()).join();
+            store.store(file("invoice.edi", "ISA*invoice~".getBytes()), "ACME", now()).join();
+            // The same name again: the latest one is what open returns
+            store.store(file("po.edi", "ISA*second~".getBytes()), "ACME", now()).join();
+
+            assertThat(list(partition)).containsExactly("pack-node-a-000001.gz", "pack-node-a-000001.idx");
+            assertThat(read(store.open(today, "ACME", "catalog.edi"))).isEqualTo(large);
+            assertThat(read(store.open(today, "ACME", "invoice.edi"))).isEqualTo("ISA*invoice~".getBytes());
+            assertThat(read(store.open(today, "ACME", "po.edi"))).isEqualTo("ISA*second~".getBytes());
+            assertThat(store.open(today, "ACME", "missing.edi")).isEmpty();
+            assertThat(store.open(today, "OTHER", "po.edi")).isEmpty();
+            assertThat(temp.resolve("incoming")).isEmptyDirectory();
+        } finally {
+            store.close();
+        }
+
+        // Each file is its own gzip member, so the pack reads as one .gz of everything in it
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(partition.resolve("pack-node-a-000001.gz")))) {
+            assertThat(in.readAllBytes()).hasSize(large.length + "ISA*first~ISA*invoice~ISA*second~".length());
+        }
+    }
+
+    @Test
+    void startsANewPackOnceOneIsFull() throws Exception {
+        properties.setPackMaxBytes(1);
+        PackedArchiveStore store = new PackedArchiveStore(properties, monitor, cluster);
+        try {
+            store.store(file("one.edi", "ISA*1~".getBytes()), "ACME", now()).join();
+            store.store(file("two.edi", "ISA*2~".getBytes()), "ACME", now()).join();
+            store.store(file("three.edi", "ISA*3~".getBytes()), "ACME", now()).join();
+
+            assertThat(list(partition)).filteredOn(name -> name.endsWith(".gz"))
+                    .containsExactly("pack-node-a-000001.gz", "pack-node-a-000002.gz", "pack-node-a-000003.gz");
+            assertThat(read(store.open(today, "ACME", "one.edi"))).isEqualTo("ISA*1~".getBytes());
+            assertThat(read(store.open(today, "ACME", "three.edi"))).isEqualTo("ISA*3~".getBytes());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void cutsOffWhatACrashLeftHalfWrittenWhenReopened() throws Exception {
+        PackedArchiveStore store = new PackedArchiveStore(properties, monitor, cluster);
+        store.store(file("one.edi", "ISA*1~".getBytes()), "ACME", now()).join();
+        store.close();
+        Path pack = partition.resolve("pack-node-a-000001.gz");
+        Path index = partition.resolve("pack-node-a-000001.idx");
+        long packBytes = Files.size(pack);
+        String indexed = Files.readString(index);
+        // A member the index never got to, and an index line torn mid-write
+        Files.write(pack, new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0}, StandardOpenOption.APPEND);
+        Files.writeString(index, "two.edi\t" + packBytes + "\t4", StandardOpenOption.APPEND);
+
+        PackedArchiveStore reopened = new PackedArchiveStore(properties, monitor, cluster);
+        try {
+            assertThat(reopened.open(today, "ACME", "two.edi")).isEmpty();
+            reopened.store(file("two.edi", "ISA*2~".getBytes()), "ACME", now()).join();
+
+            assertThat(Files.readAllLines(index)).hasSize(2);
+            assertThat(Files.readString(index)).startsWith(indexed);
+            assertThat(read(reopened.open(today, "ACME", "one.edi"))).isEqualTo("ISA*1~".getBytes());
+            assertThat(read(reopened.open(today, "ACME", "two.edi"))).isEqualTo("ISA*2~".getBytes());
+        } finally {
+            reopened.close();
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(pack))) {
+            assertThat(new String(in.readAllBytes())).isEqualTo("ISA*1~ISA*2~");
+        }
+    }
+
+    @Test
+    void partitionsByDayAndPartnerAndDropsWholeDays() throws Exception {
+        PackedArchiveStore store = new PackedArchiveStore(properties, monitor, cluster);
+        try {
+            store.store(file("old.edi", "ISA*old~".getBytes()), "ACME", startOf(today.minusDays(3))).join();
+            store.store(file("old.edi", "ISA*other~".getBytes()), "AC ME/2", startOf(today.minusDays(3))).join();
+            store.store(file("recent.edi", "ISA*recent~".getBytes()), "ACME", startOf(today.minusDays(1))).join();
+            store.store(file("today.edi", "ISA*today~".getBytes()), "", now()).join();
+
+            assertThat(read(store.open(today.minusDays(3), "AC ME/2", "old.edi"))).isEqualTo("ISA*other~".getBytes());
+            assertThat(list(monitor.getArchiveDirectoryPath().resolve(today.minusDays(3).toString())))
+                    .containsExactly("ACME", "AC_ME_2");
+            assertThat(read(store.open(today, null, "today.edi"))).isEqualTo("ISA*today~".getBytes());
+
+            // Two partitions on the oldest day
+            assertThat(store.purgeBefore(today.minusDays(1))).isEqualTo(2);
+            assertThat(store.open(today.minusDays(3), "ACME", "old.edi")).isEmpty();
+            assertThat(read(store.open(today.minusDays(1), "ACME", "recent.edi"))).isEqualTo("ISA*recent~".getBytes());
+            assertThat(read(store.open(today, "", "today.edi"))).isEqualTo("ISA*today~".getBytes());
+        } finally {
+            store.close();
+        }
+    }
+
+    private Path file(String name, byte[] content) throws IOException {
+        return Files.write(Files.createDirectories(temp.resolve("incoming")).resolve(name), content);
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static long startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] read(Optional<InputStream> archived) throws IOException {
+        assertThat(archived).isPresent();
+        try (InputStream in = archived.get()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.harrbca.edirouter.cluster;
+
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClaimLeaseManagerIT {
+
+    @TempDir
+    Path temp;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    @BeforeEach
+    void startScheduler() {
+        scheduler.initialize();
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void claimsSameNamedFilesIntoSeparateTargets() throws Exception {
+        ClaimLeaseManager leases = manager("node-a", 30000);
+        Path first = Files.writeString(Files.createDirectories(temp.resolve("incoming/east")).resolve("po.edi"), "east");
+        Path second = Files.writeString(Files.createDirectories(temp.resolve("incoming/west")).resolve("po.edi"), "west");
+
+        Path firstTarget = leases.claimTarget(first);
+        Path secondTarget = leases.claimTarget(second);
+        assertThat(secondTarget).isNotEqualTo(firstTarget);
+
+        assertThat(leases.claim(second, secondTarget)).hasContent("west");
+        assertThat(leases.claim(first, firstTarget)).hasContent("east");
+        assertThat(first).doesNotExist();
+        assertThat(second).doesNotExist();
+    }
+
+    @Test
+    void losingAClaimLeavesNoReservationBehind() throws Exception {
+        ClaimLeaseManager leases = manager("node-a", 30000);
+        Path source = Files.writeString(Files.createDirectories(temp.resolve("incoming")).resolve("po.edi"), "x");
+        Path target = leases.claimTarget(source);
+        // Another node renamed it away first
+        Files.move(source, temp.resolve("elsewhere.edi"));
+
+        assertThatThrownBy(() -> leases.claim(source, target)).isInstanceOf(ClaimLostException.class);
+        assertThat(target).doesNotExist();
+    }
+
+    @Test
+    void dropsOnlyAReservationTheFileNeverReached() throws Exception {
+        ClaimLeaseManager leases = manager("node-a", 30000);
+        Path source = Files.writeString(Files.createDirectories(temp.resolve("incoming")).resolve("po.edi"), "x");
+
+        // Crash between reserving and renaming: the file is still in the inbound root
+        Path reserved = leases.claimTarget(source);
+        assertThat(leases.dropReservation(source, reserved)).isTrue();
+        assertThat(reserved).doesNotExist();
+
+        Path claimed = leases.claim(source, leases.claimTarget(source));
+        assertThat(leases.dropReservation(source, claimed)).isFalse();
+        assertThat(claimed).hasContent("x");
+    }
+
+    @Test
+    void reclaimsTheFilesOfANodeWhoseLeaseExpired() throws Exception {
+        Path deadArea = Files.createDirectories(temp.resolve("processing/node-b"));
+        Path heartbeat = Files.createFile(deadArea.resolve(".heartbeat"));
+        Files.setLastModifiedTime(heartbeat, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        Files.writeString(deadArea.resolve("po.edi"), "claimed by b");
+
+        ClaimLeaseManager leases = manager("node-a", 1000);
+        CompletableFuture<List<ClaimLeaseManager.ReclaimedFile>> reclaimed = new CompletableFuture<>();
+        leases.start((node, files) -> reclaimed.complete(files), lost -> { });
+        try {
+            List<ClaimLeaseManager.ReclaimedFile> files = reclaimed.get(10, TimeUnit.SECONDS);
+
+            assertThat(files).singleElement().satisfies(file -> {
+                assertThat(file.claimedAs()).isEqualTo(deadArea.resolve("po.edi"));
+                assertThat(file.file()).hasParent(leases.getClaimDirectory()).hasContent("claimed by b");
+            });
+            assertThat(deadArea).doesNotExist();
+        } finally {
+            leases.stop();
+        }
+    }
+
+    @Test
+    void noticesItsClaimAreaWasTakenOverAndStartsANewOne() throws Exception {
+        ClaimLeaseManager leases = manager("node-a", 30000);
+        CompletableFuture<ClaimLostException> lost = new CompletableFuture<>();
+        leases.start((node, files) -> { }, lost::complete);
+        try {
+            Path source = Files.writeString(Files.createDirectories(temp.resolve("incoming")).resolve("po.edi"), "x");
+            leases.claim(source, leases.claimTarget(source));
+            // Another node took this one for dead and renamed its area away
+            Files.move(leases.getClaimDirectory(), temp.resolve("processing/.reaping-node-a-node-b"));
+
+            assertThat(lost.get(10, TimeUnit.SECONDS)).hasMessageContaining("node-a");
+            for (int i = 0; i < 100 && !Files.exists(leases.getClaimDirectory().resolve(".heartbeat")); i++) {
+                Thread.sleep(50);
+            }
+            assertThat(leases.getClaimDirectory().resolve(".heartbeat")).exists();
+
+            Path next = Files.writeString(temp.resolve("incoming/next.edi"), "y");
+            assertThat(leases.claim(next, leases.claimTarget(next))).hasParent(leases.getClaimDirectory());
+        } finally {
+            leases.stop();
+        }
+    }
+
+    @Test
+    void refusesToClaimWhileItsClaimAreaIsGone() throws Exception {
+        ClaimLeaseManager leases = manager("node-a", 30000);
+        Files.move(leases.getClaimDirectory(), temp.resolve("processing/.reaping-node-a-node-b"));
+        Path source = Files.writeString(Files.createDirectories(temp.resolve("incoming")).resolve("po.edi"), "x");
+
+        assertThatThrownBy(() -> leases.claimTarget(source)).isInstanceOf(ClaimLostException.class);
+        assertThat(source).exists();
+    }
+
+    // Claim area in place as start() leaves it, without the heartbeat running
+    private ClaimLeaseManager manager(String nodeId, long leaseTimeoutMs) throws Exception {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId(nodeId);
+        cluster.setHeartbeatIntervalMs(100);
+        cluster.setLeaseTimeoutMs(leaseTimeoutMs);
+        ClaimLeaseManager leases = new ClaimLeaseManager(cluster, monitor, scheduler);
+        Files.createDirectories(leases.getClaimDirectory());
+        return leases;
+    }
+}
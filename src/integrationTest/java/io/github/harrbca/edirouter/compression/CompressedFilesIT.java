@@ -0,0 +1,146 @@
+package io.github.harrbca.edirouter.compression;
+
+import io.github.harrbca.edirouter.processing.EnclosedFile;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressedFilesIT {
+
+    @TempDir
+    Path temp;
+
+    private final X12EnvelopeService parser = new X12EnvelopeService();
+
+    @Test
+    void parsesEveryEntryOfAZipInOnePassInFileOrder() throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        content.put("po-1.edi", interchange("000000001"));
+        content.put("dir/", null);
+        content.put("dir/po-2.edi", interchange("000000002"));
+        content.put("__MACOSX/dir/._po-2.edi", "resource fork");
+        content.put("dir/.DS_Store", "finder");
+        content.put("po-3.edi", interchange("000000003"));
+        Path zip = zip("batch.zip", content);
+
+        List<String> parsed = new ArrayList<>();
+        List<EnclosedFile> entries = CompressedFiles.readEntries(zip, Compression.ZIP, in -> {
+            X12ParseResult result = parser.parseStreaming(in);
+            parsed.add(result.getIsa().getInterchangeControlNumber());
+            return result;
+        });
+
+        assertThat(parsed).containsExactly("000000001", "000000002", "000000003");
+        assertThat(entries).extracting(EnclosedFile::getEntryName).containsExactly("po-1.edi", "dir/po-2.edi", "po-3.edi");
+        assertThat(entries).extracting(EnclosedFile::getName).containsExactly("po-1.edi", "po-2.edi", "po-3.edi");
+        assertThat(entries).extracting(EnclosedFile::getSize)
+                .containsExactly((long) interchange("000000001").length(), (long) interchange("000000002").length(),
+                        (long) interchange("000000003").length());
+    }
+
+    @Test
+    void streamsBackTheBytesThatWereParsed() throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        content.put("small.edi", interchange("000000001"));
+        // Larger than any read buffer, so the parser stops well before the end and the rest is drained
+        content.put("large.edi", interchange("000000002") + "\n".repeat(300_000));
+        Path zip = zip("batch.zip", content);
+
+        List<EnclosedFile> entries = CompressedFiles.readEntries(zip, Compression.ZIP, parser::parseStreaming);
+
+        for (EnclosedFile entry : entries) {
+            try (InputStream in = entry.getSource().open()) {
+                byte[] bytes = in.readAllBytes();
+                assertThat(new String(bytes, StandardCharsets.US_ASCII)).isEqualTo(content.get(entry.getEntryName()));
+                assertThat(entry.getSource().size()).isEqualTo(bytes.length);
+            }
+        }
+    }
+
+    @Test
+    void namesAGzipEntryAfterTheFileWithoutItsSuffix() throws Exception {
+        for (String name : List.of("PO_123.edi.gz", "PO_123.edi.GZIP")) {
+            Path gzip = temp.resolve(name);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                out.write(interchange("000000001").getBytes(StandardCharsets.US_ASCII));
+            }
+
+            List<EnclosedFile> entries = CompressedFiles.readEntries(gzip, Compression.GZIP, parser::parseStreaming);
+
+            assertThat(entries).singleElement().satisfies(entry -> {
+                assertThat(entry.getName()).isEqualTo("PO_123.edi");
+                assertThat(entry.getParseResult().getIsa().getInterchangeControlNumber()).isEqualTo("000000001");
+                try (InputStream in = entry.getSource().open()) {
+                    assertThat(new String(in.readAllBytes(), StandardCharsets.US_ASCII)).isEqualTo(interchange("000000001"));
+                }
+            });
+        }
+    }
+
+    @Test
+    void rejectsAZipCutOffAfterItsEntries() throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        content.put("po-1.edi", interchange("000000001"));
+        content.put("po-2.edi", interchange("000000002"));
+        Path zip = zip("batch.zip", content);
+        // Every entry is still readable front to back; only the central directory at the end is missing
+        byte[] bytes = Files.readAllBytes(zip);
+        Files.write(zip, Arrays.copyOf(bytes, bytes.length - 30));
+
+        assertThatThrownBy(() -> CompressedFiles.readEntries(zip, Compression.ZIP, parser::parseStreaming))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Corrupt or truncated ZIP file batch.zip");
+    }
+
+    @Test
+    void rejectsAZipCutOffInTheMiddleOfAnEntry() throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        content.put("po-1.edi", interchange("000000001"));
+        content.put("po-2.edi", interchange("000000002") + "\n".repeat(100_000));
+        Path zip = zip("batch.zip", content);
+        byte[] bytes = Files.readAllBytes(zip);
+        Files.write(zip, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThatThrownBy(() -> CompressedFiles.readEntries(zip, Compression.ZIP, parser::parseStreaming))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Corrupt or truncated ZIP file batch.zip");
+    }
+
+    // A null value adds a directory entry
+    private Path zip(String name, Map<String, String> entries) throws IOException {
+        Path file = temp.resolve(name);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null) out.write(entry.getValue().getBytes(StandardCharsets.US_ASCII));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static String interchange(String controlNumber) {
+        return "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *240101*1200*U*00401*"
+                + controlNumber + "*0*P*>~GS*PO*SENDER*RECEIVER*20240101*1200*1*X*004010~"
+                + "ST*850*0001~BEG*00*SA*1~SE*3*0001~GE*1*1~IEA*1*" + controlNumber + "~";
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.harrbca.edirouter.dedupe;
+
+import io.github.harrbca.edirouter.cluster.ClaimLeaseManager;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.DuplicateProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DuplicateDetectorIT {
+
+    @TempDir
+    Path temp;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final DuplicateProperties properties = new DuplicateProperties();
+
+    @BeforeEach
+    void setUp() {
+        scheduler.initialize();
+        properties.setExpectedPerBucket(1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void tellsResendsFromReusedControlNumbers() throws Exception {
+        DuplicateDetector detector = open();
+        try {
+            detector.record(interchange("000000001", "hash-a"), "first", "first.edi");
+
+            assertThat(detector.check(interchange("000000001", "hash-a"), "probe", "probe.edi"))
+                    .satisfies(check -> {
+                        assertThat(check.kind()).isEqualTo(DuplicateCheck.Kind.DUPLICATE);
+                        assertThat(check.firstFileName()).isEqualTo("first.edi");
+                    });
+            assertThat(detector.check(interchange("000000001", "hash-b"), "probe", "probe.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.CONTROL_NUMBER_REUSED);
+            assertThat(detector.check(interchange("000000002", "hash-a"), "probe", "probe.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.NEW);
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    void catchesASecondCopyWhileTheFirstIsStillInFlight() throws Exception {
+        DuplicateDetector detector = open();
+        try {
+            assertThat(detector.check(interchange("000000001", "hash-a"), "first", "first.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.NEW);
+            // Checking again for the same file, e.g. a retry, still finds it new
+            assertThat(detector.check(interchange("000000001", "hash-a"), "first", "first.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.NEW);
+            assertThat(detector.check(interchange("000000001", "hash-a"), "second", "second.edi"))
+                    .satisfies(check -> {
+                        assertThat(check.kind()).isEqualTo(DuplicateCheck.Kind.DUPLICATE);
+                        assertThat(check.firstFileName()).isEqualTo("first.edi");
+                    });
+            assertThat(detector.check(interchange("000000001", "hash-b"), "third", "third.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.CONTROL_NUMBER_REUSED);
+
+            // Once the first file fails, a copy may take its place
+            detector.release(interchange("000000001", "hash-a"), "first");
+            assertThat(detector.check(interchange("000000001", "hash-a"), "second", "second.edi").kind())
+                    .isEqualTo(DuplicateCheck.Kind.NEW);
+            detector.record(interchange("000000001", "hash-a"), "second", "second.edi");
+            assertThat(detector.getReservedCount()).isZero();
+            assertThat(detector.check(interchange("000000001", "hash-a"), "first", "first.edi").firstFileName())
+                    .isEqualTo("second.edi");
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    void rebuildsAFilterSavedBeforeTheLastRecords() throws Exception {
+        DuplicateDetector detector = open();
+        detector.record(interchange("000000001", "hash-a"), "first", "first.edi");
+        detector.close();
+
+        // A crash after a record reached the map but before the filters were saved again
+        try (MVStore store = new MVStore.Builder().fileName(storeFile().toString()).open()) {
+            String bucket = store.getMapNames().stream().filter(name -> name.startsWith("seen-")).findFirst().orElseThrow();
+            store.<String, String>openMap(bucket).put("SENDER\tRECEIVER\t000000002", "hash-b\t0\tsecond.edi");
+            store.commit();
+        }
+
+        DuplicateDetector reopened = open();
+        try {
+            assertThat(reopened.check(interchange("000000001", "hash-a"), "probe", "probe.edi").kind()).isEqualTo(DuplicateCheck.Kind.DUPLICATE);
+            assertThat(reopened.check(interchange("000000002", "hash-b"), "probe", "probe.edi"))
+                    .satisfies(check -> {
+                        assertThat(check.kind()).isEqualTo(DuplicateCheck.Kind.DUPLICATE);
+                        assertThat(check.firstFileName()).isEqualTo("second.edi");
+                    });
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void rebuildsAFilterSavedWithADifferentSize() throws Exception {
+        DuplicateDetector detector = open();
+        detector.record(interchange("000000001", "hash-a"), "first", "first.edi");
+        detector.close();
+
+        properties.setExpectedPerBucket(5000);
+        DuplicateDetector reopened = open();
+        try {
+            assertThat(reopened.check(interchange("000000001", "hash-a"), "probe", "probe.edi").kind()).isEqualTo(DuplicateCheck.Kind.DUPLICATE);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void writesOnlyFiltersThatChangedSinceTheyWereSaved() throws Exception {
+        DuplicateDetector detector = open();
+        detector.record(interchange("000000001", "hash-a"), "first", "first.edi");
+        detector.close();
+        long version = storeVersion();
+
+        // Nothing recorded: closing saves nothing
+        open().close();
+        assertThat(storeVersion()).isEqualTo(version);
+
+        DuplicateDetector changed = open();
+        changed.record(interchange("000000002", "hash-b"), "second", "second.edi");
+        changed.close();
+        assertThat(storeVersion()).isGreaterThan(version);
+    }
+
+    private long storeVersion() {
+        try (MVStore store = new MVStore.Builder().fileName(storeFile().toString()).readOnly().open()) {
+            return store.getCurrentVersion();
+        }
+    }
+
+    @Test
+    void refusesToStartWhileAnotherNodeIsLive() throws Exception {
+        Path other = Files.createDirectories(temp.resolve("processing/node-b"));
+        Files.createFile(other.resolve(".heartbeat"));
+
+        assertThatThrownBy(this::open).isInstanceOf(IllegalStateException.class).hasMessageContaining("node-b");
+
+        // A node whose lease ran out long ago is no longer in the way
+        Files.setLastModifiedTime(other.resolve(".heartbeat"), FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+        Files.setLastModifiedTime(other, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+        open().close();
+    }
+
+    private DuplicateDetector open() throws Exception {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId("node-a");
+        DuplicateDetector detector = new DuplicateDetector(properties, monitor, cluster,
+                new ClaimLeaseManager(cluster, monitor, scheduler), scheduler);
+        detector.open();
+        return detector;
+    }
+
+    private Path storeFile() {
+        return temp.resolve("dedupe/node-a.mv.db");
+    }
+
+    private static X12ParseResult interchange(String controlNumber, String contentHash) {
+        return X12ParseResult.builder()
+                .isa(ISA.builder()
+                        .interchangeSenderId("SENDER         ")
+                        .interchangeReceiverId("RECEIVER       ")
+                        .interchangeControlNumber(controlNumber)
+                        .build())
+                .contentHash(contentHash)
+                .build();
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+import io.github.harrbca.edirouter.config.ErrorQueueProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.processing.FileWorkItem;
+import io.github.harrbca.edirouter.service.FileMover;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ErrorQueueManagerIT {
+
+    @TempDir
+    Path temp;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final ErrorQueueProperties properties = new ErrorQueueProperties();
+    private Path incoming;
+    private Path retryDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        scheduler.initialize();
+        properties.setJitter(0);
+        incoming = Files.createDirectories(temp.resolve("incoming"));
+        retryDirectory = temp.resolve("errors/retry");
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void parksTwoFailedFilesWithTheSameNameSeparately() throws Exception {
+        ErrorQueueManager queue = start();
+        FileWorkItem first = claimed("PO.edi", "first");
+        FileWorkItem second = claimed("PO.edi", "second");
+
+        assertThat(queue.park(first, new IOException("connection reset")).join()).isTrue();
+        assertThat(queue.park(second, new IOException("connection reset")).join()).isTrue();
+
+        List<RetryState> pending = queue.getPending();
+        assertThat(pending).extracting(RetryState::fileName).containsExactly("PO.edi", "PO.edi");
+        assertThat(pending).extracting(RetryState::attempts).containsExactly(1, 1);
+        assertThat(pending).extracting(state -> Files.readString(retryDirectory.resolve(state.id())))
+                .containsExactlyInAnyOrder("first", "second");
+    }
+
+    @Test
+    void retryRemembersTheDestinationsAlreadyDeliveredTo() throws Exception {
+        properties.setInitialDelayMs(100);
+        ErrorQueueManager queue = start();
+        FileWorkItem item = claimed("PO.edi", "content");
+        item.getDelivered().add("good");
+
+        assertThat(queue.park(item, new DeliveryException("Delivery failed - bad: refused")).join()).isTrue();
+
+        // The returned file is picked up as a new work item
+        FileWorkItem retry = reclaim(item.getSourceFile());
+        assertThat(queue.delivered(retry)).containsExactly("good");
+
+        retry.getDelivered().add("other");
+        assertThat(queue.park(retry, new DeliveryException("Delivery failed - bad: refused")).join()).isTrue();
+        assertThat(queue.getPending()).singleElement().satisfies(state -> {
+            assertThat(state.id()).isEqualTo(item.getId());
+            assertThat(state.attempts()).isEqualTo(2);
+            assertThat(state.delivered()).containsExactlyInAnyOrder("good", "other");
+        });
+
+        queue.succeeded(reclaim(item.getSourceFile()));
+        assertThat(retryDirectory.resolve(item.getId() + ".retry")).doesNotExist();
+    }
+
+    @Test
+    void doesNotParkPermanentFailures() throws Exception {
+        ErrorQueueManager queue = start();
+
+        assertThat(queue.park(claimed("PO.edi", "x"), new IllegalArgumentException("Unknown destination")).join()).isFalse();
+        assertThat(queue.getPending()).isEmpty();
+    }
+
+    private ErrorQueueManager start() throws IOException {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        ErrorQueueManager queue = new ErrorQueueManager(properties, new FailureClassifier(),
+                new FileMover(monitor, scheduler), scheduler, monitor);
+        queue.start();
+        return queue;
+    }
+
+    // A work item for incoming/<name> as the pipeline has it after claiming the file into the processing area
+    private FileWorkItem claimed(String name, String content) throws IOException {
+        FileWorkItem item = new FileWorkItem(incoming.resolve(name), "default", null);
+        Path claimed = Files.createTempFile(Files.createDirectories(temp.resolve("processing")), "claim", ".edi");
+        item.setCurrentFile(Files.writeString(claimed, content));
+        return item;
+    }
+
+    // Waits for the queue to return a parked file to the inbound root and claims it again
+    private FileWorkItem reclaim(Path sourceFile) throws Exception {
+        for (int i = 0; i < 100 && !Files.exists(sourceFile); i++) {
+            Thread.sleep(50);
+        }
+        assertThat(sourceFile).exists();
+        FileWorkItem item = new FileWorkItem(sourceFile, "default", null);
+        Path claimed = Files.createTempFile(temp.resolve("processing"), "claim", ".edi");
+        item.setCurrentFile(Files.move(sourceFile, claimed, StandardCopyOption.REPLACE_EXISTING));
+        return item;
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.harrbca.edirouter.journal;
+
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.JournalProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class StateJournalIT {
+
+    @TempDir
+    Path temp;
+
+    private final JournalProperties properties = new JournalProperties();
+
+    @Test
+    void resumesUnfinishedFilesAndIgnoresATornTail() throws Exception {
+        StateJournal journal = open("node-a");
+        CompletableFuture.allOf(
+                journal.append(entry("claimed", FileState.CLAIMED)),
+                journal.append(entry("delivered", FileState.ROUTED)),
+                journal.append(entry("delivered", FileState.DELIVERED)),
+                journal.append(entry("archived", FileState.CLAIMED)),
+                journal.append(entry("archived", FileState.ARCHIVED)),
+                journal.append(entry("received", FileState.RECEIVED))).join();
+        journal.close();
+
+        // A crash in the middle of a write leaves half a record at the end of the segment
+        Path segment = onlySegment("node-a");
+        String torn = entry("torn", FileState.CLAIMED).encode();
+        Files.writeString(segment, torn.substring(0, torn.length() / 2), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        StateJournal reopened = open("node-a");
+        try {
+            assertThat(reopened.getRecovered())
+                    .extracting(JournalEntry::getId, JournalEntry::getState)
+                    .containsExactlyInAnyOrder(
+                            tuple("claimed", FileState.CLAIMED),
+                            tuple("delivered", FileState.DELIVERED));
+            assertThat(reopened.getRecovered().getFirst().getCurrentFile()).isEqualTo(temp.resolve("processing/claimed.edi"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void compactsToTheUnfinishedEntries() throws Exception {
+        properties.setCompactAfterBytes(1024);
+        StateJournal journal = open("node-a");
+        for (int i = 0; i < 50; i++) {
+            journal.append(entry("file-" + i, FileState.CLAIMED)).join();
+            if (i % 10 != 0) journal.append(entry("file-" + i, FileState.ARCHIVED)).join();
+        }
+        journal.close();
+
+        assertThat(onlySegment("node-a")).isNotNull();
+        StateJournal reopened = open("node-a");
+        try {
+            assertThat(reopened.getRecovered())
+                    .extracting(JournalEntry::getId)
+                    .containsExactlyInAnyOrderElementsOf(IntStream.range(0, 5).mapToObj(i -> "file-" + i * 10).toList());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void readsAnotherNodesUnfinishedFiles() throws Exception {
+        StateJournal dead = open("node-b");
+        dead.append(entry("taken-over", FileState.PARSED)).join();
+        dead.close();
+
+        StateJournal live = open("node-a");
+        try {
+            assertThat(live.readUnfinished("node-b")).extracting(JournalEntry::getId).containsExactly("taken-over");
+            assertThat(live.readUnfinished("node-c")).isEmpty();
+        } finally {
+            live.close();
+        }
+    }
+
+    private StateJournal open(String nodeId) throws Exception {
+        FileMonitorProperties monitor = new FileMonitorProperties();
+        monitor.setBaseDirectory(temp.toString());
+        ClusterProperties cluster = new ClusterProperties();
+        cluster.setNodeId(nodeId);
+        StateJournal journal = new StateJournal(properties, monitor, cluster);
+        journal.open();
+        return journal;
+    }
+
+    private Path onlySegment(String nodeId) throws Exception {
+        try (Stream<Path> files = Files.list(temp.resolve("journal").resolve(nodeId))) {
+            List<Path> segments = files.toList();
+            assertThat(segments).hasSize(1);
+            return segments.getFirst();
+        }
+    }
+
+    private JournalEntry entry(String id, FileState state) {
+        return JournalEntry.builder()
+                .id(id)
+                .state(state)
+                .timestamp(System.currentTimeMillis())
+                .inboundRoot("default")
+                .sourceFile(temp.resolve("incoming/" + id + ".edi"))
+                .currentFile(temp.resolve("processing/" + id + ".edi"))
+                .destinations(List.of("partner-sftp"))
+                .build();
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.harrbca.edirouter.pgp;
+
+import io.github.harrbca.edirouter.config.PgpProperties;
+import io.github.harrbca.edirouter.errorqueue.FailureClassifier;
+import io.github.harrbca.edirouter.errorqueue.FailureKind;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyPacket;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PgpServiceIT {
+
+    private static final String PASSPHRASE = "s3cret";
+
+    @TempDir
+    Path temp;
+
+    private final PgpProperties properties = new PgpProperties();
+    private PgpService pgp;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // The same key pair plays us and the partner, so what we encrypt for the partner we can decrypt again
+        writeKeyRing(temp.resolve("us.skr"), temp.resolve("us.pkr"));
+        properties.setSecretKeyFile(temp.resolve("us.skr").toString());
+        properties.setPassphrase(PASSPHRASE);
+        properties.getPartnerKeys().put("acme", temp.resolve("us.pkr").toString());
+        pgp = new PgpService(new PgpKeyCache(properties), properties);
+    }
+
+    @Test
+    void decryptsWhatItEncrypted() throws Exception {
+        String edi = "ISA*00*...~".repeat(20_000);
+        Path encrypted = encrypt(edi, "po.edi");
+
+        assertThat(PgpService.isEncrypted(encrypted)).isTrue();
+        assertThat(PgpService.isEncrypted(Files.writeString(temp.resolve("plain.edi"), edi))).isFalse();
+        try (InputStream in = pgp.decrypt(encrypted)) {
+            assertThat(new String(in.readAllBytes())).isEqualTo(edi);
+        }
+    }
+
+    @Test
+    void decryptsArmoredMessages() throws Exception {
+        properties.setArmor(true);
+        Path encrypted = encrypt("ISA*00*~", "po.edi");
+
+        assertThat(encrypted.getFileName().toString()).endsWith(".asc");
+        assertThat(PgpService.isEncrypted(encrypted)).isTrue();
+        try (InputStream in = pgp.decrypt(encrypted)) {
+            assertThat(new String(in.readAllBytes())).isEqualTo("ISA*00*~");
+        }
+    }
+
+    @Test
+    void failsTheReadOfATamperedMessageAtItsEnd() throws Exception {
+        // Uncompressed, so the altered block still parses as literal data and only the integrity check notices
+        properties.setCompress(false);
+        Path encrypted = encrypt("ISA*00*...~".repeat(20_000), "po.edi");
+        byte[] bytes = Files.readAllBytes(encrypted);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(encrypted, bytes);
+
+        try (InputStream in = pgp.decrypt(encrypted)) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("integrity check failed");
+        }
+    }
+
+    @Test
+    void rejectsMessagesNotEncryptedToUsForGood() throws Exception {
+        Path encrypted = encrypt("ISA*00*~", "po.edi");
+        // Another keyring that does not hold the key the message was encrypted to
+        writeKeyRing(temp.resolve("other.skr"), temp.resolve("other.pkr"));
+        properties.setSecretKeyFile(temp.resolve("other.skr").toString());
+        PgpService other = new PgpService(new PgpKeyCache(properties), properties);
+
+        assertThatThrownBy(() -> other.decrypt(encrypted))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("not encrypted to any of our keys")
+                .satisfies(error -> assertThat(new FailureClassifier().classify(error)).isEqualTo(FailureKind.PERMANENT));
+    }
+
+    @Test
+    void stopsTheWriterWhenTheReaderClosesThePipeEarly() throws Exception {
+        ChunkPipe pipe = new ChunkPipe(4 * 1024, 1024);
+        CompletableFuture<Throwable> writer = CompletableFuture.supplyAsync(() -> {
+            try (OutputStream sink = pipe.sink()) {
+                for (int i = 0; i < 10_000; i++) {
+                    sink.write(new byte[1024]);
+                }
+                return null;
+            } catch (IOException e) {
+                return e;
+            }
+        });
+
+        InputStream source = pipe.source();
+        assertThat(source.readNBytes(2048)).hasSize(2048);
+        source.close();
+
+        assertThat(writer.get(5, TimeUnit.SECONDS)).isInstanceOf(IOException.class)
+                .hasMessageContaining("Reader closed the pipe");
+    }
+
+    private Path encrypt(String content, String name) throws IOException {
+        Path plain = Files.writeString(temp.resolve(name), content);
+        UploadSource encrypting = pgp.encrypting(UploadSource.of(plain), "acme");
+        Path encrypted = temp.resolve(encrypting.name());
+        try (InputStream in = encrypting.open()) {
+            Files.copy(in, encrypted);
+        }
+        return encrypted;
+    }
+
+    // An RSA primary key for signing with an RSA encryption subkey, the usual shape of a partner's key
+    private static void writeKeyRing(Path secretFile, Path publicFile) throws Exception {
+        RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+        generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), new SecureRandom(), 2048, 80));
+        Date now = new Date();
+        PGPKeyPair primary = new BcPGPKeyPair(PublicKeyPacket.VERSION_4, PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), now);
+        PGPKeyPair subkey = new BcPGPKeyPair(PublicKeyPacket.VERSION_4, PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), now);
+
+        PGPDigestCalculator sha1 = new BcPGPDigestCalculatorProvider().get(HashAlgorithmTags.SHA1);
+        PGPKeyRingGenerator rings = new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION, primary,
+                "EDI Router <edi@example.com>", sha1, null, null,
+                new BcPGPContentSignerBuilder(PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256),
+                new BcPBESecretKeyEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256, sha1).build(PASSPHRASE.toCharArray()));
+        rings.addSubKey(subkey);
+        Files.write(secretFile, rings.generateSecretKeyRing().getEncoded());
+        Files.write(publicFile, rings.generatePublicKeyRing().getEncoded());
+    }
+}
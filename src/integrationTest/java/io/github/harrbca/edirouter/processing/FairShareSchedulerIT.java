@@ -0,0 +1,142 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.config.SchedulingProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// One worker and tasks that only finish when told to, so the order files start in is exactly the scheduler's
+class FairShareSchedulerIT {
+
+    private static final int URGENT = 0;
+    private static final int NORMAL = 1;
+    private static final int BULK = 2;
+
+    private final SchedulingProperties properties = new SchedulingProperties();
+    private final ProcessingExecutor executor = new ProcessingExecutor("test", ProcessingProperties.Mode.PLATFORM, 1, 0);
+    private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+    private final Map<String, CompletableFuture<Void>> running = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void aHeavySenderDoesNotStarveALightOne() throws Exception {
+        FairShareScheduler scheduler = scheduler(100, false);
+        holdTheWorker(scheduler);
+        for (int i = 1; i <= 20; i++) {
+            offer(scheduler, NORMAL, "BIG", "big-" + i, 100);
+        }
+        for (int i = 1; i <= 3; i++) {
+            offer(scheduler, NORMAL, "SMALL", "small-" + i, 100);
+        }
+
+        // Taking turns, although the heavy sender's files all arrived first
+        assertThat(runAll(7)).containsExactly("big-1", "small-1", "big-2", "small-2", "big-3", "small-3", "big-4");
+    }
+
+    @Test
+    void sharesWorkersInProportionToSenderWeight() throws Exception {
+        properties.getSenderWeights().put("GOLD", 2);
+        FairShareScheduler scheduler = scheduler(100, false);
+        holdTheWorker(scheduler);
+        for (int i = 1; i <= 6; i++) {
+            offer(scheduler, NORMAL, "BIG", "big-" + i, 100);
+        }
+        for (int i = 1; i <= 6; i++) {
+            offer(scheduler, NORMAL, "GOLD", "gold-" + i, 100);
+        }
+
+        assertThat(runAll(9)).filteredOn(name -> name.startsWith("gold")).hasSize(6);
+    }
+
+    @Test
+    void servesPriorityClassesStrictlyInOrder() throws Exception {
+        FairShareScheduler scheduler = scheduler(100, false);
+        holdTheWorker(scheduler);
+        offer(scheduler, BULK, "ACME", "catalog", 100);
+        offer(scheduler, NORMAL, "ACME", "order", 100);
+        offer(scheduler, URGENT, "OTHER", "ack", 100);
+        offer(scheduler, NORMAL, "OTHER", "invoice", 100);
+        offer(scheduler, URGENT, "ACME", "ship-notice", 100);
+
+        assertThat(scheduler.getQueuedByClass()).containsExactly(Map.entry("urgent", 2), Map.entry("normal", 2),
+                Map.entry("bulk", 1));
+        assertThat(runAll(5)).containsExactly("ack", "ship-notice", "order", "invoice", "catalog");
+    }
+
+    @Test
+    void servesEachSendersSmallestFileFirstWhenAsked() throws Exception {
+        FairShareScheduler scheduler = scheduler(100, true);
+        holdTheWorker(scheduler);
+        offer(scheduler, NORMAL, "ACME", "large", 50_000_000);
+        offer(scheduler, NORMAL, "ACME", "small", 1_000);
+        offer(scheduler, NORMAL, "ACME", "medium", 100_000);
+
+        assertThat(runAll(3)).containsExactly("small", "medium", "large");
+    }
+
+    @Test
+    void turnsFilesAwayOnceTheLaneIsFull() throws Exception {
+        FairShareScheduler scheduler = scheduler(2, false);
+        holdTheWorker(scheduler);
+        assertThat(offer(scheduler, NORMAL, "ACME", "first", 100)).isTrue();
+        assertThat(offer(scheduler, NORMAL, "ACME", "second", 100)).isTrue();
+
+        assertThat(offer(scheduler, NORMAL, "ACME", "third", 100)).isFalse();
+        assertThat(scheduler.getRejected()).isEqualTo(1);
+        assertThat(scheduler.getQueued()).isEqualTo(2);
+
+        // A finished file frees its place
+        runAll(1);
+        assertThat(offer(scheduler, NORMAL, "ACME", "third", 100)).isTrue();
+    }
+
+    private FairShareScheduler scheduler(int queueCapacity, boolean smallFilesFirst) {
+        return new FairShareScheduler("test", executor, new FileClassifier(properties, null), null, queueCapacity,
+                smallFilesFirst);
+    }
+
+    // Occupies the only worker, so everything offered after it waits in the scheduler
+    private void holdTheWorker(FairShareScheduler scheduler) throws InterruptedException {
+        offer(scheduler, URGENT, "GATE", "gate", 0);
+        assertThat(started.poll(5, TimeUnit.SECONDS)).isEqualTo("gate");
+    }
+
+    private boolean offer(FairShareScheduler scheduler, int priorityClass, String sender, String name, long size) {
+        FileClassifier.Classification classification = new FileClassifier.Classification(priorityClass, sender, size,
+                null, 0, 0);
+        return scheduler.offer(classification, () -> {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            running.put(name, done);
+            started.add(name);
+            return done;
+        });
+    }
+
+    // Finishes whatever holds the worker, then lets count files run one after another
+    private List<String> runAll(int count) throws InterruptedException {
+        List<String> order = new ArrayList<>();
+        String current = running.keySet().iterator().next();
+        for (int i = 0; i < count; i++) {
+            running.remove(current).complete(null);
+            current = started.poll(5, TimeUnit.SECONDS);
+            assertThat(current).as("file %d started", i + 1).isNotNull();
+            order.add(current);
+        }
+        return order;
+    }
+}
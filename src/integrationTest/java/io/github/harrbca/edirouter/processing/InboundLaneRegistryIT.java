@@ -0,0 +1,167 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.config.SchedulingProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InboundLaneRegistryIT {
+
+    @TempDir
+    Path temp;
+
+    private final FileMonitorProperties monitor = new FileMonitorProperties();
+    private final ProcessingProperties processing = new ProcessingProperties();
+    private final SchedulingProperties scheduling = new SchedulingProperties();
+    private final BlockingQueue<CompletableFuture<Void>> running = new LinkedBlockingQueue<>();
+    private InboundLaneRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        monitor.setBaseDirectory(temp.toString());
+        processing.setMaxConcurrency(3);
+        processing.setQueueCapacity(7);
+    }
+
+    @AfterEach
+    void tearDown() {
+        running.forEach(done -> done.complete(null));
+        if (registry != null) registry.shutdown();
+    }
+
+    @Test
+    void givesEachRootItsOwnLimitsFallingBackToTheGlobalOnes() {
+        FileMonitorProperties.InboundRoot van = root("van", "van", 1, 2);
+        van.setStabilityQuietPeriodMs(5000L);
+        van.setStabilityLockProbe(true);
+        van.setDefaultRoute("van-default");
+        FileMonitorProperties.InboundRoot erp = root("erp", temp.resolve("exports").toString(), 0, -1);
+        monitor.setRoots(List.of(van, erp));
+        registry = registry();
+
+        InboundLane vanLane = registry.laneFor(temp.resolve("van"));
+        assertThat(vanLane.getName()).isEqualTo("van");
+        assertThat(vanLane.getExecutor().getMaxConcurrency()).isEqualTo(1);
+        assertThat(vanLane.getScheduler().getQueueCapacity()).isEqualTo(2);
+        assertThat(vanLane.getStabilityQuietPeriodMs()).isEqualTo(5000);
+        assertThat(vanLane.isStabilityLockProbe()).isTrue();
+        assertThat(vanLane.getDefaultRoute()).isEqualTo("van-default");
+
+        InboundLane erpLane = registry.laneFor(temp.resolve("exports"));
+        assertThat(erpLane.getExecutor().getMaxConcurrency()).isEqualTo(3);
+        assertThat(erpLane.getScheduler().getQueueCapacity()).isEqualTo(7);
+        assertThat(erpLane.getStabilityQuietPeriodMs()).isEqualTo(monitor.getStabilityQuietPeriodMs());
+        assertThat(erpLane.getDefaultRoute()).isNull();
+
+        assertThat(registry.laneFor(temp.resolve("elsewhere"))).isNull();
+    }
+
+    @Test
+    void fallsBackToTheIncomingDirectoryWhenNoRootsAreConfigured() {
+        registry = registry();
+
+        assertThat(registry.getLanes()).singleElement().satisfies(lane -> {
+            assertThat(lane.getName()).isEqualTo("default");
+            assertThat(lane.getDirectory()).isEqualTo(temp.resolve("incoming"));
+        });
+    }
+
+    @Test
+    void refusesRootsThatClash() {
+        monitor.setRoots(List.of(root("van", "van", 1, 1), root("van", "other", 1, 1)));
+        assertThatThrownBy(this::registry).isInstanceOf(IllegalStateException.class);
+
+        monitor.setRoots(List.of(root("van", "van", 1, 1), root("sftp", temp.resolve("van").toString(), 1, 1)));
+        assertThatThrownBy(this::registry).isInstanceOf(IllegalStateException.class);
+
+        monitor.setRoots(List.of(root("van", null, 1, 1)));
+        assertThatThrownBy(this::registry).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void aFloodInOneRootDoesNotHoldUpAnother() throws Exception {
+        monitor.setRoots(List.of(root("van", "van", 1, 1), root("erp", "erp", 1, 1)));
+        registry = registry();
+        FairShareScheduler van = registry.laneFor(temp.resolve("van")).getScheduler();
+        FairShareScheduler erp = registry.laneFor(temp.resolve("erp")).getScheduler();
+
+        assertThat(van.offer(file(), this::held)).isTrue();
+        assertThat(van.offer(file(), this::held)).isTrue();
+        assertThat(van.offer(file(), this::held)).isFalse();
+        nextStarted();
+
+        assertThat(erp.offer(file(), this::held)).isTrue();
+        nextStarted();
+        assertThat(erp.getRejected()).isZero();
+        assertThat(van.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    void theBacklogDrainWaitsForRoomInsteadOfBeingTurnedAway() throws Exception {
+        monitor.setRoots(List.of(root("van", "van", 1, 0)));
+        registry = registry();
+        FairShareScheduler van = registry.getLanes().getFirst().getScheduler();
+        assertThat(van.offer(file(), this::held)).isTrue();
+        CompletableFuture<Void> first = nextStarted();
+
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread.ofVirtual().start(() -> {
+            try {
+                van.put(file(), this::held);
+                queued.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(queued.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        first.complete(null);
+        assertThat(queued.await(5, TimeUnit.SECONDS)).isTrue();
+        nextStarted();
+        assertThat(van.getRejected()).isZero();
+    }
+
+    private InboundLaneRegistry registry() {
+        return new InboundLaneRegistry(monitor, processing, scheduling, new FileClassifier(scheduling, null), null);
+    }
+
+    private static FileMonitorProperties.InboundRoot root(String name, String directory, int maxConcurrency,
+                                                          int queueCapacity) {
+        FileMonitorProperties.InboundRoot root = new FileMonitorProperties.InboundRoot();
+        root.setName(name);
+        root.setDirectory(directory);
+        root.setMaxConcurrency(maxConcurrency);
+        root.setQueueCapacity(queueCapacity);
+        return root;
+    }
+
+    private static FileClassifier.Classification file() {
+        return new FileClassifier.Classification(1, "ACME", 100, null, 0, 0);
+    }
+
+    private CompletableFuture<Void> held() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        running.add(done);
+        return done;
+    }
+
+    private CompletableFuture<Void> nextStarted() throws InterruptedException {
+        CompletableFuture<Void> done = running.poll(5, TimeUnit.SECONDS);
+        assertThat(done).as("a file started").isNotNull();
+        return done;
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.harrbca.edirouter.processing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyedSerialExecutorIT {
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    // Started tasks as key:order, and the stages that finish them
+    private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+    private final Map<String, CompletableFuture<Void>> running = new ConcurrentHashMap<>();
+    private KeyedSerialExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        scheduler.initialize();
+        executor = new KeyedSerialExecutor(4, scheduler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void runsOneTaskPerKeyAtATimeLowestOrderFirst() throws Exception {
+        submit("ACME", 5, 0);
+        assertThat(next()).isEqualTo("ACME:5");
+        // Queued behind the running task, in the opposite order
+        submit("ACME", 7, 0);
+        submit("ACME", 6, 0);
+        // Another key is not held up by ACME
+        submit("OTHER", 1, 0);
+        assertThat(next()).isEqualTo("OTHER:1");
+        assertThat(nothingStarts()).isTrue();
+
+        finish("ACME:5");
+        assertThat(next()).isEqualTo("ACME:6");
+        assertThat(nothingStarts()).isTrue();
+        finish("ACME:6");
+        assertThat(next()).isEqualTo("ACME:7");
+        finish("ACME:7");
+        finish("OTHER:1");
+
+        waitUntilIdle();
+        assertThat(executor.getActiveKeys()).isZero();
+        assertThat(executor.getWaiting()).isZero();
+    }
+
+    @Test
+    void holdsATaskThatArrivedEarlyUntilTheOneBeforeItArrives() throws Exception {
+        submit("ACME", 1, 10_000);
+        finish(next());
+
+        submit("ACME", 3, 10_000);
+        assertThat(nothingStarts()).isTrue();
+        assertThat(executor.getWaiting()).isEqualTo(1);
+
+        submit("ACME", 2, 10_000);
+        assertThat(next()).isEqualTo("ACME:2");
+        finish("ACME:2");
+        assertThat(next()).isEqualTo("ACME:3");
+        finish("ACME:3");
+    }
+
+    @Test
+    void goesOnWithoutTheMissingTaskOnceTheGapWaitRunsOut() throws Exception {
+        submit("ACME", 1, 500);
+        finish(next());
+
+        long submitted = System.currentTimeMillis();
+        submit("ACME", 3, 500);
+        assertThat(next()).isEqualTo("ACME:3");
+        assertThat(System.currentTimeMillis() - submitted).isGreaterThanOrEqualTo(450);
+        finish("ACME:3");
+
+        // Arriving after its place was given up, it runs on its own
+        submit("ACME", 2, 500);
+        assertThat(next()).isEqualTo("ACME:2");
+        finish("ACME:2");
+    }
+
+    @Test
+    void followsTheSenderAcrossACounterWrap() throws Exception {
+        submit("ACME", 999_999_999, 10_000);
+        finish(next());
+        submit("ACME", 1, 10_000);
+        finish(next());
+
+        // 1 now counts as the last one run, so 3 waits for 2
+        submit("ACME", 3, 10_000);
+        assertThat(nothingStarts()).isTrue();
+        submit("ACME", 2, 10_000);
+        assertThat(next()).isEqualTo("ACME:2");
+        finish("ACME:2");
+        assertThat(next()).isEqualTo("ACME:3");
+        finish("ACME:3");
+    }
+
+    private void submit(String key, long order, long gapWaitMs) {
+        String name = key + ":" + order;
+        executor.submit(key, order, gapWaitMs, () -> {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            running.put(name, done);
+            started.add(name);
+            return done;
+        }, task -> pool.execute(task::start));
+    }
+
+    private String next() throws InterruptedException {
+        String name = started.poll(5, TimeUnit.SECONDS);
+        assertThat(name).as("a task started").isNotNull();
+        return name;
+    }
+
+    private boolean nothingStarts() throws InterruptedException {
+        return started.poll(200, TimeUnit.MILLISECONDS) == null;
+    }
+
+    private void finish(String name) {
+        running.remove(name).complete(null);
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        for (int i = 0; i < 100 && executor.getActiveKeys() > 0; i++) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.MemoryProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryBudgetIT {
+
+    private final MemoryProperties properties = new MemoryProperties();
+
+    @Test
+    void reservationsNeverAddUpToMoreThanTheBudget() throws Exception {
+        MemoryBudget budget = budget(1000, 10_000);
+        AtomicLong highest = new AtomicLong();
+        List<CompletableFuture<Void>> parses = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 40; i++) {
+                parses.add(CompletableFuture.runAsync(() -> {
+                    try (MemoryBudget.Reservation reservation = budget.reserve(300)) {
+                        assertThat(reservation).isNotNull();
+                        highest.accumulateAndGet(budget.getReservedBytes(), Math::max);
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, pool));
+            }
+            CompletableFuture.allOf(parses.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        }
+
+        assertThat(highest.get()).isBetween(300L, 900L);
+        assertThat(budget.getStats().getPeakReservedBytes()).isLessThanOrEqualTo(1000);
+        assertThat(budget.getStats().getWholeFileParses()).isEqualTo(40);
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    @Test
+    void waitsForBudgetThatIsReleasedInTime() throws Exception {
+        MemoryBudget budget = budget(1000, 5_000);
+        MemoryBudget.Reservation first = budget.reserve(800);
+
+        CompletableFuture<MemoryBudget.Reservation> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.reserve(500);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+
+        first.close();
+        try (MemoryBudget.Reservation reservation = second.get(5, TimeUnit.SECONDS)) {
+            assertThat(reservation).isNotNull();
+            assertThat(budget.getReservedBytes()).isEqualTo(500);
+        }
+    }
+
+    @Test
+    void streamsWhenBudgetDoesNotFreeUpWithinTheWait() throws Exception {
+        MemoryBudget budget = budget(1000, 200);
+        try (MemoryBudget.Reservation held = budget.reserve(800)) {
+            assertThat(held).isNotNull();
+
+            long started = System.nanoTime();
+            assertThat(budget.reserve(300)).isNull();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(150);
+        }
+        // Larger than the whole budget: streamed without waiting at all
+        long started = System.nanoTime();
+        assertThat(budget.reserve(2000)).isNull();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isLessThan(150);
+
+        assertThat(budget.getStats().getStreamedParses()).isEqualTo(2);
+        assertThat(budget.getStats().getWholeFileParses()).isEqualTo(1);
+    }
+
+    @Test
+    void releasesAReservationOnlyOnceHoweverOftenItIsClosed() throws Exception {
+        MemoryBudget budget = budget(1000, 0);
+        MemoryBudget.Reservation first = budget.reserve(400);
+        MemoryBudget.Reservation second = budget.reserve(400);
+
+        first.close();
+        first.close();
+
+        assertThat(budget.getReservedBytes()).isEqualTo(400);
+        assertThat(budget.getStats().getActiveReservations()).isEqualTo(1);
+        // Closing again must not make room for more than the budget
+        assertThat(budget.reserve(700)).isNull();
+        second.close();
+        assertThat(budget.getReservedBytes()).isZero();
+    }
+
+    // One byte of budget per byte of file, to keep the numbers readable
+    private MemoryBudget budget(long budgetBytes, long maxWaitMs) {
+        properties.setParseBudgetBytes(budgetBytes);
+        properties.setBytesPerFileByte(1.0);
+        properties.setMaxWaitMs(maxWaitMs);
+        return new MemoryBudget(properties);
+    }
+}
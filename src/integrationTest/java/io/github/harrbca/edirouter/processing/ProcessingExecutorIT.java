@@ -0,0 +1,147 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcessingExecutorIT {
+
+    private final List<ProcessingExecutor> executors = new ArrayList<>();
+    private final BlockingQueue<CompletableFuture<Void>> running = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void tearDown() {
+        running.forEach(done -> done.complete(null));
+        executors.forEach(ProcessingExecutor::shutdown);
+    }
+
+    @Test
+    void refusesWorkOnceRunningAndWaitingSlotsAreTaken() throws Exception {
+        ProcessingExecutor executor = executor(ProcessingProperties.Mode.PLATFORM, 2, 1);
+        AtomicInteger freed = new AtomicInteger();
+        executor.onSlotFreed(freed::incrementAndGet);
+
+        assertThat(executor.tryExecuteAsync(this::held)).isTrue();
+        assertThat(executor.tryExecuteAsync(this::held)).isTrue();
+        assertThat(executor.tryExecuteAsync(this::held)).isTrue();
+        assertThat(executor.tryExecuteAsync(this::held)).isFalse();
+        assertThat(executor.hasCapacity()).isFalse();
+
+        CompletableFuture<Void> first = nextStarted();
+        nextStarted();
+        ExecutorStats stats = executor.getStats();
+        assertThat(stats.getActiveWorkers()).isEqualTo(2);
+        assertThat(stats.getQueueDepth()).isEqualTo(1);
+        assertThat(stats.getRejected()).isEqualTo(1);
+
+        // The slot is held until the task's stage completes, not until start() returns
+        first.complete(null);
+        nextStarted();
+        waitFor(() -> freed.get() == 1);
+        assertThat(executor.getStats().getQueueDepth()).isZero();
+        assertThat(executor.getStats().getCompleted()).isEqualTo(1);
+        assertThat(executor.hasCapacity()).isTrue();
+    }
+
+    @Test
+    void blockingSubmitWaitsForAFreeSlot() throws Exception {
+        ProcessingExecutor executor = executor(ProcessingProperties.Mode.PLATFORM, 1, 0);
+        executor.executeAsync(this::held);
+        CompletableFuture<Void> first = nextStarted();
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread.ofVirtual().start(() -> {
+            try {
+                executor.execute(() -> {});
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(submitted.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        first.complete(null);
+        assertThat(submitted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.getStats().getRejected()).isZero();
+    }
+
+    @Test
+    void capsRunningTasksOnVirtualThreads() throws Exception {
+        ProcessingExecutor executor = executor(ProcessingProperties.Mode.VIRTUAL, 2, 10);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(12);
+
+        for (int i = 0; i < 12; i++) {
+            assertThat(executor.tryExecute(() -> {
+                highest.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                concurrent.decrementAndGet();
+                finished.countDown();
+            })).isTrue();
+        }
+
+        assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(highest.get()).isEqualTo(2);
+        waitFor(() -> executor.getStats().getCompleted() == 12);
+    }
+
+    @Test
+    void releasesTheSlotOfAFailedTask() throws Exception {
+        ProcessingExecutor executor = executor(ProcessingProperties.Mode.PLATFORM, 1, 0);
+
+        assertThat(executor.tryExecuteAsync(() -> {
+            throw new IllegalStateException("boom");
+        })).isTrue();
+        waitFor(executor::hasCapacity);
+
+        assertThat(executor.tryExecuteAsync(() -> CompletableFuture.failedFuture(new IllegalStateException("late"))))
+                .isTrue();
+        waitFor(executor::hasCapacity);
+        assertThat(executor.getStats().getFailed()).isEqualTo(2);
+        assertThat(executor.getStats().getCompleted()).isZero();
+    }
+
+    private ProcessingExecutor executor(ProcessingProperties.Mode mode, int maxConcurrency, int queueCapacity) {
+        ProcessingExecutor executor = new ProcessingExecutor("test", mode, maxConcurrency, queueCapacity);
+        executors.add(executor);
+        return executor;
+    }
+
+    // A task that keeps its slot until the test completes the stage it returns
+    private CompletableFuture<Void> held() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        running.add(done);
+        return done;
+    }
+
+    private CompletableFuture<Void> nextStarted() throws InterruptedException {
+        CompletableFuture<Void> done = running.poll(5, TimeUnit.SECONDS);
+        assertThat(done).as("a task started").isNotNull();
+        return done;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 250 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryPollerIT {
+
+    @TempDir
+    Path temp;
+
+    private final FileMonitorProperties properties = new FileMonitorProperties();
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final BlockingQueue<Path> reported = new LinkedBlockingQueue<>();
+    private DirectoryPoller poller;
+
+    @BeforeEach
+    void setUp() {
+        scheduler.initialize();
+        poller = new DirectoryPoller(properties, scheduler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        poller.stop();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void reportsOnlyWhatChangedSinceTheLastPass() throws Exception {
+        Path incoming = Files.createDirectories(temp.resolve("incoming"));
+        Path existing = Files.writeString(incoming.resolve("existing.edi"), "ISA*");
+        Path other = Files.writeString(incoming.resolve("other.edi"), "ISA*");
+        Files.createDirectories(incoming.resolve("subdirectory"));
+        poller.start(reported::add, false);
+        poller.register(incoming);
+
+        // Files present at registration are the startup scan's, not the poller's
+        assertThat(rescan(incoming)).isEmpty();
+        assertThat(poller.getTrackedCount()).isEqualTo(2);
+
+        Path added = Files.writeString(incoming.resolve("added.edi"), "ISA*");
+        Files.writeString(existing, "GS*", StandardOpenOption.APPEND);
+        Files.delete(other);
+        assertThat(rescan(incoming)).containsExactlyInAnyOrder(added, existing);
+        assertThat(poller.getTrackedCount()).isEqualTo(2);
+
+        assertThat(rescan(incoming)).isEmpty();
+    }
+
+    @Test
+    void reportsAFileReplacedUnderTheSameName() throws Exception {
+        Path incoming = Files.createDirectories(temp.resolve("incoming"));
+        Path file = Files.writeString(incoming.resolve("po.edi"), "ISA*1");
+        poller.start(reported::add, false);
+        poller.register(incoming);
+
+        // Same name and size, a different file underneath
+        Path replacement = Files.writeString(temp.resolve("po.edi"), "ISA*2");
+        Files.setLastModifiedTime(replacement, Files.getLastModifiedTime(file));
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(rescan(incoming)).containsExactly(file);
+    }
+
+    @Test
+    void pollsEveryRegisteredRootOnTheInterval() throws Exception {
+        properties.setPollIntervalMs(50);
+        Path van = Files.createDirectories(temp.resolve("van"));
+        Path erp = Files.createDirectories(temp.resolve("erp"));
+        poller.register(van);
+        poller.register(erp);
+        poller.start(reported::add, true);
+
+        Path fromVan = Files.writeString(van.resolve("po.edi"), "ISA*");
+        Path fromErp = Files.writeString(erp.resolve("po.edi"), "ISA*");
+        List<Path> seen = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Path path = reported.poll(5, TimeUnit.SECONDS);
+            assertThat(path).as("change %d reported", i + 1).isNotNull();
+            seen.add(path);
+        }
+
+        assertThat(seen).containsExactlyInAnyOrder(fromVan, fromErp);
+        assertThat(reported.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void ignoresRescansOfDirectoriesItWasNeverGiven() throws Exception {
+        Path incoming = Files.createDirectories(temp.resolve("incoming"));
+        Files.writeString(incoming.resolve("po.edi"), "ISA*");
+        poller.start(reported::add, false);
+
+        assertThat(rescan(incoming)).isEmpty();
+        assertThat(poller.getTrackedCount()).isZero();
+    }
+
+    // Rescans run on the scheduler; a second one queued behind it marks when the first has finished
+    private List<Path> rescan(Path directory) throws InterruptedException {
+        poller.rescan(directory);
+        BlockingQueue<Boolean> done = new LinkedBlockingQueue<>();
+        scheduler.execute(() -> done.add(true));
+        assertThat(done.poll(5, TimeUnit.SECONDS)).isTrue();
+        List<Path> changes = new ArrayList<>();
+        reported.drainTo(changes);
+        return changes;
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileStabilityDetectorIT {
+
+    @TempDir
+    Path temp;
+
+    private final FileMonitorProperties properties = new FileMonitorProperties();
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final BlockingQueue<Path> promoted = new LinkedBlockingQueue<>();
+    // Directories whose consumer refuses files, as a saturated root would
+    private final Set<Path> saturated = ConcurrentHashMap.newKeySet();
+    private FileStabilityDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        properties.setStabilityCheckIntervalMs(20);
+        properties.setStabilityQuietPeriodMs(300);
+        scheduler.initialize();
+        detector = new FileStabilityDetector(properties, scheduler);
+        detector.start(path -> {
+            if (saturated.contains(path.getParent())) return false;
+            promoted.add(path);
+            return true;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        detector.stop();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void promotesAFileOnceItHasStoppedGrowing() throws Exception {
+        Path file = Files.writeString(temp.resolve("po.edi"), "ISA*");
+        // CREATE and the MODIFY events that follow collapse into one pending entry
+        detector.track(file);
+        detector.track(file);
+        detector.track(file);
+        assertThat(detector.getPendingCount()).isEqualTo(1);
+
+        long lastWrite = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            Files.writeString(file, "GS*", StandardOpenOption.APPEND);
+            lastWrite = System.currentTimeMillis();
+            assertThat(promoted).isEmpty();
+        }
+
+        assertThat(promoted.poll(5, TimeUnit.SECONDS)).isEqualTo(file);
+        assertThat(System.currentTimeMillis() - lastWrite).isGreaterThanOrEqualTo(250);
+        assertThat(promoted.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(detector.getPendingCount()).isZero();
+    }
+
+    @Test
+    void promotesEarlyWhenTheWriterHasLetGoOfTheFile() throws Exception {
+        Path file = Files.writeString(temp.resolve("po.edi"), "ISA*");
+        long tracked = System.currentTimeMillis();
+        detector.track(file, 60_000, true);
+
+        assertThat(promoted.poll(5, TimeUnit.SECONDS)).isEqualTo(file);
+        assertThat(System.currentTimeMillis() - tracked).isLessThan(60_000);
+    }
+
+    @Test
+    void holdsFilesForASaturatedRootWithoutHoldingUpTheOthers() throws Exception {
+        Path busy = Files.createDirectories(temp.resolve("van"));
+        Path quiet = Files.createDirectories(temp.resolve("erp"));
+        saturated.add(busy);
+        Path held = Files.writeString(busy.resolve("po.edi"), "ISA*");
+        Path other = Files.writeString(quiet.resolve("po.edi"), "ISA*");
+        detector.track(held);
+        detector.track(other);
+
+        assertThat(promoted.poll(5, TimeUnit.SECONDS)).isEqualTo(other);
+        Thread.sleep(200);
+        assertThat(detector.getPendingCount()).isEqualTo(1);
+
+        // Once the root has room again the file goes straight through
+        saturated.clear();
+        assertThat(promoted.poll(5, TimeUnit.SECONDS)).isEqualTo(held);
+        assertThat(detector.getPendingCount()).isZero();
+    }
+
+    @Test
+    void forgetsAFileThatDisappearsBeforeItSettles() throws Exception {
+        Path file = Files.writeString(temp.resolve("po.edi"), "ISA*");
+        detector.track(file);
+        Files.delete(file);
+
+        for (int i = 0; i < 100 && detector.getPendingCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(detector.getPendingCount()).isZero();
+        assertThat(promoted).isEmpty();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.model.fileTransfer.Protocol;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.DataConnectionConfigurationFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// Apache FtpServer on loopback. Passive data connections bypass any LatencyProxy on the control port,
+// so bandwidth limits are applied server-side through the user's TransferRatePermission instead.
+public class EmbeddedFtpServer implements AutoCloseable {
+
+    public static final String USERNAME = "edi";
+    public static final String PASSWORD = "edi";
+
+    private final FtpServer server;
+    private final Listener listener;
+    private final Path root;
+
+    public EmbeddedFtpServer(Path root) throws FtpException {
+        this(root, 0);
+    }
+
+    public EmbeddedFtpServer(Path root, int maxUploadBytesPerSecond) throws FtpException {
+        this.root = root;
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+
+        DataConnectionConfigurationFactory dataConnection = new DataConnectionConfigurationFactory();
+        dataConnection.setPassiveAddress("127.0.0.1");
+        dataConnection.setPassiveExternalAddress("127.0.0.1");
+
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(0);
+        listenerFactory.setDataConnectionConfiguration(dataConnection.createDataConnectionConfiguration());
+        listener = listenerFactory.createListener();
+        serverFactory.addListener("default", listener);
+
+        ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
+        connectionConfig.setMaxLogins(1000);
+        connectionConfig.setMaxThreads(0);
+        serverFactory.setConnectionConfig(connectionConfig.createConnectionConfig());
+
+        BaseUser user = new BaseUser();
+        user.setName(USERNAME);
+        user.setPassword(PASSWORD);
+        user.setHomeDirectory(root.toAbsolutePath().toString());
+        user.setAuthorities(List.<Authority>of(
+                new WritePermission(),
+                new ConcurrentLoginPermission(0, 0),
+                new TransferRatePermission(0, maxUploadBytesPerSecond)));
+
+        UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        userManager.save(user);
+        serverFactory.setUserManager(userManager);
+
+        server = serverFactory.createServer();
+        server.start();
+    }
+
+    public int getPort() {
+        return listener.getPort();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public TransferTarget.TransferTargetBuilder target() {
+        return target(getPort());
+    }
+
+    public TransferTarget.TransferTargetBuilder target(int port) {
+        return TransferTarget.builder()
+                .protocol(Protocol.FTP)
+                .host("127.0.0.1")
+                .port(port)
+                .username(USERNAME)
+                .password(PASSWORD);
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+}
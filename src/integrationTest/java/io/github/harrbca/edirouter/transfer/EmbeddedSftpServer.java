@@ -0,0 +1,62 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.model.fileTransfer.Protocol;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// Apache MINA SSHD on loopback, chrooted to a local directory
+public class EmbeddedSftpServer implements AutoCloseable {
+
+    public static final String USERNAME = "edi";
+    public static final String PASSWORD = "edi";
+
+    private final SshServer server;
+    private final Path root;
+
+    public EmbeddedSftpServer(Path root) throws IOException {
+        this.root = root;
+        this.server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((user, password, session) -> USERNAME.equals(user) && PASSWORD.equals(password));
+        server.setSubsystemFactories(List.of(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public TransferTarget.TransferTargetBuilder target() {
+        return target(getPort());
+    }
+
+    // Target pointing at an arbitrary local port, e.g. a LatencyProxy in front of this server
+    public TransferTarget.TransferTargetBuilder target(int port) {
+        return TransferTarget.builder()
+                .protocol(Protocol.SFTP)
+                .host("127.0.0.1")
+                .port(port)
+                .username(USERNAME)
+                .password(PASSWORD)
+                .sftpTrustUnknownHostKeys(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(true);
+    }
+}
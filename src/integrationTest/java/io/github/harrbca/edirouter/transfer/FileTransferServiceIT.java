@@ -0,0 +1,232 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.model.fileTransfer.FailoverPolicy;
+import io.github.harrbca.edirouter.model.fileTransfer.ListOptions;
+import io.github.harrbca.edirouter.model.fileTransfer.Protocol;
+import io.github.harrbca.edirouter.model.fileTransfer.RemoteFileInfo;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferEndpoint;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import io.github.harrbca.edirouter.model.fileTransfer.UploadResult;
+import io.github.harrbca.edirouter.service.FileTransferService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileTransferServiceIT {
+
+    @TempDir
+    Path temp;
+
+    private final FileTransferService service = TransferServices.create();
+
+    @Test
+    void uploadsAndListsOverSftp() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("sftp"));
+        Path local = Files.writeString(temp.resolve("po.edi"), "ISA*00*");
+
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer(root)) {
+            UploadResult result = service.upload(local, server.target().remoteDirectory("/in/850").build());
+
+            assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+            assertThat(root.resolve("in/850/po.edi")).hasContent("ISA*00*");
+
+            List<RemoteFileInfo> listing = service.listDirectory(server.target().build(),
+                    ListOptions.builder().directory("/in").recursive(true).glob("*.edi").build());
+            assertThat(listing).extracting(RemoteFileInfo::getPath).containsExactly("/in/850/po.edi");
+        }
+    }
+
+    @Test
+    void uploadsAndListsOverFtp() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("ftp"));
+        Path local = Files.writeString(temp.resolve("asn.edi"), "ISA*00*");
+
+        try (EmbeddedFtpServer server = new EmbeddedFtpServer(root)) {
+            UploadResult result = service.upload(local, server.target().remoteDirectory("/out/856").build());
+
+            assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+            assertThat(root.resolve("out/856/asn.edi")).hasContent("ISA*00*");
+
+            List<RemoteFileInfo> listing = service.listDirectory(server.target().build(),
+                    ListOptions.builder().directory("/out").recursive(true).build());
+            assertThat(listing).extracting(RemoteFileInfo::getPath).containsExactly("/out/856/asn.edi");
+        }
+    }
+
+    @Test
+    void refusesToOverwriteWhenDisabled() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("sftp"));
+        Files.writeString(root.resolve("inv.edi"), "existing");
+        Path local = Files.writeString(temp.resolve("inv.edi"), "new");
+
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer(root)) {
+            UploadResult result = service.upload(local, server.target().remoteDirectory("/").overwrite(false).build());
+
+            assertThat(result.isSuccess()).isFalse();
+            assertThat(root.resolve("inv.edi")).hasContent("existing");
+        }
+    }
+
+    @Test
+    void throttlesUploadsToTargetBandwidth() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("sftp"));
+        Path local = Files.write(temp.resolve("catalog.edi"), new byte[512 * 1024]);
+
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer(root)) {
+            TransferTarget target = server.target().remoteDirectory("/").maxBytesPerSecond(256 * 1024).build();
+            UploadResult result = service.upload(local, target);
+
+            assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+            assertThat(result.getDurationMs()).isGreaterThanOrEqualTo(1500);
+            assertThat(service.getDestinationUtilization())
+                    .singleElement()
+                    .satisfies(u -> assertThat(u.getTotalBytes()).isEqualTo(512 * 1024));
+        }
+    }
+
+    @Test
+    void failsOverToSecondaryEndpoint() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("sftp"));
+        Path local = Files.writeString(temp.resolve("ack.edi"), "ISA*00*");
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            deadPort = socket.getLocalPort();
+        }
+
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer(root)) {
+            TransferTarget target = server.target()
+                    .remoteDirectory("/")
+                    .endpoints(List.of(
+                            TransferEndpoint.builder().host("127.0.0.1").port(deadPort).build(),
+                            TransferEndpoint.builder().host("127.0.0.1").port(server.getPort()).build()))
+                    .failoverPolicy(FailoverPolicy.ORDERED)
+                    .build();
+
+            UploadResult result = service.upload(local, target);
+
+            assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+            assertThat(root.resolve("ack.edi")).exists();
+            assertThat(service.getEndpointHealth())
+                    .anySatisfy(h -> assertThat(h.getEndpoint()).endsWith(":" + deadPort))
+                    .allSatisfy(h -> assertThat(h.getEndpoint().endsWith(":" + deadPort) ? h.getFailures() : h.getSuccesses()).isEqualTo(1));
+        }
+    }
+
+    @Test
+    void deliversLocallyWithoutTouchingTheSource() throws Exception {
+        Path share = temp.resolve("share/inbound");
+        Path local = Files.writeString(temp.resolve("po.edi"), "ISA*00*");
+
+        UploadResult result = service.upload(local, TransferTarget.builder()
+                .protocol(Protocol.LOCAL)
+                .remoteDirectory(share.toString())
+                .build());
+
+        assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+        assertThat(result.getMessage()).contains("hard link");
+        assertThat(share.resolve("po.edi")).hasContent("ISA*00*");
+        assertThat(local).exists();
+        assertThat(service.listDirectory(TransferTarget.builder().protocol(Protocol.LOCAL).remoteDirectory(share.toString()).build()))
+                .extracting(RemoteFileInfo::getSizeBytes)
+                .containsExactly(7L);
+        assertThat(service.getDestinationUtilization())
+                .singleElement()
+                .satisfies(u -> assertThat(u.getTotalBytes()).isZero());
+    }
+
+    @Test
+    void refusesToReplaceLocalFileWhenOverwriteDisabled() throws Exception {
+        Path share = Files.createDirectories(temp.resolve("share"));
+        Files.writeString(share.resolve("po.edi"), "existing");
+        Path local = Files.writeString(temp.resolve("po.edi"), "new");
+
+        UploadResult result = service.upload(local, TransferTarget.builder()
+                .protocol(Protocol.LOCAL)
+                .remoteDirectory(share.toString())
+                .overwrite(false)
+                .build());
+
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(share.resolve("po.edi")).hasContent("existing");
+        assertThat(share).isDirectoryNotContaining("glob:**.part");
+    }
+
+    @Test
+    void postsConcurrentUploadsToHttpEndpoint() throws Exception {
+        Map<String, String> received = new ConcurrentHashMap<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/edi/", exchange -> {
+            String auth = exchange.getRequestHeaders().getFirst("Authorization");
+            String partner = exchange.getRequestHeaders().getFirst("X-Partner");
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            int status = "Bearer s3cret".equals(auth) && "ACME".equals(partner) ? 202 : 401;
+            if (status == 202) received.put(exchange.getRequestURI().getPath(), new String(body));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            TransferTarget target = TransferTarget.builder()
+                    .protocol(Protocol.HTTP)
+                    .httpUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/edi/{filename}")
+                    .httpBearerToken("s3cret")
+                    .httpHeaders(Map.of("X-Partner", "ACME"))
+                    .build();
+
+            List<CompletableFuture<UploadResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Path local = Files.writeString(temp.resolve("doc-" + i + ".edi"), "ISA*" + i);
+                futures.add(service.uploadAsync(local, target));
+            }
+
+            assertThat(futures).allSatisfy(f -> assertThat(f.get().isSuccess()).as(f.get().getMessage()).isTrue());
+            assertThat(received).hasSize(20).containsEntry("/edi/doc-7.edi", "ISA*7");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void givesAThrottledHttpUploadTheTimeItsRateNeeds() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/edi/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            // About 10s at 32 KB/s, well past the socket timeout plus the time the body takes at 64 KB/s
+            Path local = Files.write(temp.resolve("catalog.edi"), new byte[320 * 1024]);
+            TransferTarget target = TransferTarget.builder()
+                    .protocol(Protocol.HTTP)
+                    .httpUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/edi/{filename}")
+                    .socketTimeoutMs(1000)
+                    .maxBytesPerSecond(32 * 1024)
+                    .build();
+            UploadResult result = service.upload(local, target);
+
+            assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+            assertThat(result.getDurationMs()).isGreaterThanOrEqualTo(7000);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.harrbca.edirouter.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Loopback TCP proxy that delays every chunk by a one-way latency and caps each direction's bandwidth.
+// Chunks are queued with a due time rather than slept on inline, so latency does not collapse throughput.
+@Slf4j
+public class LatencyProxy implements AutoCloseable {
+
+    private static final Chunk EOF = new Chunk(new byte[0], 0);
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final long latencyNanos;
+    private final TokenBucket upstreamBandwidth;
+    private final TokenBucket downstreamBandwidth;
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "latency-proxy");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public LatencyProxy(int targetPort, long latencyMs, long bytesPerSecond) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.targetPort = targetPort;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        this.upstreamBandwidth = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, Math.max(16 * 1024, bytesPerSecond / 10)) : null;
+        this.downstreamBandwidth = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, Math.max(16 * 1024, bytesPerSecond / 10)) : null;
+        threads.execute(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket upstream = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(upstream);
+                pipe(client, upstream, upstreamBandwidth);
+                pipe(upstream, client, downstreamBandwidth);
+            } catch (IOException e) {
+                if (running) log.warn("Proxy accept failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void pipe(Socket from, Socket to, TokenBucket bandwidth) {
+        BlockingQueue<Chunk> inFlight = new LinkedBlockingQueue<>();
+
+        threads.execute(() -> {
+            byte[] buf = new byte[16 * 1024];
+            try {
+                InputStream in = from.getInputStream();
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    inFlight.add(new Chunk(Arrays.copyOf(buf, n), System.nanoTime() + latencyNanos));
+                }
+            } catch (IOException ignore) {
+                // connection closed
+            } finally {
+                inFlight.add(EOF);
+            }
+        });
+
+        threads.execute(() -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = inFlight.take();
+                    if (chunk == EOF) break;
+                    long wait = chunk.dueNanos - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    if (bandwidth != null) bandwidth.acquire(chunk.data.length);
+                    out.write(chunk.data);
+                    out.flush();
+                }
+                to.shutdownOutput();
+            } catch (IOException | InterruptedException e) {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        sockets.forEach(LatencyProxy::closeQuietly);
+        threads.shutdownNow();
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try { c.close(); } catch (Exception ignore) {}
+    }
+
+    private record Chunk(byte[] data, long dueNanos) {}
+}
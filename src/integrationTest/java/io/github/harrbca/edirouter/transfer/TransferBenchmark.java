@@ -0,0 +1,173 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.model.fileTransfer.ListOptions;
+import io.github.harrbca.edirouter.model.fileTransfer.RemoteFileInfo;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import io.github.harrbca.edirouter.model.fileTransfer.UploadResult;
+import io.github.harrbca.edirouter.service.FileTransferService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Throughput benchmark for FileTransferService against loopback stand-in servers.
+// Usage: ./gradlew transferBenchmark -Pbench="--latency-ms=20 --bandwidth=10485760 --threads=4"
+public class TransferBenchmark {
+
+    record Options(int sessions, int smallFiles, int smallSize, int largeFiles, int largeSize,
+                   int treeDirs, int treeFilesPerDir, int threads, long latencyMs, long bandwidth) {
+
+        static Options parse(String[] args) {
+            Map<String, Long> v = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                v.put(arg.substring(2, arg.indexOf('=')), Long.parseLong(arg.substring(arg.indexOf('=') + 1)));
+            }
+            return new Options(
+                    v.getOrDefault("sessions", 20L).intValue(),
+                    v.getOrDefault("small-files", 200L).intValue(),
+                    v.getOrDefault("small-size", 2L * 1024).intValue(),
+                    v.getOrDefault("large-files", 2L).intValue(),
+                    v.getOrDefault("large-size", 32L * 1024 * 1024).intValue(),
+                    v.getOrDefault("tree-dirs", 20L).intValue(),
+                    v.getOrDefault("tree-files-per-dir", 500L).intValue(),
+                    v.getOrDefault("threads", 1L).intValue(),
+                    v.getOrDefault("latency-ms", 0L),
+                    v.getOrDefault("bandwidth", 0L));
+        }
+    }
+
+    record Result(String protocol, String scenario, long ops, long bytes, long nanos) {
+        double seconds() { return nanos / 1_000_000_000d; }
+        double opsPerSecond() { return ops / seconds(); }
+        double mbPerSecond() { return bytes / (1024d * 1024d) / seconds(); }
+        double msPerOp() { return nanos / 1_000_000d / Math.max(ops, 1); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Path work = Files.createTempDirectory("edi-transfer-bench");
+        List<Result> results = new ArrayList<>();
+
+        try {
+            Path local = Files.createDirectories(work.resolve("local"));
+            List<Path> smallFiles = createFiles(local.resolve("small"), options.smallFiles(), options.smallSize());
+            List<Path> largeFiles = createFiles(local.resolve("large"), options.largeFiles(), options.largeSize());
+
+            Path sftpRoot = Files.createDirectories(work.resolve("sftp-root"));
+            try (EmbeddedSftpServer sftp = new EmbeddedSftpServer(sftpRoot);
+                 LatencyProxy proxy = new LatencyProxy(sftp.getPort(), options.latencyMs(), options.bandwidth())) {
+                results.addAll(run("SFTP", sftp.target(proxy.getPort()), sftpRoot, options, smallFiles, largeFiles));
+            }
+
+            Path ftpRoot = Files.createDirectories(work.resolve("ftp-root"));
+            try (EmbeddedFtpServer ftp = new EmbeddedFtpServer(ftpRoot, (int) Math.min(options.bandwidth(), Integer.MAX_VALUE));
+                 LatencyProxy proxy = new LatencyProxy(ftp.getPort(), options.latencyMs(), 0)) {
+                results.addAll(run("FTP", ftp.target(proxy.getPort()), ftpRoot, options, smallFiles, largeFiles));
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+
+        print(options, results);
+    }
+
+    private static List<Result> run(String protocol, TransferTarget.TransferTargetBuilder target, Path serverRoot,
+                                    Options options, List<Path> smallFiles, List<Path> largeFiles) throws Exception {
+        FileTransferService service = TransferServices.create();
+        List<Result> results = new ArrayList<>();
+
+        // Session setup: connect, authenticate and list an empty directory
+        Files.createDirectories(serverRoot.resolve("empty"));
+        TransferTarget empty = target.remoteDirectory("/empty").build();
+        service.listDirectory(empty); // warm-up
+        long start = System.nanoTime();
+        for (int i = 0; i < options.sessions(); i++) service.listDirectory(empty);
+        results.add(new Result(protocol, "session setup", options.sessions(), 0, System.nanoTime() - start));
+
+        results.add(uploadAll(protocol, "small uploads", service, target.remoteDirectory("/small").build(), smallFiles, options.threads()));
+        results.add(uploadAll(protocol, "large uploads", service, target.remoteDirectory("/large").build(), largeFiles, 1));
+
+        // Listing: recursive walk of a large tree
+        int entries = createTree(serverRoot.resolve("tree"), options.treeDirs(), options.treeFilesPerDir());
+        TransferTarget tree = target.remoteDirectory("/tree").build();
+        start = System.nanoTime();
+        List<RemoteFileInfo> listed = service.listDirectory(tree, ListOptions.builder().recursive(true).build());
+        long nanos = System.nanoTime() - start;
+        if (listed.size() != entries) throw new IllegalStateException(protocol + " listed " + listed.size() + " of " + entries + " files");
+        results.add(new Result(protocol, "recursive listing", listed.size(), 0, nanos));
+
+        return results;
+    }
+
+    private static Result uploadAll(String protocol, String scenario, FileTransferService service, TransferTarget target,
+                                    List<Path> files, int threads) throws Exception {
+        long bytes = 0;
+        for (Path f : files) bytes += Files.size(f);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+        try {
+            long start = System.nanoTime();
+            List<Future<UploadResult>> futures = new ArrayList<>();
+            for (Path f : files) futures.add(pool.submit(() -> service.upload(f, target)));
+            for (Future<UploadResult> future : futures) {
+                UploadResult r = future.get();
+                if (!r.isSuccess()) throw new IllegalStateException(protocol + " upload failed: " + r.getMessage());
+            }
+            return new Result(protocol, scenario, files.size(), bytes, System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<Path> createFiles(Path dir, int count, int size) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        List<Path> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(data);
+            out.add(Files.write(dir.resolve(String.format("file-%06d.edi", i)), data));
+        }
+        return out;
+    }
+
+    private static int createTree(Path root, int dirs, int filesPerDir) throws IOException {
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(root.resolve(String.format("partner-%03d", d)));
+            for (int f = 0; f < filesPerDir; f++) {
+                Files.write(dir.resolve(String.format("doc-%05d.edi", f)), new byte[] {'I', 'S', 'A'});
+            }
+        }
+        return dirs * filesPerDir;
+    }
+
+    private static void print(Options o, List<Result> results) {
+        System.out.printf("%nTransfer benchmark (latency %d ms, bandwidth %s, threads %d)%n", o.latencyMs(),
+                o.bandwidth() > 0 ? o.bandwidth() + " B/s" : "unlimited", o.threads());
+        System.out.printf("%-6s %-18s %8s %10s %10s %10s%n", "Proto", "Scenario", "Ops", "Ops/s", "MB/s", "ms/op");
+        System.out.println("-".repeat(68));
+        for (Result r : results) {
+            System.out.printf("%-6s %-18s %8d %10.1f %10.2f %10.2f%n", r.protocol(), r.scenario(), r.ops(),
+                    r.opsPerSecond(), r.mbPerSecond(), r.msPerOp());
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+            });
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.config.PgpProperties;
+import io.github.harrbca.edirouter.config.TransferProperties;
+import io.github.harrbca.edirouter.pgp.PgpKeyCache;
+import io.github.harrbca.edirouter.pgp.PgpService;
+import io.github.harrbca.edirouter.service.FileTransferService;
+
+// Wires FileTransferService without a Spring context for tests and the benchmark
+final class TransferServices {
+
+    private TransferServices() {
+    }
+
+    static FileTransferService create() {
+        return create(new TransferProperties());
+    }
+
+    static FileTransferService create(TransferProperties properties) {
+        PgpProperties pgpProperties = new PgpProperties();
+        return new FileTransferService(new TransferLimiter(properties), new EndpointHealthTracker(properties), new HttpClientPool(),
+                new PgpService(new PgpKeyCache(pgpProperties), pgpProperties));
+    }
+}
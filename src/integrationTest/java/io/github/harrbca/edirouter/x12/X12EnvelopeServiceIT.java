@@ -0,0 +1,70 @@
+package io.github.harrbca.edirouter.x12;
+
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class X12EnvelopeServiceIT {
+
+    @TempDir
+    Path temp;
+
+    private final X12EnvelopeService parser = new X12EnvelopeService();
+
+    @Test
+    void streamingParseMatchesTheWholeFileParse() throws Exception {
+        List<String> interchanges = List.of(
+                interchange("*", ">", "~", ""),
+                // One segment per line, as many partners send it
+                interchange("*", ">", "~", "\r\n"),
+                interchange("|", "^", "\n", ""),
+                // Large enough to span many read buffers
+                interchange("*", ">", "~", "\n").replace("BEG*00*SA*1~\n", "BEG*00*SA*1~\n"
+                        + "N1*ST*WAREHOUSE~\n".repeat(50_000)));
+
+        for (String edi : interchanges) {
+            Path file = Files.writeString(temp.resolve("interchange.edi"), edi);
+
+            X12ParseResult whole = parser.parse(file);
+            X12ParseResult streamed = parser.parseStreaming(file);
+
+            assertThat(streamed).isEqualTo(whole);
+            assertThat(streamed.getContentHash()).isNotBlank().isEqualTo(whole.getContentHash());
+            assertThat(streamed.getFunctionalGroups()).hasSize(2);
+            assertThat(streamed.getFunctionalGroups().getFirst().getTransactionSets()).hasSize(2);
+        }
+    }
+
+    @Test
+    void hashesTheContentNotJustTheEnvelope() throws Exception {
+        String edi = interchange("*", ">", "~", "");
+        Path first = Files.writeString(temp.resolve("first.edi"), edi);
+        Path second = Files.writeString(temp.resolve("second.edi"), edi.replace("BEG*00*SA*1", "BEG*00*SA*2"));
+
+        assertThat(parser.parseStreaming(second).getContentHash())
+                .isNotEqualTo(parser.parseStreaming(first).getContentHash())
+                .isEqualTo(parser.parse(second).getContentHash());
+    }
+
+    // Two groups, the first with two transaction sets
+    private static String interchange(String element, String component, String terminator, String lineBreak) {
+        String segments = String.join(terminator + lineBreak,
+                "ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       *240101*1200*U*00401*000000001*0*P*"
+                        + component,
+                "GS*PO*SENDER*RECEIVER*20240101*1200*1*X*004010",
+                "ST*850*0001", "BEG*00*SA*1", "SE*3*0001",
+                "ST*850*0002", "BEG*00*SA*2", "SE*3*0002",
+                "GE*2*1",
+                "GS*IN*SENDER*RECEIVER*20240101*1200*2*X*004010",
+                "ST*810*0001", "BIG*20240101*INV1", "SE*3*0001",
+                "GE*1*2",
+                "IEA*2*000000001") + terminator + lineBreak;
+        return segments.replace("*", element);
+    }
+}
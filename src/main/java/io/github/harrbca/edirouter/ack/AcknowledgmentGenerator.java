@@ -0,0 +1,149 @@
+package io.github.harrbca.edirouter.ack;
+
+import io.github.harrbca.edirouter.aggregation.OutboundAggregator;
+import io.github.harrbca.edirouter.config.AcknowledgmentProperties;
+import io.github.harrbca.edirouter.x12.EnvelopeValidator;
+import io.github.harrbca.edirouter.x12.EnvelopeValidator.GroupValidation;
+import io.github.harrbca.edirouter.x12.EnvelopeValidator.SetValidation;
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Builds a 997 or 999 for every functional group of an archived interchange, one acknowledgment set per
+// group, with AK2 and AK5/IK5 per transaction set and AK9 for the group taken from EnvelopeValidator. The
+// sets go through the outbound aggregator, so a partner's acknowledgments leave together in one interchange
+// per aggregation window. Only envelope-level checks are made, so no AK3/AK4 (IK3/IK4) segments are written.
+// Groups that are themselves acknowledgments (GS01 FA) are never acknowledged.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AcknowledgmentGenerator {
+
+    private static final String IMPLEMENTATION_999 = "005010X231A1";
+
+    private final AcknowledgmentProperties properties;
+    private final EnvelopeValidator validator;
+    private final OutboundAggregator outboundAggregator;
+
+    // Never fails the caller: an acknowledgment that cannot be queued is logged and dropped
+    public void acknowledge(String sourceId, X12ParseResult parseResult) {
+        if (!properties.isEnabled() || parseResult == null || parseResult.getIsa() == null) return;
+        ISA isa = parseResult.getIsa();
+        String sender = isa.getInterchangeSenderId().trim();
+        if (!properties.getPartners().isEmpty() && !properties.getPartners().contains(sender)) return;
+        String destination = properties.getPartnerDestinations().getOrDefault(sender, properties.getDestination());
+        if (destination == null || destination.isBlank()) {
+            log.warn("No acknowledgment destination for sender {}", sender);
+            return;
+        }
+
+        try {
+            String separator = String.valueOf(isa.getElementSeparator());
+            Map<String, AckGroup> groups = new LinkedHashMap<>();
+            for (GroupValidation validation : validator.validate(parseResult)) {
+                GS gs = validation.group().getGs();
+                if ("FA".equals(gs.getFunctionalIdentifierCode())) continue;
+                boolean ig999 = switch (properties.getFormat()) {
+                    case FA_997 -> false;
+                    case FA_999 -> true;
+                    case AUTO -> gs.getVersionReleaseIndustryCode() != null
+                            && gs.getVersionReleaseIndustryCode().startsWith("005010");
+                };
+                GS ackGs = GS.builder()
+                        .functionalIdentifierCode("FA")
+                        .applicationSenderCode(gs.getApplicationReceiverCode())
+                        .applicationReceiverCode(gs.getApplicationSenderCode())
+                        .responsibleAgencyCode("X")
+                        .versionReleaseIndustryCode(ig999 ? IMPLEMENTATION_999 : gs.getVersionReleaseIndustryCode())
+                        .build();
+                String key = ackGs.getApplicationSenderCode() + "\0" + ackGs.getApplicationReceiverCode() + "\0"
+                        + ackGs.getVersionReleaseIndustryCode();
+                groups.computeIfAbsent(key, k -> new AckGroup(ackGs, new ArrayList<>()))
+                        .sets().add(acknowledgment(validation, ig999, separator));
+            }
+
+            ISA ackIsa = reply(isa);
+            int index = 0;
+            for (AckGroup group : groups.values()) {
+                String id = sourceId + "!ack" + (groups.size() == 1 ? "" : "#" + index);
+                outboundAggregator.add(id, destination, ackIsa, group.gs(), group.sets());
+                index++;
+            }
+            if (!groups.isEmpty()) {
+                log.debug("Queued acknowledgment for {} to {}", sourceId, destination);
+            }
+        } catch (Exception e) {
+            log.error("Could not acknowledge interchange {} from {}: {}", isa.getInterchangeControlNumber(), sender,
+                    e.getMessage(), e);
+        }
+    }
+
+    private record AckGroup(GS gs, List<List<String>> sets) {}
+
+    // ST02/SE02 are placeholders; the aggregator numbers the sets of its batch
+    private static List<String> acknowledgment(GroupValidation validation, boolean ig999, String separator) {
+        GS gs = validation.group().getGs();
+        List<String> segments = new ArrayList<>(validation.sets().size() * 2 + 4);
+        segments.add(ig999 ? join(separator, "ST", "999", "0001", IMPLEMENTATION_999) : join(separator, "ST", "997", "0001"));
+        segments.add(ig999
+                ? join(separator, "AK1", gs.getFunctionalIdentifierCode(), gs.getGroupControlNumber(), gs.getVersionReleaseIndustryCode())
+                : join(separator, "AK1", gs.getFunctionalIdentifierCode(), gs.getGroupControlNumber()));
+        for (SetValidation set : validation.sets()) {
+            segments.add(join(separator, "AK2", set.set().getTransactionSetIdentifierCode(),
+                    set.set().getTransactionSetControlNumber()));
+            segments.add(status(separator, ig999 ? "IK5" : "AK5", set.accepted() ? "A" : "R", set.errors(), 5));
+        }
+        String included = validation.group().getTrailerTransactionSetCount();
+        segments.add(status(separator, "AK9", validation.status(), validation.errors(), 5,
+                included != null && !included.isBlank() ? included.trim() : Integer.toString(validation.sets().size()),
+                Integer.toString(validation.sets().size()), Long.toString(validation.acceptedSets())));
+        segments.add(join(separator, "SE", Integer.toString(segments.size() + 1), "0001"));
+        return segments;
+    }
+
+    // Tag, status, the counts in between (AK9 only) and at most maxCodes error codes
+    private static String status(String separator, String tag, String status, List<String> codes, int maxCodes,
+                                 String... counts) {
+        List<String> elements = new ArrayList<>();
+        elements.add(tag);
+        elements.add(status);
+        elements.addAll(List.of(counts));
+        elements.addAll(codes.subList(0, Math.min(codes.size(), maxCodes)));
+        return String.join(separator, elements);
+    }
+
+    private static String join(String separator, String... elements) {
+        return String.join(separator, elements);
+    }
+
+    // Our interchange back to the sender: sender and receiver swapped, no TA1 requested
+    private static ISA reply(ISA isa) {
+        return ISA.builder()
+                .authorizationInformationQualifier(isa.getAuthorizationInformationQualifier())
+                .authorizationInformation(isa.getAuthorizationInformation())
+                .securityInformationQualifier(isa.getSecurityInformationQualifier())
+                .securityInformation(isa.getSecurityInformation())
+                .interchangeIdQualifierSender(isa.getInterchangeIdQualifierReceiver())
+                .interchangeSenderId(isa.getInterchangeReceiverId())
+                .interchangeIdQualifierReceiver(isa.getInterchangeIdQualifierSender())
+                .interchangeReceiverId(isa.getInterchangeSenderId())
+                .repetitionSeparatorChar(isa.getRepetitionSeparatorChar())
+                .interchangeControlVersion(isa.getInterchangeControlVersion())
+                .acknowledgmentRequested("0")
+                .usageIndicator(isa.getUsageIndicator())
+                .componentElementSeparatorChar(isa.getComponentElementSeparatorChar())
+                .elementSeparator(isa.getElementSeparator())
+                .segmentTerminator(isa.getSegmentTerminator())
+                .repetitionSeparator(isa.getRepetitionSeparator())
+                .componentSeparator(isa.getComponentSeparator())
+                .build();
+    }
+}
@@ -0,0 +1,327 @@
+package io.github.harrbca.edirouter.ack;
+
+import io.github.harrbca.edirouter.config.AcknowledgmentProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.model.FunctionalGroup;
+import io.github.harrbca.edirouter.x12.model.GroupAcknowledgment;
+import io.github.harrbca.edirouter.x12.model.TransactionSet;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledFuture;
+
+// Outbound functional groups still waiting for a 997/999. Each group is held in a hash map under our ISA06 and
+// GS02 plus the receiver's ISA08, GS01 and GS06, since a group control number is only unique per sender and
+// receiver; an acknowledgment's ISA08, GS03, ISA06 and AK1 find it in one lookup. Groups are also held in a
+// skip list ordered by send time, so the overdue ones are the head of the list and are found without looking
+// at the rest. Both are rebuilt on startup from an MVStore map that is written alongside them.
+//
+// Each node tracks what it sent itself, while an acknowledgment is processed by whichever node claims it. One
+// that does not match here is passed on as a line in a file in every other node's inbox (inbox/<nodeId>/ under
+// the tracking directory; the other nodes are those with a store file there), and the node that sent the group
+// matches it on its next inbox check. A decommissioned node's store file should be removed from the directory.
+@Slf4j
+@Component
+public class AcknowledgmentIndex {
+
+    private static final char SEP = '\0';
+    private static final String LIST_SEP = ",";
+    private static final String STORE_SUFFIX = ".mv.db";
+    private static final String INBOX_SUFFIX = ".acks";
+    private static final Comparator<Outstanding> BY_SENT_AT =
+            Comparator.comparingLong(Outstanding::sentAt).thenComparing(Outstanding::key);
+
+    private final AcknowledgmentProperties properties;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Path file;
+    private final Path inbox;
+    private final Map<String, Outstanding> outstanding = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Outstanding> bySentAt = new ConcurrentSkipListSet<>(BY_SENT_AT);
+    private MVStore store;
+    private MVMap<String, String> persisted;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    public AcknowledgmentIndex(AcknowledgmentProperties properties, ThreadPoolTaskScheduler fileMonitorScheduler,
+                               FileMonitorProperties monitorProperties, ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.fileMonitorScheduler = fileMonitorScheduler;
+        Path directory = monitorProperties.resolveDirectory(properties.getTrackingDirectory());
+        this.file = directory.resolve(clusterProperties.getNodeId() + STORE_SUFFIX);
+        this.inbox = directory.resolve("inbox").resolve(clusterProperties.getNodeId());
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isTracking()) return;
+        Files.createDirectories(inbox);
+        store = new MVStore.Builder().fileName(file.toString()).compress().open();
+        persisted = store.openMap("outstanding");
+        for (Map.Entry<String, String> entry : persisted.entrySet()) {
+            Outstanding group = decode(entry.getKey(), entry.getValue());
+            outstanding.put(group.key(), group);
+            bySentAt.add(group);
+        }
+        log.info("Acknowledgment tracking at {}: {} groups outstanding", file, outstanding.size());
+        tasks.add(fileMonitorScheduler.scheduleWithFixedDelay(this::maintain, Duration.ofHours(1)));
+        tasks.add(fileMonitorScheduler.scheduleWithFixedDelay(this::checkInbox,
+                Duration.ofMillis(properties.getInboxCheckIntervalMs())));
+    }
+
+    @PreDestroy
+    public void close() {
+        tasks.forEach(task -> task.cancel(false));
+        if (store != null) store.close();
+    }
+
+    // Records the groups of an interchange that went out as is; acknowledgments themselves are not tracked
+    public synchronized void sent(X12ParseResult parseResult, String fileName, String destination) {
+        if (store == null || parseResult == null) return;
+        String sender = partner(parseResult.getIsa().getInterchangeSenderId());
+        String receiver = partner(parseResult.getIsa().getInterchangeReceiverId());
+        if (!properties.getExpectFrom().isEmpty()
+                && properties.getExpectFrom().stream().noneMatch(p -> partner(p).equals(receiver))) return;
+        long now = System.currentTimeMillis();
+        for (FunctionalGroup group : parseResult.getFunctionalGroups()) {
+            String functionalId = trim(group.getGs().getFunctionalIdentifierCode());
+            if (functionalId.equals("FA") || group.getTransactionSets().isEmpty()) continue;
+            List<String> sets = new ArrayList<>(group.getTransactionSets().size());
+            for (TransactionSet set : group.getTransactionSets()) {
+                sets.add(control(set.getTransactionSetControlNumber()));
+            }
+            String control = control(group.getGs().getGroupControlNumber());
+            String applicationSender = partner(group.getGs().getApplicationSenderCode());
+            Outstanding tracked = new Outstanding(key(sender, applicationSender, receiver, functionalId, control),
+                    sender, applicationSender, receiver, functionalId, control,
+                    control(parseResult.getIsa().getInterchangeControlNumber()), fileName, destination, now, sets);
+            Outstanding previous = outstanding.put(tracked.key(), tracked);
+            if (previous != null) bySentAt.remove(previous);
+            bySentAt.add(tracked);
+            persisted.put(tracked.key(), encode(tracked));
+        }
+    }
+
+    // Matches the 997/999 sets of a received interchange against what this node sent that partner and passes
+    // the rest on to the other nodes; returns how many groups were matched here
+    public int received(X12ParseResult parseResult) {
+        if (store == null || parseResult == null) return 0;
+        String sender = partner(parseResult.getIsa().getInterchangeSenderId());
+        String us = partner(parseResult.getIsa().getInterchangeReceiverId());
+        int matched = 0;
+        List<String> unmatched = new ArrayList<>();
+        for (FunctionalGroup group : parseResult.getFunctionalGroups()) {
+            String applicationUs = partner(group.getGs().getApplicationReceiverCode());
+            for (TransactionSet set : group.getTransactionSets()) {
+                GroupAcknowledgment ack = set.getAcknowledgment();
+                if (ack == null) continue;
+                if (match(key(us, applicationUs, sender, trim(ack.getFunctionalIdentifierCode()),
+                        control(ack.getGroupControlNumber())), ack)) {
+                    matched++;
+                } else {
+                    unmatched.add(encode(us, applicationUs, sender, ack));
+                }
+            }
+        }
+        if (!unmatched.isEmpty()) forward(unmatched);
+        return matched;
+    }
+
+    // Matches acknowledgments other nodes could not; returns how many groups they acknowledged
+    public int checkInbox() {
+        if (store == null) return 0;
+        int matched = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox, "*" + INBOX_SUFFIX)) {
+            for (Path forwarded : files) {
+                for (String line : Files.readAllLines(forwarded, StandardCharsets.UTF_8)) {
+                    String[] f = line.split("\t", -1);
+                    if (match(key(f[0], f[1], f[2], f[3], f[4]), decodeAck(f))) matched++;
+                }
+                Files.delete(forwarded);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read forwarded acknowledgments in {}: {}", inbox, e.getMessage());
+        }
+        return matched;
+    }
+
+    // Sent more than olderThanMs ago and still unacknowledged, oldest first
+    public List<Outstanding> overdue(long olderThanMs, int limit) {
+        long cutoff = System.currentTimeMillis() - olderThanMs;
+        List<Outstanding> result = new ArrayList<>();
+        for (Outstanding group : bySentAt) {
+            if (group.sentAt() >= cutoff || result.size() >= limit) break;
+            result.add(group);
+        }
+        return result;
+    }
+
+    public List<Outstanding> overdue(int limit) {
+        return overdue(Duration.ofHours(properties.getOverdueAfterHours()).toMillis(), limit);
+    }
+
+    public int size() {
+        return outstanding.size();
+    }
+
+    // sender and applicationSender are our ISA06 and GS02 on the group; partner is the receiver's ISA08
+    public record Outstanding(String key, String sender, String applicationSender, String partner,
+                              String functionalId, String groupControlNumber,
+                              String interchangeControlNumber, String fileName, String destination, long sentAt,
+                              List<String> transactionSetControlNumbers) {}
+
+    private synchronized boolean match(String key, GroupAcknowledgment ack) {
+        Outstanding tracked = outstanding.remove(key);
+        if (tracked == null) return false;
+        bySentAt.remove(tracked);
+        persisted.remove(key);
+        report(tracked, ack);
+        return true;
+    }
+
+    // Written aside and renamed into each inbox, so a node never reads a half-written file
+    private void forward(List<String> unmatched) {
+        String name = System.currentTimeMillis() + "-" + UUID.randomUUID() + INBOX_SUFFIX;
+        int nodes = 0;
+        try (DirectoryStream<Path> stores = Files.newDirectoryStream(file.getParent(), "*" + STORE_SUFFIX)) {
+            for (Path other : stores) {
+                if (other.equals(file)) continue;
+                String node = other.getFileName().toString();
+                Path otherInbox = Files.createDirectories(inbox.resolveSibling(
+                        node.substring(0, node.length() - STORE_SUFFIX.length())));
+                Path temp = otherInbox.resolve(name + ".tmp");
+                Files.write(temp, unmatched, StandardCharsets.UTF_8);
+                Files.move(temp, otherInbox.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                nodes++;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot pass {} acknowledgments on to the other nodes: {}", unmatched.size(), e.getMessage());
+            return;
+        }
+        if (nodes == 0) {
+            log.debug("{} acknowledgments for groups this node is not tracking", unmatched.size());
+        }
+    }
+
+    private static void report(Outstanding tracked, GroupAcknowledgment ack) {
+        String status = ack.getStatus() == null ? "" : ack.getStatus();
+        if (status.equals("A") || status.equals("E")) {
+            log.debug("Group {} {} to {} acknowledged ({})", tracked.functionalId(), tracked.groupControlNumber(),
+                    tracked.partner(), status);
+            return;
+        }
+        List<String> rejected = ack.getTransactionSets().stream()
+                .filter(s -> s.getStatus() != null && !s.getStatus().equals("A") && !s.getStatus().equals("E"))
+                .map(s -> control(s.getTransactionSetControlNumber()))
+                .filter(tracked.transactionSetControlNumbers()::contains)
+                .toList();
+        log.warn("Group {} {} in {} to {} was acknowledged with status {}{}", tracked.functionalId(),
+                tracked.groupControlNumber(), tracked.fileName(), tracked.partner(), status.isEmpty() ? "?" : status,
+                rejected.isEmpty() ? "" : ", rejected ST02 " + rejected);
+    }
+
+    // Forgets groups past retention and reports how many are overdue
+    private void maintain() {
+        try {
+            long retentionCutoff = System.currentTimeMillis() - Duration.ofDays(properties.getRetentionDays()).toMillis();
+            int expired = 0;
+            synchronized (this) {
+                Outstanding oldest;
+                while ((oldest = bySentAt.isEmpty() ? null : bySentAt.first()) != null && oldest.sentAt() < retentionCutoff) {
+                    bySentAt.remove(oldest);
+                    outstanding.remove(oldest.key(), oldest);
+                    persisted.remove(oldest.key());
+                    expired++;
+                }
+            }
+            if (expired > 0) {
+                log.info("Stopped tracking {} groups sent more than {} days ago", expired, properties.getRetentionDays());
+            }
+            int overdue = overdue(Integer.MAX_VALUE).size();
+            if (overdue > 0) {
+                log.warn("{} outbound groups not acknowledged after {} hours", overdue, properties.getOverdueAfterHours());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Acknowledgment tracking maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String sender, String applicationSender, String partner, String functionalId,
+                              String groupControlNumber) {
+        return sender + SEP + applicationSender + SEP + partner + SEP + functionalId + SEP + groupControlNumber;
+    }
+
+    private static String encode(Outstanding o) {
+        return String.join("\t", o.sender(), o.applicationSender(), o.partner(), o.functionalId(),
+                o.groupControlNumber(), o.interchangeControlNumber(), o.fileName(), o.destination(),
+                Long.toString(o.sentAt()), String.join(LIST_SEP, o.transactionSetControlNumbers()));
+    }
+
+    private static Outstanding decode(String key, String encoded) {
+        String[] f = encoded.split("\t", -1);
+        return new Outstanding(key, f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], Long.parseLong(f[8]),
+                f[9].isEmpty() ? List.of() : Arrays.asList(f[9].split(LIST_SEP)));
+    }
+
+    // The lookup key's parts, then AK1, AK9 and each AK2 as control:status
+    private static String encode(String us, String applicationUs, String partner, GroupAcknowledgment ack) {
+        List<String> sets = new ArrayList<>(ack.getTransactionSets().size());
+        for (GroupAcknowledgment.SetAcknowledgment set : ack.getTransactionSets()) {
+            sets.add(control(set.getTransactionSetControlNumber()) + ":" + trim(set.getStatus()));
+        }
+        return String.join("\t", us, applicationUs, partner, trim(ack.getFunctionalIdentifierCode()),
+                control(ack.getGroupControlNumber()), trim(ack.getStatus()), String.join(LIST_SEP, sets));
+    }
+
+    private static GroupAcknowledgment decodeAck(String[] f) {
+        List<GroupAcknowledgment.SetAcknowledgment> sets = new ArrayList<>();
+        for (String set : f[6].isEmpty() ? new String[0] : f[6].split(LIST_SEP)) {
+            String[] s = set.split(":", 2);
+            sets.add(GroupAcknowledgment.SetAcknowledgment.builder()
+                    .transactionSetControlNumber(s[0]).status(s[1].isEmpty() ? null : s[1]).build());
+        }
+        return GroupAcknowledgment.builder()
+                .functionalIdentifierCode(f[3])
+                .groupControlNumber(f[4])
+                .status(f[5].isEmpty() ? null : f[5])
+                .transactionSets(sets)
+                .build();
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    // Partner ids are matched trimmed and case-insensitively
+    private static String partner(String value) {
+        return trim(value).toUpperCase();
+    }
+
+    // Control numbers are matched without leading zeros
+    private static String control(String value) {
+        String trimmed = trim(value);
+        int i = 0;
+        while (i < trimmed.length() - 1 && trimmed.charAt(i) == '0') i++;
+        return trimmed.substring(i);
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.harrbca.edirouter.aggregation;
+
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+// Transaction sets waiting to go out in one interchange. They are appended to a spool file, one record per
+// source file: a header line "#<source id>\t<sets>\t<bytes>" and then the sets' segments as they will be sent.
+// Each record is forced to disk before the source file is reported delivered, and a record cut short by a
+// crash is truncated away on restart. The source IDs make a replayed file a no-op while the batch is open.
+final class AggregationBatch {
+
+    final String key;
+    final String destination;
+    final ISA isa;
+    final GS gs;
+    final Path spool;
+    final Path meta;
+    final long openedAt;
+    private final Set<String> sourceIds = new HashSet<>();
+    private FileChannel channel;
+    private long transactionSets;
+    private long bytes;
+    boolean closed;
+
+    private AggregationBatch(String key, String destination, ISA isa, GS gs, Path spool, Path meta, long openedAt) {
+        this.key = key;
+        this.destination = destination;
+        this.isa = isa;
+        this.gs = gs;
+        this.spool = spool;
+        this.meta = meta;
+        this.openedAt = openedAt;
+    }
+
+    static AggregationBatch create(String key, String destination, ISA isa, GS gs, Path directory) throws IOException {
+        long openedAt = System.currentTimeMillis();
+        String base = key + "-" + openedAt;
+        AggregationBatch batch = new AggregationBatch(key, destination, isa, gs, directory.resolve(base + ".spool"),
+                directory.resolve(base + ".meta"), openedAt);
+        batch.writeMeta(null, null);
+        batch.channel = FileChannel.open(batch.spool, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        return batch;
+    }
+
+    // Reopens a batch after a restart, dropping a record the crash cut short
+    static AggregationBatch recover(Path meta) throws IOException {
+        Properties p = BatchMeta.read(meta);
+        String base = meta.getFileName().toString().replaceFirst("\\.meta$", "");
+        AggregationBatch batch = new AggregationBatch(p.getProperty("key"), p.getProperty("destination"),
+                BatchMeta.isa(p), BatchMeta.gs(p), meta.resolveSibling(base + ".spool"), meta,
+                Long.parseLong(p.getProperty("openedAt")));
+        batch.channel = FileChannel.open(batch.spool, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long valid = batch.scan();
+        if (valid < batch.channel.size()) {
+            batch.channel.truncate(valid);
+            batch.channel.force(true);
+        }
+        batch.channel.position(valid);
+        return batch;
+    }
+
+    boolean contains(String sourceId) {
+        return sourceIds.contains(sourceId);
+    }
+
+    void append(String sourceId, long sets, byte[] content) throws IOException {
+        byte[] header = ("#" + sourceId + "\t" + sets + "\t" + content.length + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer[] record = {ByteBuffer.wrap(header), ByteBuffer.wrap(content)};
+        long remaining = header.length + content.length;
+        while (remaining > 0) {
+            remaining -= channel.write(record);
+        }
+        channel.force(false);
+        sourceIds.add(sourceId);
+        transactionSets += sets;
+        bytes += content.length;
+    }
+
+    long getTransactionSets() {
+        return transactionSets;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    // The spooled segments without the record headers, in the order they were added
+    void copyContentTo(OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(spool)) {
+            String header;
+            while ((header = readHeader(in)) != null) {
+                long length = Long.parseLong(header.split("\t")[2]);
+                copy(in, out, length);
+            }
+        }
+    }
+
+    // Control numbers are recorded before the interchange is written, so a restart writes the same one again
+    void markClosing(String interchangeControlNumber, String groupControlNumber) throws IOException {
+        writeMeta(interchangeControlNumber, groupControlNumber);
+    }
+
+    void closeChannel() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    void delete() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(spool);
+        Files.deleteIfExists(meta);
+    }
+
+    private void writeMeta(String interchangeControlNumber, String groupControlNumber) throws IOException {
+        Properties p = BatchMeta.of(isa, gs);
+        p.setProperty("key", key);
+        p.setProperty("destination", destination);
+        p.setProperty("openedAt", Long.toString(openedAt));
+        if (interchangeControlNumber != null) {
+            p.setProperty("isa13", interchangeControlNumber);
+            p.setProperty("gs06", groupControlNumber);
+        }
+        BatchMeta.write(meta, p);
+    }
+
+    // Length of the spool up to the end of its last complete record
+    private long scan() throws IOException {
+        channel.position(0);
+        InputStream in = Channels.newInputStream(channel);
+        long valid = 0;
+        String header;
+        while ((header = readHeader(in)) != null) {
+            String[] f = header.split("\t");
+            if (f.length != 3 || !f[0].startsWith("#")) break;
+            long length = Long.parseLong(f[2]);
+            if (skipFully(in, length) < length) break;
+            sourceIds.add(f[0].substring(1));
+            transactionSets += Long.parseLong(f[1]);
+            bytes += length;
+            valid += header.getBytes(StandardCharsets.UTF_8).length + 1 + length;
+        }
+        return valid;
+    }
+
+    private static long skipFully(InputStream in, long length) throws IOException {
+        long skipped = 0;
+        while (skipped < length) {
+            long n = in.skip(length - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) break;
+                n = 1;
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    // A header line, or null at the end of the spool or at a line the crash cut short
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        return b < 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) throw new IOException("Spool ended inside a record");
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+}
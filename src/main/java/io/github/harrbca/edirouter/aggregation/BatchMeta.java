@@ -0,0 +1,100 @@
+package io.github.harrbca.edirouter.aggregation;
+
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+// The .meta file next to a batch's spool: the ISA and GS its interchange is written with, plus the control
+// numbers once it is being closed. Delimiters are kept as char codes, since a terminator may be a line break.
+final class BatchMeta {
+
+    private BatchMeta() {
+    }
+
+    static Properties of(ISA isa, GS gs) {
+        Properties p = new Properties();
+        set(p, "isa01", isa.getAuthorizationInformationQualifier());
+        set(p, "isa02", isa.getAuthorizationInformation());
+        set(p, "isa03", isa.getSecurityInformationQualifier());
+        set(p, "isa04", isa.getSecurityInformation());
+        set(p, "isa05", isa.getInterchangeIdQualifierSender());
+        set(p, "isa06", isa.getInterchangeSenderId());
+        set(p, "isa07", isa.getInterchangeIdQualifierReceiver());
+        set(p, "isa08", isa.getInterchangeReceiverId());
+        set(p, "isa11", isa.getRepetitionSeparatorChar());
+        set(p, "isa12", isa.getInterchangeControlVersion());
+        set(p, "isa14", isa.getAcknowledgmentRequested());
+        set(p, "isa15", isa.getUsageIndicator());
+        set(p, "isa16", isa.getComponentElementSeparatorChar());
+        p.setProperty("elementSeparator", Integer.toString(isa.getElementSeparator()));
+        p.setProperty("segmentTerminator", Integer.toString(isa.getSegmentTerminator()));
+        p.setProperty("repetitionSeparator", Integer.toString(isa.getRepetitionSeparator()));
+        p.setProperty("componentSeparator", Integer.toString(isa.getComponentSeparator()));
+        set(p, "gs01", gs.getFunctionalIdentifierCode());
+        set(p, "gs02", gs.getApplicationSenderCode());
+        set(p, "gs03", gs.getApplicationReceiverCode());
+        set(p, "gs07", gs.getResponsibleAgencyCode());
+        set(p, "gs08", gs.getVersionReleaseIndustryCode());
+        return p;
+    }
+
+    static ISA isa(Properties p) {
+        return ISA.builder()
+                .authorizationInformationQualifier(p.getProperty("isa01", ""))
+                .authorizationInformation(p.getProperty("isa02", ""))
+                .securityInformationQualifier(p.getProperty("isa03", ""))
+                .securityInformation(p.getProperty("isa04", ""))
+                .interchangeIdQualifierSender(p.getProperty("isa05", ""))
+                .interchangeSenderId(p.getProperty("isa06", ""))
+                .interchangeIdQualifierReceiver(p.getProperty("isa07", ""))
+                .interchangeReceiverId(p.getProperty("isa08", ""))
+                .repetitionSeparatorChar(p.getProperty("isa11", ""))
+                .interchangeControlVersion(p.getProperty("isa12", ""))
+                .acknowledgmentRequested(p.getProperty("isa14", ""))
+                .usageIndicator(p.getProperty("isa15", ""))
+                .componentElementSeparatorChar(p.getProperty("isa16", ""))
+                .elementSeparator((char) Integer.parseInt(p.getProperty("elementSeparator")))
+                .segmentTerminator((char) Integer.parseInt(p.getProperty("segmentTerminator")))
+                .repetitionSeparator((char) Integer.parseInt(p.getProperty("repetitionSeparator")))
+                .componentSeparator((char) Integer.parseInt(p.getProperty("componentSeparator")))
+                .build();
+    }
+
+    static GS gs(Properties p) {
+        return GS.builder()
+                .functionalIdentifierCode(p.getProperty("gs01", ""))
+                .applicationSenderCode(p.getProperty("gs02", ""))
+                .applicationReceiverCode(p.getProperty("gs03", ""))
+                .responsibleAgencyCode(p.getProperty("gs07", ""))
+                .versionReleaseIndustryCode(p.getProperty("gs08", ""))
+                .build();
+    }
+
+    static Properties read(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            p.load(reader);
+        }
+        return p;
+    }
+
+    // Written aside and renamed over, so a crash leaves either the old or the new contents
+    static void write(Path file, Properties p) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            p.store(writer, null);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void set(Properties p, String key, String value) {
+        p.setProperty(key, value == null ? "" : value);
+    }
+}
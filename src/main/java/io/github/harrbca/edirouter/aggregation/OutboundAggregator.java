@@ -0,0 +1,576 @@
+package io.github.harrbca.edirouter.aggregation;
+
+import io.github.harrbca.edirouter.ack.AcknowledgmentIndex;
+import io.github.harrbca.edirouter.archive.ArchiveIndex;
+import io.github.harrbca.edirouter.archive.ArchiveStore;
+import io.github.harrbca.edirouter.config.AggregationProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.X12Properties;
+import io.github.harrbca.edirouter.model.fileTransfer.UploadResult;
+import io.github.harrbca.edirouter.service.FileTransferService;
+import io.github.harrbca.edirouter.service.RoutingService;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import io.github.harrbca.edirouter.x12.ControlNumberService;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.X12Writer;
+import io.github.harrbca.edirouter.x12.model.FunctionalGroup;
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Pattern;
+
+// Merges the transaction sets of many small files for the same destination and trading partner into one
+// interchange, sent when the batch has waited app.aggregation.max-wait-ms or reached its size limits. A file
+// counts as delivered once its sets are on disk in a batch (see AggregationBatch); a closed batch becomes a
+// ready file under ready/<destination>/ with new ISA13/GS06 numbers and renumbered ST02/SE02. It is sent from
+// there, retried on a backoff until its destination takes it, then moved to sent/ until it is archived.
+//
+// Batches are keyed by everything the envelope is written from (ISA sender/receiver and settings, GS01-03,
+// GS07-08, delimiters), so sets are copied as read and never translated. Each node keeps its own batches; a
+// file replayed after its batch was closed is sent again in the next one.
+@Slf4j
+@Service
+public class OutboundAggregator {
+
+    private static final String READY_SUFFIX = ".x12";
+    private static final Pattern UNSAFE = Pattern.compile("[^A-Za-z0-9.-]");
+
+    private final AggregationProperties properties;
+    private final X12Properties x12Properties;
+    private final ControlNumberService controlNumbers;
+    private final X12EnvelopeService x12EnvelopeService;
+    private final FileTransferService fileTransferService;
+    private final RoutingService routingService;
+    private final ArchiveStore archiveStore;
+    private final ArchiveIndex archiveIndex;
+    private final AcknowledgmentIndex acknowledgmentIndex;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Path openDirectory;
+    private final Path readyDirectory;
+    private final Path sentDirectory;
+
+    private final Map<String, AggregationBatch> batches = new ConcurrentHashMap<>();
+    private final Set<Path> sending = ConcurrentHashMap.newKeySet();
+    private final Set<Path> closing = ConcurrentHashMap.newKeySet();
+    private final Map<Path, Retry> retries = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> task;
+
+    public OutboundAggregator(AggregationProperties properties, X12Properties x12Properties,
+                              ControlNumberService controlNumbers, X12EnvelopeService x12EnvelopeService,
+                              FileTransferService fileTransferService, RoutingService routingService,
+                              ArchiveStore archiveStore, ArchiveIndex archiveIndex, AcknowledgmentIndex acknowledgmentIndex,
+                              ThreadPoolTaskScheduler fileMonitorScheduler, FileMonitorProperties monitorProperties,
+                              ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.x12Properties = x12Properties;
+        this.controlNumbers = controlNumbers;
+        this.x12EnvelopeService = x12EnvelopeService;
+        this.fileTransferService = fileTransferService;
+        this.routingService = routingService;
+        this.archiveStore = archiveStore;
+        this.archiveIndex = archiveIndex;
+        this.acknowledgmentIndex = acknowledgmentIndex;
+        this.fileMonitorScheduler = fileMonitorScheduler;
+        Path nodeDirectory = monitorProperties.resolveDirectory(properties.getDirectory())
+                .resolve(clusterProperties.getNodeId());
+        this.openDirectory = nodeDirectory.resolve("open");
+        this.readyDirectory = nodeDirectory.resolve("ready");
+        this.sentDirectory = nodeDirectory.resolve("sent");
+    }
+
+    // Reopens the batches left by the last run and finishes any that were being closed
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(openDirectory);
+        Files.createDirectories(readyDirectory);
+        Files.createDirectories(sentDirectory);
+        try (DirectoryStream<Path> metas = Files.newDirectoryStream(openDirectory, "*.meta")) {
+            for (Path meta : metas) {
+                recover(meta);
+            }
+        }
+        if (!batches.isEmpty()) {
+            log.info("Aggregation: reopened {} batches", batches.size());
+        }
+        task = fileMonitorScheduler.scheduleWithFixedDelay(this::tick, Duration.ofMillis(properties.getCheckIntervalMs()));
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (task != null) task.cancel(false);
+        for (AggregationBatch batch : batches.values()) {
+            synchronized (batch) {
+                batch.closeChannel();
+            }
+        }
+    }
+
+    // Only plain interchanges of the configured transaction sets are merged; anything else goes out as is
+    public boolean accepts(String destination, X12ParseResult parseResult, UploadSource source) {
+        if (!properties.getDestinations().contains(destination) || task == null) return false;
+        if (parseResult == null || parseResult.getFunctionalGroups().isEmpty()) return false;
+        for (FunctionalGroup group : parseResult.getFunctionalGroups()) {
+            if (group.getGs() == null || group.getTransactionSets().isEmpty()) return false;
+            boolean allowed = properties.getTransactionSets().isEmpty() || group.getTransactionSets().stream()
+                    .allMatch(set -> properties.getTransactionSets().contains(set.getTransactionSetIdentifierCode()));
+            if (!allowed) return false;
+        }
+        try {
+            return source.size() <= properties.getMaxFileBytes();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Adds the file's transaction sets to the open batch for each of its groups; completes once they are on
+    // disk. The source ID (the journal ID, plus the entry for enclosed files) makes a replay a no-op.
+    public CompletableFuture<UploadResult> add(String sourceId, UploadSource source, String destination) {
+        long start = System.currentTimeMillis();
+        try {
+            List<SourceGroup> groups = readGroups(source);
+            long sets = 0;
+            for (int i = 0; i < groups.size(); i++) {
+                sets += append(groups.size() == 1 ? sourceId : sourceId + "#" + i, destination, groups.get(i));
+            }
+            return CompletableFuture.completedFuture(UploadResult.builder()
+                    .success(true)
+                    .protocol("AGGREGATE")
+                    .remotePath(destination)
+                    .bytes(source.size())
+                    .message("Queued " + sets + " transaction sets for aggregation")
+                    .durationMs(System.currentTimeMillis() - start)
+                    .build());
+        } catch (IOException | UncheckedIOException e) {
+            return CompletableFuture.completedFuture(UploadResult.builder()
+                    .success(false)
+                    .protocol("AGGREGATE")
+                    .remotePath(destination)
+                    .message("Could not queue for aggregation: " + e.getMessage())
+                    .durationMs(System.currentTimeMillis() - start)
+                    .build());
+        } catch (RuntimeException e) {
+            // Content that does not split into transaction sets; fails the same way every time
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Adds transaction sets built here rather than read from a file, such as acknowledgments: each set is its
+    // segments without terminators, in the delimiters of the ISA. Returns the number of sets added.
+    public long add(String sourceId, String destination, ISA isa, GS gs, List<List<String>> sets) throws IOException {
+        return append(sourceId, destination, new SourceGroup(isa, gs, sets));
+    }
+
+    // Open batches, oldest first, and the number of ready files waiting to be sent
+    public List<BatchInfo> getOpenBatches() {
+        long now = System.currentTimeMillis();
+        return batches.values().stream()
+                .sorted(Comparator.comparingLong(b -> b.openedAt))
+                .map(b -> new BatchInfo(b.destination, b.isa.getInterchangeReceiverId().trim(),
+                        b.gs.getFunctionalIdentifierCode(), b.getTransactionSets(), b.getBytes(), now - b.openedAt))
+                .toList();
+    }
+
+    public int getReadyCount() {
+        return readyFiles().size();
+    }
+
+    // Closes every open batch now instead of waiting for its window; returns how many were closed
+    public int flush() {
+        int closed = 0;
+        for (AggregationBatch batch : List.copyOf(batches.values())) {
+            if (closeQuietly(batch)) closed++;
+        }
+        fileMonitorScheduler.execute(this::sendReady);
+        return closed;
+    }
+
+    public record BatchInfo(String destination, String receiver, String functionalId, long transactionSets,
+                            long bytes, long ageMs) {}
+
+    // Transaction sets of one GS group of a source file, each a list of its segments
+    private record SourceGroup(ISA isa, GS gs, List<List<String>> sets) {}
+
+    private List<SourceGroup> readGroups(UploadSource source) throws IOException {
+        List<SourceGroup> groups = new ArrayList<>();
+        try (InputStream in = source.open()) {
+            x12EnvelopeService.readSegments(in, new X12EnvelopeService.SegmentHandler() {
+                private ISA isa;
+                private String separator;
+                private List<String> set;
+
+                @Override
+                public void start(ISA isa) {
+                    this.isa = isa;
+                    this.separator = Pattern.quote(String.valueOf(isa.getElementSeparator()));
+                }
+
+                @Override
+                public void accept(String segment) {
+                    String[] e = segment.split(separator, -1);
+                    switch (e[0]) {
+                        case "GS" -> groups.add(new SourceGroup(isa, gs(e), new ArrayList<>()));
+                        case "ST" -> {
+                            if (groups.isEmpty()) throw new IllegalArgumentException("ST outside a functional group");
+                            set = new ArrayList<>();
+                            set.add(segment);
+                        }
+                        case "SE" -> {
+                            if (set == null) throw new IllegalArgumentException("SE without ST");
+                            set.add(segment);
+                            groups.get(groups.size() - 1).sets().add(set);
+                            set = null;
+                        }
+                        default -> {
+                            if (set != null) set.add(segment);
+                        }
+                    }
+                }
+            });
+        }
+        groups.removeIf(group -> group.sets().isEmpty());
+        return groups;
+    }
+
+    private static GS gs(String[] e) {
+        return GS.builder()
+                .functionalIdentifierCode(element(e, 1))
+                .applicationSenderCode(element(e, 2))
+                .applicationReceiverCode(element(e, 3))
+                .responsibleAgencyCode(element(e, 7))
+                .versionReleaseIndustryCode(element(e, 8))
+                .build();
+    }
+
+    private static String element(String[] e, int index) {
+        return index < e.length ? e[index] : "";
+    }
+
+    // Returns the number of sets added; zero when this source is already in the batch
+    private long append(String sourceId, String destination, SourceGroup group) throws IOException {
+        String key = key(destination, group.isa(), group.gs());
+        while (true) {
+            AggregationBatch batch = batches.computeIfAbsent(key, k -> {
+                try {
+                    return AggregationBatch.create(k, destination, group.isa(), group.gs(), openDirectory);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            synchronized (batch) {
+                // Closed while we waited for it; the next pass finds or opens its successor
+                if (batch.closed) continue;
+                if (batch.contains(sourceId)) return 0;
+                batch.append(sourceId, group.sets().size(), render(group, batch.getTransactionSets()));
+                if (batch.getTransactionSets() >= properties.getMaxTransactionSets()
+                        || batch.getBytes() >= properties.getMaxBytes()) {
+                    if (closeQuietly(batch)) fileMonitorScheduler.execute(this::sendReady);
+                }
+                return group.sets().size();
+            }
+        }
+    }
+
+    // The sets as they will be sent: ST02/SE02 numbered on from the sets already in the batch
+    private byte[] render(SourceGroup group, long setsBefore) throws IOException {
+        StringWriter out = new StringWriter();
+        X12Writer writer = new X12Writer(out, group.isa(), x12Properties.isLineBreaks());
+        String separator = String.valueOf(group.isa().getElementSeparator());
+        String quoted = Pattern.quote(separator);
+        long number = setsBefore;
+        for (List<String> set : group.sets()) {
+            String control = X12Writer.transactionSetControlNumber(++number);
+            for (int i = 0; i < set.size(); i++) {
+                String segment = set.get(i);
+                if (i == 0 || i == set.size() - 1) {
+                    String[] e = segment.split(quoted, -1);
+                    if (e.length > 2) {
+                        e[2] = control;
+                        segment = String.join(separator, e);
+                    }
+                }
+                writer.raw(segment);
+            }
+        }
+        writer.flush();
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(String destination, ISA isa, GS gs) {
+        String identity = String.join("\0", destination,
+                isa.getAuthorizationInformationQualifier(), isa.getAuthorizationInformation(),
+                isa.getSecurityInformationQualifier(), isa.getSecurityInformation(),
+                isa.getInterchangeIdQualifierSender(), isa.getInterchangeSenderId(),
+                isa.getInterchangeIdQualifierReceiver(), isa.getInterchangeReceiverId(),
+                isa.getRepetitionSeparatorChar(), isa.getInterchangeControlVersion(),
+                isa.getAcknowledgmentRequested(), isa.getUsageIndicator(), isa.getComponentElementSeparatorChar(),
+                String.valueOf(isa.getElementSeparator()), String.valueOf(isa.getSegmentTerminator()),
+                gs.getFunctionalIdentifierCode(), gs.getApplicationSenderCode(), gs.getApplicationReceiverCode(),
+                gs.getResponsibleAgencyCode(), gs.getVersionReleaseIndustryCode());
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            return safe(destination) + "_" + safe(isa.getInterchangeReceiverId().trim()) + "_"
+                    + safe(gs.getFunctionalIdentifierCode()) + "_" + HexFormat.of().formatHex(hash, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String safe(String value) {
+        return UNSAFE.matcher(value).replaceAll("-");
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for (AggregationBatch batch : List.copyOf(batches.values())) {
+            if (now - batch.openedAt >= properties.getMaxWaitMs()) {
+                closeQuietly(batch);
+            }
+        }
+        sendReady();
+    }
+
+    private boolean closeQuietly(AggregationBatch batch) {
+        synchronized (batch) {
+            if (batch.closed) return false;
+            try {
+                close(batch);
+                return true;
+            } catch (Exception e) {
+                // Stays open, so the next tick tries again
+                batch.closed = false;
+                batches.putIfAbsent(batch.key, batch);
+                log.error("Could not close aggregation batch {}: {}", batch.spool.getFileName(), e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    // Called holding the batch. The control numbers are recorded first, so a crash part way through writes
+    // the same interchange again on restart instead of using new numbers.
+    private void close(AggregationBatch batch) throws IOException {
+        batch.closed = true;
+        batches.remove(batch.key, batch);
+        if (batch.getTransactionSets() == 0) {
+            batch.delete();
+            return;
+        }
+        String interchange = controlNumbers.nextInterchange(batch.isa.getInterchangeIdQualifierSender(),
+                batch.isa.getInterchangeSenderId(), batch.isa.getInterchangeIdQualifierReceiver(),
+                batch.isa.getInterchangeReceiverId());
+        String group = controlNumbers.nextGroup(batch.gs.getApplicationSenderCode(), batch.gs.getApplicationReceiverCode());
+        batch.markClosing(interchange, group);
+        Path ready = readyFile(batch, interchange);
+        // Not sent until the spool is gone, so a crash in between cannot send it twice
+        closing.add(ready);
+        try {
+            writeReady(batch, ready, interchange, group);
+            batch.delete();
+        } finally {
+            closing.remove(ready);
+        }
+        log.info("Closed aggregation batch for {} ({}): {} transaction sets in {} (ISA13 {})", batch.destination,
+                batch.isa.getInterchangeReceiverId().trim(), batch.getTransactionSets(), ready.getFileName(), interchange);
+    }
+
+    // Named by the batch key, which covers the ISA sender, so batches from different senders that draw the
+    // same ISA13 never collide
+    private Path readyFile(AggregationBatch batch, String interchange) {
+        return readyDirectory.resolve(batch.destination).resolve(batch.key + "_" + interchange + READY_SUFFIX);
+    }
+
+    // Never replaces a ready file: the spool is only deleted once its own interchange is in place
+    private void writeReady(AggregationBatch batch, Path ready, String interchange, String group) throws IOException {
+        Files.createDirectories(ready.getParent());
+        if (Files.exists(ready)) {
+            throw new FileAlreadyExistsException(ready.toString(), null, "written by another batch");
+        }
+        Path temp = ready.resolveSibling(ready.getFileName() + ".part");
+        LocalDateTime now = LocalDateTime.now();
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             BufferedOutputStream out = new BufferedOutputStream(file, 64 * 1024)) {
+            Writer text = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            X12Writer writer = new X12Writer(text, batch.isa, x12Properties.isLineBreaks());
+            writer.isa(batch.isa, now, interchange);
+            writer.gs(batch.gs, now, group);
+            writer.flush();
+            batch.copyContentTo(out);
+            writer.ge(batch.getTransactionSets(), group);
+            writer.iea(1, interchange);
+            writer.flush();
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, ready, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A ready file already there after a crash counts as this batch's only if its envelope and set count match
+    private boolean isReadyFileOf(AggregationBatch batch, Path ready, String interchange) {
+        X12ParseResult written = x12EnvelopeService.parseStreaming(ready);
+        long sets = written.getFunctionalGroups().stream().mapToLong(g -> g.getTransactionSets().size()).sum();
+        return interchange.equals(written.getIsa().getInterchangeControlNumber())
+                && batch.isa.getInterchangeSenderId().equals(written.getIsa().getInterchangeSenderId())
+                && batch.isa.getInterchangeReceiverId().equals(written.getIsa().getInterchangeReceiverId())
+                && sets == batch.getTransactionSets();
+    }
+
+    private void recover(Path meta) {
+        try {
+            Properties p = BatchMeta.read(meta);
+            AggregationBatch batch = AggregationBatch.recover(meta);
+            String interchange = p.getProperty("isa13");
+            if (interchange == null) {
+                batches.put(batch.key, batch);
+                return;
+            }
+            Path ready = readyFile(batch, interchange);
+            if (!Files.exists(ready)) {
+                writeReady(batch, ready, interchange, p.getProperty("gs06"));
+            } else if (!isReadyFileOf(batch, ready, interchange)) {
+                // Keep the spool: its sets were reported delivered and are not in that file
+                batch.closeChannel();
+                log.error("Aggregation batch {} was closing as {}, but that file holds another interchange; "
+                        + "spool kept for manual recovery", batch.spool.getFileName(), ready.getFileName());
+                return;
+            }
+            batch.delete();
+            log.info("Finished closing aggregation batch {} (ISA13 {})", batch.spool.getFileName(), interchange);
+        } catch (Exception e) {
+            log.error("Cannot recover aggregation batch {}: {}", meta.getFileName(), e.getMessage());
+        }
+    }
+
+    private List<Path> readyFiles() {
+        return list(readyDirectory);
+    }
+
+    private List<Path> list(Path root) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> destinations = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path destination : destinations) {
+                try (DirectoryStream<Path> ready = Files.newDirectoryStream(destination, "*" + READY_SUFFIX)) {
+                    ready.forEach(files::add);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list aggregated interchanges in {}: {}", root, e.getMessage());
+        }
+        return files;
+    }
+
+    private void sendReady() {
+        long now = System.currentTimeMillis();
+        for (Path file : list(sentDirectory)) {
+            if (sending.add(file)) {
+                archive(file).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        log.error("Could not archive aggregated interchange {}: {}", file.getFileName(), error.getMessage());
+                    }
+                    sending.remove(file);
+                });
+            }
+        }
+        for (Path file : readyFiles()) {
+            Retry retry = retries.get(file);
+            if (closing.contains(file)) continue;
+            if ((retry == null || retry.nextAttemptAt() <= now) && sending.add(file)) {
+                send(file);
+            }
+        }
+    }
+
+    private void send(Path file) {
+        String destination = file.getParent().getFileName().toString();
+        CompletableFuture<UploadResult> upload;
+        try {
+            upload = fileTransferService.uploadAsync(UploadSource.of(file), routingService.destination(destination));
+        } catch (Exception e) {
+            upload = CompletableFuture.failedFuture(e);
+        }
+        upload.thenCompose(result -> {
+            if (!result.isSuccess()) {
+                return CompletableFuture.failedFuture(new IOException(result.getMessage()));
+            }
+            log.info("Sent aggregated interchange {} to {} ({} bytes in {} ms)", file.getFileName(), destination,
+                    result.getBytes(), result.getDurationMs());
+            // Out of ready/ before anything else, so it is never sent twice
+            Path sent;
+            try {
+                sent = sentDirectory.resolve(destination).resolve(file.getFileName());
+                Files.createDirectories(sent.getParent());
+                Files.move(file, sent, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            retries.remove(file);
+            return archive(sent).exceptionally(archiveError -> {
+                log.error("Could not archive aggregated interchange {}: {}", sent.getFileName(), archiveError.getMessage());
+                return null;
+            });
+        }).whenComplete((ignored, error) -> {
+            if (error != null) {
+                Retry previous = retries.get(file);
+                long delay = previous == null ? properties.getRetryDelayMs()
+                        : Math.min(previous.delayMs() * 2, properties.getMaxRetryDelayMs());
+                retries.put(file, new Retry(System.currentTimeMillis() + delay, delay));
+                log.warn("Sending aggregated interchange {} to {} failed ({}); next attempt in {} ms",
+                        file.getFileName(), destination, error.getMessage(), delay);
+            }
+            sending.remove(file);
+        });
+    }
+
+    // Indexed like inbound files, so the interchange can be found by its envelope
+    private CompletableFuture<Void> archive(Path file) {
+        X12ParseResult parseResult;
+        try {
+            parseResult = x12EnvelopeService.parseStreaming(file);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long archivedAt = System.currentTimeMillis();
+        String partner = parseResult.getIsa().getInterchangeSenderId().trim();
+        return archiveStore.store(file, partner, archivedAt)
+                .thenRun(() -> {
+                    archiveIndex.add(parseResult, file.getFileName().toString(), partner, archivedAt);
+                    acknowledgmentIndex.sent(parseResult, file.getFileName().toString(),
+                            file.getParent().getFileName().toString());
+                });
+    }
+
+    private record Retry(long nextAttemptAt, long delayMs) {}
+}
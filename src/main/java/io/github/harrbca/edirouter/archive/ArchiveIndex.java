@@ -0,0 +1,287 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.ArchiveProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.model.FunctionalGroup;
+import io.github.harrbca.edirouter.x12.model.TransactionSet;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Embedded MVStore index over the envelopes of archived files. Records are keyed by id; each secondary map
+// holds keys of the form value \0 archivedAt \0 id, so an exact value plus a date range is one ordered range
+// scan and no file is ever opened. A query walks the most selective index it has a value for and filters the
+// rest; pages continue from an opaque cursor (the last key visited).
+@Slf4j
+@Component
+public class ArchiveIndex {
+
+    private static final char SEP = '\0';
+    private static final char LIST_SEP = '\u001F';
+    private static final int MAX_LIMIT = 1000;
+
+    private final ArchiveProperties properties;
+    private final Path file;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final AtomicLong nextId = new AtomicLong();
+    private MVStore store;
+    private MVMap<Long, String> records;
+    private MVMap<String, Long> byInterchange;
+    private MVMap<String, Long> byGroup;
+    private MVMap<String, Long> byTransactionControl;
+    private MVMap<String, Long> bySender;
+    private MVMap<String, Long> byReceiver;
+    private MVMap<String, Long> byTransactionCode;
+    private MVMap<String, Long> byDate;
+
+    public ArchiveIndex(ArchiveProperties properties, FileMonitorProperties monitorProperties,
+                        ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.file = monitorProperties.resolveDirectory(properties.getIndexDirectory())
+                .resolve(clusterProperties.getNodeId() + ".mv.db");
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isIndexEnabled()) return;
+        Files.createDirectories(file.getParent());
+        store = new MVStore.Builder().fileName(file.toString()).compress().open();
+        records = store.openMap("records");
+        byInterchange = store.openMap("isa13");
+        byGroup = store.openMap("gs06");
+        byTransactionControl = store.openMap("st02");
+        bySender = store.openMap("sender");
+        byReceiver = store.openMap("receiver");
+        byTransactionCode = store.openMap("st01");
+        byDate = store.openMap("date");
+        Long last = records.lastKey();
+        nextId.set(last == null ? 1 : last + 1);
+        log.info("Archive index at {}: {} files", file, records.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) store.close();
+    }
+
+    // Indexing is best effort: a file that is archived but not indexed is still in the archive. partner is what
+    // the file was archived under, so a search result can be opened from the store.
+    public void add(X12ParseResult parseResult, String fileName, String partner, long archivedAt) {
+        if (store == null) return;
+        try {
+            Set<String> groups = new LinkedHashSet<>();
+            Set<String> codes = new LinkedHashSet<>();
+            Set<String> controls = new LinkedHashSet<>();
+            for (FunctionalGroup group : parseResult.getFunctionalGroups()) {
+                groups.add(control(group.getGs().getGroupControlNumber()));
+                for (TransactionSet set : group.getTransactionSets()) {
+                    codes.add(trim(set.getTransactionSetIdentifierCode()));
+                    controls.add(control(set.getTransactionSetControlNumber()));
+                }
+            }
+            ArchivedInterchange record = ArchivedInterchange.builder()
+                    .id(nextId.getAndIncrement())
+                    .archivedAt(archivedAt)
+                    .fileName(fileName)
+                    .partner(trim(partner))
+                    .sender(partner(parseResult.getIsa().getInterchangeSenderId()))
+                    .receiver(partner(parseResult.getIsa().getInterchangeReceiverId()))
+                    .interchangeControlNumber(control(parseResult.getIsa().getInterchangeControlNumber()))
+                    .groupControlNumbers(List.copyOf(groups))
+                    .transactionSetCodes(List.copyOf(codes))
+                    .transactionSetControlNumbers(List.copyOf(controls))
+                    .build();
+
+            records.put(record.getId(), encode(record));
+            forEachKey(record, (map, key) -> map.put(key, record.getId()));
+        } catch (RuntimeException e) {
+            log.warn("Could not index archived file {}: {}", fileName, e.getMessage());
+        }
+    }
+
+    public SearchPage search(ArchiveQuery query) {
+        if (store == null) return new SearchPage(List.of(), null);
+
+        // Most selective first
+        MVMap<String, Long> index = byDate;
+        String value = null;
+        if (query.getInterchangeControlNumber() != null) {
+            index = byInterchange;
+            value = control(query.getInterchangeControlNumber());
+        } else if (query.getGroupControlNumber() != null) {
+            index = byGroup;
+            value = control(query.getGroupControlNumber());
+        } else if (query.getTransactionSetControlNumber() != null) {
+            index = byTransactionControl;
+            value = control(query.getTransactionSetControlNumber());
+        } else if (query.getSender() != null) {
+            index = bySender;
+            value = partner(query.getSender());
+        } else if (query.getReceiver() != null) {
+            index = byReceiver;
+            value = partner(query.getReceiver());
+        } else if (query.getTransactionSetCode() != null) {
+            index = byTransactionCode;
+            value = trim(query.getTransactionSetCode());
+        }
+
+        long fromMillis = query.getFrom() == null ? 0 : query.getFrom().atStartOfDay(zone).toInstant().toEpochMilli();
+        long toMillis = query.getTo() == null ? Long.MAX_VALUE
+                : query.getTo().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        String start = key(value, fromMillis, 0);
+        String end = key(value, toMillis, 0);
+        if (query.getAfter() != null) {
+            String after = new String(Base64.getUrlDecoder().decode(query.getAfter()), StandardCharsets.UTF_8);
+            if (after.compareTo(start) >= 0) start = after + SEP;
+        }
+
+        int limit = Math.max(1, Math.min(query.getLimit(), MAX_LIMIT));
+        List<ArchivedInterchange> results = new ArrayList<>(limit);
+        String lastKey = null;
+        Cursor<String, Long> cursor = index.cursor(start);
+        while (cursor.hasNext()) {
+            String key = cursor.next();
+            if (key.compareTo(end) >= 0) {
+                lastKey = null;
+                break;
+            }
+            lastKey = key;
+            String encoded = records.get(cursor.getValue());
+            if (encoded == null) continue;
+            ArchivedInterchange record = decode(encoded);
+            if (matches(record, query)) {
+                results.add(record);
+                if (results.size() == limit) break;
+            }
+        }
+        boolean more = lastKey != null && results.size() == limit;
+        String next = more ? Base64.getUrlEncoder().withoutPadding().encodeToString(lastKey.getBytes(StandardCharsets.UTF_8)) : null;
+        return new SearchPage(results, next);
+    }
+
+    // Removes index entries for files archived before the given day, in step with archive retention
+    public int purgeBefore(LocalDate day) {
+        if (store == null) return 0;
+        String end = key(null, day.atStartOfDay(zone).toInstant().toEpochMilli(), 0);
+        List<Long> expired = new ArrayList<>();
+        Cursor<String, Long> cursor = byDate.cursor(null);
+        while (cursor.hasNext() && cursor.next().compareTo(end) < 0) {
+            expired.add(cursor.getValue());
+        }
+        for (Long id : expired) {
+            String encoded = records.remove(id);
+            if (encoded != null) {
+                forEachKey(decode(encoded), MVMap::remove);
+            }
+        }
+        store.commit();
+        return expired.size();
+    }
+
+    public long size() {
+        return store == null ? 0 : records.sizeAsLong();
+    }
+
+    private static boolean matches(ArchivedInterchange r, ArchiveQuery q) {
+        return (q.getSender() == null || partner(q.getSender()).equals(r.getSender()))
+                && (q.getReceiver() == null || partner(q.getReceiver()).equals(r.getReceiver()))
+                && (q.getInterchangeControlNumber() == null
+                    || control(q.getInterchangeControlNumber()).equals(r.getInterchangeControlNumber()))
+                && (q.getGroupControlNumber() == null
+                    || r.getGroupControlNumbers().contains(control(q.getGroupControlNumber())))
+                && (q.getTransactionSetCode() == null
+                    || r.getTransactionSetCodes().contains(trim(q.getTransactionSetCode())))
+                && (q.getTransactionSetControlNumber() == null
+                    || r.getTransactionSetControlNumbers().contains(control(q.getTransactionSetControlNumber())));
+    }
+
+    private void forEachKey(ArchivedInterchange r, IndexAction action) {
+        long at = r.getArchivedAt();
+        long id = r.getId();
+        action.apply(byDate, key(null, at, id));
+        action.apply(byInterchange, key(r.getInterchangeControlNumber(), at, id));
+        action.apply(bySender, key(r.getSender(), at, id));
+        action.apply(byReceiver, key(r.getReceiver(), at, id));
+        r.getGroupControlNumbers().forEach(v -> action.apply(byGroup, key(v, at, id)));
+        r.getTransactionSetCodes().forEach(v -> action.apply(byTransactionCode, key(v, at, id)));
+        r.getTransactionSetControlNumbers().forEach(v -> action.apply(byTransactionControl, key(v, at, id)));
+    }
+
+    // Fixed-width numbers so string order is time order
+    private static String key(String value, long archivedAt, long id) {
+        String time = String.format("%019d", archivedAt) + SEP + String.format("%019d", id);
+        return value == null ? time : value + SEP + time;
+    }
+
+    private static String encode(ArchivedInterchange r) {
+        return String.join("\t", Long.toString(r.getId()), Long.toString(r.getArchivedAt()), r.getFileName(),
+                r.getSender(), r.getReceiver(), r.getInterchangeControlNumber(),
+                String.join(String.valueOf(LIST_SEP), r.getGroupControlNumbers()),
+                String.join(String.valueOf(LIST_SEP), r.getTransactionSetCodes()),
+                String.join(String.valueOf(LIST_SEP), r.getTransactionSetControlNumbers()), r.getPartner());
+    }
+
+    private static ArchivedInterchange decode(String encoded) {
+        String[] f = encoded.split("\t", -1);
+        return ArchivedInterchange.builder()
+                .id(Long.parseLong(f[0]))
+                .archivedAt(Long.parseLong(f[1]))
+                .fileName(f[2])
+                .sender(f[3])
+                .receiver(f[4])
+                .interchangeControlNumber(f[5])
+                .groupControlNumbers(list(f[6]))
+                .transactionSetCodes(list(f[7]))
+                .transactionSetControlNumbers(list(f[8]))
+                .partner(f[9])
+                .build();
+    }
+
+    private static List<String> list(String joined) {
+        return joined.isEmpty() ? List.of() : Arrays.asList(joined.split(String.valueOf(LIST_SEP)));
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    // Partner ids are matched trimmed and case-insensitively
+    private static String partner(String value) {
+        return trim(value).toUpperCase();
+    }
+
+    // Control numbers are matched without leading zeros, so 4711 finds ISA13 000004711
+    private static String control(String value) {
+        String trimmed = trim(value);
+        int i = 0;
+        while (i < trimmed.length() - 1 && trimmed.charAt(i) == '0') i++;
+        return trimmed.substring(i);
+    }
+
+    @FunctionalInterface
+    private interface IndexAction {
+        void apply(MVMap<String, Long> map, String key);
+    }
+
+    public record SearchPage(List<ArchivedInterchange> results, String nextCursor) {}
+}
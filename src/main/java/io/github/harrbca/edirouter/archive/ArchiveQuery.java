@@ -0,0 +1,25 @@
+package io.github.harrbca.edirouter.archive;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+
+// Every field is optional; the ones given must all match. Dates are archive days, both inclusive.
+@Value
+@Builder(toBuilder = true)
+public class ArchiveQuery {
+
+    String sender;
+    String receiver;
+    String interchangeControlNumber;
+    String groupControlNumber;
+    String transactionSetCode;
+    String transactionSetControlNumber;
+    LocalDate from;
+    LocalDate to;
+    @Builder.Default
+    int limit = 50;
+    // nextCursor of the previous page
+    String after;
+}
@@ -0,0 +1,50 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.ArchiveProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.ScheduledFuture;
+
+// Drops archived days older than app.archive.retention-days
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ArchiveRetention {
+
+    private final ArchiveProperties properties;
+    private final ArchiveStore archiveStore;
+    private final ArchiveIndex archiveIndex;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private ScheduledFuture<?> task;
+
+    @PostConstruct
+    public void start() {
+        if (properties.getRetentionDays() <= 0) return;
+        task = fileMonitorScheduler.scheduleWithFixedDelay(this::purge, Duration.ofMillis(properties.getMaintenanceIntervalMs()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) task.cancel(false);
+    }
+
+    private void purge() {
+        LocalDate cutoff = LocalDate.now().minusDays(properties.getRetentionDays());
+        try {
+            int removed = archiveStore.purgeBefore(cutoff);
+            archiveIndex.purgeBefore(cutoff);
+            if (removed > 0) {
+                log.info("Archive retention removed {} entries archived before {}", removed, cutoff);
+            }
+        } catch (Exception e) {
+            log.warn("Archive retention failed: {}", e.getMessage());
+        }
+    }
+}
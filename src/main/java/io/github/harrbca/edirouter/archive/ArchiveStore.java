@@ -0,0 +1,21 @@
+package io.github.harrbca.edirouter.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Where successfully processed files end up. The partner is the trimmed ISA sender.
+public interface ArchiveStore {
+
+    // Takes the file over: once this completes it is archived and gone from where it was
+    CompletableFuture<Void> store(Path file, String partner, long archivedAt);
+
+    // The most recently archived file with this name for the day and partner
+    Optional<InputStream> open(LocalDate day, String partner, String fileName) throws IOException;
+
+    // Drops everything archived before the given day; returns how many entries (files or partitions) went
+    int purgeBefore(LocalDate day) throws IOException;
+}
@@ -0,0 +1,33 @@
+package io.github.harrbca.edirouter.archive;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+// Envelope data of one archived file, as kept in the ArchiveIndex
+@Value
+@Builder
+public class ArchivedInterchange {
+
+    long id;
+    long archivedAt;
+    String fileName;
+    // The partner the file was archived under, as given to ArchiveStore.store; a compressed file goes under its
+    // first entry's sender, so this can differ from sender
+    String partner;
+    String sender;
+    String receiver;
+    String interchangeControlNumber;
+    List<String> groupControlNumbers;
+    List<String> transactionSetCodes;
+    List<String> transactionSetControlNumbers;
+
+    // The day of the archive partition the file went to
+    public LocalDate getArchivedDay() {
+        return Instant.ofEpochMilli(archivedAt).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+}
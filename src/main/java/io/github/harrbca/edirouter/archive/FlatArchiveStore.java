@@ -0,0 +1,52 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.service.FileMover;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Every file moved as-is into one archive directory; day and partner are not part of the layout
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.archive", name = "mode", havingValue = "FLAT", matchIfMissing = true)
+public class FlatArchiveStore implements ArchiveStore {
+
+    private final FileMonitorProperties properties;
+    private final FileMover fileMover;
+
+    @Override
+    public CompletableFuture<Void> store(Path file, String partner, long archivedAt) {
+        return fileMover.moveWithRetry(file, properties.getArchiveDirectoryPath().resolve(file.getFileName()))
+                .thenApply(moved -> null);
+    }
+
+    @Override
+    public Optional<InputStream> open(LocalDate day, String partner, String fileName) throws IOException {
+        Path file = properties.getArchiveDirectoryPath().resolve(fileName);
+        return Files.isRegularFile(file) ? Optional.of(Files.newInputStream(file)) : Optional.empty();
+    }
+
+    // Has to look at every file, which is what the packed layout avoids
+    @Override
+    public int purgeBefore(LocalDate day) throws IOException {
+        long cutoff = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(properties.getArchiveDirectoryPath(), Files::isRegularFile)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff && Files.deleteIfExists(file)) removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,376 @@
+package io.github.harrbca.edirouter.archive;
+
+import io.github.harrbca.edirouter.config.ArchiveProperties;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Appends archived files to rolling packs under archive/<yyyy-MM-dd>/<partner>/. Each file is its own gzip
+// member, so a pack is a valid .gz as a whole and any single file can be inflated on its own from the offset
+// in the pack's index. A partition holds a handful of packs instead of one file per archived file, and
+// retention deletes whole day directories. Every node writes its own packs, so nodes never share a writer.
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.archive", name = "mode", havingValue = "PACKED")
+public class PackedArchiveStore implements ArchiveStore {
+
+    private static final String PACK_SUFFIX = ".gz";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String UNKNOWN_PARTNER = "_unknown";
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final ArchiveProperties properties;
+    private final Path root;
+    private final String nodeId;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Map<Path, PackWriter> writers = new ConcurrentHashMap<>();
+    private volatile LocalDate currentDay;
+
+    public PackedArchiveStore(ArchiveProperties properties, FileMonitorProperties monitorProperties,
+                              ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.root = monitorProperties.getArchiveDirectoryPath();
+        this.nodeId = clusterProperties.getNodeId();
+    }
+
+    // Appends on the calling thread; the future is already complete when this returns
+    @Override
+    public CompletableFuture<Void> store(Path file, String partner, long archivedAt) {
+        try {
+            append(file, partner, archivedAt);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void append(Path file, String partner, long archivedAt) throws IOException {
+        LocalDate day = Instant.ofEpochMilli(archivedAt).atZone(zone).toLocalDate();
+        if (!day.equals(currentDay)) {
+            rollDay(day);
+        }
+        Path partition = partition(day, partner);
+        while (true) {
+            PackWriter writer;
+            try {
+                writer = writers.computeIfAbsent(partition, this::openWriter);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (writer.append(file, archivedAt)) break;
+            // Closed by a day roll or purge between lookup and append
+            writers.remove(partition, writer);
+        }
+        Files.delete(file);
+    }
+
+    @Override
+    public Optional<InputStream> open(LocalDate day, String partner, String fileName) throws IOException {
+        Path partition = partition(day, partner);
+        if (!Files.isDirectory(partition)) return Optional.empty();
+
+        IndexEntry found = null;
+        Path foundPack = null;
+        for (Path index : list(partition, "*" + INDEX_SUFFIX)) {
+            for (IndexEntry entry : readIndex(index).entries) {
+                if (entry.name.equals(fileName) && (found == null || entry.archivedAt >= found.archivedAt)) {
+                    found = entry;
+                    foundPack = packFor(index);
+                }
+            }
+        }
+        if (found == null) return Optional.empty();
+
+        // Streamed from the pack, so members of any size are read without holding them in memory. The bound keeps
+        // GZIPInputStream from reading on into the next member, which it would take as a concatenated one.
+        FileChannel pack = FileChannel.open(foundPack, StandardOpenOption.READ);
+        try {
+            if (pack.size() < found.offset + found.length) {
+                throw new IOException("Archive pack is shorter than its index: " + foundPack);
+            }
+            pack.position(found.offset);
+            return Optional.of(new GZIPInputStream(new MemberInputStream(Channels.newInputStream(pack), found.length),
+                    READ_BUFFER_BYTES));
+        } catch (IOException | RuntimeException e) {
+            pack.close();
+            throw e;
+        }
+    }
+
+    // One directory delete per day, however many files were archived that day
+    @Override
+    public int purgeBefore(LocalDate day) throws IOException {
+        int removed = 0;
+        for (Path dayDirectory : list(root, "*")) {
+            LocalDate archived;
+            try {
+                archived = LocalDate.parse(dayDirectory.getFileName().toString());
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if (!archived.isBefore(day)) continue;
+            closeWriters(path -> path.startsWith(dayDirectory));
+            removed += list(dayDirectory, "*").size();
+            try (Stream<Path> walk = Files.walk(dayDirectory)) {
+                for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            log.info("Archive retention dropped {}", dayDirectory.getFileName());
+        }
+        return removed;
+    }
+
+    @PreDestroy
+    public void close() {
+        closeWriters(path -> true);
+    }
+
+    private synchronized void rollDay(LocalDate day) {
+        if (day.equals(currentDay)) return;
+        currentDay = day;
+        Path dayDirectory = root.resolve(day.toString());
+        closeWriters(path -> !path.startsWith(dayDirectory));
+    }
+
+    private void closeWriters(Predicate<Path> which) {
+        writers.entrySet().removeIf(e -> {
+            if (!which.test(e.getKey())) return false;
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    private Path partition(LocalDate day, String partner) {
+        String name = partner == null || partner.isBlank() ? UNKNOWN_PARTNER : partner.trim().replaceAll("[^A-Za-z0-9._-]", "_");
+        return root.resolve(day.toString()).resolve(name);
+    }
+
+    private PackWriter openWriter(Path partition) {
+        try {
+            Files.createDirectories(partition);
+            String prefix = "pack-" + nodeId + "-";
+            List<Path> own = list(partition, prefix + "*" + INDEX_SUFFIX);
+            int number = own.isEmpty() ? 1 : number(own.getLast(), prefix);
+            return new PackWriter(partition, prefix, number, properties.getPackMaxBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open archive pack in " + partition, e);
+        }
+    }
+
+    private static int number(Path index, String prefix) {
+        String name = index.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - INDEX_SUFFIX.length()));
+    }
+
+    private static Path packFor(Path index) {
+        String name = index.getFileName().toString();
+        return index.resolveSibling(name.substring(0, name.length() - INDEX_SUFFIX.length()) + PACK_SUFFIX);
+    }
+
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return out;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, glob)) {
+            entries.forEach(out::add);
+        }
+        out.sort(Comparator.naturalOrder());
+        return out;
+    }
+
+    // Index lines are name, offset, compressed length, original size, archivedAt. A torn last line (crash while
+    // appending) is ignored, and validBytes marks where it starts so the writer can cut it off.
+    private static Index readIndex(Path index) throws IOException {
+        byte[] bytes = Files.exists(index) ? Files.readAllBytes(index) : new byte[0];
+        List<IndexEntry> entries = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            String[] f = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).split("\t");
+            int n = f.length;
+            if (n >= 5) {
+                String name = String.join("\t", Arrays.copyOf(f, n - 4));
+                entries.add(new IndexEntry(name, Long.parseLong(f[n - 4]), Long.parseLong(f[n - 3]),
+                        Long.parseLong(f[n - 2]), Long.parseLong(f[n - 1])));
+            }
+            lineStart = i + 1;
+        }
+        return new Index(entries, lineStart);
+    }
+
+    private record IndexEntry(String name, long offset, long length, long size, long archivedAt) {}
+
+    private record Index(List<IndexEntry> entries, long validBytes) {}
+
+    private static final class PackWriter {
+
+        private final Path partition;
+        private final String prefix;
+        private final long maxBytes;
+        private int number;
+        private FileChannel pack;
+        private FileChannel index;
+        private boolean closed;
+
+        PackWriter(Path partition, String prefix, int number, long maxBytes) throws IOException {
+            this.partition = partition;
+            this.prefix = prefix;
+            this.maxBytes = maxBytes;
+            this.number = number;
+            openPack();
+        }
+
+        synchronized boolean append(Path file, long archivedAt) throws IOException {
+            if (closed) return false;
+            if (pack.position() >= maxBytes) {
+                closeChannels();
+                number++;
+                openPack();
+            }
+
+            long offset = pack.position();
+            long size;
+            try (GZIPOutputStream gzip = new GZIPOutputStream(new KeepOpen(Channels.newOutputStream(pack)), 64 * 1024)) {
+                size = Files.copy(file, gzip);
+            }
+            long length = pack.position() - offset;
+            // The pack is on disk before the index points into it
+            pack.force(false);
+
+            String line = file.getFileName() + "\t" + offset + "\t" + length + "\t" + size + "\t" + archivedAt + "\n";
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                index.write(buffer);
+            }
+            index.force(false);
+            return true;
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                closeChannels();
+            } catch (IOException e) {
+                log.warn("Error closing archive pack in {}: {}", partition, e.getMessage());
+            }
+        }
+
+        // Reopening after a crash cuts both files back to what the index fully describes
+        private void openPack() throws IOException {
+            Path indexPath = partition.resolve(prefix + String.format("%06d", number) + INDEX_SUFFIX);
+            Index existing = readIndex(indexPath);
+            long packEnd = existing.entries.stream().mapToLong(e -> e.offset + e.length).max().orElse(0);
+
+            pack = FileChannel.open(packFor(indexPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            pack.truncate(packEnd);
+            pack.position(packEnd);
+            index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            index.truncate(existing.validBytes);
+            index.position(existing.validBytes);
+        }
+
+        private void closeChannels() throws IOException {
+            try {
+                pack.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    // Lets the gzip stream finish its member without closing the pack channel underneath
+    private static final class KeepOpen extends FilterOutputStream {
+
+        KeepOpen(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // Ends after one member's bytes; closing it closes the pack channel
+    private static final class MemberInputStream extends FilterInputStream {
+        private long remaining;
+
+        MemberInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -1,7 +1,19 @@
 package io.github.harrbca.edirouter.cli;
 
+import io.github.harrbca.edirouter.ack.AcknowledgmentIndex;
+import io.github.harrbca.edirouter.aggregation.OutboundAggregator;
+import io.github.harrbca.edirouter.archive.ArchiveIndex;
+import io.github.harrbca.edirouter.archive.ArchiveQuery;
+import io.github.harrbca.edirouter.archive.ArchiveStore;
+import io.github.harrbca.edirouter.archive.ArchivedInterchange;
 import io.github.harrbca.edirouter.config.CliProperties;
+import io.github.harrbca.edirouter.errorqueue.RetryState;
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import io.github.harrbca.edirouter.model.MemoryStats;
+import io.github.harrbca.edirouter.pgp.PgpKeyCache;
+import io.github.harrbca.edirouter.model.StageStats;
 import io.github.harrbca.edirouter.model.fileTransfer.*;
+import io.github.harrbca.edirouter.service.FileMonitorService;
 import io.github.harrbca.edirouter.service.FileTransferService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,12 +23,21 @@ import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Scanner;
 
 @Slf4j
@@ -26,7 +47,13 @@ import java.util.Scanner;
 public class InteractiveCliService {
 
     private final FileTransferService fileTransferService;
+    private final FileMonitorService fileMonitorService;
     private final CliProperties cliProperties;
+    private final ArchiveStore archiveStore;
+    private final ArchiveIndex archiveIndex;
+    private final PgpKeyCache pgpKeyCache;
+    private final OutboundAggregator outboundAggregator;
+    private final AcknowledgmentIndex acknowledgmentIndex;
     private TransferTarget currentConnection;
     private boolean running = true;
 
@@ -65,6 +92,19 @@ public class InteractiveCliService {
                 case "upload" -> handleUpload(parts);
                 case "ls", "list" -> handleList(parts);
                 case "pwd" -> showCurrentDirectory();
+                case "transfers" -> showTransferUtilization();
+                case "endpoints" -> showEndpointHealth();
+                case "queues" -> showProcessingQueues();
+                case "stages" -> showPipelineStages();
+                case "nodes" -> showClusterNodes();
+                case "memory" -> showMemoryBudget();
+                case "pgp" -> showPgpKeys();
+                case "batches" -> handleBatches(parts);
+                case "unacked" -> handleUnacked(parts);
+                case "archived" -> handleArchived(parts);
+                case "search" -> handleSearch(parts);
+                case "errors" -> showErrorQueue();
+                case "retry" -> handleRetry(parts);
                 case "quit", "exit" -> {
                     running = false;
                     System.out.println("Goodbye!");
@@ -85,6 +125,8 @@ public class InteractiveCliService {
               connect <protocol> <host> <username> <password> [port] [directory]
                 - Connect to FTP/SFTP server
                 - Example: connect ftp example.com user pass 21 /uploads
+              connect local <directory>
+                - Deliver to a local or shared-mount directory
               disconnect          - Disconnect from current server
               status              - Show connection status
             
@@ -96,6 +138,22 @@ public class InteractiveCliService {
                 - List remote directory contents
                 - Example: ls /uploads *.txt
               pwd                 - Show current remote directory
+              transfers           - Show per-destination session and bandwidth utilization
+              endpoints           - Show per-host latency, error rate and failover health
+              queues              - Show per-root processing workers, queue depth and rejections
+              stages              - Show pipeline stage workers, queues and latency
+              nodes               - Show nodes sharing the processing directory and their heartbeat age
+              memory              - Show the parse memory budget, current reservation and streamed parses
+              pgp                 - Show partner PGP keys and whether they are loaded
+              batches [flush]     - Show open outbound aggregation batches; flush closes and sends them now
+              unacked [hours]     - Show sent groups with no 997/999 after the given or configured hours
+              archived <yyyy-MM-dd> <partner> <file> [local-path]
+                - Print an archived file, or restore it to local-path; day, partner and file as search lists them
+              search [sender=] [receiver=] [isa13=] [gs06=] [st01=] [st02=] [from=] [to=] [limit=] [after=]
+                - Find archived files by envelope fields; dates are yyyy-MM-dd
+                - Example: search receiver=PARTNERX st01=856 isa13=4711
+              errors              - Show failed files waiting for an automatic retry
+              retry <file|id>     - Retry a waiting file now instead of at its scheduled time
             
             General:
               help                - Show this help message
@@ -104,6 +162,11 @@ public class InteractiveCliService {
     }
 
     private void handleConnect(String[] parts) {
+        if (parts.length == 3 && parts[1].equalsIgnoreCase("local")) {
+            connectLocal(parts[2]);
+            return;
+        }
+
         if (parts.length < 5) {
             System.out.println("Usage: connect <protocol> <host> <username> <password> [port] [directory]");
             System.out.println("Example: connect ftp example.com user pass 21 /uploads");
@@ -121,7 +184,7 @@ public class InteractiveCliService {
         try {
             proto = Protocol.valueOf(protocol);
         } catch (IllegalArgumentException e) {
-            System.out.println("Invalid protocol: " + protocol + ". Use FTP or SFTP");
+            System.out.println("Invalid protocol: " + protocol + ". Use one of " + Arrays.toString(Protocol.values()));
             return;
         }
 
@@ -146,6 +209,22 @@ public class InteractiveCliService {
         }
     }
 
+    private void connectLocal(String directory) {
+        currentConnection = TransferTarget.builder()
+                .protocol(Protocol.LOCAL)
+                .remoteDirectory(directory)
+                .build();
+
+        try {
+            List<RemoteFileInfo> files = fileTransferService.listDirectory(currentConnection);
+            System.out.println("✓ Connected to local directory " + directory);
+            System.out.println("Found " + files.size() + " items in directory");
+        } catch (Exception e) {
+            System.err.println("✗ Connection failed: " + e.getMessage());
+            currentConnection = null;
+        }
+    }
+
     private void handleDisconnect() {
         if (currentConnection == null) {
             System.out.println("No active connection.");
@@ -267,6 +346,227 @@ public class InteractiveCliService {
         }
     }
 
+    private void showTransferUtilization() {
+        List<DestinationUtilization> destinations = fileTransferService.getDestinationUtilization();
+
+        System.out.printf("%-40s %9s %8s %12s %12s %12s%n", "Destination", "Sessions", "Waiting", "Rate B/s", "Limit B/s", "Total bytes");
+        System.out.println("-".repeat(98));
+        printUtilization(fileTransferService.getGlobalUtilization());
+        destinations.forEach(this::printUtilization);
+    }
+
+    private void printUtilization(DestinationUtilization u) {
+        String sessions = u.getActiveSessions() + "/" + (u.getMaxConcurrentSessions() > 0 ? u.getMaxConcurrentSessions() : "-");
+        String limit = u.getMaxBytesPerSecond() > 0 ? String.valueOf(u.getMaxBytesPerSecond()) : "-";
+        System.out.printf("%-40s %9s %8d %12d %12s %12d%n", u.getDestination(), sessions, u.getWaitingSessions(),
+                u.getCurrentBytesPerSecond(), limit, u.getTotalBytes());
+    }
+
+    private void showEndpointHealth() {
+        List<EndpointHealth> endpoints = fileTransferService.getEndpointHealth();
+        if (endpoints.isEmpty()) {
+            System.out.println("No endpoint statistics yet.");
+            return;
+        }
+
+        System.out.printf("%-40s %-9s %10s %12s %8s %8s %8s%n", "Endpoint", "Health", "Connect ms", "ms/MB", "Errors", "OK", "Failed");
+        System.out.println("-".repeat(101));
+        for (EndpointHealth e : endpoints) {
+            System.out.printf("%-40s %-9s %10.1f %12.1f %7.0f%% %8d %8d%n", e.getEndpoint(),
+                    e.isHealthy() ? "healthy" : "cooldown", e.getConnectMs(), e.getTransferMsPerMb(),
+                    e.getErrorRate() * 100, e.getSuccesses(), e.getFailures());
+        }
+    }
+
+    private void showProcessingQueues() {
+        System.out.printf("%-24s %-8s %9s %11s %10s %8s %9s%n", "Root", "Mode", "Workers", "Queue", "Completed", "Failed", "Rejected");
+        System.out.println("-".repeat(85));
+        for (ExecutorStats stats : fileMonitorService.getProcessingStats()) {
+            System.out.printf("%-24s %-8s %9s %11s %10d %8d %9d%n", stats.getName(), stats.getMode(),
+                    stats.getActiveWorkers() + "/" + stats.getMaxConcurrency(),
+                    stats.getQueueDepth() + "/" + stats.getQueueCapacity(),
+                    stats.getCompleted(), stats.getFailed(), stats.getRejected());
+        }
+        fileMonitorService.getQueuedByClass().forEach((root, byClass) ->
+                System.out.println("Waiting in " + root + ": " + byClass));
+        System.out.println("Waiting for partner order: " + fileMonitorService.getOrderedWaitingCount());
+        System.out.println("Awaiting stability: " + fileMonitorService.getPendingStabilityCount());
+    }
+
+    private void showPipelineStages() {
+        System.out.printf("%-10s %9s %11s %10s %8s %10s %12s %10s%n", "Stage", "Workers", "Queue", "Completed", "Failed", "Wait ms", "Service ms", "Max ms");
+        System.out.println("-".repeat(87));
+        for (StageStats s : fileMonitorService.getStageStats()) {
+            System.out.printf("%-10s %9s %11s %10d %8d %10.1f %12.1f %10.1f%n", s.getName(),
+                    s.getActiveWorkers() + "/" + s.getWorkers(), s.getQueueDepth() + "/" + s.getQueueCapacity(),
+                    s.getCompleted(), s.getFailed(), s.getAvgQueueWaitMs(), s.getAvgServiceMs(), s.getMaxServiceMs());
+        }
+    }
+
+    private void showMemoryBudget() {
+        MemoryStats m = fileMonitorService.getMemoryStats();
+        double mb = 1024.0 * 1024.0;
+        System.out.printf("Parse budget:     %.1f MB%n", m.getBudgetBytes() / mb);
+        System.out.printf("Reserved:         %.1f MB in %d parses (peak %.1f MB)%n", m.getReservedBytes() / mb,
+                m.getActiveReservations(), m.getPeakReservedBytes() / mb);
+        System.out.printf("Whole-file parses: %d, streamed: %d%n", m.getWholeFileParses(), m.getStreamedParses());
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("Heap:             %.1f / %.1f MB%n", (rt.totalMemory() - rt.freeMemory()) / mb, rt.maxMemory() / mb);
+    }
+
+    private void showClusterNodes() {
+        System.out.printf("%-30s %15s%n", "Node", "Heartbeat age");
+        System.out.println("-".repeat(46));
+        for (Map.Entry<String, Long> node : fileMonitorService.getNodeHeartbeats().entrySet()) {
+            System.out.printf("%-30s %12.1f s%n", node.getKey(), node.getValue() / 1000.0);
+        }
+    }
+
+    private void showPgpKeys() {
+        System.out.printf("%-20s %-18s %s%n", "Partner", "Key ID", "Status");
+        System.out.println("-".repeat(50));
+        for (PgpKeyCache.KeyInfo key : pgpKeyCache.getPartnerKeys()) {
+            System.out.printf("%-20s %-18s %s%n", key.partner(), key.keyId() == null ? "-" : key.keyId(),
+                    key.loaded() ? "cached" : "not used yet");
+        }
+    }
+
+    private void handleBatches(String[] parts) {
+        if (parts.length > 1 && parts[1].equalsIgnoreCase("flush")) {
+            System.out.println("Closed " + outboundAggregator.flush() + " batches");
+            return;
+        }
+        System.out.printf("%-20s %-16s %-4s %8s %12s %10s%n", "Destination", "Receiver", "GS01", "Sets", "Bytes", "Age");
+        System.out.println("-".repeat(75));
+        for (OutboundAggregator.BatchInfo b : outboundAggregator.getOpenBatches()) {
+            System.out.printf("%-20s %-16s %-4s %8d %12d %8.1f s%n", b.destination(), b.receiver(), b.functionalId(),
+                    b.transactionSets(), b.bytes(), b.ageMs() / 1000.0);
+        }
+        System.out.println("Ready to send: " + outboundAggregator.getReadyCount());
+    }
+
+    private void handleUnacked(String[] parts) {
+        List<AcknowledgmentIndex.Outstanding> overdue;
+        try {
+            overdue = parts.length > 1
+                    ? acknowledgmentIndex.overdue(Duration.ofHours(Long.parseLong(parts[1])).toMillis(), 100)
+                    : acknowledgmentIndex.overdue(100);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: unacked [hours]");
+            return;
+        }
+        System.out.printf("%-16s %-4s %-10s %-10s %-20s %s%n", "Partner", "GS01", "GS06", "ISA13", "Sent", "File");
+        System.out.println("-".repeat(90));
+        for (AcknowledgmentIndex.Outstanding o : overdue) {
+            System.out.printf("%-16s %-4s %-10s %-10s %-20s %s%n", o.partner(), o.functionalId(), o.groupControlNumber(),
+                    o.interchangeControlNumber(), Instant.ofEpochMilli(o.sentAt()).atZone(ZoneId.systemDefault())
+                            .toLocalDateTime().withNano(0), o.fileName());
+        }
+        System.out.println(overdue.size() + " overdue shown, " + acknowledgmentIndex.size() + " awaiting acknowledgment");
+    }
+
+    private void handleArchived(String[] parts) {
+        if (parts.length < 4) {
+            System.out.println("Usage: archived <yyyy-MM-dd> <partner> <file> [local-path]");
+            return;
+        }
+
+        try {
+            Optional<InputStream> content = archiveStore.open(LocalDate.parse(parts[1]), parts[2], parts[3]);
+            if (content.isEmpty()) {
+                System.out.println("Not in the archive: " + parts[3]);
+                return;
+            }
+            try (InputStream in = content.get()) {
+                if (parts.length > 4) {
+                    long bytes = Files.copy(in, Paths.get(parts[4]), StandardCopyOption.REPLACE_EXISTING);
+                    System.out.println("Restored " + bytes + " bytes to " + parts[4]);
+                } else {
+                    System.out.println(new String(in.readAllBytes()));
+                }
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date: " + parts[1]);
+        } catch (Exception e) {
+            System.out.println("Error reading archive: " + e.getMessage());
+        }
+    }
+
+    private void handleSearch(String[] parts) {
+        ArchiveQuery.ArchiveQueryBuilder query = ArchiveQuery.builder();
+        try {
+            for (String part : Arrays.copyOfRange(parts, 1, parts.length)) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) {
+                    System.out.println("Expected field=value, got: " + part);
+                    return;
+                }
+                String value = part.substring(eq + 1);
+                switch (part.substring(0, eq).toLowerCase()) {
+                    case "sender" -> query.sender(value);
+                    case "receiver" -> query.receiver(value);
+                    case "isa13" -> query.interchangeControlNumber(value);
+                    case "gs06" -> query.groupControlNumber(value);
+                    case "st01" -> query.transactionSetCode(value);
+                    case "st02" -> query.transactionSetControlNumber(value);
+                    case "from" -> query.from(LocalDate.parse(value));
+                    case "to" -> query.to(LocalDate.parse(value));
+                    case "limit" -> query.limit(Integer.parseInt(value));
+                    case "after" -> query.after(value);
+                    default -> {
+                        System.out.println("Unknown search field: " + part.substring(0, eq));
+                        return;
+                    }
+                }
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            System.out.println("Invalid value: " + e.getMessage());
+            return;
+        }
+
+        long started = System.nanoTime();
+        ArchiveIndex.SearchPage page = archiveIndex.search(query.build());
+        double ms = (System.nanoTime() - started) / 1_000_000.0;
+
+        // Day, partner and file are what the archived command takes
+        System.out.printf("%-10s %-15s %-15s %-15s %-9s %-12s %s%n", "Day", "Partner", "Sender", "Receiver", "ISA13",
+                "Types", "File");
+        System.out.println("-".repeat(96));
+        for (ArchivedInterchange r : page.results()) {
+            System.out.printf("%-10s %-15s %-15s %-15s %-9s %-12s %s%n", r.getArchivedDay(), r.getPartner(),
+                    r.getSender(), r.getReceiver(),
+                    r.getInterchangeControlNumber(), String.join(",", r.getTransactionSetCodes()), r.getFileName());
+        }
+        System.out.printf("%d results in %.2f ms%n", page.results().size(), ms);
+        if (page.nextCursor() != null) {
+            System.out.println("More: add after=" + page.nextCursor());
+        }
+    }
+
+    private void showErrorQueue() {
+        List<RetryState> pending = fileMonitorService.getPendingRetries();
+        if (pending.isEmpty()) {
+            System.out.println("No files waiting for a retry.");
+            return;
+        }
+        System.out.printf("%-36s %-30s %8s %-20s %s%n", "Id", "File", "Failures", "Next attempt", "Last error");
+        System.out.println("-".repeat(127));
+        for (RetryState r : pending) {
+            System.out.printf("%-36s %-30s %8d %-20s %s%n", r.id(), r.fileName(), r.attempts(),
+                    Instant.ofEpochMilli(r.nextAttemptAt()).atZone(ZoneId.systemDefault())
+                            .toLocalDateTime().withNano(0), r.lastError());
+        }
+    }
+
+    private void handleRetry(String[] parts) {
+        if (parts.length < 2) {
+            System.out.println("Usage: retry <file or id>");
+            return;
+        }
+        System.out.println(fileMonitorService.retryNow(parts[1])
+                ? "Retrying " + parts[1] : "Not waiting for a retry: " + parts[1]);
+    }
+
     private void showCurrentDirectory() {
         if (currentConnection == null) {
             System.out.println("Not connected.");
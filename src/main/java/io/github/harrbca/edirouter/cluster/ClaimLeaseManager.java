@@ -0,0 +1,241 @@
+package io.github.harrbca.edirouter.cluster;
+
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Lease-based claiming for several instances sharing one base directory. A node claims a file by renaming it
+// into processing/<nodeId>/, which only one node can win. Each node keeps a heartbeat file in its claim area
+// fresh; when a heartbeat goes stale, the first live node to rename the dead node's area away takes over its
+// files and runs them through its own pipeline. A node that finds its own claim area gone was taken for dead:
+// it abandons what it had claimed, then starts a new area and carries on.
+@Slf4j
+@Component
+public class ClaimLeaseManager {
+
+    private static final String HEARTBEAT = ".heartbeat";
+    private static final String REAPING_PREFIX = ".reaping-";
+
+    private final ClusterProperties properties;
+    private final ThreadPoolTaskScheduler leaseScheduler;
+    private final Path processingRoot;
+    private final Path claimDirectory;
+    private volatile BiConsumer<String, List<ReclaimedFile>> onReclaimed;
+    private volatile Consumer<ClaimLostException> onLeaseLost;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    public ClaimLeaseManager(ClusterProperties properties, FileMonitorProperties monitorProperties,
+                             ThreadPoolTaskScheduler clusterLeaseScheduler) {
+        this.properties = properties;
+        this.leaseScheduler = clusterLeaseScheduler;
+        this.processingRoot = monitorProperties.getProcessingDirectoryPath();
+        this.claimDirectory = processingRoot.resolve(properties.getNodeId());
+    }
+
+    // onReclaimed receives the dead node's id and the files now sitting in this node's claim area; onLeaseLost is
+    // called when another node took this one's claim area, before a new one is created
+    public synchronized void start(BiConsumer<String, List<ReclaimedFile>> onReclaimed,
+                                   Consumer<ClaimLostException> onLeaseLost) throws IOException {
+        if (!tasks.isEmpty()) return;
+        this.onReclaimed = onReclaimed;
+        this.onLeaseLost = onLeaseLost;
+        Files.createDirectories(claimDirectory);
+        heartbeat();
+        Duration interval = Duration.ofMillis(properties.getHeartbeatIntervalMs());
+        tasks.add(leaseScheduler.scheduleWithFixedDelay(this::heartbeat, interval));
+        if (properties.isReclaimEnabled()) {
+            tasks.add(leaseScheduler.scheduleWithFixedDelay(this::reapDeadNodes, interval));
+        }
+        log.info("Node {} claiming into {}", properties.getNodeId(), claimDirectory);
+    }
+
+    public synchronized void stop() {
+        tasks.forEach(task -> task.cancel(false));
+        tasks.clear();
+    }
+
+    public Path getClaimDirectory() {
+        return claimDirectory;
+    }
+
+    // Reserves where a claim of this file lands by creating it empty, so two claims of same-named files can
+    // never pick the same target. claim() then renames the file over its own reservation. Throws
+    // ClaimLostException while the claim area is gone, until the heartbeat has noticed and replaced it.
+    public Path claimTarget(Path source) throws IOException {
+        try {
+            return reserve(claimDirectory.resolve(source.getFileName()));
+        } catch (NoSuchFileException e) {
+            if (!Files.isDirectory(claimDirectory)) throw ClaimLostException.leaseLost(properties.getNodeId());
+            throw e;
+        }
+    }
+
+    // Atomically renames source onto its reserved target. Throws ClaimLostException if another node got there
+    // first.
+    public Path claim(Path source, Path target) throws IOException {
+        try {
+            return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            Files.deleteIfExists(target);
+            if (!Files.exists(source)) throw new ClaimLostException(source.getFileName().toString());
+            if (!Files.isDirectory(claimDirectory)) throw ClaimLostException.leaseLost(properties.getNodeId());
+            throw e;
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.deleteIfExists(target);
+            throw new IOException("Claim area must be on the same file system as the inbound root: " + target, e);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    // A crash between claimTarget and claim leaves an empty reservation while the file is still in the inbound
+    // root; this drops it so the file is picked up again. False if the claim did move the file.
+    public boolean dropReservation(Path source, Path target) throws IOException {
+        if (!Files.exists(source) || !Files.isRegularFile(target) || Files.size(target) != 0) return false;
+        Files.delete(target);
+        return true;
+    }
+
+    // Heartbeat age per node that has a claim area, in milliseconds
+    public Map<String, Long> getNodeHeartbeats() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        if (!Files.isDirectory(processingRoot)) return out;
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(processingRoot, Files::isDirectory)) {
+            for (Path node : nodes) {
+                String name = node.getFileName().toString();
+                if (name.startsWith(".")) continue;
+                out.put(name, now - lastHeartbeat(node));
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list nodes under {}: {}", processingRoot, e.getMessage());
+        }
+        return out;
+    }
+
+    private void heartbeat() {
+        Path file = claimDirectory.resolve(HEARTBEAT);
+        try {
+            if (!Files.isDirectory(claimDirectory)) leaseLost();
+            if (!Files.exists(file)) Files.createFile(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (FileAlreadyExistsException ignored) {
+            // created concurrently
+        } catch (IOException e) {
+            log.warn("Heartbeat failed for node {}: {}", properties.getNodeId(), e.getMessage());
+        }
+    }
+
+    // Claims only ever go into an existing claim area, so everything claimed before this was in the area that
+    // was taken over
+    private void leaseLost() throws IOException {
+        ClaimLostException lost = ClaimLostException.leaseLost(properties.getNodeId());
+        log.error("Node {} missed its lease and its claim area was taken over; abandoning its claimed files",
+                properties.getNodeId());
+        try {
+            onLeaseLost.accept(lost);
+        } catch (RuntimeException e) {
+            log.error("Could not abandon claimed files: {}", e.getMessage(), e);
+        }
+        Files.createDirectories(claimDirectory);
+    }
+
+    private void reapDeadNodes() {
+        // Taken for dead ourselves; nothing can be claimed until the heartbeat has replaced the area
+        if (!Files.isDirectory(claimDirectory)) return;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(processingRoot, Files::isDirectory)) {
+            for (Path node : nodes) {
+                String name = node.getFileName().toString();
+                if (name.startsWith(".") || node.equals(claimDirectory)) continue;
+                if (now - lastHeartbeat(node) > properties.getLeaseTimeoutMs()) {
+                    reclaim(node, name);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Dead node check failed: {}", e.getMessage());
+        }
+    }
+
+    private void reclaim(Path node, String name) throws IOException {
+        // Renaming the whole area away decides which live node does the takeover
+        Path reaping = processingRoot.resolve(REAPING_PREFIX + name + "-" + properties.getNodeId());
+        try {
+            Files.move(node, reaping, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return;
+        }
+
+        List<ReclaimedFile> reclaimed = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(reaping)) {
+            for (Path file : files) {
+                if (file.getFileName().toString().equals(HEARTBEAT) || !Files.isRegularFile(file)) continue;
+                Path target = claimTarget(file);
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                reclaimed.add(new ReclaimedFile(node.resolve(file.getFileName()), target));
+            }
+        }
+        Files.deleteIfExists(reaping.resolve(HEARTBEAT));
+        Files.deleteIfExists(reaping);
+        log.warn("Node {} missed its lease; reclaimed {} files", name, reclaimed.size());
+        if (!reclaimed.isEmpty()) onReclaimed.accept(name, reclaimed);
+    }
+
+    // claimedAs is where the dead node had the file, which is what its journal recorded
+    public record ReclaimedFile(Path claimedAs, Path file) {}
+
+    private static long lastHeartbeat(Path node) {
+        try {
+            return Files.getLastModifiedTime(node.resolve(HEARTBEAT)).toMillis();
+        } catch (IOException e) {
+            // No heartbeat yet: judge by the directory itself so a node that never started is eventually reaped
+            try {
+                return Files.getLastModifiedTime(node).toMillis();
+            } catch (IOException ignored) {
+                return System.currentTimeMillis();
+            }
+        }
+    }
+
+    // createFile is atomic and fails if the name is taken, unlike an exists check followed by a rename
+    private static Path reserve(Path target) throws IOException {
+        Path candidate = target;
+        while (true) {
+            try {
+                return Files.createFile(candidate);
+            } catch (FileAlreadyExistsException e) {
+                candidate = uniqueSibling(target);
+            }
+        }
+    }
+
+    private static Path uniqueSibling(Path target) {
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String suffix = "_" + UUID.randomUUID().toString().substring(0, 8);
+        String unique = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+        return target.resolveSibling(unique);
+    }
+}
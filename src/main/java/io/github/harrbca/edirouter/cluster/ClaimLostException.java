@@ -0,0 +1,18 @@
+package io.github.harrbca.edirouter.cluster;
+
+// Another node renamed the file into its own claim area first, or took over this node's whole claim area
+public class ClaimLostException extends RuntimeException {
+
+    public ClaimLostException(String fileName) {
+        super("File already claimed by another node: " + fileName);
+    }
+
+    private ClaimLostException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    // This node's heartbeat went stale and another node reclaimed everything it had claimed
+    static ClaimLostException leaseLost(String nodeId) {
+        return new ClaimLostException("Lease of node " + nodeId + " lost; its claimed files were taken over", null);
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.harrbca.edirouter.compression;
+
+import io.github.harrbca.edirouter.processing.EnclosedFile;
+import io.github.harrbca.edirouter.transfer.CountingInputStream;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+// Reads the entries of a gzip or zip file as streams. Listing reads the file once, front to back, so a large
+// batch costs one sequential pass; delivery reopens single entries through the zip's central directory.
+public final class CompressedFiles {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private CompressedFiles() {
+    }
+
+    @FunctionalInterface
+    public interface EntryParser {
+        // The stream ends with the entry and must not be closed by the parser
+        X12ParseResult parse(InputStream content) throws IOException;
+    }
+
+    // A damaged or truncated file is rejected outright; it will not get better on a retry
+    public static List<EnclosedFile> readEntries(Path file, Compression compression, EntryParser parser) throws IOException {
+        try {
+            List<EnclosedFile> entries = readEntriesUnchecked(file, compression, parser);
+            if (compression == Compression.ZIP) verifyZipComplete(file, entries.size());
+            return entries;
+        } catch (ZipException | EOFException e) {
+            throw new IllegalArgumentException("Corrupt or truncated " + compression + " file " + file.getFileName()
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static List<EnclosedFile> readEntriesUnchecked(Path file, Compression compression, EntryParser parser)
+            throws IOException {
+        List<EnclosedFile> entries = new ArrayList<>();
+        switch (compression) {
+            case GZIP -> {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(file), BUFFER_BYTES)) {
+                    String name = gzipEntryName(file);
+                    entries.add(readEntry(file, compression, name, name, in, parser));
+                }
+            }
+            case ZIP -> {
+                try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES))) {
+                    ZipEntry entry;
+                    while ((entry = in.getNextEntry()) != null) {
+                        if (!entry.isDirectory() && !isSystemEntry(entry.getName())) {
+                            entries.add(readEntry(file, compression, entry.getName(), baseName(entry.getName()), in, parser));
+                        }
+                        in.closeEntry();
+                    }
+                }
+            }
+            default -> throw new IllegalArgumentException(file + " is not compressed");
+        }
+        return entries;
+    }
+
+    // The local headers read above do not show a cut-off file; the central directory at the end of it does
+    private static void verifyZipComplete(Path file, int entriesRead) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            long expected = zip.stream().filter(e -> !e.isDirectory() && !isSystemEntry(e.getName())).count();
+            if (expected != entriesRead) {
+                throw new ZipException("read " + entriesRead + " of " + expected + " entries");
+            }
+        }
+    }
+
+    private static EnclosedFile readEntry(Path file, Compression compression, String entryName, String name,
+                                          InputStream in, EntryParser parser) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        X12ParseResult parseResult;
+        try {
+            parseResult = parser.parse(counting);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(entryName + ": " + e.getMessage(), e);
+        }
+        // Drain whatever the parser did not need so the size is the entry's full length
+        counting.transferTo(OutputStream.nullOutputStream());
+        return new EnclosedFile(entryName, name, counting.getCount(), parseResult,
+                entrySource(file, compression, entryName, name, counting.getCount()));
+    }
+
+    // Streams the entry's uncompressed content on every open(), for delivery without extracting it
+    private static UploadSource entrySource(Path file, Compression compression, String entryName, String name, long size) {
+        return new UploadSource() {
+            @Override public String name() { return name; }
+            @Override public long size() { return size; }
+            @Override public InputStream open() throws IOException { return openEntry(file, compression, entryName); }
+            @Override public String toString() { return file + "!" + entryName; }
+        };
+    }
+
+    private static InputStream openEntry(Path file, Compression compression, String entryName) throws IOException {
+        if (compression == Compression.GZIP) {
+            return new GZIPInputStream(Files.newInputStream(file), BUFFER_BYTES);
+        }
+        ZipFile zip = new ZipFile(file.toFile());
+        try {
+            ZipEntry entry = zip.getEntry(entryName);
+            if (entry == null) throw new IOException("No entry " + entryName + " in " + file);
+            // Closing the entry stream closes the zip with it
+            return new FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    private static String gzipEntryName(Path file) {
+        String name = file.getFileName().toString();
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".gz")) return name.substring(0, name.length() - 3);
+        if (lower.endsWith(".gzip")) return name.substring(0, name.length() - 5);
+        return name;
+    }
+
+    private static String baseName(String entryName) {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    // Folders and resource forks some zip tools add
+    private static boolean isSystemEntry(String entryName) {
+        return entryName.startsWith("__MACOSX/") || baseName(entryName).startsWith(".");
+    }
+}
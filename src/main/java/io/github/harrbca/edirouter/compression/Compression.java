@@ -0,0 +1,30 @@
+package io.github.harrbca.edirouter.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Detected from the first bytes, not the file name; partners are not consistent about extensions
+public enum Compression {
+    NONE,
+    GZIP,
+    ZIP;
+
+    public static Compression detect(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(magic, 0, magic.length);
+        }
+        if (read >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return GZIP;
+        }
+        // Local file header, or the end-of-central-directory record of an empty archive
+        if (read == 4 && magic[0] == 'P' && magic[1] == 'K'
+                && ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6))) {
+            return ZIP;
+        }
+        return NONE;
+    }
+}
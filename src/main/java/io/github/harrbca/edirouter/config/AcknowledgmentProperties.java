@@ -0,0 +1,47 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.acknowledgments")
+public class AcknowledgmentProperties {
+
+    private boolean enabled = false;
+
+    // ISA senders (trimmed ISA06) to acknowledge; empty = every sender
+    private List<String> partners = new ArrayList<>();
+
+    // AUTO sends a 999 for 005010 groups and a 997 for anything older
+    private Format format = Format.AUTO;
+
+    // Routing destination the acknowledgments go to, with per-sender overrides (trimmed ISA06 -> destination)
+    private String destination;
+    private Map<String, String> partnerDestinations = new LinkedHashMap<>();
+
+    // Outbound groups are tracked until a 997/999 from their receiver (ISA08) acknowledges them; only receivers
+    // in expect-from are tracked (empty = every receiver). Tracked groups are reported overdue after
+    // overdue-after-hours and forgotten after retention-days.
+    private boolean tracking = false;
+    private List<String> expectFrom = new ArrayList<>();
+    private long overdueAfterHours = 24;
+    private int retentionDays = 30;
+
+    // Absolute, or relative to app.file-monitor.base-directory; one store file per node
+    private String trackingDirectory = "ack-tracking";
+    // How often a node matches the acknowledgments other nodes received for groups it sent
+    private long inboxCheckIntervalMs = 10_000;
+
+    public enum Format {
+        AUTO,
+        FA_997,
+        FA_999
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.aggregation")
+public class AggregationProperties {
+
+    // Routing destinations whose files are merged into batched interchanges instead of sent one by one
+    private List<String> destinations = new ArrayList<>();
+
+    // Only files made up entirely of these ST01 codes are merged (empty = any); larger files are sent as is
+    private List<String> transactionSets = new ArrayList<>();
+    private long maxFileBytes = 1024 * 1024;
+
+    // A batch is sent when the first of these is reached
+    private long maxWaitMs = 60_000;
+    private int maxTransactionSets = 10_000;
+    private long maxBytes = 8L * 1024 * 1024;
+
+    // Absolute, or relative to app.file-monitor.base-directory; one subdirectory per node
+    private String directory = "aggregation";
+    private long checkIntervalMs = 1000;
+
+    // Backoff for sending a batch that its destination did not take
+    private long retryDelayMs = 30_000;
+    private long maxRetryDelayMs = 900_000;
+}
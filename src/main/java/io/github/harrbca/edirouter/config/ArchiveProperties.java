@@ -0,0 +1,34 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.archive")
+public class ArchiveProperties {
+
+    private Mode mode = Mode.FLAT;
+
+    // PACKED: a pack is closed and a new one started once it grows past this
+    private long packMaxBytes = 256L * 1024 * 1024;
+
+    // Archived days older than this are dropped; 0 keeps everything
+    private int retentionDays = 0;
+
+    // How often retention runs
+    private long maintenanceIntervalMs = 3600000;
+
+    // Search index over the envelopes of archived files; absolute, or relative to app.file-monitor.base-directory.
+    // Each node keeps its own index file in this directory.
+    private boolean indexEnabled = true;
+    private String indexDirectory = "archive-index";
+
+    public enum Mode {
+        // One file per archived file in the archive directory
+        FLAT,
+        // Files appended to compressed packs under archive/<yyyy-MM-dd>/<partner>/ with an offset index
+        PACKED
+    }
+}
@@ -1,9 +1,51 @@
 package io.github.harrbca.edirouter.config;
 
+import io.github.harrbca.edirouter.processing.KeyedSerialExecutor;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @Configuration
 @EnableAsync
 public class AsyncConfig {
-}
\ No newline at end of file
+
+    // Shared by the file stability checks; tasks are short and must never block on processing
+    @Bean
+    public ThreadPoolTaskScheduler fileMonitorScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("file-monitor-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        return scheduler;
+    }
+
+    // Cluster lease heartbeats and dead-node checks, one thread each. Kept apart from fileMonitorScheduler, whose
+    // polling, aggregation and retry work could otherwise delay a heartbeat past the lease timeout.
+    @Bean
+    public ThreadPoolTaskScheduler clusterLeaseScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("cluster-lease-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        return scheduler;
+    }
+
+    // Runs the long-lived WatchService loop shared by all inbound roots
+    @Bean
+    public ThreadPoolTaskExecutor fileWatcherExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("file-watcher-");
+        return executor;
+    }
+
+    // Serializes files per ordered sender/receiver pair across all inbound roots
+    @Bean
+    public KeyedSerialExecutor partnerOrdering(SchedulingProperties properties, ThreadPoolTaskScheduler fileMonitorScheduler) {
+        return new KeyedSerialExecutor(properties.getOrderingStripes(), fileMonitorScheduler);
+    }
+}
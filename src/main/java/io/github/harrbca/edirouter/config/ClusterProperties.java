@@ -0,0 +1,30 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.cluster")
+public class ClusterProperties {
+
+    // Must be unique per instance sharing the base directory, and stable across restarts
+    private String nodeId = defaultNodeId();
+
+    // Each node touches its heartbeat this often; a node silent for leaseTimeoutMs is presumed dead and its
+    // claimed files are taken over by a live node
+    private long heartbeatIntervalMs = 5000;
+    private long leaseTimeoutMs = 30000;
+    private boolean reclaimEnabled = true;
+
+    private static String defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node-1";
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.duplicates")
+public class DuplicateProperties {
+
+    // History is kept per node, so a resend claimed by another node is not caught; for a single node only, and
+    // refused at startup while another node holds a live lease
+    private boolean enabled = true;
+    private Action action = Action.SKIP;
+
+    // How long an interchange is remembered. History is kept in buckets of bucketDays; a whole bucket expires
+    // at once, so entries live between retentionDays and retentionDays + bucketDays.
+    private int retentionDays = 90;
+    private int bucketDays = 7;
+
+    // Sizing of each bucket's Bloom filter: memory is about 1.2 bytes per expected interchange at 1%, per bucket
+    private long expectedPerBucket = 2_000_000;
+    private double falsePositiveRate = 0.01;
+
+    // Absolute, or relative to app.file-monitor.base-directory; one store file per node
+    private String directory = "dedupe";
+
+    public enum Action {
+        // Archive the resend without delivering it
+        SKIP,
+        // Deliver anyway, with a warning
+        FLAG,
+        // Fail the file; it goes to the error directory
+        REJECT
+    }
+}
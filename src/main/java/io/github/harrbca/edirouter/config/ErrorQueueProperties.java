@@ -0,0 +1,23 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.error-queue")
+public class ErrorQueueProperties {
+
+    // Retry transient failures automatically; when off every failure goes straight to the error directory
+    private boolean enabled = true;
+
+    // Processing attempts per file, counting the first; after that the file stays in the error directory
+    private int maxAttempts = 5;
+
+    // Delay before retry n is initialDelayMs * multiplier^(n-1), capped at maxDelayMs, plus up to jitter of it
+    private long initialDelayMs = 30000;
+    private double multiplier = 2.0;
+    private long maxDelayMs = 3600000;
+    private double jitter = 0.2;
+}
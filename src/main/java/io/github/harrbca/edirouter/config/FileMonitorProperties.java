@@ -6,6 +6,8 @@ import org.springframework.stereotype.Component;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 @Data
@@ -18,10 +20,20 @@ public class FileMonitorProperties {
     private String archiveDirectory = "archive";
     private String errorDirectory = "errors";
     private String processingDirectory = "processing";
+    private WatchMode watchMode = WatchMode.WATCH;
     private long pollIntervalMs = 5000;
     private int retryAttempts = 3;
     private long retryDelayMs = 1000;
 
+    // A file is submitted once its size and mtime have not changed for this long
+    private long stabilityQuietPeriodMs = 1000;
+    private long stabilityCheckIntervalMs = 250;
+    // Also promote a file as soon as an exclusive lock succeeds (reliable on Windows/SMB, advisory on Linux)
+    private boolean stabilityLockProbe = false;
+
+    // Watched inbound directories; when empty, incomingDirectory is watched as a single root named "default"
+    private List<InboundRoot> roots = new ArrayList<>();
+
     public Path getBaseDirectoryPath() {
         return Paths.get(baseDirectory);
     }
@@ -42,5 +54,40 @@ public class FileMonitorProperties {
         return getBaseDirectoryPath().resolve(processingDirectory);
     }
 
+    public List<InboundRoot> getInboundRoots() {
+        if (!roots.isEmpty()) return roots;
+        InboundRoot root = new InboundRoot();
+        root.setName("default");
+        root.setDirectory(incomingDirectory);
+        return List.of(root);
+    }
+
+    public Path resolveDirectory(String directory) {
+        Path path = Paths.get(directory);
+        return path.isAbsolute() ? path : getBaseDirectoryPath().resolve(path);
+    }
+
+    @Data
+    public static class InboundRoot {
+        private String name;
+        // Absolute, or relative to baseDirectory
+        private String directory;
+        // Per-root worker pool; 0 / -1 fall back to app.processing.*
+        private int maxConcurrency = 0;
+        private int queueCapacity = -1;
+        // Stability overrides; null falls back to the global settings
+        private Long stabilityQuietPeriodMs;
+        private Boolean stabilityLockProbe;
+        // Destination used when no routing rule matches a file from this root
+        private String defaultRoute;
+    }
 
+    public enum WatchMode {
+        // WatchService events only; an OVERFLOW triggers a rescan
+        WATCH,
+        // Snapshot diff every pollIntervalMs, for SMB/NFS mounts where watch events are unreliable
+        POLL,
+        // Watch events for latency plus a periodic poll as a safety net
+        HYBRID
+    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.journal")
+public class JournalProperties {
+
+    private boolean enabled = true;
+
+    // Absolute, or relative to app.file-monitor.base-directory
+    private String directory = "journal";
+
+    // Records written and fsynced together at most; appends arriving during an fsync join the next batch
+    private int maxBatch = 512;
+
+    // Rewrite the journal with only unfinished files once the live segment grows past this
+    private long compactAfterBytes = 16 * 1024 * 1024;
+}
@@ -0,0 +1,20 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.memory")
+public class MemoryProperties {
+
+    // Heap that whole-file parses may hold at once; 0 means a quarter of the maximum heap
+    private long parseBudgetBytes = 0;
+
+    // Heap a whole-file parse needs per byte of file: the raw bytes, the decoded text and the split segments
+    private double bytesPerFileByte = 4.0;
+
+    // How long a parse waits for budget before falling back to the streaming parser; 0 streams at once
+    private long maxWaitMs = 0;
+}
@@ -0,0 +1,35 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.pgp")
+public class PgpProperties {
+
+    // Our secret keyring (armored or binary) for inbound files; encrypted files fail while it is unset
+    private String secretKeyFile;
+    private String passphrase;
+
+    // Partner name -> public key file. A destination's pgp-recipient names one of these.
+    private Map<String, String> partnerKeys = new LinkedHashMap<>();
+
+    // Outbound message format
+    private SymmetricAlgorithm algorithm = SymmetricAlgorithm.AES_256;
+    private boolean compress = true;
+    private boolean armor = false;
+
+    // Encrypted bytes waiting for the upload; the cipher runs ahead of the connection by at most this much
+    private int pipeBufferBytes = 256 * 1024;
+
+    public enum SymmetricAlgorithm {
+        AES_128,
+        AES_192,
+        AES_256
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.pipeline")
+public class PipelineProperties {
+
+    // Workers run a stage's files concurrently; queueCapacity files may wait before the previous stage blocks
+    private Stage claim = new Stage(2, 100);
+    private Stage parse = new Stage(Runtime.getRuntime().availableProcessors(), 100);
+    private Stage route = new Stage(2, 100);
+    // Deliveries hold a worker slot but not a thread while the transfer is in flight
+    private Stage deliver = new Stage(16, 200);
+    private Stage archive = new Stage(2, 100);
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Stage {
+        private int workers;
+        private int queueCapacity;
+    }
+}
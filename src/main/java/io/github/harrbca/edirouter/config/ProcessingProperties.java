@@ -0,0 +1,24 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.processing")
+public class ProcessingProperties {
+
+    private Mode mode = Mode.PLATFORM;
+
+    // Files processed at the same time, and files admitted but waiting for a worker
+    private int maxConcurrency = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1000;
+
+    public enum Mode {
+        // Fixed pool of platform threads
+        PLATFORM,
+        // One virtual thread per file, capped by a semaphore
+        VIRTUAL
+    }
+}
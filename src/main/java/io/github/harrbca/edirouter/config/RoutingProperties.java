@@ -0,0 +1,35 @@
+package io.github.harrbca.edirouter.config;
+
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.routing")
+public class RoutingProperties {
+
+    // Named delivery targets referenced by rules and by inbound roots' default-route
+    private Map<String, TransferTarget> destinations = new LinkedHashMap<>();
+
+    // First matching rule wins; unset criteria match anything. No match falls back to the root's default route.
+    private List<RouteRule> rules = new ArrayList<>();
+
+    @Data
+    public static class RouteRule {
+        private String name;
+        // Trimmed ISA06 / ISA08
+        private String sender;
+        private String receiver;
+        // ST01 of any transaction set in the interchange
+        private String transactionSet;
+        private String inboundRoot;
+        private List<String> destinations = new ArrayList<>();
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.scheduling")
+public class SchedulingProperties {
+
+    // Highest priority first. A file goes to the first class that lists one of its ST01 codes, otherwise to
+    // defaultClass. Classes are served in strict priority order.
+    private List<PriorityClass> classes = new ArrayList<>(List.of(
+            new PriorityClass("urgent", new ArrayList<>(List.of("997", "999", "855", "856"))),
+            new PriorityClass("normal", new ArrayList<>()),
+            new PriorityClass("bulk", new ArrayList<>(List.of("846", "832")))));
+    private String defaultClass = "normal";
+
+    // Within a class, ISA senders share workers in proportion to their weight (by trimmed ISA06)
+    private Map<String, Integer> senderWeights = new HashMap<>();
+    private int defaultSenderWeight = 1;
+
+    // Serve each sender's smallest waiting file first instead of oldest first
+    private boolean smallFilesFirst = false;
+
+    // Bytes read from the head of a file to find its ISA sender and ST01
+    private int peekBytes = 4096;
+
+    // Partners whose interchanges must be processed one at a time and in order, keyed by ISA sender + receiver.
+    // Other sender/receiver pairs still run in parallel.
+    private List<OrderedPartner> orderedPartners = new ArrayList<>();
+    private int orderingStripes = 64;
+
+    @Data
+    public static class OrderedPartner {
+        // Trimmed ISA06
+        private String sender;
+        // Trimmed ISA08; null matches any receiver (each receiver is still ordered separately)
+        private String receiver;
+        private OrderBy orderBy = OrderBy.CONTROL_NUMBER;
+        // With CONTROL_NUMBER: how long to hold the pair for the next ISA13 when the lowest waiting file skips
+        // ahead of it. 0 runs the lowest waiting file at once.
+        private long gapWaitMs = 0;
+    }
+
+    public enum OrderBy {
+        // The order files are handed to processing
+        FIFO,
+        // Lowest ISA13 first among the files waiting for the same key
+        CONTROL_NUMBER
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PriorityClass {
+        private String name;
+        private List<String> transactionSets = new ArrayList<>();
+    }
+}
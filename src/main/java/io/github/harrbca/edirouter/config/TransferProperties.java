@@ -0,0 +1,30 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.transfer")
+public class TransferProperties {
+
+    // Global shaping across all destinations (0 = unlimited)
+    private long globalMaxBytesPerSecond = 0;
+    private int globalMaxConcurrentSessions = 0;
+
+    // Transfers at or below this size are treated as latency-sensitive (855/856/997 etc.)
+    private long priorityThresholdBytes = 256 * 1024;
+
+    // Session slots per limit that only latency-sensitive transfers may use
+    private int reservedPrioritySessions = 1;
+
+    // Granularity at which throttled streams draw bandwidth tokens
+    private int throttleChunkBytes = 16 * 1024;
+
+    // Endpoint failover: consecutive failures before a host is skipped, and how long it stays skipped
+    private int endpointFailureThreshold = 3;
+    private long endpointCooldownMs = 30000;
+    // Weight of the newest sample in rolling latency/error statistics
+    private double endpointStatsAlpha = 0.2;
+}
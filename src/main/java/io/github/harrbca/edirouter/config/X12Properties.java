@@ -0,0 +1,22 @@
+package io.github.harrbca.edirouter.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.x12")
+public class X12Properties {
+
+    // Absolute, or relative to app.file-monitor.base-directory; one store file per node
+    private String controlNumberDirectory = "control-numbers";
+
+    // Nodes that send as the same ISA/GS sender take turns: node i of n issues the numbers equal to i mod n,
+    // so two nodes never send the same control number
+    private int nodeCount = 1;
+    private int nodeIndex = 0;
+
+    // Outbound interchanges we write put a line break after each segment terminator
+    private boolean lineBreaks = true;
+}
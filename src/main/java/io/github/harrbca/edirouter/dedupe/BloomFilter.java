@@ -0,0 +1,83 @@
+package io.github.harrbca.edirouter.dedupe;
+
+import java.nio.charset.StandardCharsets;
+
+// Fixed-size Bloom filter over strings. The k bit positions are derived from two 64-bit hashes
+// (Kirsch-Mitzenmacher), so each add or lookup hashes the key once.
+final class BloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int hashes;
+    private long count;
+
+    BloomFilter(long[] bits, int hashes, long count) {
+        this.bits = bits;
+        this.numBits = (long) bits.length * Long.SIZE;
+        this.hashes = hashes;
+        this.count = count;
+    }
+
+    static BloomFilter forCapacity(long expected, double falsePositiveRate) {
+        long n = Math.max(expected, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int k = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+        return new BloomFilter(new long[Math.toIntExact((m + Long.SIZE - 1) / Long.SIZE)], k, 0);
+    }
+
+    synchronized void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    synchronized boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    synchronized long[] snapshot() {
+        return bits.clone();
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    // FNV-1a over the UTF-8 bytes
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Murmur3 finalizer; forced odd so consecutive probes never collapse onto one bit
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h | 1;
+    }
+}
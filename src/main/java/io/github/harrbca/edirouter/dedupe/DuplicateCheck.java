@@ -0,0 +1,15 @@
+package io.github.harrbca.edirouter.dedupe;
+
+// Outcome of looking an interchange up; firstSeenAt and firstFileName describe the earlier copy, if any
+public record DuplicateCheck(Kind kind, long firstSeenAt, String firstFileName) {
+
+    static final DuplicateCheck NEW = new DuplicateCheck(Kind.NEW, 0, null);
+
+    public enum Kind {
+        NEW,
+        // Same ISA sender, receiver and control number with the same content: a resend
+        DUPLICATE,
+        // Same ISA sender, receiver and control number but different content: the partner reused a number
+        CONTROL_NUMBER_REUSED
+    }
+}
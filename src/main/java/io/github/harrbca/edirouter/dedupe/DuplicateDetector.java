@@ -0,0 +1,256 @@
+package io.github.harrbca.edirouter.dedupe;
+
+import io.github.harrbca.edirouter.cluster.ClaimLeaseManager;
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.DuplicateProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+
+// Remembers interchanges by ISA06 + ISA08 + ISA13 with their content hash. History is split into time buckets;
+// each bucket is an MVStore map on disk with a Bloom filter in memory in front of it, so a lookup probes a
+// fixed number of filters and touches the disk only on a filter hit. Memory is bounded by the filter sizes, not
+// by how many interchanges are remembered. Expiry drops a whole bucket map. Filters are saved with a record
+// count, and a filter whose count does not match its map (after a crash) is rebuilt from the map on startup.
+// The same count tells which filters changed since they were last saved; only those are written again.
+// An interchange is remembered once archived; from its check at route time until then, its key is reserved in
+// memory for the file carrying it, so a second copy arriving meanwhile is caught as well.
+// History and reservations are this node's own: a resend claimed by another node is not caught. Detection is
+// therefore for a single node; it refuses to start while another node holds a live lease, and warns if one
+// appears later.
+@Slf4j
+@Component
+public class DuplicateDetector {
+
+    private static final String SEEN_PREFIX = "seen-";
+    private static final long DAY_MS = 86_400_000L;
+
+    private final DuplicateProperties properties;
+    private final ClusterProperties clusterProperties;
+    private final ClaimLeaseManager claimLeaseManager;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Path file;
+    private final long bucketMs;
+    private final NavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+    private final Map<String, Reservation> reserved = new ConcurrentHashMap<>();
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+    private MVStore store;
+    private MVMap<Long, long[]> savedFilters;
+    private MVMap<Long, Long> savedCounts;
+
+    public DuplicateDetector(DuplicateProperties properties, FileMonitorProperties monitorProperties,
+                             ClusterProperties clusterProperties, ClaimLeaseManager claimLeaseManager,
+                             ThreadPoolTaskScheduler fileMonitorScheduler) {
+        this.properties = properties;
+        this.clusterProperties = clusterProperties;
+        this.claimLeaseManager = claimLeaseManager;
+        this.fileMonitorScheduler = fileMonitorScheduler;
+        this.file = monitorProperties.resolveDirectory(properties.getDirectory())
+                .resolve(clusterProperties.getNodeId() + ".mv.db");
+        this.bucketMs = Math.max(1, properties.getBucketDays()) * DAY_MS;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isEnabled()) return;
+        List<String> others = otherLiveNodes();
+        if (!others.isEmpty()) {
+            throw new IllegalStateException("Duplicate detection only sees the files of its own node, but nodes "
+                    + others + " are live too; set app.duplicates.enabled=false");
+        }
+        Files.createDirectories(file.getParent());
+        store = new MVStore.Builder().fileName(file.toString()).compress().open();
+        savedFilters = store.openMap("filters");
+        savedCounts = store.openMap("filterCounts");
+
+        expire();
+        for (String name : store.getMapNames()) {
+            if (!name.startsWith(SEEN_PREFIX)) continue;
+            long id = Long.parseLong(name.substring(SEEN_PREFIX.length()));
+            buckets.put(id, loadBucket(id));
+        }
+
+        Duration interval = Duration.ofMinutes(5);
+        tasks.add(fileMonitorScheduler.scheduleWithFixedDelay(this::saveFilters, interval));
+        tasks.add(fileMonitorScheduler.scheduleWithFixedDelay(this::expire, Duration.ofHours(1)));
+        tasks.add(fileMonitorScheduler.scheduleWithFixedDelay(this::checkSingleNode,
+                Duration.ofMillis(clusterProperties.getLeaseTimeoutMs())));
+        long filterBytes = BloomFilter.forCapacity(properties.getExpectedPerBucket(), properties.getFalsePositiveRate()).sizeInBytes();
+        log.info("Duplicate detection at {}: {} buckets loaded, {} KB of filter per bucket", file, buckets.size(), filterBytes / 1024);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store == null) return;
+        tasks.forEach(task -> task.cancel(false));
+        saveFilters();
+        store.close();
+    }
+
+    // Looks the interchange up and reserves its key for owner (a file, or an entry of one) until record or
+    // release. A key another owner holds counts as seen, by that owner's file.
+    public DuplicateCheck check(X12ParseResult parseResult, String owner, String fileName) {
+        if (store == null) return DuplicateCheck.NEW;
+        String key = key(parseResult.getIsa());
+        Reservation mine = new Reservation(owner, parseResult.getContentHash(), System.currentTimeMillis(), fileName);
+        Reservation held = reserved.putIfAbsent(key, mine);
+        if (held != null && !held.owner().equals(owner)) {
+            DuplicateCheck.Kind kind = held.contentHash().equals(parseResult.getContentHash())
+                    ? DuplicateCheck.Kind.DUPLICATE : DuplicateCheck.Kind.CONTROL_NUMBER_REUSED;
+            return new DuplicateCheck(kind, held.reservedAt(), held.fileName());
+        }
+        return lookup(key, parseResult.getContentHash());
+    }
+
+    private DuplicateCheck lookup(String key, String contentHash) {
+        for (Bucket bucket : buckets.descendingMap().values()) {
+            if (!bucket.filter.mightContain(key)) continue;
+            String seen = bucket.seen.get(key);
+            if (seen == null) continue;
+            String[] f = seen.split("\t", 3);
+            DuplicateCheck.Kind kind = f[0].equals(contentHash)
+                    ? DuplicateCheck.Kind.DUPLICATE : DuplicateCheck.Kind.CONTROL_NUMBER_REUSED;
+            return new DuplicateCheck(kind, Long.parseLong(f[1]), f[2]);
+        }
+        return DuplicateCheck.NEW;
+    }
+
+    // Remembers a processed interchange and drops owner's reservation; a resend of one already remembered keeps
+    // the first sighting
+    public void record(X12ParseResult parseResult, String owner, String fileName) {
+        if (store == null) return;
+        String key = key(parseResult.getIsa());
+        try {
+            if (lookup(key, parseResult.getContentHash()).kind() != DuplicateCheck.Kind.DUPLICATE) {
+                remember(key, parseResult.getContentHash(), fileName);
+            }
+        } finally {
+            release(key, owner);
+        }
+    }
+
+    // Drops owner's reservation of a file that failed or left the pipeline; a retry checks it again
+    public void release(X12ParseResult parseResult, String owner) {
+        if (store != null && parseResult != null && parseResult.getIsa() != null) {
+            release(key(parseResult.getIsa()), owner);
+        }
+    }
+
+    public int getReservedCount() {
+        return reserved.size();
+    }
+
+    private void release(String key, String owner) {
+        reserved.computeIfPresent(key, (k, held) -> held.owner().equals(owner) ? null : held);
+    }
+
+    private void remember(String key, String contentHash, String fileName) {
+        long now = System.currentTimeMillis();
+        Bucket bucket = buckets.computeIfAbsent(now / bucketMs, this::newBucket);
+        // Filter first: a save counts the map before copying the filter, so every key counted is in the copy
+        bucket.filter.add(key);
+        bucket.seen.put(key, contentHash + "\t" + now + "\t" + fileName);
+    }
+
+    private Bucket newBucket(long id) {
+        return new Bucket(store.openMap(SEEN_PREFIX + id),
+                BloomFilter.forCapacity(properties.getExpectedPerBucket(), properties.getFalsePositiveRate()));
+    }
+
+    private Bucket loadBucket(long id) {
+        MVMap<String, String> seen = store.openMap(SEEN_PREFIX + id);
+        long[] bits = savedFilters.get(id);
+        Long count = savedCounts.get(id);
+        BloomFilter template = BloomFilter.forCapacity(properties.getExpectedPerBucket(), properties.getFalsePositiveRate());
+        if (bits != null && count != null && count == seen.sizeAsLong() && bits.length * (long) Long.BYTES == template.sizeInBytes()) {
+            return new Bucket(seen, new BloomFilter(bits, template.getHashes(), count));
+        }
+        // Out of date (crash since the last save) or resized: rebuild from the keys on disk
+        for (String key : seen.keySet()) {
+            template.add(key);
+        }
+        savedCounts.remove(id);
+        log.info("Rebuilt duplicate filter for bucket {} from {} entries", id, seen.sizeAsLong());
+        return new Bucket(seen, template);
+    }
+
+    private void saveFilters() {
+        try {
+            int saved = 0;
+            for (Map.Entry<Long, Bucket> e : buckets.entrySet()) {
+                // Count first: a filter saved with a stale count is rebuilt, never trusted with missing keys
+                long count = e.getValue().seen.sizeAsLong();
+                if (Long.valueOf(count).equals(savedCounts.get(e.getKey()))) continue;
+                savedCounts.put(e.getKey(), count);
+                savedFilters.put(e.getKey(), e.getValue().filter.snapshot());
+                saved++;
+            }
+            if (saved > 0) store.commit();
+        } catch (RuntimeException e) {
+            log.warn("Could not save duplicate filters: {}", e.getMessage());
+        }
+    }
+
+    private void expire() {
+        long oldest = (System.currentTimeMillis() - properties.getRetentionDays() * DAY_MS) / bucketMs;
+        for (String name : store.getMapNames()) {
+            if (!name.startsWith(SEEN_PREFIX)) continue;
+            long id = Long.parseLong(name.substring(SEEN_PREFIX.length()));
+            if (id >= oldest) continue;
+            buckets.remove(id);
+            savedFilters.remove(id);
+            savedCounts.remove(id);
+            store.removeMap(name);
+            log.info("Expired duplicate history bucket {}", id);
+        }
+    }
+
+    private static String key(ISA isa) {
+        return trim(isa.getInterchangeSenderId()) + "\t" + trim(isa.getInterchangeReceiverId()) + "\t"
+                + trim(isa.getInterchangeControlNumber());
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    // Another node started alongside this one, e.g. both at once, so neither saw the other at startup
+    private void checkSingleNode() {
+        List<String> others = otherLiveNodes();
+        if (!others.isEmpty()) {
+            log.error("Duplicate detection only sees the files of node {}, but nodes {} are live too; resends "
+                    + "they claim are not caught. Set app.duplicates.enabled=false", clusterProperties.getNodeId(), others);
+        }
+    }
+
+    private List<String> otherLiveNodes() {
+        return claimLeaseManager.getNodeHeartbeats().entrySet().stream()
+                .filter(node -> !node.getKey().equals(clusterProperties.getNodeId()))
+                .filter(node -> node.getValue() < clusterProperties.getLeaseTimeoutMs())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private record Bucket(MVMap<String, String> seen, BloomFilter filter) {}
+
+    private record Reservation(String owner, String contentHash, long reservedAt, String fileName) {}
+}
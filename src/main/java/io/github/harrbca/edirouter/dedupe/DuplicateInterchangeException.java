@@ -0,0 +1,9 @@
+package io.github.harrbca.edirouter.dedupe;
+
+// Raised for a resend when app.duplicates.action=REJECT; classified as a permanent failure
+public class DuplicateInterchangeException extends RuntimeException {
+
+    public DuplicateInterchangeException(String message) {
+        super(message);
+    }
+}
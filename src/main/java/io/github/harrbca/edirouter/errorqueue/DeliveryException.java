@@ -0,0 +1,9 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+// One or more destinations did not take the file
+public class DeliveryException extends RuntimeException {
+
+    public DeliveryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,254 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+import io.github.harrbca.edirouter.config.ErrorQueueProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.processing.FileWorkItem;
+import io.github.harrbca.edirouter.service.FileMover;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Parks files that failed for a transient reason under errors/retry/, each under a retry id of its own (the
+// journal id of its first failure) with an <id>.retry sidecar that keeps its name and source path, and moves
+// each one back to its inbound root when its backoff delay is up, so the retry goes through the normal
+// admission, ordering and pipeline. Two failed files with the same name never share a slot. While a retry is
+// back in the pipeline its source path leads to its id: the sidecar stays, a further failure counts on from
+// it, and success deletes it. The sidecar also lists the destinations that already took the file, so a retry
+// only delivers to the ones that failed. Permanent failures, and files out of attempts, go to the error directory.
+@Slf4j
+@Component
+public class ErrorQueueManager {
+
+    private static final String SIDECAR = ".retry";
+
+    private final ErrorQueueProperties properties;
+    private final FailureClassifier classifier;
+    private final FileMover fileMover;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Path retryDirectory;
+    private final Map<String, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+    // Source path -> retry id, for retries moved back to their root and not finished yet
+    private final Map<Path, String> returned = new ConcurrentHashMap<>();
+
+    public ErrorQueueManager(ErrorQueueProperties properties, FailureClassifier classifier, FileMover fileMover,
+                             ThreadPoolTaskScheduler fileMonitorScheduler, FileMonitorProperties monitorProperties) {
+        this.properties = properties;
+        this.classifier = classifier;
+        this.fileMover = fileMover;
+        this.fileMonitorScheduler = fileMonitorScheduler;
+        this.retryDirectory = monitorProperties.getErrorDirectoryPath().resolve("retry");
+    }
+
+    // Picks up the retries that were waiting when the app stopped, and those that were back in the pipeline
+    public void start() throws IOException {
+        Files.createDirectories(retryDirectory);
+        for (RetryState state : readAll()) {
+            if (!Files.exists(retryDirectory.resolve(state.id()))) returned.put(state.sourceFile(), state.id());
+        }
+        List<RetryState> pending = getPending();
+        pending.forEach(state -> schedule(state.id(), state.nextAttemptAt()));
+        if (!pending.isEmpty()) {
+            log.info("Error queue: {} files waiting for a retry", pending.size());
+        }
+    }
+
+    // Completes with true if the file was parked for a retry, false if it has to go to the error directory
+    public CompletableFuture<Boolean> park(FileWorkItem item, Throwable error) {
+        if (!properties.isEnabled()) return CompletableFuture.completedFuture(false);
+
+        String name = item.getFileName();
+        String id = returned.getOrDefault(item.getSourceFile(), item.getId());
+        RetryState previous = read(id);
+        int attempts = (previous == null ? 0 : previous.attempts()) + 1;
+        FailureKind kind = classifier.classify(error);
+        if (kind == FailureKind.PERMANENT || attempts >= properties.getMaxAttempts()) {
+            finished(item.getSourceFile(), id);
+            if (kind == FailureKind.TRANSIENT) {
+                log.warn("Giving up on {} after {} attempts", name, attempts);
+            }
+            return CompletableFuture.completedFuture(false);
+        }
+
+        long due = System.currentTimeMillis() + delay(attempts);
+        Set<String> delivered = new LinkedHashSet<>(item.getDelivered());
+        if (previous != null) delivered.addAll(previous.delivered());
+        RetryState state = new RetryState(id, name, attempts, due, item.getSourceFile(),
+                String.valueOf(error.getMessage()), delivered);
+        return fileMover.moveWithRetry(item.getCurrentFile(), retryDirectory.resolve(id)).thenApply(parked -> {
+            write(state);
+            returned.remove(item.getSourceFile(), id);
+            schedule(id, due);
+            log.warn("Processing {} failed ({}), retry {} of {} at {}", name, error.getMessage(), attempts,
+                    properties.getMaxAttempts() - 1, Instant.ofEpochMilli(due));
+            return true;
+        }).exceptionally(moveError -> {
+            log.error("Could not park {} for a retry: {}", name, moveError.getMessage());
+            return false;
+        });
+    }
+
+    // Deliveries an earlier attempt of this retry already made; empty for a file on its first attempt
+    public Set<String> delivered(FileWorkItem item) {
+        String id = returned.get(item.getSourceFile());
+        RetryState state = id == null ? null : read(id);
+        return state == null ? Set.of() : state.delivered();
+    }
+
+    public void succeeded(FileWorkItem item) {
+        String id = returned.get(item.getSourceFile());
+        if (id != null) finished(item.getSourceFile(), id);
+    }
+
+    // Skips the remaining delay; takes a retry id or a file name (the longest-waiting file of that name).
+    // False if nothing by that id or name is waiting.
+    public boolean retryNow(String idOrName) {
+        Optional<RetryState> match = getPending().stream()
+                .filter(state -> state.id().equals(idOrName) || state.fileName().equals(idOrName))
+                .findFirst();
+        if (match.isEmpty()) return false;
+        String id = match.get().id();
+        ScheduledFuture<?> task = scheduled.remove(id);
+        if (task != null) task.cancel(false);
+        fileMonitorScheduler.execute(() -> retry(id));
+        return true;
+    }
+
+    // Files parked and waiting, soonest first
+    public List<RetryState> getPending() {
+        List<RetryState> pending = new ArrayList<>();
+        for (RetryState state : readAll()) {
+            // Without the file next to it, the retry is already back in the pipeline
+            if (Files.exists(retryDirectory.resolve(state.id()))) pending.add(state);
+        }
+        pending.sort(Comparator.comparingLong(RetryState::nextAttemptAt));
+        return pending;
+    }
+
+    private List<RetryState> readAll() {
+        List<RetryState> states = new ArrayList<>();
+        try (DirectoryStream<Path> sidecars = Files.newDirectoryStream(retryDirectory, "*" + SIDECAR)) {
+            for (Path sidecar : sidecars) {
+                String id = sidecar.getFileName().toString();
+                RetryState state = read(id.substring(0, id.length() - SIDECAR.length()));
+                if (state != null) states.add(state);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list error queue {}: {}", retryDirectory, e.getMessage());
+        }
+        return states;
+    }
+
+    private void schedule(String id, long due) {
+        ScheduledFuture<?> previous = scheduled.put(id,
+                fileMonitorScheduler.schedule(() -> retry(id), Instant.ofEpochMilli(due)));
+        if (previous != null) previous.cancel(false);
+    }
+
+    private void retry(String id) {
+        scheduled.remove(id);
+        Path parked = retryDirectory.resolve(id);
+        RetryState state = read(id);
+        if (state == null || !Files.exists(parked)) return;
+
+        // Another file is waiting in the root under this name, or another retry of it is in the pipeline
+        String inFlight = returned.putIfAbsent(state.sourceFile(), id);
+        if (Files.exists(state.sourceFile()) || (inFlight != null && !inFlight.equals(id))) {
+            if (inFlight == null) returned.remove(state.sourceFile(), id);
+            schedule(id, System.currentTimeMillis() + properties.getInitialDelayMs());
+            return;
+        }
+        fileMover.moveWithRetry(parked, state.sourceFile()).whenComplete((moved, error) -> {
+            if (error == null) {
+                log.info("Retrying {} (attempt {})", state.fileName(), state.attempts() + 1);
+            } else {
+                returned.remove(state.sourceFile(), id);
+                log.warn("Could not return {} to {}: {}", state.fileName(), state.sourceFile().getParent(), error.getMessage());
+                schedule(id, System.currentTimeMillis() + delay(state.attempts()));
+            }
+        });
+    }
+
+    private void finished(Path sourceFile, String id) {
+        returned.remove(sourceFile, id);
+        deleteSidecar(id);
+    }
+
+    private long delay(int attempts) {
+        double base = properties.getInitialDelayMs() * Math.pow(properties.getMultiplier(), attempts - 1);
+        double capped = Math.min(base, properties.getMaxDelayMs());
+        return (long) (capped * (1 + ThreadLocalRandom.current().nextDouble() * properties.getJitter()));
+    }
+
+    private RetryState read(String id) {
+        Path sidecar = retryDirectory.resolve(id + SIDECAR);
+        if (!Files.exists(sidecar)) return null;
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(sidecar)) {
+            p.load(reader);
+            Path sourceFile = Path.of(p.getProperty("sourceFile"));
+            return new RetryState(id, p.getProperty("fileName", sourceFile.getFileName().toString()),
+                    Integer.parseInt(p.getProperty("attempts")), Long.parseLong(p.getProperty("nextAttemptAt")),
+                    sourceFile, p.getProperty("lastError"), delivered(p.getProperty("delivered", "")));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable retry sidecar {}: {}", sidecar, e.getMessage());
+            return null;
+        }
+    }
+
+    // Written to a temp file and renamed, so a sidecar is never seen half written
+    private void write(RetryState state) {
+        Properties p = new Properties();
+        p.setProperty("fileName", state.fileName());
+        p.setProperty("attempts", Integer.toString(state.attempts()));
+        p.setProperty("nextAttemptAt", Long.toString(state.nextAttemptAt()));
+        p.setProperty("sourceFile", state.sourceFile().toString());
+        p.setProperty("lastError", state.lastError());
+        p.setProperty("delivered", String.join("\n", state.delivered()));
+        Path sidecar = retryDirectory.resolve(state.id() + SIDECAR);
+        Path temp = retryDirectory.resolve(state.id() + SIDECAR + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                p.store(writer, null);
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Cannot write retry sidecar {}: {}", sidecar, e.getMessage());
+        }
+    }
+
+    private static Set<String> delivered(String value) {
+        Set<String> delivered = new LinkedHashSet<>(Arrays.asList(value.split("\n")));
+        delivered.remove("");
+        return delivered;
+    }
+
+    private void deleteSidecar(String id) {
+        try {
+            Files.deleteIfExists(retryDirectory.resolve(id + SIDECAR));
+        } catch (IOException e) {
+            log.warn("Cannot delete retry sidecar {}: {}", id, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeoutException;
+
+// I/O problems and failed deliveries are worth retrying; anything wrong with the content or the configuration
+// (parse errors, unknown destinations) fails the same way every time. The outermost known kind decides, so
+// content rejected because of an I/O-level symptom, such as a truncated zip, is not retried.
+@Component
+public class FailureClassifier {
+
+    public FailureKind classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof IllegalArgumentException) {
+                return FailureKind.PERMANENT;
+            }
+            if (t instanceof DeliveryException || t instanceof IOException || t instanceof UncheckedIOException
+                    || t instanceof TimeoutException) {
+                return FailureKind.TRANSIENT;
+            }
+        }
+        return FailureKind.PERMANENT;
+    }
+}
@@ -0,0 +1,8 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+public enum FailureKind {
+    // Likely to succeed later without anyone changing anything: a locked file, a partner that was down
+    TRANSIENT,
+    // Will fail the same way every time: a malformed interchange, a bad route
+    PERMANENT
+}
@@ -0,0 +1,10 @@
+package io.github.harrbca.edirouter.errorqueue;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+// Contents of a .retry sidecar: how often the file has failed so far and where it goes back to. The id names
+// the parked file and its sidecar; the file name is the one it arrived with. delivered lists the deliveries
+// that already went through, so a retry only redoes the ones that failed.
+public record RetryState(String id, String fileName, int attempts, long nextAttemptAt, Path sourceFile,
+                         String lastError, Set<String> delivered) {}
@@ -7,12 +7,17 @@ import org.springframework.context.ApplicationEvent;
 public class FileProcessedEvent extends ApplicationEvent {
     
     private final String fileName;
+    private final String inboundRoot;
+    private final String defaultRoute;
     private final boolean success;
     private final long totalFilesProcessed;
     
-    public FileProcessedEvent(Object source, String fileName, boolean success, long totalFilesProcessed) {
+    public FileProcessedEvent(Object source, String fileName, String inboundRoot, String defaultRoute,
+                              boolean success, long totalFilesProcessed) {
         super(source);
         this.fileName = fileName;
+        this.inboundRoot = inboundRoot;
+        this.defaultRoute = defaultRoute;
         this.success = success;
         this.totalFilesProcessed = totalFilesProcessed;
     }
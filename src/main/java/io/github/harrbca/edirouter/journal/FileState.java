@@ -0,0 +1,21 @@
+package io.github.harrbca.edirouter.journal;
+
+// Lifecycle of an inbound file as recorded in the state journal
+public enum FileState {
+    // Admitted to the pipeline; still in its inbound root, so a restart simply rediscovers it
+    RECEIVED,
+    // Written before the move into the processing directory, with the target path
+    CLAIMED,
+    PARSED,
+    ROUTED,
+    // Every destination has the file; recovery goes straight to archiving
+    DELIVERED,
+    ARCHIVED,
+    FAILED,
+    // Recovery found the file still in its inbound root; it will be picked up again as a new file
+    RELEASED;
+
+    public boolean isTerminal() {
+        return this == ARCHIVED || this == FAILED || this == RELEASED;
+    }
+}
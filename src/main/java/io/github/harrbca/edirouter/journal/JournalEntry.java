@@ -0,0 +1,112 @@
+package io.github.harrbca.edirouter.journal;
+
+import io.github.harrbca.edirouter.processing.FileWorkItem;
+import lombok.Builder;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// One state transition. Stored as a single line: CRC32 of the payload, then tab-separated fields.
+@Value
+@Builder(toBuilder = true)
+public class JournalEntry {
+
+    String id;
+    FileState state;
+    long timestamp;
+    String inboundRoot;
+    String defaultRoute;
+    Path sourceFile;
+    Path currentFile;
+    List<String> destinations;
+    String message;
+
+    public static JournalEntry of(FileWorkItem item, FileState state) {
+        return JournalEntry.builder()
+                .id(item.getId())
+                .state(state)
+                .timestamp(System.currentTimeMillis())
+                .inboundRoot(item.getInboundRoot())
+                .defaultRoute(item.getDefaultRoute())
+                .sourceFile(item.getSourceFile())
+                .currentFile(item.getCurrentFile())
+                .destinations(List.copyOf(item.getDestinations()))
+                .build();
+    }
+
+    String encode() {
+        String payload = String.join("\t",
+                escape(id), state.name(), Long.toString(timestamp), escape(inboundRoot), escape(defaultRoute),
+                escape(sourceFile == null ? null : sourceFile.toString()),
+                escape(currentFile == null ? null : currentFile.toString()),
+                escape(destinations == null ? null : String.join(",", destinations)),
+                escape(message));
+        return Long.toHexString(crc(payload)) + "\t" + payload;
+    }
+
+    // Returns null for a torn or corrupt line
+    static JournalEntry decode(String line) {
+        int split = line.indexOf('\t');
+        if (split < 0) return null;
+        String payload = line.substring(split + 1);
+        try {
+            if (Long.parseLong(line.substring(0, split), 16) != crc(payload)) return null;
+            String[] f = payload.split("\t", -1);
+            if (f.length != 9) return null;
+            String destinations = unescape(f[7]);
+            String source = unescape(f[5]);
+            String current = unescape(f[6]);
+            return JournalEntry.builder()
+                    .id(unescape(f[0]))
+                    .state(FileState.valueOf(f[1]))
+                    .timestamp(Long.parseLong(f[2]))
+                    .inboundRoot(unescape(f[3]))
+                    .defaultRoute(unescape(f[4]))
+                    .sourceFile(source == null ? null : Path.of(source))
+                    .currentFile(current == null ? null : Path.of(current))
+                    .destinations(destinations == null || destinations.isEmpty()
+                            ? List.of() : new ArrayList<>(Arrays.asList(destinations.split(","))))
+                    .message(unescape(f[8]))
+                    .build();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long crc(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    // \0 marks null; backslash, tab and newlines are escaped so a record always stays on one line
+    private static String escape(String value) {
+        if (value == null) return "\\0";
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.equals("\\0")) return null;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
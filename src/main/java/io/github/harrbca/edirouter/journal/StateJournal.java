@@ -0,0 +1,249 @@
+package io.github.harrbca.edirouter.journal;
+
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.JournalProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Append-only log of file state transitions. A single writer thread takes every append that is waiting,
+// writes them in one go and fsyncs once (group commit), then completes their futures. The latest entry of
+// every unfinished file is kept in memory; when the segment grows too large it is rewritten with only those
+// entries, so replay after a crash reads roughly one line per unfinished file. Each node of a cluster keeps
+// its own journal under <directory>/<nodeId>.
+@Slf4j
+@Component
+public class StateJournal {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Queued by close() to stop the writer; interrupting it instead would close the channel of a compaction
+    private static final PendingAppend STOP = new PendingAppend(null, null);
+
+    private final JournalProperties properties;
+    private final Path journalRoot;
+    private final Path directory;
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    private final Map<String, JournalEntry> open = new LinkedHashMap<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private List<JournalEntry> recovered = List.of();
+    private FileChannel channel;
+    private Path segment;
+    private long segmentNumber;
+    private Thread writer;
+    private volatile boolean running;
+
+    public StateJournal(JournalProperties properties, FileMonitorProperties monitorProperties,
+                        ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.journalRoot = monitorProperties.resolveDirectory(properties.getDirectory());
+        this.directory = journalRoot.resolve(clusterProperties.getNodeId());
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isEnabled()) return;
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments(directory);
+        for (Path existing : segments) {
+            replay(existing, open);
+        }
+        recovered = open.values().stream().filter(e -> e.getState() != FileState.RECEIVED).toList();
+        // RECEIVED files are still in their inbound root and are rediscovered by the startup scan
+        open.values().removeIf(e -> e.getState() == FileState.RECEIVED);
+
+        segmentNumber = segments.isEmpty() ? 0 : number(segments.getLast());
+        compact();
+
+        running = true;
+        writer = Thread.ofPlatform().daemon().name("state-journal").start(this::writeLoop);
+        log.info("State journal at {}: {} unfinished files to resume", directory, recovered.size());
+    }
+
+    // Unfinished files found at startup, each with its most recent state
+    public List<JournalEntry> getRecovered() {
+        return recovered;
+    }
+
+    // Unfinished files in another node's journal, read without touching it; used when taking over a dead node
+    public List<JournalEntry> readUnfinished(String nodeId) {
+        Path other = journalRoot.resolve(nodeId);
+        if (!Files.isDirectory(other)) return List.of();
+        Map<String, JournalEntry> entries = new LinkedHashMap<>();
+        try {
+            for (Path existing : segments(other)) {
+                replay(existing, entries);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Cannot read journal of node {}: {}", nodeId, e.getMessage());
+        }
+        return List.copyOf(entries.values());
+    }
+
+    // Completes once the entry is on disk
+    public CompletableFuture<Void> append(JournalEntry entry) {
+        if (!running) {
+            return CompletableFuture.completedFuture(null);
+        }
+        PendingAppend pending = new PendingAppend(entry, new CompletableFuture<>());
+        queue.add(pending);
+        return pending.durable;
+    }
+
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    public double getAverageBatchSize() {
+        long b = batches.get();
+        return b == 0 ? 0 : (double) records.get() / b;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        if (!running) return;
+        running = false;
+        queue.add(STOP);
+        writer.join(5000);
+        // Flush anything the writer did not get to
+        List<PendingAppend> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(STOP);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>(properties.getMaxBatch());
+        while (running) {
+            try {
+                PendingAppend first = queue.take();
+                if (first == STOP) return;
+                batch.add(first);
+                queue.drainTo(batch, properties.getMaxBatch() - 1);
+                boolean stop = batch.remove(STOP);
+                write(batch);
+                if (channel.size() > properties.getCompactAfterBytes()) {
+                    compact();
+                }
+                if (stop) return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.error("State journal write failed: {}", e.getMessage(), e);
+                batch.forEach(p -> p.durable.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void write(List<PendingAppend> batch) throws IOException {
+        StringBuilder lines = new StringBuilder(batch.size() * 160);
+        for (PendingAppend pending : batch) {
+            lines.append(pending.entry.encode()).append('\n');
+            track(pending.entry, open);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        batches.incrementAndGet();
+        records.addAndGet(batch.size());
+        batch.forEach(p -> p.durable.complete(null));
+    }
+
+    // Writes the unfinished entries to a new segment, then drops the old ones
+    private synchronized void compact() throws IOException {
+        Path next = directory.resolve(SEGMENT_PREFIX + String.format("%010d", ++segmentNumber) + SEGMENT_SUFFIX);
+        FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        StringBuilder lines = new StringBuilder();
+        for (JournalEntry entry : open.values()) {
+            lines.append(entry.encode()).append('\n');
+        }
+        nextChannel.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+        nextChannel.force(true);
+
+        if (channel != null) channel.close();
+        channel = nextChannel;
+        Path previous = segment;
+        segment = next;
+        for (Path old : segments(directory)) {
+            if (!old.equals(segment)) Files.deleteIfExists(old);
+        }
+        if (previous != null) {
+            log.debug("Compacted state journal into {} ({} unfinished files)", segment.getFileName(), open.size());
+        }
+    }
+
+    private static void replay(Path file, Map<String, JournalEntry> into) throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                JournalEntry entry = JournalEntry.decode(line);
+                if (entry == null) {
+                    // Only the tail can be torn by a crash; anything after it was never acknowledged
+                    log.warn("Stopping replay of {} at corrupt line {}", file.getFileName(), lineNumber);
+                    return;
+                }
+                track(entry, into);
+            }
+        }
+    }
+
+    private static void track(JournalEntry entry, Map<String, JournalEntry> into) {
+        if (entry.getState().isTerminal()) {
+            into.remove(entry.getId());
+        } else {
+            into.put(entry.getId(), entry);
+        }
+    }
+
+    private static List<Path> segments(Path directory) {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            files.forEach(out::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list journal segments in " + directory, e);
+        }
+        out.sort(Comparator.comparingLong(StateJournal::number));
+        return out;
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private record PendingAppend(JournalEntry entry, CompletableFuture<Void> durable) {}
+}
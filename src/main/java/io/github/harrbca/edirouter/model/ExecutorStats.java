@@ -0,0 +1,18 @@
+package io.github.harrbca.edirouter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder(toBuilder = true)
+public class ExecutorStats {
+    private String name;
+    private String mode;
+    private int maxConcurrency;
+    private int activeWorkers;
+    private int queueDepth;
+    private int queueCapacity;
+    private long completed;
+    private long failed;
+    private long rejected;
+}
@@ -0,0 +1,15 @@
+package io.github.harrbca.edirouter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class MemoryStats {
+    private long budgetBytes;
+    private long reservedBytes;
+    private long peakReservedBytes;
+    private int activeReservations;
+    private long wholeFileParses;
+    private long streamedParses;
+}
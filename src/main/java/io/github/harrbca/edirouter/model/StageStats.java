@@ -0,0 +1,19 @@
+package io.github.harrbca.edirouter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class StageStats {
+    private String name;
+    private int workers;
+    private int activeWorkers;
+    private int queueDepth;
+    private int queueCapacity;
+    private long completed;
+    private long failed;
+    private double avgQueueWaitMs;
+    private double avgServiceMs;
+    private double maxServiceMs;
+}
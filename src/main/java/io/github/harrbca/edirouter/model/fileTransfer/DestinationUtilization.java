@@ -0,0 +1,17 @@
+package io.github.harrbca.edirouter.model.fileTransfer;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class DestinationUtilization {
+    private String destination;
+    private int activeSessions;
+    private int waitingSessions;
+    private int maxConcurrentSessions;   // 0 = unlimited
+    private long currentBytesPerSecond;
+    private long maxBytesPerSecond;      // 0 = unlimited
+    private long totalBytes;
+    private long completedTransfers;
+}
@@ -0,0 +1,17 @@
+package io.github.harrbca.edirouter.model.fileTransfer;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class EndpointHealth {
+    private String endpoint;
+    private boolean healthy;
+    private double connectMs;          // rolling average
+    private double transferMsPerMb;    // rolling average
+    private double errorRate;          // rolling, 0..1
+    private int consecutiveFailures;
+    private long successes;
+    private long failures;
+}
@@ -0,0 +1,8 @@
+package io.github.harrbca.edirouter.model.fileTransfer;
+
+public enum FailoverPolicy {
+    // Use the first healthy endpoint in declared order
+    ORDERED,
+    // Use the healthy endpoint with the lowest expected delivery time, scaled by weight
+    FASTEST
+}
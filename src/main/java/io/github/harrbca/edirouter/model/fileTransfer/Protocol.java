@@ -2,5 +2,9 @@ package io.github.harrbca.edirouter.model.fileTransfer;
 
 public enum Protocol {
     FTP,
-    SFTP
+    SFTP,
+    // Delivery to a local or shared-mount directory (remoteDirectory is a local path)
+    LOCAL,
+    // HTTP(S) POST/PUT of the file body
+    HTTP
 }
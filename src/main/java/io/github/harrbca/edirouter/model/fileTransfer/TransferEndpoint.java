@@ -0,0 +1,16 @@
+package io.github.harrbca.edirouter.model.fileTransfer;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferEndpoint {
+    private String host;
+    @Builder.Default private int port = -1;   // -1 = use the target's port / protocol default
+    @Builder.Default private int weight = 1;  // higher = preferred when latencies are comparable
+}
@@ -1,15 +1,28 @@
 package io.github.harrbca.edirouter.model.fileTransfer;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
 public class TransferTarget {
 
     private Protocol protocol;
     private String host;
     @Builder.Default private int port = -1;
+
+    // Alternate hosts for the same partner; when set, host/port above only name the destination
+    @Builder.Default private List<TransferEndpoint> endpoints = new ArrayList<>();
+    @Builder.Default private FailoverPolicy failoverPolicy = FailoverPolicy.FASTEST;
     private String username;
     private String password;
 
@@ -25,6 +38,14 @@ public class TransferTarget {
     // FTP only
     @Builder.Default private boolean ftpPassiveMode = true;
 
+    // HTTP only. httpUrl may contain {filename}; when blank it is built from host, port and remoteDirectory.
+    // Auth: bearer token if set, otherwise Basic with username/password when a username is set.
+    private String httpUrl;
+    @Builder.Default private String httpMethod = "POST";
+    @Builder.Default private boolean httpUseTls = true;
+    @Builder.Default private Map<String, String> httpHeaders = new LinkedHashMap<>();
+    private String httpBearerToken;
+
     // Timeouts
     @Builder.Default private int connectionTimeoutMs = 15000;
     @Builder.Default private int socketTimeoutMs = 30000;
@@ -33,4 +54,11 @@ public class TransferTarget {
     private String sftpHostKeyFingerprint;
     @Builder.Default private boolean sftpTrustUnknownHostKeys = false;
 
+    // Partner in app.pgp.partner-keys; when set the file is PGP-encrypted to that partner's key on the way out
+    private String pgpRecipient;
+
+    // Shaping (0 = unlimited)
+    @Builder.Default private long maxBytesPerSecond = 0;
+    @Builder.Default private int maxConcurrentSessions = 0;
+
 }
@@ -12,5 +12,6 @@ public class UploadResult {
     private String remotePath;
     private long bytes;
     private long durationMs;
+    private long connectMs;
     private String message;
 }
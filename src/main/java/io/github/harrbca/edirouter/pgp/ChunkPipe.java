@@ -0,0 +1,144 @@
+package io.github.harrbca.edirouter.pgp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Hands bytes from one writing thread to one reading thread in chunks, holding at most bufferBytes. Unlike
+// PipedInputStream it does not care which threads are on either end, so the reader may move between pool
+// threads (as HTTP body publishers do). A writer failure surfaces on the reader instead of a clean end.
+final class ChunkPipe {
+
+    private static final byte[] END = new byte[0];
+    private static final long OFFER_WAIT_MS = 100;
+
+    private final BlockingQueue<byte[]> chunks;
+    private final int chunkBytes;
+    private volatile Throwable failure;
+    private volatile boolean readerClosed;
+
+    ChunkPipe(int bufferBytes, int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, bufferBytes / chunkBytes));
+    }
+
+    OutputStream sink() {
+        return new Sink();
+    }
+
+    InputStream source() {
+        return new Source();
+    }
+
+    // Called by the writer instead of closing the sink
+    void fail(Throwable error) {
+        failure = error;
+        try {
+            put(END);
+        } catch (IOException ignored) {
+            // The reader is gone; nobody is left to tell
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!chunks.offer(chunk, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (readerClosed) throw new IOException("Reader closed the pipe");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing to pipe");
+        }
+    }
+
+    private final class Sink extends OutputStream {
+
+        private final byte[] buffer = new byte[chunkBytes];
+        private int length;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length) flushChunk();
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (length > 0) flushChunk();
+            put(END);
+        }
+
+        private void flushChunk() throws IOException {
+            if (readerClosed) throw new IOException("Reader closed the pipe");
+            put(Arrays.copyOf(buffer, length));
+            length = 0;
+        }
+    }
+
+    private final class Source extends InputStream {
+
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            chunks.clear();
+        }
+
+        private boolean fill() throws IOException {
+            while (!ended && position == current.length) {
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted reading from pipe");
+                }
+                position = 0;
+                ended = current == END;
+            }
+            if (ended) {
+                if (failure != null) throw new IOException("Writer failed: " + failure.getMessage(), failure);
+                return false;
+            }
+            return true;
+        }
+    }
+}
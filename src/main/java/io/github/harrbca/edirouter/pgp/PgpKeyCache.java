@@ -0,0 +1,143 @@
+package io.github.harrbca.edirouter.pgp;
+
+import io.github.harrbca.edirouter.config.PgpProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.operator.bc.BcKeyFingerprintCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyDecryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keys in parsed form. Reading a keyring and unlocking a secret key (the passphrase's S2K hashing) cost far
+// more than decrypting a typical EDI file, so each is done once and reused until its key file changes.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PgpKeyCache {
+
+    private final PgpProperties properties;
+    private final Map<String, Cached<PGPPublicKey>> publicKeys = new ConcurrentHashMap<>();
+    private final Map<Long, PGPPrivateKey> privateKeys = new ConcurrentHashMap<>();
+    private Cached<PGPSecretKeyRingCollection> secretKeys;
+
+    private record Cached<T>(FileTime modified, T value) {}
+
+    public record KeyInfo(String partner, String keyId, boolean loaded) {}
+
+    // The partner's encryption key: an encryption subkey if it has one, never a revoked or expired key
+    public PGPPublicKey encryptionKey(String partner) throws IOException {
+        String file = properties.getPartnerKeys().get(partner);
+        if (file == null) {
+            throw new IllegalStateException("No PGP public key configured for partner: " + partner);
+        }
+        Path path = Path.of(file);
+        FileTime modified = Files.getLastModifiedTime(path);
+        Cached<PGPPublicKey> cached = publicKeys.get(partner);
+        if (cached != null && cached.modified().equals(modified)) {
+            return cached.value();
+        }
+
+        PGPPublicKey key = readEncryptionKey(path);
+        publicKeys.put(partner, new Cached<>(modified, key));
+        log.info("Loaded PGP key {} for partner {}", keyId(key.getKeyID()), partner);
+        return key;
+    }
+
+    // Null if no key in our keyring has this ID, i.e. the message was not encrypted to us
+    public PGPPrivateKey privateKey(long keyId) throws IOException {
+        PGPSecretKeyRingCollection ring = secretKeys();
+        PGPPrivateKey cached = privateKeys.get(keyId);
+        if (cached != null) return cached;
+
+        PGPSecretKey secret = ring.getSecretKey(keyId);
+        if (secret == null) return null;
+        try {
+            String passphrase = properties.getPassphrase() == null ? "" : properties.getPassphrase();
+            PGPPrivateKey key = secret.extractPrivateKey(new BcPBESecretKeyDecryptorBuilder(new BcPGPDigestCalculatorProvider())
+                    .build(passphrase.toCharArray()));
+            privateKeys.put(keyId, key);
+            return key;
+        } catch (PGPException e) {
+            throw new IllegalStateException("Cannot unlock PGP secret key " + keyId(keyId) + ": " + e.getMessage(), e);
+        }
+    }
+
+    public List<KeyInfo> getPartnerKeys() {
+        List<KeyInfo> keys = new ArrayList<>();
+        for (String partner : properties.getPartnerKeys().keySet()) {
+            Cached<PGPPublicKey> cached = publicKeys.get(partner);
+            keys.add(new KeyInfo(partner, cached == null ? null : keyId(cached.value().getKeyID()), cached != null));
+        }
+        return keys;
+    }
+
+    public static String keyId(long keyId) {
+        return HexFormat.of().withUpperCase().toHexDigits(keyId);
+    }
+
+    // A changed keyring drops every key unlocked from the old one
+    private synchronized PGPSecretKeyRingCollection secretKeys() throws IOException {
+        if (properties.getSecretKeyFile() == null || properties.getSecretKeyFile().isBlank()) {
+            throw new IllegalStateException("Received a PGP-encrypted file but app.pgp.secret-key-file is not set");
+        }
+        Path path = Path.of(properties.getSecretKeyFile());
+        FileTime modified = Files.getLastModifiedTime(path);
+        if (secretKeys == null || !secretKeys.modified().equals(modified)) {
+            try (InputStream in = PGPUtil.getDecoderStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                secretKeys = new Cached<>(modified, new PGPSecretKeyRingCollection(in, new BcKeyFingerprintCalculator()));
+            } catch (PGPException e) {
+                throw new IllegalStateException("Cannot read PGP secret keyring " + path + ": " + e.getMessage(), e);
+            }
+            privateKeys.clear();
+            log.info("Loaded PGP secret keyring {}", path);
+        }
+        return secretKeys.value();
+    }
+
+    private static PGPPublicKey readEncryptionKey(Path path) throws IOException {
+        PGPPublicKeyRingCollection rings;
+        try (InputStream in = PGPUtil.getDecoderStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            rings = new PGPPublicKeyRingCollection(in, new BcKeyFingerprintCalculator());
+        } catch (PGPException e) {
+            throw new IllegalStateException("Cannot read PGP public key " + path + ": " + e.getMessage(), e);
+        }
+
+        PGPPublicKey primary = null;
+        for (PGPPublicKeyRing ring : rings) {
+            for (PGPPublicKey key : ring) {
+                if (!key.isEncryptionKey() || key.hasRevocation() || isExpired(key)) continue;
+                if (!key.isMasterKey()) return key;
+                if (primary == null) primary = key;
+            }
+        }
+        if (primary == null) {
+            throw new IllegalStateException("No usable encryption key in " + path);
+        }
+        return primary;
+    }
+
+    private static boolean isExpired(PGPPublicKey key) {
+        long validSeconds = key.getValidSeconds();
+        return validSeconds > 0 && key.getCreationTime().getTime() + validSeconds * 1000 < System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,259 @@
+package io.github.harrbca.edirouter.pgp;
+
+import io.github.harrbca.edirouter.config.PgpProperties;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPEncryptedData;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPMarker;
+import org.bouncycastle.openpgp.PGPOnePassSignatureList;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPSignatureList;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.bc.BcPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+// OpenPGP in and out without temporary files. Inbound messages are decrypted as they are read, so the
+// plaintext only ever exists in the parser's and the upload's buffers. Outbound files are encrypted on a
+// virtual thread that feeds the upload through a bounded pipe, so the cipher works on the next block while
+// the connection sends the previous one.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PgpService {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final byte[] ARMOR_HEADER = "-----BEGIN PGP MESSAGE-----".getBytes(StandardCharsets.US_ASCII);
+
+    private final PgpKeyCache keys;
+    private final PgpProperties properties;
+
+    // An OpenPGP message starts with an encrypted session key packet (or a marker packet), armored or not
+    public static boolean isEncrypted(Path file) throws IOException {
+        byte[] head = new byte[ARMOR_HEADER.length];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(head, 0, head.length);
+        }
+        if (read == 0) return false;
+        if (read == head.length && Arrays.equals(head, ARMOR_HEADER)) return true;
+
+        int b = head[0] & 0xff;
+        if ((b & 0x80) == 0) return false;
+        int tag = (b & 0x40) != 0 ? b & 0x3f : (b >> 2) & 0x0f;
+        // Public-key or symmetric-key encrypted session key, or marker
+        return tag == 1 || tag == 3 || tag == 10;
+    }
+
+    // The decrypted content. The integrity check runs when the end is reached and fails the read if the
+    // message was altered, so nothing downstream mistakes a tampered file for a complete one.
+    public InputStream decrypt(Path file) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES);
+        try {
+            return openMessage(file, PGPUtil.getDecoderStream(raw), raw);
+        } catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    // Decrypts again on every open(), for delivering the plaintext of an inbound file
+    public UploadSource decrypting(Path file, String name, long size) {
+        return new UploadSource() {
+            @Override public String name() { return name; }
+            @Override public long size() { return size; }
+            @Override public InputStream open() throws IOException { return decrypt(file); }
+            @Override public String toString() { return file + " (decrypted)"; }
+        };
+    }
+
+    // The partner's key is looked up now, so a missing or bad key fails before a connection is made
+    public UploadSource encrypting(UploadSource plain, String partner) {
+        PGPPublicKey key;
+        try {
+            key = keys.encryptionKey(partner);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read PGP key for partner " + partner, e);
+        }
+        String suffix = properties.isArmor() ? ".asc" : ".pgp";
+        return new UploadSource() {
+            @Override public String name() { return plain.name() + suffix; }
+            // Compression and packet overhead make the real length unknown until it has been written
+            @Override public long size() throws IOException { return plain.size(); }
+            @Override public boolean exactSize() { return false; }
+            @Override public InputStream open() { return encryptInBackground(plain, key); }
+            @Override public String toString() { return plain + " (encrypted for " + partner + ")"; }
+        };
+    }
+
+    private InputStream openMessage(Path file, InputStream in, InputStream raw) throws IOException {
+        try {
+            BcPGPObjectFactory factory = new BcPGPObjectFactory(in);
+            Object packet = factory.nextObject();
+            if (packet instanceof PGPMarker) packet = factory.nextObject();
+            if (!(packet instanceof PGPEncryptedDataList encrypted)) {
+                throw new IllegalArgumentException("Not a PGP encrypted message: " + file.getFileName());
+            }
+
+            PGPPublicKeyEncryptedData data = null;
+            PGPPrivateKey privateKey = null;
+            List<String> recipients = new ArrayList<>();
+            for (PGPEncryptedData candidate : encrypted) {
+                if (!(candidate instanceof PGPPublicKeyEncryptedData pk)) continue;
+                recipients.add(PgpKeyCache.keyId(pk.getKeyIdentifier().getKeyId()));
+                privateKey = keys.privateKey(pk.getKeyIdentifier().getKeyId());
+                if (privateKey != null) {
+                    data = pk;
+                    break;
+                }
+            }
+            if (data == null) {
+                throw new IllegalArgumentException(file.getFileName() + " is not encrypted to any of our keys (recipients "
+                        + recipients + ")");
+            }
+
+            InputStream clear = data.getDataStream(new BcPublicKeyDataDecryptorFactory(privateKey));
+            BcPGPObjectFactory plain = new BcPGPObjectFactory(clear);
+            Object message = plain.nextObject();
+            if (message instanceof PGPCompressedData compressed) {
+                plain = new BcPGPObjectFactory(new BufferedInputStream(compressed.getDataStream(), BUFFER_BYTES));
+                message = plain.nextObject();
+            }
+            // Signatures are carried through unchecked; the literal data is what gets routed
+            while (message instanceof PGPOnePassSignatureList || message instanceof PGPSignatureList) {
+                message = plain.nextObject();
+            }
+            if (!(message instanceof PGPLiteralData literal)) {
+                throw new IllegalArgumentException("Unexpected PGP packet in " + file.getFileName() + ": "
+                        + (message == null ? "none" : message.getClass().getSimpleName()));
+            }
+            return new VerifiedPlaintext(literal.getInputStream(), data, raw, file);
+        } catch (PGPException e) {
+            throw new IllegalArgumentException("Cannot decrypt " + file.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private InputStream encryptInBackground(UploadSource plain, PGPPublicKey key) {
+        ChunkPipe pipe = new ChunkPipe(properties.getPipeBufferBytes(), BUFFER_BYTES);
+        Thread.ofVirtual().name("pgp-encrypt").start(() -> {
+            OutputStream sink = pipe.sink();
+            try {
+                encrypt(plain, key, sink);
+                sink.close();
+            } catch (Throwable e) {
+                log.debug("Encrypting {} stopped: {}", plain.name(), e.getMessage());
+                pipe.fail(e);
+            }
+        });
+        return pipe.source();
+    }
+
+    private void encrypt(UploadSource plain, PGPPublicKey key, OutputStream sink) throws IOException, PGPException {
+        PGPEncryptedDataGenerator generator = new PGPEncryptedDataGenerator(
+                new BcPGPDataEncryptorBuilder(algorithm()).setWithIntegrityPacket(true));
+        generator.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(key));
+
+        OutputStream armored = properties.isArmor() ? new ArmoredOutputStream(sink) : sink;
+        try (InputStream in = plain.open()) {
+            OutputStream encrypted = generator.open(armored, new byte[BUFFER_BYTES]);
+            PGPCompressedDataGenerator compressor = properties.isCompress()
+                    ? new PGPCompressedDataGenerator(CompressionAlgorithmTags.ZIP) : null;
+            OutputStream body = compressor != null ? compressor.open(encrypted, new byte[BUFFER_BYTES]) : encrypted;
+            PGPLiteralDataGenerator literal = new PGPLiteralDataGenerator();
+            OutputStream literalOut = literal.open(body, PGPLiteralData.BINARY, plain.name(), new Date(), new byte[BUFFER_BYTES]);
+            in.transferTo(literalOut);
+            literal.close();
+            if (compressor != null) compressor.close();
+            generator.close();
+        }
+        // Writes the armor footer; the sink itself is closed by the caller
+        if (armored != sink) armored.close();
+    }
+
+    private int algorithm() {
+        return switch (properties.getAlgorithm()) {
+            case AES_128 -> SymmetricKeyAlgorithmTags.AES_128;
+            case AES_192 -> SymmetricKeyAlgorithmTags.AES_192;
+            case AES_256 -> SymmetricKeyAlgorithmTags.AES_256;
+        };
+    }
+
+    private static final class VerifiedPlaintext extends FilterInputStream {
+
+        private final PGPPublicKeyEncryptedData data;
+        private final InputStream raw;
+        private final Path file;
+        private boolean verified;
+
+        VerifiedPlaintext(InputStream in, PGPPublicKeyEncryptedData data, InputStream raw, Path file) {
+            super(in);
+            this.data = data;
+            this.raw = raw;
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) verify();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) verify();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raw.close();
+        }
+
+        private void verify() throws IOException {
+            if (verified) return;
+            verified = true;
+            try {
+                if (!data.isIntegrityProtected()) {
+                    throw new IllegalArgumentException(file.getFileName() + " has no PGP integrity protection");
+                }
+                if (!data.verify()) {
+                    throw new IllegalArgumentException("PGP integrity check failed for " + file.getFileName());
+                }
+            } catch (PGPException e) {
+                throw new IllegalArgumentException("PGP integrity check failed for " + file.getFileName() + ": "
+                        + e.getMessage(), e);
+            }
+        }
+    }
+}
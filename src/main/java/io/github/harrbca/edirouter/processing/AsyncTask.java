@@ -0,0 +1,28 @@
+package io.github.harrbca.edirouter.processing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+// A unit of work that may finish after start() returns. Executors hold its slot until the returned stage
+// completes, without holding a thread.
+@FunctionalInterface
+public interface AsyncTask {
+
+    CompletionStage<?> start();
+
+    static AsyncTask of(Runnable task) {
+        return () -> {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
+    // Never throws: a failure in start() is returned as a failed stage
+    static CompletionStage<?> startSafely(AsyncTask task) {
+        try {
+            return task.start();
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+}
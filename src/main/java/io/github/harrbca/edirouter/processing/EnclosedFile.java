@@ -0,0 +1,33 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One EDI file carried inside a compressed or encrypted inbound file. It is parsed and routed on its own and
+// delivered by streaming it out of the inbound file again; its content never exists on disk in this node.
+@Getter
+@Setter
+public class EnclosedFile {
+
+    // Where it sits in the inbound file, e.g. its path inside a zip
+    private final String entryName;
+    // File name it is delivered under
+    private final String name;
+    private final long size;
+    private final X12ParseResult parseResult;
+    private final UploadSource source;
+    private List<String> destinations = new ArrayList<>();
+
+    public EnclosedFile(String entryName, String name, long size, X12ParseResult parseResult, UploadSource source) {
+        this.entryName = entryName;
+        this.name = name;
+        this.size = size;
+        this.parseResult = parseResult;
+        this.source = source;
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.harrbca.edirouter.processing;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+// Holds a lane's waiting files and feeds its executor one task per free worker, so the order in which work
+// starts is decided here rather than by arrival order. Priority classes are served strictly in order. Within
+// a class each ISA sender is a flow, and flows are interleaved by self-clocked fair queueing: every file costs
+// 1/weight of virtual time, so a sender with 20k queued files gets its share of workers and no more.
+// Files with an ordering key take their lane slot on arrival but only enter the queue when the
+// KeyedSerialExecutor says it is their turn.
+@Slf4j
+public class FairShareScheduler {
+
+    private final String name;
+    private final ProcessingExecutor executor;
+    private final FileClassifier classifier;
+    private final KeyedSerialExecutor ordering;
+    private final boolean smallFilesFirst;
+    private final List<String> classNames;
+    private final ClassQueue[] classes;
+    private final Semaphore capacity;
+    private final int queueCapacity;
+    private final LongAdder rejected = new LongAdder();
+    private long sequence;
+    private int queued;
+
+    public FairShareScheduler(String name, ProcessingExecutor executor, FileClassifier classifier,
+                              KeyedSerialExecutor ordering, int queueCapacity, boolean smallFilesFirst) {
+        this.name = name;
+        this.executor = executor;
+        this.classifier = classifier;
+        this.ordering = ordering;
+        this.smallFilesFirst = smallFilesFirst;
+        this.classNames = classifier.classNames().isEmpty() ? List.of("default") : classifier.classNames();
+        this.classes = new ClassQueue[classNames.size()];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ClassQueue();
+        }
+        this.queueCapacity = Math.max(queueCapacity, 0);
+        // Counts running and waiting files, like the executor's own admission control
+        this.capacity = new Semaphore(this.queueCapacity + executor.getMaxConcurrency());
+        executor.onSlotFreed(this::dispatch);
+    }
+
+    // Returns false when the lane is full
+    public boolean offer(FileClassifier.Classification classification, AsyncTask task) {
+        if (!capacity.tryAcquire()) {
+            rejected.increment();
+            return false;
+        }
+        admit(classification, task);
+        return true;
+    }
+
+    // Waits for space; used by the startup backlog drain
+    public void put(FileClassifier.Classification classification, AsyncTask task) throws InterruptedException {
+        capacity.acquire();
+        admit(classification, task);
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public synchronized Map<String, Integer> getQueuedByClass() {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (int i = 0; i < classes.length; i++) {
+            out.put(classNames.get(i), classes[i].size);
+        }
+        return out;
+    }
+
+    private void admit(FileClassifier.Classification classification, AsyncTask task) {
+        if (classification.orderingKey() == null) {
+            enqueue(classification, task);
+        } else {
+            ordering.submit(classification.orderingKey(), classification.orderingPosition(),
+                    classification.gapWaitMs(), task, ready -> enqueue(classification, ready));
+        }
+    }
+
+    private void enqueue(FileClassifier.Classification classification, AsyncTask task) {
+        synchronized (this) {
+            int index = Math.min(Math.max(classification.priorityClass(), 0), classes.length - 1);
+            classes[index].add(new Item(classification.sender(), classification.size(), sequence++, task),
+                    classifier.weightOf(classification.sender()));
+            queued++;
+        }
+        dispatch();
+    }
+
+    // Starts waiting files while the executor has a free worker. The executor has no queue of its own, so
+    // a task is only handed over when it can start and the choice of what runs next stays here.
+    private synchronized void dispatch() {
+        while (queued > 0 && executor.hasCapacity()) {
+            Item item = poll();
+            queued--;
+            boolean started = executor.tryExecuteAsync(() ->
+                    AsyncTask.startSafely(item.task).whenComplete((result, error) -> capacity.release()));
+            if (!started) {
+                capacity.release();
+                log.error("Lane {} refused a task despite free capacity - dropping {}", name, item);
+            }
+        }
+    }
+
+    private Item poll() {
+        for (ClassQueue queue : classes) {
+            if (queue.size > 0) return queue.poll();
+        }
+        throw new IllegalStateException("Queue count out of sync on lane " + name);
+    }
+
+    private final class ClassQueue {
+        private final Map<String, Flow> flows = new HashMap<>();
+        private final PriorityQueue<Flow> backlogged = new PriorityQueue<>(
+                Comparator.comparingDouble((Flow f) -> f.headFinish).thenComparingLong(f -> f.headSequence));
+        private double virtualTime;
+        private int size;
+
+        private void add(Item item, int weight) {
+            Flow flow = flows.computeIfAbsent(item.sender, s -> new Flow(weight));
+            boolean wasIdle = flow.items.isEmpty();
+            flow.items.add(item);
+            size++;
+            if (wasIdle) {
+                // A flow returning from idle starts at the current virtual time, not where it left off
+                flow.headFinish = Math.max(virtualTime, flow.lastFinish) + flow.cost;
+                flow.headSequence = item.sequence;
+                backlogged.add(flow);
+            }
+        }
+
+        private Item poll() {
+            Flow flow = backlogged.poll();
+            Item item = flow.items.poll();
+            size--;
+            virtualTime = flow.headFinish;
+            flow.lastFinish = flow.headFinish;
+            if (flow.items.isEmpty()) {
+                flows.remove(item.sender);
+            } else {
+                flow.headFinish = flow.lastFinish + flow.cost;
+                flow.headSequence = flow.items.peek().sequence;
+                backlogged.add(flow);
+            }
+            return item;
+        }
+    }
+
+    private final class Flow {
+        private final double cost;
+        private final Queue<Item> items = smallFilesFirst
+                ? new PriorityQueue<>(Comparator.comparingLong((Item i) -> i.size).thenComparingLong(i -> i.sequence))
+                : new ArrayDeque<>();
+        private double headFinish;
+        private long headSequence;
+        private double lastFinish;
+
+        private Flow(int weight) {
+            this.cost = 1.0 / weight;
+        }
+    }
+
+    private record Item(String sender, long size, long sequence, AsyncTask task) {}
+}
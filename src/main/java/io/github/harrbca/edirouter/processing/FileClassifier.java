@@ -0,0 +1,117 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.SchedulingProperties;
+import io.github.harrbca.edirouter.x12.X12EnvelopeService;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.TransactionSet;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// Places an inbound file in a priority class and a sender flow from a peek at its envelope headers, and gives
+// files from ordered partners an ordering key (ISA sender + receiver) and position.
+// Files that cannot be peeked (not X12, truncated, gone) are scheduled in the default class; the full parse
+// reports the actual error.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileClassifier {
+
+    public static final String UNKNOWN_SENDER = "";
+
+    private final SchedulingProperties properties;
+    private final X12EnvelopeService x12EnvelopeService;
+    private final AtomicLong arrivals = new AtomicLong();
+
+    public Classification classify(Path file) {
+        long size = 0;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            log.debug("Could not size {}: {}", file, e.getMessage());
+        }
+
+        try {
+            X12ParseResult header = x12EnvelopeService.peek(file, properties.getPeekBytes());
+            ISA isa = header.getIsa();
+            String sender = trim(isa.getInterchangeSenderId());
+            String receiver = trim(isa.getInterchangeReceiverId());
+            Set<String> types = header.getFunctionalGroups().stream()
+                    .flatMap(g -> g.getTransactionSets().stream())
+                    .map(TransactionSet::getTransactionSetIdentifierCode)
+                    .collect(Collectors.toSet());
+
+            SchedulingProperties.OrderedPartner ordered = orderedPartner(sender, receiver);
+            if (ordered == null) {
+                return new Classification(classIndex(types), sender, size, null, 0, 0);
+            }
+            boolean byControlNumber = ordered.getOrderBy() == SchedulingProperties.OrderBy.CONTROL_NUMBER;
+            long position = byControlNumber ? controlNumber(isa.getInterchangeControlNumber()) : arrivals.incrementAndGet();
+            return new Classification(classIndex(types), sender, size, sender + ">" + receiver, position,
+                    byControlNumber ? ordered.getGapWaitMs() : 0);
+        } catch (RuntimeException e) {
+            log.debug("Could not peek envelope of {}: {}", file, e.getMessage());
+            return new Classification(defaultClassIndex(), UNKNOWN_SENDER, size, null, 0, 0);
+        }
+    }
+
+    public int weightOf(String sender) {
+        return Math.max(properties.getSenderWeights().getOrDefault(sender, properties.getDefaultSenderWeight()), 1);
+    }
+
+    public List<String> classNames() {
+        return properties.getClasses().stream().map(SchedulingProperties.PriorityClass::getName).toList();
+    }
+
+    private SchedulingProperties.OrderedPartner orderedPartner(String sender, String receiver) {
+        for (SchedulingProperties.OrderedPartner partner : properties.getOrderedPartners()) {
+            if (sender.equals(partner.getSender())
+                    && (partner.getReceiver() == null || receiver.equals(partner.getReceiver()))) {
+                return partner;
+            }
+        }
+        return null;
+    }
+
+    // A malformed ISA13 sorts last rather than blocking the files behind it
+    private static long controlNumber(String isa13) {
+        try {
+            return Long.parseLong(isa13.trim());
+        } catch (RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static String trim(String value) {
+        return value == null ? UNKNOWN_SENDER : value.trim();
+    }
+
+    private int classIndex(Set<String> transactionSets) {
+        List<SchedulingProperties.PriorityClass> classes = properties.getClasses();
+        for (int i = 0; i < classes.size(); i++) {
+            for (String code : classes.get(i).getTransactionSets()) {
+                if (transactionSets.contains(code)) return i;
+            }
+        }
+        return defaultClassIndex();
+    }
+
+    private int defaultClassIndex() {
+        List<String> names = classNames();
+        int index = names.indexOf(properties.getDefaultClass());
+        return index >= 0 ? index : Math.max(names.size() - 1, 0);
+    }
+
+    // orderingKey is null for files that may run in any order
+    public record Classification(int priorityClass, String sender, long size, String orderingKey, long orderingPosition,
+                                 long gapWaitMs) {}
+}
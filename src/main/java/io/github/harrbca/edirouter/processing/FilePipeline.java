@@ -0,0 +1,216 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.cluster.ClaimLeaseManager;
+import io.github.harrbca.edirouter.cluster.ClaimLostException;
+import io.github.harrbca.edirouter.config.PipelineProperties;
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.journal.FileState;
+import io.github.harrbca.edirouter.journal.JournalEntry;
+import io.github.harrbca.edirouter.journal.StateJournal;
+import io.github.harrbca.edirouter.model.StageStats;
+import io.github.harrbca.edirouter.service.FileProcessingService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Claim -> parse -> route -> deliver -> archive. Every stage has its own bounded queue and workers, so slow
+// deliveries fill the deliver stage and only then hold back parsing. Detection and per-root admission happen
+// before the pipeline, in the inbound lanes. Every transition is written to the StateJournal so a restart
+// resumes each unfinished file where it stopped.
+@Slf4j
+@Service
+public class FilePipeline {
+
+    private final FileProcessingService processing;
+    private final StateJournal journal;
+    private final PipelineStage claim;
+    private final PipelineStage parse;
+    private final PipelineStage route;
+    private final PipelineStage deliver;
+    private final PipelineStage archive;
+    private final List<PipelineStage> stages;
+    private final Set<FileWorkItem> inFlight = ConcurrentHashMap.newKeySet();
+
+    public FilePipeline(FileProcessingService processing, StateJournal journal, PipelineProperties properties,
+                        ProcessingProperties processingProperties) {
+        this.processing = processing;
+        this.journal = journal;
+        ProcessingProperties.Mode mode = processingProperties.getMode();
+        // The claim is made durable before the move, so a crash mid-move still knows where the file went
+        this.claim = stage("claim", mode, properties.getClaim(), item -> {
+            try {
+                Path target = processing.claimTarget(item);
+                journal.append(JournalEntry.of(item, FileState.CLAIMED).toBuilder().currentFile(target).build()).join();
+                processing.claim(item, target);
+            } catch (ClaimLostException e) {
+                // Expected with several nodes on one directory; not a failure of this stage
+                item.setReleasedReason(e.getMessage());
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+        this.parse = stage("parse", mode, properties.getParse(), item -> {
+            processing.parse(item);
+            journal.append(JournalEntry.of(item, FileState.PARSED));
+            return CompletableFuture.completedFuture(null);
+        });
+        this.route = stage("route", mode, properties.getRoute(), item -> {
+            processing.route(item);
+            journal.append(JournalEntry.of(item, FileState.ROUTED));
+            return CompletableFuture.completedFuture(null);
+        });
+        // Archiving waits for DELIVERED to be durable so a restart does not deliver the file twice
+        this.deliver = stage("deliver", mode, properties.getDeliver(), item -> processing.deliver(item)
+                .thenCompose(v -> journal.append(JournalEntry.of(item, FileState.DELIVERED))));
+        this.archive = stage("archive", mode, properties.getArchive(), item -> processing.archive(item)
+                .thenRun(() -> journal.append(JournalEntry.of(item, FileState.ARCHIVED))));
+        this.stages = List.of(claim, parse, route, deliver, archive);
+    }
+
+    // Completes with true once the file is archived, or false once a failed file is in the error directory
+    public CompletableFuture<Boolean> submit(FileWorkItem item) {
+        journal.append(JournalEntry.of(item, FileState.RECEIVED));
+        return runFrom(claim, item);
+    }
+
+    // Picks a file up after a restart from the last state the journal recorded for it
+    public CompletableFuture<Boolean> resume(JournalEntry entry) {
+        FileWorkItem item = new FileWorkItem(entry.getId(), entry.getSourceFile(), entry.getInboundRoot(),
+                entry.getDefaultRoute());
+        item.setDestinations(new ArrayList<>(entry.getDestinations()));
+
+        Path current = entry.getCurrentFile();
+        if (entry.getState() == FileState.CLAIMED && current != null && dropReservation(entry.getSourceFile(), current)) {
+            // The claim reserved its target but never moved the file; the inbound scan will pick it up again
+            journal.append(JournalEntry.of(item, FileState.RELEASED).toBuilder().message("Recovered after restart").build());
+            return CompletableFuture.completedFuture(false);
+        }
+        if (current != null && Files.exists(current)) {
+            item.setCurrentFile(current);
+            PipelineStage next = entry.getState() == FileState.DELIVERED ? archive : parse;
+            log.info("Resuming {} ({}) at {}", item.getFileName(), entry.getState(), next.getName());
+            return runFrom(next, item);
+        }
+
+        FileState outcome;
+        if (entry.getState() == FileState.DELIVERED) {
+            // The archive move happened but its record did not make it to disk
+            outcome = FileState.ARCHIVED;
+        } else if (Files.exists(entry.getSourceFile())) {
+            // The claim never moved the file; the inbound scan will pick it up again
+            outcome = FileState.RELEASED;
+        } else {
+            // Another node may have taken the file over while this one was down
+            log.warn("Cannot resume {}: file is in neither {} nor {}", item.getFileName(), entry.getSourceFile(), current);
+            outcome = FileState.RELEASED;
+        }
+        journal.append(JournalEntry.of(item, outcome).toBuilder().message("Recovered after restart").build());
+        return CompletableFuture.completedFuture(outcome == FileState.ARCHIVED);
+    }
+
+    // Takes over files from a node whose lease expired. Its journal says how far each file got, so a file it
+    // already delivered is only archived; files it never journaled start again at parse.
+    public void adopt(String deadNode, List<ClaimLeaseManager.ReclaimedFile> files) {
+        Map<Path, JournalEntry> known = journal.readUnfinished(deadNode).stream()
+                .filter(e -> e.getCurrentFile() != null)
+                .collect(Collectors.toMap(JournalEntry::getCurrentFile, Function.identity(), (a, b) -> b));
+        for (ClaimLeaseManager.ReclaimedFile file : files) {
+            JournalEntry previous = known.get(file.claimedAs());
+            JournalEntry adopted = previous != null
+                    ? previous.toBuilder().currentFile(file.file()).message("Reclaimed from " + deadNode).build()
+                    : JournalEntry.builder().id(UUID.randomUUID().toString()).state(FileState.CLAIMED)
+                            .sourceFile(file.claimedAs()).currentFile(file.file()).destinations(List.of())
+                            .message("Reclaimed from " + deadNode).build();
+            adopted = adopted.toBuilder().timestamp(System.currentTimeMillis()).build();
+            journal.append(adopted).join();
+            resume(adopted);
+        }
+    }
+
+    // Another node took over this node's claim area. Claimed files stop before their next stage and are released;
+    // the node that took them over finishes them. A stage already running still completes.
+    public void leaseLost(ClaimLostException lost) {
+        int abandoned = 0;
+        for (FileWorkItem item : inFlight) {
+            if (item.getCurrentFile().equals(item.getSourceFile())) continue;
+            item.setReleasedReason(lost.getMessage());
+            abandoned++;
+        }
+        log.warn("Abandoned {} claimed files: {}", abandoned, lost.getMessage());
+    }
+
+    private boolean dropReservation(Path sourceFile, Path current) {
+        try {
+            return processing.dropClaimReservation(sourceFile, current);
+        } catch (IOException e) {
+            log.warn("Cannot drop claim reservation {}: {}", current, e.getMessage());
+            return false;
+        }
+    }
+
+    private CompletableFuture<Boolean> runFrom(PipelineStage first, FileWorkItem item) {
+        inFlight.add(item);
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (PipelineStage stage : stages.subList(stages.indexOf(first), stages.size())) {
+            chain = chain.thenCompose(v -> item.getReleasedReason() != null
+                    ? CompletableFuture.completedFuture(null) : stage.submit(item));
+        }
+        return chain.handle((v, error) -> {
+            inFlight.remove(item);
+            // A stage failing once the file was released, e.g. after a lost lease moved it away, is not this
+            // node's failure to handle
+            if (item.getReleasedReason() != null) {
+                log.debug("Released {}: {}", item.getFileName(), item.getReleasedReason());
+                processing.released(item);
+                journal.append(JournalEntry.of(item, FileState.RELEASED).toBuilder().message(item.getReleasedReason()).build());
+                return CompletableFuture.completedFuture(false);
+            }
+            if (error == null) return CompletableFuture.completedFuture(true);
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            // FAILED is recorded once the file has left the claim area, for the error queue or the error directory
+            return processing.fail(item, cause).handle((ignored, failError) -> {
+                journal.append(JournalEntry.of(item, FileState.FAILED).toBuilder().message(cause.getMessage()).build());
+                return false;
+            });
+        }).thenCompose(Function.identity());
+    }
+
+    public List<StageStats> getStageStats() {
+        return stages.stream().map(PipelineStage::getStats).toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stages.forEach(PipelineStage::shutdown);
+    }
+
+    private static PipelineStage stage(String name, ProcessingProperties.Mode mode, PipelineProperties.Stage settings,
+                                       StageHandler handler) {
+        return new PipelineStage(name, mode, settings.getWorkers(), settings.getQueueCapacity(), item -> {
+            try {
+                return handler.handle(item);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface StageHandler {
+        CompletionStage<?> handle(FileWorkItem item) throws Exception;
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One inbound file as it moves through the pipeline. Each stage fills in what the next one needs; a stage
+// only ever sees the item after the previous stage has finished with it.
+@Getter
+@Setter
+public class FileWorkItem {
+
+    // Journal identity; stays the same when a recovered file resumes after a restart
+    private final String id;
+    private final Path sourceFile;
+    private final String inboundRoot;
+    private final String defaultRoute;
+    private final long receivedAt = System.currentTimeMillis();
+
+    // Where the file is now: the inbound root until claimed, then this node's claim area
+    private Path currentFile;
+    private X12ParseResult parseResult;
+    // A compressed or encrypted file carries its EDI files as entries, each routed on its own; parseResult is
+    // then the first one's
+    private List<EnclosedFile> entries = new ArrayList<>();
+    private List<String> destinations = new ArrayList<>();
+    // Deliveries that went through, as destination or entryName!destination; a retry skips these
+    private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+    // Left the pipeline without an outcome of its own, e.g. another node claimed it first; set from the lease
+    // thread when this node's claims were taken over
+    private volatile String releasedReason;
+
+    public FileWorkItem(Path sourceFile, String inboundRoot, String defaultRoute) {
+        this(UUID.randomUUID().toString(), sourceFile, inboundRoot, defaultRoute);
+    }
+
+    public FileWorkItem(String id, Path sourceFile, String inboundRoot, String defaultRoute) {
+        this.id = id;
+        this.sourceFile = sourceFile;
+        this.inboundRoot = inboundRoot;
+        this.defaultRoute = defaultRoute;
+        this.currentFile = sourceFile;
+    }
+
+    public String getFileName() {
+        return sourceFile.getFileName().toString();
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+// One watched inbound root and the worker pool that processes its files. Each lane has its own executor and
+// scheduler, so a flood in one root fills only its own queue.
+@Getter
+public class InboundLane {
+
+    private final String name;
+    private final Path directory;
+    private final long stabilityQuietPeriodMs;
+    private final boolean stabilityLockProbe;
+    private final String defaultRoute;
+    private final ProcessingExecutor executor;
+    private final FairShareScheduler scheduler;
+
+    public InboundLane(String name, Path directory, long stabilityQuietPeriodMs, boolean stabilityLockProbe,
+                       String defaultRoute, ProcessingExecutor executor, FairShareScheduler scheduler) {
+        this.name = name;
+        this.directory = directory;
+        this.stabilityQuietPeriodMs = stabilityQuietPeriodMs;
+        this.stabilityLockProbe = stabilityLockProbe;
+        this.defaultRoute = defaultRoute;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    // Waiting work lives in the scheduler, so queue depth and rejections come from there
+    public ExecutorStats getStats() {
+        return executor.getStats().toBuilder()
+                .queueDepth(scheduler.getQueued())
+                .queueCapacity(scheduler.getQueueCapacity())
+                .rejected(scheduler.getRejected())
+                .build();
+    }
+}
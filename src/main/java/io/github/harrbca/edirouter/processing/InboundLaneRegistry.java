@@ -0,0 +1,74 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.config.SchedulingProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Builds one InboundLane per configured inbound root, filling unset limits from app.processing.*
+@Slf4j
+@Component
+public class InboundLaneRegistry {
+
+    private final List<InboundLane> lanes;
+
+    public InboundLaneRegistry(FileMonitorProperties monitor, ProcessingProperties processing,
+                               SchedulingProperties scheduling, FileClassifier classifier,
+                               KeyedSerialExecutor partnerOrdering) {
+        List<InboundLane> built = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        Set<Path> directories = new HashSet<>();
+
+        for (FileMonitorProperties.InboundRoot root : monitor.getInboundRoots()) {
+            if (root.getName() == null || root.getDirectory() == null) {
+                throw new IllegalStateException("Inbound root needs both a name and a directory: " + root);
+            }
+            Path directory = monitor.resolveDirectory(root.getDirectory()).toAbsolutePath().normalize();
+            if (!names.add(root.getName()) || !directories.add(directory)) {
+                throw new IllegalStateException("Duplicate inbound root name or directory: " + root.getName());
+            }
+
+            int maxConcurrency = root.getMaxConcurrency() > 0 ? root.getMaxConcurrency() : processing.getMaxConcurrency();
+            int queueCapacity = root.getQueueCapacity() >= 0 ? root.getQueueCapacity() : processing.getQueueCapacity();
+            long quietPeriod = root.getStabilityQuietPeriodMs() != null
+                    ? root.getStabilityQuietPeriodMs() : monitor.getStabilityQuietPeriodMs();
+            boolean lockProbe = root.getStabilityLockProbe() != null
+                    ? root.getStabilityLockProbe() : monitor.isStabilityLockProbe();
+
+            // Waiting files are held by the scheduler; the executor only ever receives work it can start
+            ProcessingExecutor executor = new ProcessingExecutor("inbound-" + root.getName(), processing.getMode(),
+                    maxConcurrency, 0);
+            FairShareScheduler scheduler = new FairShareScheduler(root.getName(), executor, classifier,
+                    partnerOrdering, queueCapacity, scheduling.isSmallFilesFirst());
+            built.add(new InboundLane(root.getName(), directory, quietPeriod, lockProbe, root.getDefaultRoute(),
+                    executor, scheduler));
+            log.info("Inbound root '{}': {} (workers={}, queue={})", root.getName(), directory, maxConcurrency, queueCapacity);
+        }
+        this.lanes = Collections.unmodifiableList(built);
+    }
+
+    public List<InboundLane> getLanes() {
+        return lanes;
+    }
+
+    public InboundLane laneFor(Path directory) {
+        for (InboundLane lane : lanes) {
+            if (lane.getDirectory().equals(directory)) return lane;
+        }
+        return null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lanes.forEach(lane -> lane.getExecutor().shutdown());
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.harrbca.edirouter.processing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Runs tasks that share a key one at a time, lowest order value first among those waiting, while tasks with
+// different keys run in parallel on whatever pool the dispatcher hands them to. A task holds its key until
+// its stage completes. Per-key state is guarded by one of a fixed set of striped locks, so unrelated keys
+// never contend on a global lock. Idle keys are removed, so memory is bounded by the keys that have work.
+// Tasks submitted with a gap wait are held when the lowest waiting order is not the one after the last that
+// ran for the key, for up to that many milliseconds, so a file that arrives a little late still runs in its
+// place; after that the lowest waiting one runs. Without a gap wait, ordering is only among the files that
+// are waiting at the time.
+@Slf4j
+public class KeyedSerialExecutor {
+
+    // ISA13 has nine digits, so a drop larger than this is the sender's counter wrapping around
+    private static final long WRAP_DISTANCE = 100_000_000L;
+
+    private final Object[] stripes;
+    private final TaskScheduler scheduler;
+    private final Map<String, KeyQueue> queues = new ConcurrentHashMap<>();
+    // Last order run per key that waits for gaps, kept while the key is idle; bounded by the ordered partners
+    private final Map<String, Long> lastRun = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(int stripeCount, TaskScheduler scheduler) {
+        int size = Integer.highestOneBit(Math.max(stripeCount, 1) * 2 - 1);
+        this.stripes = new Object[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Object();
+        }
+        this.scheduler = scheduler;
+    }
+
+    // The dispatcher receives the task once it is this key's turn and must not run it inline
+    public void submit(String key, long order, long gapWaitMs, AsyncTask task, Consumer<AsyncTask> dispatcher) {
+        Entry next;
+        synchronized (stripeFor(key)) {
+            KeyQueue queue = queues.computeIfAbsent(key, k -> new KeyQueue());
+            queue.waiting.add(new Entry(order, queue.sequence++, gapWaitMs, task, dispatcher));
+            if (queue.running) return;
+            next = take(key, queue);
+        }
+        if (next != null) release(key, next);
+    }
+
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    public int getWaiting() {
+        int waiting = 0;
+        for (Map.Entry<String, KeyQueue> e : queues.entrySet()) {
+            synchronized (stripeFor(e.getKey())) {
+                waiting += e.getValue().waiting.size();
+            }
+        }
+        return waiting;
+    }
+
+    private void release(String key, Entry entry) {
+        entry.dispatcher.accept(() -> AsyncTask.startSafely(entry.task).whenComplete((result, error) -> complete(key)));
+    }
+
+    private void complete(String key) {
+        Entry next;
+        synchronized (stripeFor(key)) {
+            KeyQueue queue = queues.get(key);
+            queue.running = false;
+            next = take(key, queue);
+        }
+        if (next != null) release(key, next);
+    }
+
+    private void gapExpired(String key) {
+        Entry next;
+        synchronized (stripeFor(key)) {
+            KeyQueue queue = queues.get(key);
+            if (queue == null) return;
+            queue.timerPending = false;
+            if (queue.running) return;
+            next = take(key, queue);
+        }
+        if (next != null) release(key, next);
+    }
+
+    // Called under the key's stripe lock with nothing running; null while the key is idle or waiting for a gap
+    private Entry take(String key, KeyQueue queue) {
+        Entry head = queue.waiting.peek();
+        if (head == null) {
+            queues.remove(key);
+            return null;
+        }
+        Long last = head.gapWaitMs() > 0 ? lastRun.get(key) : null;
+        if (last != null && head.order() > last + 1) {
+            long now = System.currentTimeMillis();
+            if (queue.gapDeadline == 0) queue.gapDeadline = now + head.gapWaitMs();
+            if (now < queue.gapDeadline) {
+                if (!queue.timerPending) {
+                    queue.timerPending = true;
+                    scheduler.schedule(() -> gapExpired(key), Instant.ofEpochMilli(queue.gapDeadline));
+                }
+                return null;
+            }
+            log.warn("Ordering key {}: {} did not arrive within {} ms, going on with {}", key, last + 1,
+                    head.gapWaitMs(), head.order());
+        }
+        queue.waiting.poll();
+        queue.running = true;
+        queue.gapDeadline = 0;
+        if (head.gapWaitMs() > 0 && (last == null || head.order() > last || last - head.order() > WRAP_DISTANCE)) {
+            lastRun.put(key, head.order());
+        }
+        return head;
+    }
+
+    private Object stripeFor(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class KeyQueue {
+        private final PriorityQueue<Entry> waiting = new PriorityQueue<>(
+                Comparator.comparingLong(Entry::order).thenComparingLong(Entry::sequence));
+        private long sequence;
+        private boolean running;
+        // When the current gap stops being waited for; 0 when not waiting
+        private long gapDeadline;
+        private boolean timerPending;
+    }
+
+    private record Entry(long order, long sequence, long gapWaitMs, AsyncTask task, Consumer<AsyncTask> dispatcher) {}
+}
@@ -0,0 +1,120 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.MemoryProperties;
+import io.github.harrbca.edirouter.model.MemoryStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Byte budget for parses that load a whole file onto the heap. A file reserves its expected footprint before
+// parsing and releases it when the parse is done; a file that does not fit (now, or within maxWaitMs) is
+// parsed with the streaming parser instead, which needs a few buffers whatever the file size. The sum of
+// reservations never exceeds the budget, so concurrent large files cannot exhaust the heap.
+@Slf4j
+@Component
+public class MemoryBudget {
+
+    private final long budgetBytes;
+    private final double bytesPerFileByte;
+    private final long maxWaitMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+    private long peakReservedBytes;
+    private int activeReservations;
+    private final LongAdder wholeFileParses = new LongAdder();
+    private final LongAdder streamedParses = new LongAdder();
+
+    public MemoryBudget(MemoryProperties properties) {
+        this.budgetBytes = properties.getParseBudgetBytes() > 0
+                ? properties.getParseBudgetBytes() : Runtime.getRuntime().maxMemory() / 4;
+        this.bytesPerFileByte = properties.getBytesPerFileByte();
+        this.maxWaitMs = properties.getMaxWaitMs();
+        log.info("Parse memory budget: {} KB", budgetBytes / 1024);
+    }
+
+    // A reservation for a file of this size, or null if the file should be streamed
+    public Reservation reserve(long fileSize) throws InterruptedException {
+        long bytes = (long) Math.ceil(fileSize * bytesPerFileByte);
+        if (bytes > budgetBytes) {
+            streamedParses.increment();
+            return null;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        lock.lock();
+        try {
+            while (reservedBytes + bytes > budgetBytes) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    streamedParses.increment();
+                    return null;
+                }
+                released.awaitNanos(remaining);
+            }
+            reservedBytes += bytes;
+            activeReservations++;
+            peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+        } finally {
+            lock.unlock();
+        }
+        wholeFileParses.increment();
+        return new Reservation(bytes);
+    }
+
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public MemoryStats getStats() {
+        lock.lock();
+        try {
+            return MemoryStats.builder()
+                    .budgetBytes(budgetBytes)
+                    .reservedBytes(reservedBytes)
+                    .peakReservedBytes(peakReservedBytes)
+                    .activeReservations(activeReservations)
+                    .wholeFileParses(wholeFileParses.sum())
+                    .streamedParses(streamedParses.sum())
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+            activeReservations--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public final class Reservation implements AutoCloseable {
+
+        private final long bytes;
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (open.compareAndSet(true, false)) release(bytes);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import io.github.harrbca.edirouter.model.StageStats;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// One pipeline stage: a bounded executor plus queue-wait and service-time metrics. submit() blocks while the
+// stage is full, which is what pushes back on the stage before it.
+public class PipelineStage {
+
+    private final String name;
+    private final ProcessingExecutor executor;
+    private final Function<FileWorkItem, CompletionStage<?>> handler;
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final AtomicLong maxServiceNanos = new AtomicLong();
+
+    public PipelineStage(String name, ProcessingProperties.Mode mode, int workers, int queueCapacity,
+                         Function<FileWorkItem, CompletionStage<?>> handler) {
+        this.name = name;
+        this.executor = new ProcessingExecutor("stage-" + name, mode, workers, queueCapacity);
+        this.handler = handler;
+    }
+
+    public CompletableFuture<Void> submit(FileWorkItem item) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            executor.executeAsync(() -> {
+                long startedAt = System.nanoTime();
+                waitNanos.add(startedAt - queuedAt);
+                return AsyncTask.startSafely(() -> handler.apply(item)).whenComplete((result, error) -> {
+                    record(System.nanoTime() - startedAt);
+                    if (error == null) {
+                        done.complete(null);
+                    } else {
+                        done.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error);
+                    }
+                });
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StageStats getStats() {
+        ExecutorStats executorStats = executor.getStats();
+        long count = samples.sum();
+        return StageStats.builder()
+                .name(name)
+                .workers(executorStats.getMaxConcurrency())
+                .activeWorkers(executorStats.getActiveWorkers())
+                .queueDepth(executorStats.getQueueDepth())
+                .queueCapacity(executorStats.getQueueCapacity())
+                .completed(executorStats.getCompleted())
+                .failed(executorStats.getFailed())
+                .avgQueueWaitMs(count == 0 ? 0 : waitNanos.sum() / 1e6 / count)
+                .avgServiceMs(count == 0 ? 0 : serviceNanos.sum() / 1e6 / count)
+                .maxServiceMs(maxServiceNanos.get() / 1e6)
+                .build();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void record(long nanos) {
+        serviceNanos.add(nanos);
+        samples.increment();
+        maxServiceNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.harrbca.edirouter.processing;
+
+import io.github.harrbca.edirouter.config.ProcessingProperties;
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded executor for file processing. At most maxConcurrency tasks run and at most queueCapacity wait;
+// callers either get a refusal (tryExecute) or block (execute) instead of queueing without limit.
+@Slf4j
+public class ProcessingExecutor {
+
+    private final String name;
+    private final ProcessingProperties.Mode mode;
+    private final int maxConcurrency;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+    private final Semaphore admission;  // running + waiting
+    private final Semaphore running;    // a pool thread is free again once an async task's start() returns
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile Runnable onSlotFreed = () -> {};
+
+    public ProcessingExecutor(String name, ProcessingProperties.Mode mode, int maxConcurrency, int queueCapacity) {
+        this.name = name;
+        this.mode = mode;
+        this.maxConcurrency = Math.max(maxConcurrency, 1);
+        this.queueCapacity = Math.max(queueCapacity, 0);
+        this.admission = new Semaphore(this.maxConcurrency + this.queueCapacity);
+        this.running = new Semaphore(this.maxConcurrency);
+
+        if (mode == ProcessingProperties.Mode.VIRTUAL) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> new Thread(r, name + "-" + threadCount.incrementAndGet()));
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    public boolean tryExecute(Runnable task) {
+        return tryExecuteAsync(AsyncTask.of(task));
+    }
+
+    public void execute(Runnable task) throws InterruptedException {
+        executeAsync(AsyncTask.of(task));
+    }
+
+    // The slot stays taken until the task's stage completes
+    public boolean tryExecuteAsync(AsyncTask task) {
+        if (!admission.tryAcquire()) {
+            rejected.increment();
+            return false;
+        }
+        submit(task);
+        return true;
+    }
+
+    public void executeAsync(AsyncTask task) throws InterruptedException {
+        admission.acquire();
+        submit(task);
+    }
+
+    public boolean hasCapacity() {
+        return admission.availablePermits() > 0;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    // Called on the worker thread after each task has released its slot
+    public void onSlotFreed(Runnable listener) {
+        this.onSlotFreed = listener;
+    }
+
+    public ExecutorStats getStats() {
+        int activeNow = active.get();
+        return ExecutorStats.builder()
+                .name(name)
+                .mode(mode.name())
+                .maxConcurrency(maxConcurrency)
+                .activeWorkers(activeNow)
+                .queueDepth(Math.max(admitted.get() - activeNow, 0))
+                .queueCapacity(queueCapacity)
+                .completed(completed.sum())
+                .failed(failed.sum())
+                .rejected(rejected.sum())
+                .build();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void submit(AsyncTask task) {
+        admitted.incrementAndGet();
+        try {
+            executor.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            admitted.decrementAndGet();
+            admission.release();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    private void run(AsyncTask task) {
+        running.acquireUninterruptibly();
+        active.incrementAndGet();
+        AsyncTask.startSafely(task).whenComplete((result, error) -> {
+            if (error == null) {
+                completed.increment();
+            } else {
+                failed.increment();
+                log.warn("Task failed on {}: {}", name, error.toString());
+            }
+            active.decrementAndGet();
+            running.release();
+            admitted.decrementAndGet();
+            admission.release();
+            onSlotFreed.run();
+        });
+    }
+}
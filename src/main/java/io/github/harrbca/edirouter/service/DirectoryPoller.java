@@ -0,0 +1,122 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+// Keeps a snapshot (size, mtime, file key) of each registered directory and reports only the entries that are
+// new or changed since the previous pass. One DirectoryStream walk per pass; unchanged files cost a stat and
+// a map lookup. Used on its own for network shares, alongside the WatchService in hybrid mode, and for a
+// one-off rescan after a watch OVERFLOW.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DirectoryPoller {
+
+    private final FileMonitorProperties properties;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Map<Path, Map<Path, Entry>> snapshots = new ConcurrentHashMap<>();
+    private volatile Consumer<Path> onChange;
+    private ScheduledFuture<?> pollTask;
+
+    // Starts the periodic poll; call with schedule=false to only serve rescans
+    public synchronized void start(Consumer<Path> onChange, boolean schedule) {
+        this.onChange = onChange;
+        if (schedule && pollTask == null) {
+            pollTask = fileMonitorScheduler.scheduleWithFixedDelay(this::pollAll,
+                    Duration.ofMillis(properties.getPollIntervalMs()));
+        }
+    }
+
+    public synchronized void stop() {
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    // Takes the baseline without reporting anything; files already present are left to the startup scan
+    public void register(Path directory) {
+        Map<Path, Entry> baseline = new HashMap<>();
+        try {
+            walk(directory, baseline);
+        } catch (IOException e) {
+            log.warn("Could not take baseline of {}: {}", directory, e.getMessage());
+        }
+        snapshots.put(directory, baseline);
+    }
+
+    public void rescan(Path directory) {
+        fileMonitorScheduler.execute(() -> poll(directory));
+    }
+
+    public int getTrackedCount() {
+        return snapshots.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void pollAll() {
+        for (Path directory : snapshots.keySet()) {
+            poll(directory);
+        }
+    }
+
+    // Serialized so a rescan and a scheduled pass never diff against the same snapshot
+    private synchronized void poll(Path directory) {
+        Map<Path, Entry> previous = snapshots.get(directory);
+        if (previous == null) return;
+
+        Map<Path, Entry> current = new HashMap<>(Math.max(previous.size() * 4 / 3 + 1, 16));
+        try {
+            walk(directory, current);
+        } catch (IOException e) {
+            // Keep the old snapshot so a transient mount error does not make every file look new
+            log.warn("Poll of {} failed: {}", directory, e.getMessage());
+            return;
+        }
+
+        int changed = 0;
+        for (Map.Entry<Path, Entry> e : current.entrySet()) {
+            if (!e.getValue().equals(previous.get(e.getKey()))) {
+                changed++;
+                onChange.accept(e.getKey());
+            }
+        }
+        snapshots.put(directory, current);
+
+        if (changed > 0) {
+            log.debug("Poll of {} found {} new or changed files", directory, changed);
+        }
+    }
+
+    private static void walk(Path directory, Map<Path, Entry> into) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        into.put(file, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.fileKey()));
+                    }
+                } catch (NoSuchFileException e) {
+                    // removed between listing and stat
+                }
+            }
+        }
+    }
+
+    private record Entry(long size, long modified, Object fileKey) {}
+}
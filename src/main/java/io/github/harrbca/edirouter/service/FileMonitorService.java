@@ -1,18 +1,44 @@
 package io.github.harrbca.edirouter.service;
 
+import io.github.harrbca.edirouter.cluster.ClaimLeaseManager;
 import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.errorqueue.ErrorQueueManager;
+import io.github.harrbca.edirouter.errorqueue.RetryState;
+import io.github.harrbca.edirouter.journal.JournalEntry;
+import io.github.harrbca.edirouter.journal.StateJournal;
+import io.github.harrbca.edirouter.model.ExecutorStats;
+import io.github.harrbca.edirouter.model.MemoryStats;
+import io.github.harrbca.edirouter.model.StageStats;
+import io.github.harrbca.edirouter.processing.FileClassifier;
+import io.github.harrbca.edirouter.processing.FilePipeline;
+import io.github.harrbca.edirouter.processing.FileWorkItem;
+import io.github.harrbca.edirouter.processing.InboundLane;
+import io.github.harrbca.edirouter.processing.InboundLaneRegistry;
+import io.github.harrbca.edirouter.processing.KeyedSerialExecutor;
+import io.github.harrbca.edirouter.processing.MemoryBudget;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Stream;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
@@ -22,29 +48,86 @@ import static java.nio.file.StandardWatchEventKinds.*;
 public class FileMonitorService {
 
     private final FileMonitorProperties properties;
-    private final FileProcessingService fileProcessingService;
+    private final FilePipeline filePipeline;
+    private final StateJournal stateJournal;
+    private final ClaimLeaseManager claimLeaseManager;
+    private final ErrorQueueManager errorQueue;
+    private final FileStabilityDetector stabilityDetector;
+    private final DirectoryPoller directoryPoller;
+    private final InboundLaneRegistry laneRegistry;
+    private final FileClassifier fileClassifier;
+    private final KeyedSerialExecutor partnerOrdering;
+    private final MemoryBudget memoryBudget;
+    private final ThreadPoolTaskExecutor fileWatcherExecutor;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    // Files queued or running; a file seen by both the startup scan and the watcher is processed once
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<WatchKey, InboundLane> watchKeys = new ConcurrentHashMap<>();
     private WatchService watchService;
 
+    // Runs ahead of the interactive CLI listener, which blocks the event thread
     @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
     public void onApplicationReady() {
         log.info("Application ready - initializing file monitoring system");
         initializeDirectories();
-        processExistingFiles();
-        startDirectoryWatcher();
+        startClaimLease();
+        resumeUnfinishedFiles();
+        stabilityDetector.start(this::submitForProcessing);
+
+        FileMonitorProperties.WatchMode mode = properties.getWatchMode();
+        directoryPoller.start(this::handleFileEvent, mode != FileMonitorProperties.WatchMode.WATCH);
+        laneRegistry.getLanes().forEach(lane -> directoryPoller.register(lane.getDirectory()));
+        if (mode == FileMonitorProperties.WatchMode.POLL) {
+            isRunning.set(true);
+            log.info("Polling {} inbound roots every {} ms", laneRegistry.getLanes().size(), properties.getPollIntervalMs());
+        } else {
+            startDirectoryWatcher();
+        }
+
+        // One drain per root so a large backlog in one root does not hold up the others
+        for (InboundLane lane : laneRegistry.getLanes()) {
+            Thread.ofVirtual().name("backlog-" + lane.getName()).start(() -> processExistingFiles(lane));
+        }
+
+        // Retries move files back into the roots, so they start once the roots are watched
+        try {
+            errorQueue.start();
+        } catch (IOException e) {
+            log.error("Error queue not started, failed files will not be retried: {}", e.getMessage());
+        }
+    }
+
+    // Files the journal shows were mid-pipeline when the app stopped; only these are looked at, not the directories
+    private void resumeUnfinishedFiles() {
+        List<JournalEntry> unfinished = stateJournal.getRecovered();
+        if (unfinished.isEmpty()) return;
+        log.info("Resuming {} files left unfinished by the previous run", unfinished.size());
+        Thread.ofVirtual().name("journal-recovery").start(() -> unfinished.forEach(filePipeline::resume));
+    }
+
+    // Heartbeat first, so other nodes never see this one as dead while it is resuming its own files
+    private void startClaimLease() {
+        try {
+            claimLeaseManager.start(filePipeline::adopt, filePipeline::leaseLost);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create claim area " + claimLeaseManager.getClaimDirectory(), e);
+        }
     }
 
     private void initializeDirectories() {
         try {
             log.info("Creating directory structure under: {}", properties.getBaseDirectoryPath());
             
-            Files.createDirectories(properties.getIncomingDirectoryPath());
+            for (InboundLane lane : laneRegistry.getLanes()) {
+                Files.createDirectories(lane.getDirectory());
+            }
             Files.createDirectories(properties.getArchiveDirectoryPath());
             Files.createDirectories(properties.getErrorDirectoryPath());
             Files.createDirectories(properties.getProcessingDirectoryPath());
             
             log.info("Directory structure initialized successfully");
-            log.info("  Incoming: {}", properties.getIncomingDirectoryPath());
+            laneRegistry.getLanes().forEach(lane -> log.info("  Incoming [{}]: {}", lane.getName(), lane.getDirectory()));
             log.info("  Archive: {}", properties.getArchiveDirectoryPath());
             log.info("  Errors: {}", properties.getErrorDirectoryPath());
             log.info("  Processing: {}", properties.getProcessingDirectoryPath());
@@ -55,9 +138,11 @@ public class FileMonitorService {
         }
     }
 
-    private void processExistingFiles() {
+    // Drains files left over from before startup, oldest first. The watcher is already registered, so anything
+    // that arrives during the scan is either listed here or reported by the watcher (or both).
+    private void processExistingFiles(InboundLane lane) {
         try {
-            Path incomingDir = properties.getIncomingDirectoryPath();
+            Path incomingDir = lane.getDirectory();
             log.info("Scanning for existing files in: {}", incomingDir);
             
             if (!Files.exists(incomingDir)) {
@@ -65,22 +150,45 @@ public class FileMonitorService {
                 return;
             }
 
-            try (Stream<Path> files = Files.list(incomingDir)) {
-                long fileCount = files
-                    .filter(Files::isRegularFile)
-                    .peek(file -> log.info("Processing existing file: {}", file.getFileName()))
-                    .mapToLong(file -> fileProcessingService.processFile(file) ? 1 : 0)
-                    .sum();
-                
-                log.info("Processed {} existing files on startup", fileCount);
+            List<ExistingFile> backlog = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(incomingDir)) {
+                for (Path file : files) {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        if (attrs.isRegularFile()) {
+                            backlog.add(new ExistingFile(file, attrs.lastModifiedTime()));
+                        }
+                    } catch (NoSuchFileException e) {
+                        log.debug("Existing file disappeared during scan: {}", file);
+                    }
+                }
             }
-            
+            backlog.sort(Comparator.comparing(ExistingFile::modified));
+            log.info("Found {} existing files in root '{}' on startup", backlog.size(), lane.getName());
+
+            // Files touched within the quiet period may still be mid-write and go through the stability check
+            long settledBefore = System.currentTimeMillis() - lane.getStabilityQuietPeriodMs();
+            int queued = 0;
+            for (ExistingFile file : backlog) {
+                if (file.modified().toMillis() > settledBefore) {
+                    handleFileEvent(file.path());
+                } else if (dispatchBlocking(lane, file.path())) {
+                    queued++;
+                }
+            }
+
+            log.info("Queued {} existing files from root '{}' for processing", queued, lane.getName());
+
+        } catch (InterruptedException e) {
+            log.info("Startup backlog drain interrupted");
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             log.error("Error processing existing files: {}", e.getMessage(), e);
         }
     }
 
-    @Async
+    // Registers the watch before returning so no file can slip between the startup scan and the first event.
+    // The loop runs on its own executor; a self-invoked @Async method would run on the caller's thread.
     public CompletableFuture<Void> startDirectoryWatcher() {
         if (!isRunning.compareAndSet(false, true)) {
             log.warn("File monitor is already running");
@@ -88,21 +196,39 @@ public class FileMonitorService {
         }
 
         try {
+            // One WatchService for every root; each key maps back to its lane
             watchService = FileSystems.getDefault().newWatchService();
-            Path incomingDir = properties.getIncomingDirectoryPath();
-            
-            incomingDir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
-            log.info("Started directory watcher for: {}", incomingDir);
-            
+            for (InboundLane lane : laneRegistry.getLanes()) {
+                watchKeys.put(lane.getDirectory().register(watchService, ENTRY_CREATE, ENTRY_MODIFY), lane);
+                log.info("Started directory watcher for: {}", lane.getDirectory());
+            }
+        } catch (IOException e) {
+            log.error("Failed to start directory watcher: {}", e.getMessage(), e);
+            cleanup();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(this::watchDirectories, fileWatcherExecutor);
+    }
+
+    private void watchDirectories() {
+        try {
             while (isRunning.get()) {
                 try {
                     WatchKey key = watchService.take();
-                    
+                    InboundLane lane = watchKeys.get(key);
+                    if (lane == null) {
+                        key.cancel();
+                        continue;
+                    }
+                    Path incomingDir = lane.getDirectory();
+
                     for (WatchEvent<?> event : key.pollEvents()) {
                         WatchEvent.Kind<?> kind = event.kind();
                         
                         if (kind == OVERFLOW) {
-                            log.warn("Directory watch overflow - some events may have been lost");
+                            log.warn("Directory watch overflow - rescanning {}", incomingDir);
+                            directoryPoller.rescan(incomingDir);
                             continue;
                         }
                         
@@ -118,66 +244,85 @@ public class FileMonitorService {
                     
                     boolean valid = key.reset();
                     if (!valid) {
-                        log.error("Directory watch key is no longer valid - stopping watcher");
-                        break;
+                        log.error("Watch on inbound root '{}' is no longer valid", lane.getName());
+                        watchKeys.remove(key);
+                        if (watchKeys.isEmpty()) break;
                     }
                     
                 } catch (InterruptedException e) {
                     log.info("File monitor interrupted - stopping");
                     Thread.currentThread().interrupt();
                     break;
+                } catch (ClosedWatchServiceException e) {
+                    log.info("Watch service closed - stopping");
+                    break;
                 } catch (Exception e) {
                     log.error("Error in file monitor loop: {}", e.getMessage(), e);
-                    try {
-                        Thread.sleep(properties.getRetryDelayMs());
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
                 }
             }
-            
-        } catch (IOException e) {
-            log.error("Failed to start directory watcher: {}", e.getMessage(), e);
         } finally {
             cleanup();
         }
-        
-        return CompletableFuture.completedFuture(null);
     }
 
+    // Never blocks: the stability detector decides when the file is complete
     private void handleFileEvent(Path filePath) {
-        String fileName = filePath.getFileName().toString();
-
-        // Wait a bit to ensure file is completely written (Windows file locking)
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        InboundLane lane = laneRegistry.laneFor(filePath.getParent());
+        if (lane == null) {
+            log.debug("Ignoring file outside any inbound root: {}", filePath);
             return;
         }
+        stabilityDetector.track(filePath, lane.getStabilityQuietPeriodMs(), lane.isStabilityLockProbe());
+    }
+
+    // Returns false when the root is saturated, which leaves the file pending
+    private boolean submitForProcessing(Path filePath) {
+        InboundLane lane = laneRegistry.laneFor(filePath.getParent());
+        if (lane == null || !inFlight.add(filePath)) {
+            return true;
+        }
+        boolean accepted = lane.getScheduler().offer(fileClassifier.classify(filePath), () -> processOnce(lane, filePath));
 
-        // Check if file exists and is readable
-        if (!Files.exists(filePath) || !Files.isReadable(filePath)) {
-            log.debug("File no longer exists or is not readable: {}", filePath);
-            return;
+        if (accepted) {
+            log.info("Detected new/modified file: {} [{}]", filePath.getFileName(), lane.getName());
+        } else {
+            inFlight.remove(filePath);
+            log.debug("Root '{}' saturated - holding {} until capacity frees up", lane.getName(), filePath.getFileName());
         }
+        return accepted;
+    }
 
-        log.info("Detected new/modified file: {}", fileName);
-        
-        // Process the file asynchronously to avoid blocking the watcher
-        CompletableFuture.runAsync(() -> {
-            try {
-                fileProcessingService.processFile(filePath);
-            } catch (Exception e) {
-                log.error("Error processing file {}: {}", filePath, e.getMessage(), e);
-            }
-        });
+    // Waits for room in the root's scheduler instead of refusing; used by the backlog drain
+    private boolean dispatchBlocking(InboundLane lane, Path filePath) throws InterruptedException {
+        if (!inFlight.add(filePath)) {
+            return false;
+        }
+        try {
+            lane.getScheduler().put(fileClassifier.classify(filePath), () -> processOnce(lane, filePath));
+            return true;
+        } catch (RuntimeException e) {
+            inFlight.remove(filePath);
+            throw e;
+        }
+    }
+
+    // Holds the root's slot until the file has left the pipeline
+    private CompletionStage<?> processOnce(InboundLane lane, Path filePath) {
+        // The watcher may have handled the file while this task sat in the queue
+        if (!Files.exists(filePath)) {
+            inFlight.remove(filePath);
+            return CompletableFuture.completedFuture(null);
+        }
+        return filePipeline.submit(new FileWorkItem(filePath, lane.getName(), lane.getDefaultRoute()))
+                .whenComplete((processed, error) -> inFlight.remove(filePath));
     }
 
     public void stopMonitoring() {
         log.info("Stopping file monitor...");
         isRunning.set(false);
+        stabilityDetector.stop();
+        directoryPoller.stop();
+        claimLeaseManager.stop();
         cleanup();
     }
 
@@ -190,10 +335,51 @@ public class FileMonitorService {
                 log.error("Error closing watch service: {}", e.getMessage());
             }
         }
+        watchKeys.clear();
         isRunning.set(false);
     }
 
+    public List<ExecutorStats> getProcessingStats() {
+        return laneRegistry.getLanes().stream().map(InboundLane::getStats).toList();
+    }
+
+    public Map<String, Map<String, Integer>> getQueuedByClass() {
+        Map<String, Map<String, Integer>> byRoot = new LinkedHashMap<>();
+        laneRegistry.getLanes().forEach(lane -> byRoot.put(lane.getName(), lane.getScheduler().getQueuedByClass()));
+        return byRoot;
+    }
+
+    public List<StageStats> getStageStats() {
+        return filePipeline.getStageStats();
+    }
+
+    public int getOrderedWaitingCount() {
+        return partnerOrdering.getWaiting();
+    }
+
+    public MemoryStats getMemoryStats() {
+        return memoryBudget.getStats();
+    }
+
+    public List<RetryState> getPendingRetries() {
+        return errorQueue.getPending();
+    }
+
+    public boolean retryNow(String fileName) {
+        return errorQueue.retryNow(fileName);
+    }
+
+    public Map<String, Long> getNodeHeartbeats() {
+        return claimLeaseManager.getNodeHeartbeats();
+    }
+
+    public int getPendingStabilityCount() {
+        return stabilityDetector.getPendingCount();
+    }
+
     public boolean isRunning() {
         return isRunning.get();
     }
+
+    private record ExistingFile(Path path, FileTime modified) {}
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+// Moves that retry a few times, for shares where a scanner or the sender may briefly hold the file. The first
+// attempt runs on the caller's thread; later attempts are scheduled, so no worker sleeps between them.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileMover {
+
+    private final FileMonitorProperties properties;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+
+    public CompletableFuture<Path> moveWithRetry(Path source, Path target) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        attempt(source, target, 1, result);
+        return result;
+    }
+
+    private void attempt(Path source, Path target, int attempt, CompletableFuture<Path> result) {
+        try {
+            Files.createDirectories(target.getParent());
+            result.complete(Files.move(source, target, StandardCopyOption.REPLACE_EXISTING));
+            return;
+        } catch (IOException e) {
+            log.warn("Attempt {} to move file {} failed: {}", attempt, source, e.getMessage());
+            if (attempt >= properties.getRetryAttempts()) {
+                result.completeExceptionally(new IOException(
+                        "Failed to move file after " + properties.getRetryAttempts() + " attempts", e));
+                return;
+            }
+        }
+        fileMonitorScheduler.schedule(() -> attempt(source, target, attempt + 1, result),
+                Instant.now().plusMillis(properties.getRetryDelayMs()));
+    }
+}
@@ -1,8 +1,29 @@
 package io.github.harrbca.edirouter.service;
 
 
+import io.github.harrbca.edirouter.ack.AcknowledgmentGenerator;
+import io.github.harrbca.edirouter.ack.AcknowledgmentIndex;
+import io.github.harrbca.edirouter.aggregation.OutboundAggregator;
+import io.github.harrbca.edirouter.archive.ArchiveIndex;
+import io.github.harrbca.edirouter.archive.ArchiveStore;
+import io.github.harrbca.edirouter.cluster.ClaimLeaseManager;
+import io.github.harrbca.edirouter.compression.CompressedFiles;
+import io.github.harrbca.edirouter.compression.Compression;
+import io.github.harrbca.edirouter.config.DuplicateProperties;
 import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.dedupe.DuplicateCheck;
+import io.github.harrbca.edirouter.dedupe.DuplicateDetector;
+import io.github.harrbca.edirouter.dedupe.DuplicateInterchangeException;
+import io.github.harrbca.edirouter.errorqueue.DeliveryException;
+import io.github.harrbca.edirouter.errorqueue.ErrorQueueManager;
 import io.github.harrbca.edirouter.event.FileProcessedEvent;
+import io.github.harrbca.edirouter.model.fileTransfer.UploadResult;
+import io.github.harrbca.edirouter.pgp.PgpService;
+import io.github.harrbca.edirouter.processing.EnclosedFile;
+import io.github.harrbca.edirouter.processing.FileWorkItem;
+import io.github.harrbca.edirouter.processing.MemoryBudget;
+import io.github.harrbca.edirouter.transfer.CountingInputStream;
+import io.github.harrbca.edirouter.transfer.UploadSource;
 import io.github.harrbca.edirouter.x12.X12EnvelopeService;
 import io.github.harrbca.edirouter.x12.model.TransactionSet;
 import io.github.harrbca.edirouter.x12.model.X12ParseResult;
@@ -12,12 +33,21 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 
 @Slf4j
@@ -28,62 +58,313 @@ public class FileProcessingService {
     private final FileMonitorProperties properties;
     private final ApplicationEventPublisher eventPublisher;
     private final X12EnvelopeService x12EnvelopeService;
+    private final RoutingService routingService;
+    private final FileTransferService fileTransferService;
+    private final ClaimLeaseManager claimLeaseManager;
+    private final ArchiveStore archiveStore;
+    private final ArchiveIndex archiveIndex;
+    private final FileMover fileMover;
+    private final ErrorQueueManager errorQueue;
+    private final DuplicateDetector duplicateDetector;
+    private final DuplicateProperties duplicateProperties;
+    private final MemoryBudget memoryBudget;
+    private final PgpService pgpService;
+    private final OutboundAggregator outboundAggregator;
+    private final AcknowledgmentGenerator acknowledgmentGenerator;
+    private final AcknowledgmentIndex acknowledgmentIndex;
     private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
     
-    private volatile long totalFilesProcessed = 0;
+    private final AtomicLong totalFilesProcessed = new AtomicLong();
 
 
-    public boolean processFile(Path sourceFile) {
-        String fileName = sourceFile.getFileName().toString();
-        
-        try {
-
-            log.info("Started processing file {}", fileName);
-            Path processingFile = moveToProcessingDirectory(sourceFile);
-
-            // extract the envelope info and log it
-            X12ParseResult parseResult = x12EnvelopeService.parse(processingFile);
-            String type = parseResult.getFunctionalGroups().stream()
-                    .flatMap(g -> g.getTransactionSets().stream())
-                    .findFirst()
-                    .map(TransactionSet::getTransactionSetIdentifierCode)
-                    .orElse("UNKNOWN");
-            log.info("Processed file {}, Type: {}, Sender: {}, Receiver: {}", fileName, type, parseResult.getIsa().getInterchangeSenderId(), parseResult.getIsa().getInterchangeReceiverId());
-
-            
-            moveToArchiveDirectory(processingFile);
-            log.info("Successfully processed file {}", fileName);
-            publishFileProcessedEvent(fileName, true);
-            return true;
-
-        } catch (Exception e) {
-            log.error("Error processing file {}: {}", sourceFile, e.getMessage(), e);
+    // Pipeline stages, run in order by FilePipeline. Each one takes the item as the previous stage left it.
+
+    public Path claimTarget(FileWorkItem item) throws IOException {
+        return claimLeaseManager.claimTarget(item.getSourceFile());
+    }
+
+    public boolean dropClaimReservation(Path sourceFile, Path target) throws IOException {
+        return claimLeaseManager.dropReservation(sourceFile, target);
+    }
+
+    // A single atomic rename into this node's claim area; throws ClaimLostException if another node won
+    public void claim(FileWorkItem item, Path target) throws IOException {
+        item.setCurrentFile(claimLeaseManager.claim(item.getSourceFile(), target));
+        log.info("Started processing file {} from root {}", item.getFileName(), item.getInboundRoot());
+    }
+
+    // Whole-file parse when the memory budget has room for it, streaming parse otherwise
+    public void parse(FileWorkItem item) throws IOException, InterruptedException {
+        Path file = item.getCurrentFile();
+        if (PgpService.isEncrypted(file)) {
+            parseEncrypted(item);
+            return;
+        }
+        Compression compression = Compression.detect(file);
+        if (compression != Compression.NONE) {
+            parseEntries(item, compression);
+            return;
+        }
+        X12ParseResult parseResult;
+        try (MemoryBudget.Reservation reservation = memoryBudget.reserve(Files.size(file))) {
+            if (reservation != null) {
+                parseResult = x12EnvelopeService.parse(file);
+            } else {
+                log.debug("Streaming parse of {} ({} bytes)", item.getFileName(), Files.size(file));
+                parseResult = x12EnvelopeService.parseStreaming(file);
+            }
+        }
+        item.setParseResult(parseResult);
+        String type = parseResult.getFunctionalGroups().stream()
+                .flatMap(g -> g.getTransactionSets().stream())
+                .findFirst()
+                .map(TransactionSet::getTransactionSetIdentifierCode)
+                .orElse("UNKNOWN");
+        log.info("Parsed file {}, Type: {}, Sender: {}, Receiver: {}", item.getFileName(), type,
+                parseResult.getIsa().getInterchangeSenderId(), parseResult.getIsa().getInterchangeReceiverId());
+    }
+
+    // Every entry is parsed straight from the decompressing stream in one pass; nothing is extracted to disk
+    private void parseEntries(FileWorkItem item, Compression compression) throws IOException {
+        List<EnclosedFile> entries = CompressedFiles.readEntries(item.getCurrentFile(), compression,
+                x12EnvelopeService::parseStreaming);
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("No files in " + compression + " file " + item.getFileName());
+        }
+        item.setEntries(entries);
+        item.setParseResult(entries.get(0).getParseResult());
+        long bytes = entries.stream().mapToLong(EnclosedFile::getSize).sum();
+        log.info("Parsed {} file {}: {} entries, {} bytes uncompressed", compression, item.getFileName(),
+                entries.size(), bytes);
+    }
+
+    // The plaintext is parsed as it is decrypted and decrypted again for delivery; it is never written out
+    private void parseEncrypted(FileWorkItem item) throws IOException {
+        Path file = item.getCurrentFile();
+        X12ParseResult parseResult;
+        long size;
+        try (InputStream plaintext = pgpService.decrypt(file)) {
+            CountingInputStream counting = new CountingInputStream(plaintext);
+            parseResult = x12EnvelopeService.parseStreaming(counting);
+            // Reading to the end is what runs the integrity check
+            counting.transferTo(OutputStream.nullOutputStream());
+            size = counting.getCount();
+        }
+        String name = decryptedName(item.getFileName());
+        item.setEntries(List.of(new EnclosedFile(name, name, size, parseResult, pgpService.decrypting(file, name, size))));
+        item.setParseResult(parseResult);
+        log.info("Parsed PGP file {}: {} bytes decrypted, Sender: {}, Receiver: {}", item.getFileName(), size,
+                parseResult.getIsa().getInterchangeSenderId(), parseResult.getIsa().getInterchangeReceiverId());
+    }
+
+    private static String decryptedName(String fileName) {
+        String lower = fileName.toLowerCase();
+        for (String suffix : List.of(".pgp", ".gpg", ".asc")) {
+            if (lower.endsWith(suffix) && lower.length() > suffix.length()) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return fileName;
+    }
+
+    public void route(FileWorkItem item) {
+        if (!item.getEntries().isEmpty()) {
+            routeEntries(item);
+            return;
+        }
+        if (isSkippedDuplicate(item.getParseResult(), item.getId(), item.getFileName())) {
+            item.setDestinations(new ArrayList<>());
+            return;
+        }
+        item.setDestinations(routingService.resolve(item.getParseResult(), item.getInboundRoot(), item.getDefaultRoute()));
+        log.info("Routed file {} to {}", item.getFileName(), item.getDestinations().isEmpty() ? "archive only" : item.getDestinations());
+    }
+
+    // The file's destinations are the union of its entries', so the journal knows where it is going
+    private void routeEntries(FileWorkItem item) {
+        LinkedHashSet<String> destinations = new LinkedHashSet<>();
+        for (EnclosedFile entry : item.getEntries()) {
+            String label = entryLabel(item, entry);
+            entry.setDestinations(isSkippedDuplicate(entry.getParseResult(), entryId(item, entry), label) ? new ArrayList<>()
+                    : routingService.resolve(entry.getParseResult(), item.getInboundRoot(), item.getDefaultRoute()));
+            destinations.addAll(entry.getDestinations());
+            log.info("Routed {} to {}", label, entry.getDestinations().isEmpty() ? "archive only" : entry.getDestinations());
+        }
+        item.setDestinations(new ArrayList<>(destinations));
+    }
+
+    // Resends are recognised by ISA sender, receiver and control number plus content hash. The key stays reserved
+    // for owner until the file is archived or fails, so a copy in flight at the same time is a resend too.
+    private boolean isSkippedDuplicate(X12ParseResult parseResult, String owner, String fileName) {
+        DuplicateCheck check = duplicateDetector.check(parseResult, owner, fileName);
+        String control = parseResult.getIsa().getInterchangeControlNumber();
+        switch (check.kind()) {
+            case NEW -> {
+                return false;
+            }
+            case CONTROL_NUMBER_REUSED -> {
+                log.warn("File {} reuses ISA13 {} of {} with different content", fileName, control, check.firstFileName());
+                return false;
+            }
+            default -> {
+                String message = "File " + fileName + " is a resend of " + check.firstFileName() + " (ISA13 "
+                        + control + ", first seen " + Instant.ofEpochMilli(check.firstSeenAt()) + ")";
+                switch (duplicateProperties.getAction()) {
+                    case REJECT -> throw new DuplicateInterchangeException(message);
+                    case FLAG -> {
+                        log.warn("{}; delivering anyway", message);
+                        return false;
+                    }
+                    default -> {
+                        log.warn("{}; archiving without delivery", message);
+                        return true;
+                    }
+                }
+            }
+        }
+    }
+
+    // Completes when every destination has the file; fails if any of them did not take it. The entries of a
+    // compressed or encrypted file are each delivered on their own, streamed out of the inbound file. A retry
+    // skips the destinations an earlier attempt already delivered to.
+    public CompletableFuture<Void> deliver(FileWorkItem item) {
+        item.getDelivered().addAll(errorQueue.delivered(item));
+        List<Delivery> deliveries = new ArrayList<>();
+        if (item.getEntries().isEmpty()) {
+            UploadSource source = UploadSource.of(item.getCurrentFile());
+            for (String name : item.getDestinations()) {
+                if (alreadyDelivered(item, name, item.getFileName(), name)) continue;
+                deliveries.add(delivery(name, item.getFileName(), item.getId(), source, item.getParseResult(), name));
+            }
+        } else {
+            for (EnclosedFile entry : item.getEntries()) {
+                for (String name : entry.getDestinations()) {
+                    String key = entry.getEntryName() + "!" + name;
+                    if (alreadyDelivered(item, key, entryLabel(item, entry), name)) continue;
+                    deliveries.add(delivery(key, entryLabel(item, entry), entryId(item, entry),
+                            entry.getSource(), entry.getParseResult(), name));
+                }
+            }
+        }
+
+        // Waits for all of them, failed or not, so every delivery that went through is recorded before a retry
+        CompletableFuture<?>[] settled = deliveries.stream()
+                .map(delivery -> delivery.upload().exceptionally(error -> null)).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(settled).thenRun(() -> {
+            List<String> failures = new ArrayList<>();
+            CompletionException error = null;
+            for (Delivery delivery : deliveries) {
+                UploadResult result;
+                try {
+                    result = delivery.upload().join();
+                } catch (CompletionException e) {
+                    if (error == null) error = e;
+                    continue;
+                }
+                if (result.isSuccess()) {
+                    log.info("Delivered {} to {} ({} bytes in {} ms)", delivery.fileName(), delivery.destination(),
+                            result.getBytes(), result.getDurationMs());
+                    acknowledgmentIndex.sent(delivery.sent(), delivery.fileName(), delivery.destination());
+                    item.getDelivered().add(delivery.key());
+                } else {
+                    failures.add(delivery.destination() + ": " + result.getMessage());
+                }
+            }
+            if (error != null) throw error;
+            if (!failures.isEmpty()) {
+                throw new DeliveryException("Delivery failed - " + String.join("; ", failures));
+            }
+        });
+    }
+
+    private static boolean alreadyDelivered(FileWorkItem item, String key, String fileName, String destination) {
+        if (!item.getDelivered().contains(key)) return false;
+        log.info("Skipping {} to {}: delivered by an earlier attempt", fileName, destination);
+        return true;
+    }
+
+    // Destinations that batch their files take this one into an open batch instead of sending it now
+    private Delivery delivery(String key, String fileName, String sourceId, UploadSource source,
+                              X12ParseResult parseResult, String destination) {
+        if (outboundAggregator.accepts(destination, parseResult, source)) {
+            return new Delivery(key, fileName, destination, null, outboundAggregator.add(sourceId, source, destination));
+        }
+        return new Delivery(key, fileName, destination, parseResult,
+                fileTransferService.uploadAsync(source, routingService.destination(destination)));
+    }
+
+    // key is what the item's delivered set records; sent is the interchange as it goes out, for acknowledgment
+    // tracking, and null when it is queued for aggregation
+    private record Delivery(String key, String fileName, String destination, X12ParseResult sent,
+                            CompletableFuture<UploadResult> upload) {}
+
+    // A compressed file is archived as it arrived; its entries are indexed under its name
+    public CompletableFuture<Void> archive(FileWorkItem item) {
+        if (item.getParseResult() == null) {
+            // Resumed after a restart at DELIVERED, so nothing has parsed it in this run
             try {
-                moveToErrorDirectory(sourceFile, e.getMessage());
-            } catch (Exception moveError) {
-                log.error("Failed to move error file {}: {}", sourceFile, moveError.getMessage());
+                parse(item);
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
             }
-            publishFileProcessedEvent(fileName, false);
-            return false;
         }
+        long archivedAt = System.currentTimeMillis();
+        String partner = item.getParseResult().getIsa().getInterchangeSenderId().trim();
+        return archiveStore.store(item.getCurrentFile(), partner, archivedAt)
+                .thenRun(() -> {
+                    if (item.getEntries().isEmpty()) {
+                        archiveIndex.add(item.getParseResult(), item.getFileName(), partner, archivedAt);
+                        duplicateDetector.record(item.getParseResult(), item.getId(), item.getFileName());
+                        acknowledgmentIndex.received(item.getParseResult());
+                        acknowledgmentGenerator.acknowledge(item.getId(), item.getParseResult());
+                    }
+                    for (EnclosedFile entry : item.getEntries()) {
+                        archiveIndex.add(entry.getParseResult(), item.getFileName(), partner, archivedAt);
+                        duplicateDetector.record(entry.getParseResult(), entryId(item, entry), entryLabel(item, entry));
+                        acknowledgmentIndex.received(entry.getParseResult());
+                        acknowledgmentGenerator.acknowledge(entryId(item, entry), entry.getParseResult());
+                    }
+                    errorQueue.succeeded(item);
+                    log.info("Successfully processed file {}", item.getFileName());
+                    publishFileProcessedEvent(item, true);
+                });
     }
 
-    private Path moveToProcessingDirectory(Path sourceFile) throws IOException {
-        Path targetFile = properties.getProcessingDirectoryPath()
-            .resolve(sourceFile.getFileName());
-        
-        return moveFileWithRetry(sourceFile, targetFile);
+    private static String entryLabel(FileWorkItem item, EnclosedFile entry) {
+        return item.getFileName() + "!" + entry.getEntryName();
     }
 
-    private void moveToArchiveDirectory(Path sourceFile) throws IOException {
-        Path tableArchiveDir = properties.getArchiveDirectoryPath();
-        Files.createDirectories(tableArchiveDir);
-        
-        Path targetFile = tableArchiveDir.resolve(sourceFile.getFileName());
-        moveFileWithRetry(sourceFile, targetFile);
+    private static String entryId(FileWorkItem item, EnclosedFile entry) {
+        return item.getId() + "!" + entry.getEntryName();
+    }
+
+    // A file that left the pipeline unfinished, e.g. claimed away after a lost lease, gives up its interchange keys
+    public void released(FileWorkItem item) {
+        releaseDuplicateKeys(item);
+    }
+
+    private void releaseDuplicateKeys(FileWorkItem item) {
+        duplicateDetector.release(item.getParseResult(), item.getId());
+        for (EnclosedFile entry : item.getEntries()) {
+            duplicateDetector.release(entry.getParseResult(), entryId(item, entry));
+        }
     }
 
-    private void moveToErrorDirectory(Path sourceFile, String errorReason) throws IOException {
+    // Transient failures are parked for a retry; the rest go to the error directory for a person to look at
+    public CompletableFuture<Void> fail(FileWorkItem item, Throwable error) {
+        releaseDuplicateKeys(item);
+        return errorQueue.park(item, error).thenCompose(parked -> {
+            if (parked) return CompletableFuture.completedFuture(null);
+            log.error("Error processing file {}: {}", item.getSourceFile(), error.getMessage(), error);
+            publishFileProcessedEvent(item, false);
+            return moveToErrorDirectory(item.getCurrentFile(), error.getMessage()).exceptionally(moveError -> {
+                log.error("Failed to move error file {}: {}", item.getCurrentFile(), moveError.getMessage());
+                return null;
+            });
+        });
+    }
+
+    private CompletableFuture<Void> moveToErrorDirectory(Path sourceFile, String errorReason) {
         String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         String fileName = sourceFile.getFileName().toString();
         String nameWithoutExt = fileName.contains(".") ? 
@@ -94,45 +375,24 @@ public class FileProcessingService {
         Path targetFile = properties.getErrorDirectoryPath()
             .resolve(nameWithoutExt + "_ERROR_" + timestamp + extension);
         
-        moveFileWithRetry(sourceFile, targetFile);
-        
-        // Create error log file
-        Path errorLogFile = properties.getErrorDirectoryPath()
-            .resolve(nameWithoutExt + "_ERROR_" + timestamp + ".log");
-        
-        String errorLog = String.format("File: %s%nTimestamp: %s%nError: %s%n", 
-            fileName, LocalDateTime.now(), errorReason);
-        Files.writeString(errorLogFile, errorLog);
-    }
+        return fileMover.moveWithRetry(sourceFile, targetFile).thenRun(() -> {
+            // Create error log file
+            Path errorLogFile = properties.getErrorDirectoryPath()
+                .resolve(nameWithoutExt + "_ERROR_" + timestamp + ".log");
 
-    private Path moveFileWithRetry(Path source, Path target) throws IOException {
-        Files.createDirectories(target.getParent());
-        
-        IOException lastException = null;
-        for (int attempt = 1; attempt <= properties.getRetryAttempts(); attempt++) {
+            String errorLog = String.format("File: %s%nTimestamp: %s%nError: %s%n",
+                fileName, LocalDateTime.now(), errorReason);
             try {
-                return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                Files.writeString(errorLogFile, errorLog);
             } catch (IOException e) {
-                lastException = e;
-                log.warn("Attempt {} to move file {} failed: {}", attempt, source, e.getMessage());
-                
-                if (attempt < properties.getRetryAttempts()) {
-                    try {
-                        Thread.sleep(properties.getRetryDelayMs());
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("File move interrupted", ie);
-                    }
-                }
+                throw new UncheckedIOException(e);
             }
-        }
-        
-        throw new IOException("Failed to move file after " + properties.getRetryAttempts() + " attempts", lastException);
+        });
     }
-    
-    private void publishFileProcessedEvent(String fileName, boolean success) {
-        totalFilesProcessed++;
-        FileProcessedEvent event = new FileProcessedEvent(this, fileName, success, totalFilesProcessed);
+
+    private void publishFileProcessedEvent(FileWorkItem item, boolean success) {
+        FileProcessedEvent event = new FileProcessedEvent(this, item.getFileName(), item.getInboundRoot(),
+                item.getDefaultRoute(), success, totalFilesProcessed.incrementAndGet());
         eventPublisher.publishEvent(event);
     }
 }
\ No newline at end of file
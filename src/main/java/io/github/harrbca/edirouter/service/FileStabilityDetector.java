@@ -0,0 +1,141 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Predicate;
+
+// Tracks paths reported by the watcher and promotes each one once it has stopped changing.
+// Repeated CREATE/MODIFY events for a pending path collapse into the same entry. When the consumer refuses
+// a file (its root's processing is saturated) it stays pending and that directory is skipped for the rest of
+// the pass; other roots keep flowing.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileStabilityDetector {
+
+    private final FileMonitorProperties properties;
+    private final ThreadPoolTaskScheduler fileMonitorScheduler;
+    private final Map<Path, PendingFile> pending = new ConcurrentHashMap<>();
+    private volatile Predicate<Path> onStable;
+    private ScheduledFuture<?> checkTask;
+
+    public synchronized void start(Predicate<Path> onStable) {
+        if (checkTask != null) return;
+        this.onStable = onStable;
+        checkTask = fileMonitorScheduler.scheduleWithFixedDelay(this::checkPending,
+                Duration.ofMillis(properties.getStabilityCheckIntervalMs()));
+    }
+
+    public synchronized void stop() {
+        if (checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+    }
+
+    public void track(Path path) {
+        track(path, properties.getStabilityQuietPeriodMs(), properties.isStabilityLockProbe());
+    }
+
+    public void track(Path path, long quietPeriodMs, boolean lockProbe) {
+        pending.computeIfAbsent(path, p -> new PendingFile(quietPeriodMs, lockProbe));
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void checkPending() {
+        long now = System.currentTimeMillis();
+        Set<Path> saturated = new HashSet<>();
+        for (Map.Entry<Path, PendingFile> entry : pending.entrySet()) {
+            Path path = entry.getKey();
+            PendingFile file = entry.getValue();
+            if (saturated.contains(path.getParent())) continue;
+            try {
+                if (isStable(path, file, now)) {
+                    if (!promote(path)) {
+                        saturated.add(path.getParent());
+                        continue;
+                    }
+                    pending.remove(path, file);
+                }
+            } catch (NoSuchFileException e) {
+                log.debug("Pending file disappeared before it settled: {}", path);
+                pending.remove(path, file);
+            } catch (Exception e) {
+                log.warn("Stability check failed for {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private boolean isStable(Path path, PendingFile file, long now) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attrs.isRegularFile()) {
+            pending.remove(path, file);
+            return false;
+        }
+
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (size != file.size || modified != file.modified) {
+            file.size = size;
+            file.modified = modified;
+            file.unchangedSince = now;
+            return false;
+        }
+
+        if (now - file.unchangedSince >= file.quietPeriodMs) {
+            return true;
+        }
+        return file.lockProbe && canLockExclusively(path);
+    }
+
+    private static boolean canLockExclusively(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private boolean promote(Path path) {
+        if (!Files.isReadable(path)) {
+            log.debug("File no longer exists or is not readable: {}", path);
+            return true;
+        }
+        return onStable.test(path);
+    }
+
+    private static class PendingFile {
+        private final long quietPeriodMs;
+        private final boolean lockProbe;
+        private long size = -1;
+        private long modified = -1;
+        private long unchangedSince;
+
+        private PendingFile(long quietPeriodMs, boolean lockProbe) {
+            this.quietPeriodMs = quietPeriodMs;
+            this.lockProbe = lockProbe;
+        }
+    }
+}
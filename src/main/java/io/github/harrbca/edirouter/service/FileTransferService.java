@@ -1,46 +1,98 @@
 package io.github.harrbca.edirouter.service;
 
 import io.github.harrbca.edirouter.model.fileTransfer.*;
+import io.github.harrbca.edirouter.pgp.PgpService;
+import io.github.harrbca.edirouter.transfer.EndpointHealthTracker;
+import io.github.harrbca.edirouter.transfer.HttpClientPool;
+import io.github.harrbca.edirouter.transfer.TransferLimiter;
+import io.github.harrbca.edirouter.transfer.UploadSource;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPException;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.transport.verification.HostKeyVerifier;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import net.schmizz.sshj.userauth.UserAuthException;
 import net.schmizz.sshj.userauth.keyprovider.KeyProvider;
-import net.schmizz.sshj.xfer.FileSystemFile;
+import net.schmizz.sshj.xfer.InMemorySourceFile;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class FileTransferService {
 
+    private static final long LOCAL_COPY_CHUNK_BYTES = 8L * 1024 * 1024;
+    private static final long HTTP_MIN_BYTES_PER_MS = 64;
+
+    private final TransferLimiter transferLimiter;
+    private final EndpointHealthTracker endpointHealthTracker;
+    private final HttpClientPool httpClientPool;
+    private final PgpService pgpService;
+    private final ExecutorService asyncUploads = Executors.newVirtualThreadPerTaskExecutor();
+
     public UploadResult upload(Path localFile, TransferTarget target) {
+        return upload(UploadSource.of(localFile), target);
+    }
+
+    public UploadResult upload(UploadSource source, TransferTarget target) {
         long start = System.currentTimeMillis();
-        String defaultName = localFile.getFileName().toString();
-        String remoteName = (target.getRemoteFilename() == null || target.getRemoteFilename().isBlank())
-                ? defaultName
-                : target.getRemoteFilename();
+        String remoteName = remoteName(source, target);
 
         try {
-            if(target.getProtocol() == Protocol.FTP) {
-                return doFtpUpload(localFile, target, remoteName, start);
-            } else if (target.getProtocol() == Protocol.SFTP) {
-                return doSftpUpload(localFile, target, remoteName, start);
+            source = prepare(source, target);
+            remoteName = remoteName(source, target);
+            if (target.getProtocol() != null) {
+                long bytes = source.size();
+                try (TransferLimiter.Lease lease = transferLimiter.acquire(target, bytes)) {
+                    return switch (target.getProtocol()) {
+                        case FTP, SFTP -> uploadWithFailover(source, target, remoteName, bytes, lease, start);
+                        case LOCAL -> doLocalDelivery(source, target, remoteName, bytes, lease, start);
+                        case HTTP -> awaitHttp(sendHttp(source, target, remoteName, bytes, lease, start));
+                    };
+                }
             } else {
                 return UploadResult.builder()
                         .success(false)
@@ -52,17 +104,54 @@ public class FileTransferService {
                         .build();
             }
         } catch (Exception ex) {
-            log.error("Upload failed: file = {}, type= {}, host = {}, user = {}",
-                    localFile, target.getProtocol(), target.getHost(), target.getUsername(), ex);
-            return UploadResult.builder()
-                    .success(false)
-                    .protocol(String.valueOf(target.getProtocol()))
-                    .host(target.getHost())
-                    .remotePath(composeRemotePath(target.getRemoteDirectory(), remoteName))
-                    .message(ex.getMessage())
-                    .durationMs(System.currentTimeMillis() - start)
-                    .build();
+            return failedUpload(source, target, remoteName, ex, start);
+        }
+    }
+
+    // HTTP targets are sent without holding a thread while the request is in flight; other protocols
+    // run the blocking upload on a virtual thread.
+    public CompletableFuture<UploadResult> uploadAsync(Path localFile, TransferTarget target) {
+        return uploadAsync(UploadSource.of(localFile), target);
+    }
+
+    public CompletableFuture<UploadResult> uploadAsync(UploadSource source, TransferTarget target) {
+        if (target.getProtocol() != Protocol.HTTP) {
+            return CompletableFuture.supplyAsync(() -> upload(source, target), asyncUploads);
+        }
+
+        long start = System.currentTimeMillis();
+        UploadSource prepared;
+        try {
+            prepared = prepare(source, target);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(failedUpload(source, target, remoteName(source, target), e, start));
+        }
+        return sendHttpAsync(prepared, target, start);
+    }
+
+    private CompletableFuture<UploadResult> sendHttpAsync(UploadSource source, TransferTarget target, long start) {
+        String remoteName = remoteName(source, target);
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        long bytes = source.size();
+                        return new PendingHttpUpload(bytes, transferLimiter.acquire(target, bytes));
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, asyncUploads)
+                .thenCompose(pending -> sendHttp(source, target, remoteName, pending.bytes(), pending.lease(), start)
+                        .whenComplete((result, error) -> pending.lease().close()))
+                .exceptionally(error -> failedUpload(source, target, remoteName,
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error, start));
+    }
+
+    // Destinations with a PGP recipient get the file encrypted on the way out
+    private UploadSource prepare(UploadSource source, TransferTarget target) {
+        if (target.getPgpRecipient() != null && !target.getPgpRecipient().isBlank()) {
+            return pgpService.encrypting(source, target.getPgpRecipient());
         }
+        return source;
     }
 
     public List<RemoteFileInfo> listDirectory(TransferTarget target) throws Exception {
@@ -70,17 +159,93 @@ public class FileTransferService {
     }
 
     public List<RemoteFileInfo> listDirectory(TransferTarget target, ListOptions options) throws Exception {
+        if (target.getProtocol() == Protocol.LOCAL) {
+            return listLocal(Paths.get(firstNonBlank(options.getDirectory(), target.getRemoteDirectory(), ".")), options);
+        }
+
         String dir = normalizedDir(firstNonBlank(options.getDirectory(), target.getRemoteDirectory(), "/"));
-        if(target.getProtocol() == Protocol.FTP) {
-            return listFtp(target, dir, options);
-        } else if (target.getProtocol() == Protocol.SFTP) {
-            return listSftp(target, dir, options);
-        } else {
+        if (target.getProtocol() != Protocol.FTP && target.getProtocol() != Protocol.SFTP) {
             throw new IllegalArgumentException("Unsupported protocol: " + target.getProtocol());
         }
+
+        Exception lastFailure = null;
+        for (TransferTarget endpoint : endpointHealthTracker.candidates(target, 0)) {
+            try {
+                List<RemoteFileInfo> files = target.getProtocol() == Protocol.FTP
+                        ? listFtp(endpoint, dir, options)
+                        : listSftp(endpoint, dir, options);
+                endpointHealthTracker.recordSuccess(endpoint);
+                return files;
+            } catch (Exception e) {
+                if (!isEndpointFailure(e)) throw e;
+                endpointHealthTracker.recordFailure(endpoint);
+                lastFailure = e;
+                log.warn("Listing {} on {}:{} failed: {}", dir, endpoint.getHost(), endpoint.getPort(), e.getMessage());
+            }
+        }
+        throw lastFailure;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        asyncUploads.shutdown();
+    }
+
+    public List<DestinationUtilization> getDestinationUtilization() {
+        return transferLimiter.getDestinationUtilization();
+    }
+
+    public DestinationUtilization getGlobalUtilization() {
+        return transferLimiter.getGlobalUtilization();
+    }
+
+    public List<EndpointHealth> getEndpointHealth() {
+        return endpointHealthTracker.getEndpointHealth();
+    }
+
+    // Tries the target's endpoints best-first; only the last failure is surfaced. Errors that would be the same
+    // on every endpoint are thrown straight away and do not count against the endpoint.
+    private UploadResult uploadWithFailover(UploadSource source, TransferTarget target, String remoteName, long bytes,
+                                            TransferLimiter.Lease lease, long start) throws Exception {
+        List<TransferTarget> candidates = endpointHealthTracker.candidates(target, bytes);
+        Exception lastFailure = null;
+
+        for (TransferTarget endpoint : candidates) {
+            long attemptStart = System.currentTimeMillis();
+            try {
+                UploadResult result = target.getProtocol() == Protocol.FTP
+                        ? doFtpUpload(source, endpoint, remoteName, bytes, lease, start)
+                        : doSftpUpload(source, endpoint, remoteName, bytes, lease, start);
+                long attemptMs = System.currentTimeMillis() - attemptStart;
+                endpointHealthTracker.recordSuccess(endpoint, result.getConnectMs(), attemptMs - result.getConnectMs(), bytes);
+                return result;
+            } catch (Exception e) {
+                if (!isEndpointFailure(e)) throw e;
+                endpointHealthTracker.recordFailure(endpoint);
+                lastFailure = e;
+                if (candidates.size() > 1) {
+                    log.warn("Upload of {} to {}:{} failed, trying next endpoint: {}",
+                            source.name(), endpoint.getHost(), endpoint.getPort(), e.getMessage());
+                }
+            }
+        }
+        throw lastFailure;
+    }
+
+    // Worth trying another endpoint: the connection could not be made, broke or timed out. Rejected credentials,
+    // a missing directory, an existing file with overwrite=false or an unreadable local file would fail the same
+    // way everywhere.
+    private static boolean isEndpointFailure(Exception e) {
+        if (e instanceof UserAuthException || e instanceof FileSystemException) return false;
+        if (e instanceof SFTPException sftp) {
+            return sftp.getStatusCode() == Response.StatusCode.NO_CONNECTION
+                    || sftp.getStatusCode() == Response.StatusCode.CONNECITON_LOST;
+        }
+        return e instanceof IOException;
     }
 
-    private UploadResult doFtpUpload(Path localFile, TransferTarget target, String remoteName, long start) throws Exception {
+    private UploadResult doFtpUpload(UploadSource source, TransferTarget target, String remoteName, long bytes,
+                                     TransferLimiter.Lease lease, long start) throws Exception {
         int port = (target.getPort() > 0) ? target.getPort() : 21;
         FTPClient ftp = new FTPClient();
         ftp.setConnectTimeout(target.getConnectionTimeoutMs());
@@ -88,11 +253,13 @@ public class FileTransferService {
 
         try {
             log.info("Connecting (FTP) to {}:{}", target.getHost(), port);
+            long connectStart = System.currentTimeMillis();
             ftp.connect(target.getHost(), port);
             boolean logged = ftp.login(target.getUsername(), target.getPassword());
             if (!logged) {
                 throw new IllegalStateException("FTP login failed for user " + target.getUsername());
             }
+            long connectMs = System.currentTimeMillis() - connectStart;
 
             if (target.isFtpPassiveMode()) {
                 ftp.enterLocalPassiveMode();
@@ -110,7 +277,6 @@ public class FileTransferService {
                 if (!cwdOk) throw new IllegalStateException("Could not change directory to " + target.getRemoteDirectory());
             }
 
-            long bytes = Files.size(localFile);
             String remotePath = composeRemotePath(target.getRemoteDirectory(), remoteName);
 
             if (!target.isOverwrite()) {
@@ -120,13 +286,13 @@ public class FileTransferService {
                 }
             }
 
-            try (InputStream in = new BufferedInputStream(new FileInputStream(localFile.toFile()))) {
+            try (InputStream in = lease.wrap(new BufferedInputStream(source.open()))) {
                 boolean ok = ftp.storeFile(remoteName, in);
                 if (!ok) throw new IllegalStateException("FTP storeFile returned false for " + remotePath);
             }
 
             log.info("Processed file {}, Type: {}, Sender: {}, Receiver: {}",
-                    localFile.getFileName(), "FTP", target.getUsername(), target.getHost());
+                    source.name(), "FTP", target.getUsername(), target.getHost());
 
             return UploadResult.builder()
                     .success(true)
@@ -135,6 +301,7 @@ public class FileTransferService {
                     .remotePath(remotePath)
                     .bytes(bytes)
                     .durationMs(System.currentTimeMillis() - start)
+                    .connectMs(connectMs)
                     .message("OK @ " + Instant.now())
                     .build();
         } finally {
@@ -223,16 +390,19 @@ public class FileTransferService {
 
     /* ============================ SFTP IMPL ============================ */
 
-    private UploadResult doSftpUpload(Path localFile, TransferTarget t, String remoteName, long start) throws Exception {
+    private UploadResult doSftpUpload(UploadSource source, TransferTarget t, String remoteName, long bytes,
+                                      TransferLimiter.Lease lease, long start) throws Exception {
         int port = (t.getPort() > 0) ? t.getPort() : 22;
 
         try (SSHClient ssh = new SSHClient()) {
             configureHostKeyVerification(ssh, t);
 
+            long connectStart = System.currentTimeMillis();
             ssh.setConnectTimeout(t.getConnectionTimeoutMs());
             ssh.connect(t.getHost(), port);
             ssh.getTransport().setTimeoutMs(t.getSocketTimeoutMs());
             authenticate(ssh, t);
+            long connectMs = System.currentTimeMillis() - connectStart;
 
             try (SFTPClient sftp = ssh.newSFTPClient()) {
                 if (t.isCreateDirectories() && notBlank(t.getRemoteDirectory())) {
@@ -246,11 +416,10 @@ public class FileTransferService {
                     catch (net.schmizz.sshj.sftp.SFTPException e) { /* not found => OK */ }
                 }
 
-                long bytes = Files.size(localFile);
-                sftp.put(new FileSystemFile(localFile.toFile()), remotePath);
+                sftp.put(throttledSource(source, remoteName, bytes, lease), remotePath);
 
                 log.info("Processed file {}, Type: {}, Sender: {}, Receiver: {}",
-                        localFile.getFileName(), "SFTP", t.getUsername(), t.getHost());
+                        source.name(), "SFTP", t.getUsername(), t.getHost());
 
                 return UploadResult.builder()
                         .success(true)
@@ -259,6 +428,7 @@ public class FileTransferService {
                         .remotePath(remotePath)
                         .bytes(bytes)
                         .durationMs(System.currentTimeMillis() - start)
+                        .connectMs(connectMs)
                         .message("OK @ " + Instant.now())
                         .build();
             }
@@ -324,8 +494,276 @@ public class FileTransferService {
         }
     }
 
+    private static InMemorySourceFile throttledSource(UploadSource source, String name, long bytes, TransferLimiter.Lease lease) {
+        return new InMemorySourceFile() {
+            @Override public String getName() { return name; }
+            @Override public long getLength() { return bytes; }
+            @Override public InputStream getInputStream() throws IOException {
+                return lease.wrap(source.open());
+            }
+        };
+    }
+
+    /* ============================ LOCAL IMPL ============================ */
+
+    // Stages the file next to its destination and renames it into place, so a downstream pickup never sees
+    // a partial file. On the same filesystem the stage is a hard link (no data copied); otherwise the kernel
+    // copies it with FileChannel.transferTo. Content without a file of its own is copied from its stream.
+    private UploadResult doLocalDelivery(UploadSource source, TransferTarget t, String remoteName, long bytes,
+                                         TransferLimiter.Lease lease, long start) throws Exception {
+        Path destDir = Paths.get(firstNonBlank(t.getRemoteDirectory(), "."));
+        if (t.isCreateDirectories()) {
+            Files.createDirectories(destDir);
+        }
+
+        Path dest = destDir.resolve(remoteName);
+        // Only saves the copy; publish() makes the final check
+        if (!t.isOverwrite() && Files.exists(dest)) {
+            throw new IllegalStateException("Destination exists and overwrite=false: " + dest);
+        }
+
+        Path staging = destDir.resolve("." + remoteName + ".part");
+        Files.deleteIfExists(staging);
+
+        Path localFile = source.file().orElse(null);
+        String method;
+        try {
+            if (localFile == null) {
+                copyStream(source, staging, lease);
+                method = "stream copy";
+            } else if (Files.getFileStore(localFile).equals(Files.getFileStore(destDir))) {
+                try {
+                    // No data is written, so nothing is charged against the bandwidth limits
+                    Files.createLink(staging, localFile);
+                    method = "hard link";
+                } catch (UnsupportedOperationException | IOException e) {
+                    log.debug("Hard link not possible for {} ({}), copying instead", dest, e.getMessage());
+                    copyWithTransferTo(localFile, staging, lease);
+                    method = "copy";
+                }
+            } else {
+                copyWithTransferTo(localFile, staging, lease);
+                method = "copy";
+            }
+
+            publish(staging, dest, t.isOverwrite());
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+
+        log.info("Processed file {}, Type: {}, Method: {}, Destination: {}", source.name(), "LOCAL", method, dest);
+
+        return UploadResult.builder()
+                .success(true)
+                .protocol("LOCAL")
+                .host(destDir.toAbsolutePath().toString())
+                .remotePath(dest.toString())
+                .bytes(bytes)
+                .durationMs(System.currentTimeMillis() - start)
+                .message("OK (" + method + ") @ " + Instant.now())
+                .build();
+    }
+
+    // With overwrite=false the file is linked in, which fails if the name was taken after the early check; a
+    // rename would silently replace it
+    private static void publish(Path staging, Path dest, boolean overwrite) throws IOException {
+        if (overwrite) {
+            try {
+                Files.move(staging, dest, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(staging, dest, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        try {
+            try {
+                Files.createLink(dest, staging);
+            } catch (UnsupportedOperationException e) {
+                Files.move(staging, dest);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException("Destination exists and overwrite=false: " + dest);
+        }
+    }
+
+    private static void copyWithTransferTo(Path source, Path target, TransferLimiter.Lease lease) throws Exception {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long n = in.transferTo(position, Math.min(LOCAL_COPY_CHUNK_BYTES, size - position), out);
+                if (n <= 0) throw new IOException("transferTo made no progress at offset " + position + " of " + source);
+                position += n;
+                lease.onBytes(n);
+            }
+            out.force(false);
+        }
+    }
+
+    private static void copyStream(UploadSource source, Path target, TransferLimiter.Lease lease) throws Exception {
+        try (InputStream in = lease.wrap(source.open());
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            in.transferTo(Channels.newOutputStream(out));
+            out.force(false);
+        }
+    }
+
+    private List<RemoteFileInfo> listLocal(Path dir, ListOptions opts) throws IOException {
+        List<RemoteFileInfo> out = new ArrayList<>();
+        walkLocal(dir, opts.isRecursive(), globToPattern(opts.getGlob()), opts.isIncludeDirectories(), out);
+        return out;
+    }
+
+    private void walkLocal(Path dir, boolean recursive, Pattern pattern, boolean includeDirs,
+                           List<RemoteFileInfo> out) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".part") && name.startsWith(".")) continue;
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+
+                if (attrs.isDirectory()) {
+                    if (includeDirs && (pattern == null || pattern.matcher(name).matches())) {
+                        out.add(RemoteFileInfo.builder()
+                                .path(p.toString())
+                                .directory(true)
+                                .modified(attrs.lastModifiedTime().toInstant())
+                                .build());
+                    }
+                    if (recursive) {
+                        walkLocal(p, true, pattern, includeDirs, out);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    if (pattern == null || pattern.matcher(name).matches()) {
+                        out.add(RemoteFileInfo.builder()
+                                .path(p.toString())
+                                .directory(false)
+                                .sizeBytes(attrs.size())
+                                .modified(attrs.lastModifiedTime().toInstant())
+                                .build());
+                    }
+                }
+            }
+        }
+    }
+
+    /* ============================ HTTP IMPL ============================ */
+
+    private record PendingHttpUpload(long bytes, TransferLimiter.Lease lease) {}
+
+    // The response must arrive within the socket timeout plus time to send the body at >= 64 KB/s, or at the
+    // rate the lease's throttles guarantee when that is lower
+    private static long httpSendAllowanceMs(long bytes, TransferLimiter.Lease lease) {
+        long allowance = bytes / HTTP_MIN_BYTES_PER_MS;
+        long guaranteed = lease.getGuaranteedBytesPerSecond();
+        return guaranteed > 0 ? Math.max(allowance, (long) Math.ceil(bytes * 1000.0 / guaranteed)) : allowance;
+    }
+
+    private CompletableFuture<UploadResult> sendHttp(UploadSource source, TransferTarget t, String remoteName, long bytes,
+                                                     TransferLimiter.Lease lease, long start) {
+        URI uri = httpUri(t, remoteName);
+
+        // The body is streamed from its source through the lease's throttle; nothing is buffered in memory.
+        // Content whose length is not known up front is sent chunked.
+        HttpRequest.BodyPublisher stream = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return lease.wrap(source.open());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        HttpRequest.BodyPublisher body = !source.exactSize() ? stream
+                : bytes > 0 ? HttpRequest.BodyPublishers.fromPublisher(stream, bytes)
+                : HttpRequest.BodyPublishers.noBody();
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(t.getSocketTimeoutMs() + httpSendAllowanceMs(bytes, lease)))
+                .method(firstNonBlank(t.getHttpMethod(), "POST"), body);
+
+        boolean contentTypeSet = false;
+        if (t.getHttpHeaders() != null) {
+            for (Map.Entry<String, String> h : t.getHttpHeaders().entrySet()) {
+                request.header(h.getKey(), h.getValue());
+                contentTypeSet |= "Content-Type".equalsIgnoreCase(h.getKey());
+            }
+        }
+        if (!contentTypeSet) {
+            request.header("Content-Type", "application/edi-x12");
+        }
+        if (notBlank(t.getHttpBearerToken())) {
+            request.header("Authorization", "Bearer " + t.getHttpBearerToken());
+        } else if (notBlank(t.getUsername())) {
+            String credentials = t.getUsername() + ":" + (t.getPassword() == null ? "" : t.getPassword());
+            request.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return httpClientPool.client(t.getConnectionTimeoutMs())
+                .sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() / 100 != 2) {
+                        String responseBody = response.body() == null ? "" : response.body();
+                        throw new IllegalStateException("HTTP " + response.statusCode() + " from " + uri + ": "
+                                + (responseBody.length() > 200 ? responseBody.substring(0, 200) + "..." : responseBody));
+                    }
+
+                    log.info("Processed file {}, Type: {}, Status: {}, Version: {}, Receiver: {}",
+                            source.name(), "HTTP", response.statusCode(), response.version(), uri.getHost());
+
+                    return UploadResult.builder()
+                            .success(true)
+                            .protocol("HTTP")
+                            .host(uri.getHost())
+                            .remotePath(uri.toString())
+                            .bytes(bytes)
+                            .durationMs(System.currentTimeMillis() - start)
+                            .message("HTTP " + response.statusCode() + " @ " + Instant.now())
+                            .build();
+                });
+    }
+
+    private static UploadResult awaitHttp(CompletableFuture<UploadResult> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private static URI httpUri(TransferTarget t, String remoteName) {
+        String encodedName = URLEncoder.encode(remoteName, StandardCharsets.UTF_8).replace("+", "%20");
+        if (notBlank(t.getHttpUrl())) {
+            return URI.create(t.getHttpUrl().replace("{filename}", encodedName));
+        }
+        String path = composeRemotePath(t.getRemoteDirectory(), encodedName);
+        return URI.create((t.isHttpUseTls() ? "https" : "http") + "://" + t.getHost()
+                + (t.getPort() > 0 ? ":" + t.getPort() : "")
+                + (path.startsWith("/") ? path : "/" + path));
+    }
+
     /* ============================ SHARED HELPERS ============================ */
 
+    private UploadResult failedUpload(UploadSource source, TransferTarget target, String remoteName, Throwable ex, long start) {
+        log.error("Upload failed: file = {}, type= {}, host = {}, user = {}",
+                source, target.getProtocol(), target.getHost(), target.getUsername(), ex);
+        return UploadResult.builder()
+                .success(false)
+                .protocol(String.valueOf(target.getProtocol()))
+                .host(target.getHost())
+                .remotePath(composeRemotePath(target.getRemoteDirectory(), remoteName))
+                .message(ex.getMessage())
+                .durationMs(System.currentTimeMillis() - start)
+                .build();
+    }
+
+    private static String remoteName(UploadSource source, TransferTarget target) {
+        return (target.getRemoteFilename() == null || target.getRemoteFilename().isBlank())
+                ? source.name()
+                : target.getRemoteFilename();
+    }
+
     private void authenticate(SSHClient ssh, TransferTarget t) throws Exception {
         if (t.getPrivateKey() != null && t.getPrivateKey().length > 0) {
             KeyProvider kp = (t.getPrivateKeyPassphrase() == null || t.getPrivateKeyPassphrase().isBlank())
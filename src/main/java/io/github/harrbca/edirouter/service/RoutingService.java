@@ -0,0 +1,61 @@
+package io.github.harrbca.edirouter.service;
+
+import io.github.harrbca.edirouter.config.RoutingProperties;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import io.github.harrbca.edirouter.x12.model.ISA;
+import io.github.harrbca.edirouter.x12.model.TransactionSet;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RoutingService {
+
+    private final RoutingProperties properties;
+
+    // Destination names for an interchange: the first matching rule, else the inbound root's default route,
+    // else none (the file is archived without delivery)
+    public List<String> resolve(X12ParseResult parseResult, String inboundRoot, String defaultRoute) {
+        ISA isa = parseResult.getIsa();
+        String sender = trim(isa.getInterchangeSenderId());
+        String receiver = trim(isa.getInterchangeReceiverId());
+        Set<String> transactionSets = parseResult.getFunctionalGroups().stream()
+                .flatMap(g -> g.getTransactionSets().stream())
+                .map(TransactionSet::getTransactionSetIdentifierCode)
+                .collect(Collectors.toSet());
+
+        for (RoutingProperties.RouteRule rule : properties.getRules()) {
+            if (matches(rule.getSender(), sender)
+                    && matches(rule.getReceiver(), receiver)
+                    && matches(rule.getInboundRoot(), inboundRoot)
+                    && (rule.getTransactionSet() == null || transactionSets.contains(rule.getTransactionSet()))) {
+                log.debug("Rule {} matched {} -> {}", rule.getName(), sender, receiver);
+                return rule.getDestinations();
+            }
+        }
+        return defaultRoute == null || defaultRoute.isBlank() ? List.of() : List.of(defaultRoute);
+    }
+
+    public TransferTarget destination(String name) {
+        TransferTarget target = properties.getDestinations().get(name);
+        if (target == null) {
+            throw new IllegalStateException("Unknown routing destination: " + name);
+        }
+        return target;
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.equals(actual);
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.config.TransferProperties;
+import io.github.harrbca.edirouter.model.fileTransfer.EndpointHealth;
+import io.github.harrbca.edirouter.model.fileTransfer.FailoverPolicy;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferEndpoint;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Rolling connect/transfer latency and error-rate statistics per endpoint, used to order
+// a target's hosts so each upload goes to the fastest healthy one first.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EndpointHealthTracker {
+
+    private final TransferProperties properties;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    // Concrete single-host targets for this upload, best first. Unhealthy hosts stay at the end as a last resort.
+    public List<TransferTarget> candidates(TransferTarget target, long bytes) {
+        if (target.getEndpoints() == null || target.getEndpoints().isEmpty()) {
+            return List.of(target);
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        List<TransferEndpoint> endpoints = target.getEndpoints();
+        for (int i = 0; i < endpoints.size(); i++) {
+            TransferEndpoint e = endpoints.get(i);
+            TransferTarget concrete = target.toBuilder()
+                    .host(e.getHost())
+                    .port(e.getPort() > 0 ? e.getPort() : target.getPort())
+                    .endpoints(List.of())
+                    .build();
+            Stats s = stats(concrete);
+            double score = target.getFailoverPolicy() == FailoverPolicy.ORDERED
+                    ? i
+                    : s.expectedMs(bytes) / Math.max(e.getWeight(), 1);
+            candidates.add(new Candidate(concrete, s.isHealthy(), score, i));
+        }
+
+        candidates.sort(Comparator.comparing((Candidate c) -> !c.healthy)
+                .thenComparingDouble(Candidate::score)
+                .thenComparingInt(Candidate::order));
+        return candidates.stream().map(Candidate::target).toList();
+    }
+
+    public void recordSuccess(TransferTarget endpoint, long connectMs, long transferMs, long bytes) {
+        stats(endpoint).success(connectMs, transferMs, bytes);
+    }
+
+    // A call that moved no file data, such as a listing: ends the failure streak without a timing sample
+    public void recordSuccess(TransferTarget endpoint) {
+        stats(endpoint).reachable();
+    }
+
+    public void recordFailure(TransferTarget endpoint) {
+        Stats s = stats(endpoint);
+        s.failure();
+        if (!s.isHealthy()) {
+            log.warn("Endpoint {} marked unhealthy after {} consecutive failures", s.name, s.consecutiveFailures);
+        }
+    }
+
+    public List<EndpointHealth> getEndpointHealth() {
+        return stats.values().stream()
+                .map(Stats::snapshot)
+                .sorted(Comparator.comparing(EndpointHealth::getEndpoint))
+                .toList();
+    }
+
+    private Stats stats(TransferTarget endpoint) {
+        return stats.computeIfAbsent(TransferLimiter.destinationKey(endpoint), Stats::new);
+    }
+
+    private record Candidate(TransferTarget target, boolean healthy, double score, int order) {}
+
+    private class Stats {
+        private final String name;
+        private double connectMs;
+        private double transferMsPerMb;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long successes;
+        private long failures;
+        private long unhealthyUntil;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        synchronized void success(long connect, long transfer, long bytes) {
+            double alpha = properties.getEndpointStatsAlpha();
+            double mb = Math.max(bytes / (1024d * 1024d), 0.01);
+            connectMs = successes == 0 ? connect : ewma(connectMs, connect, alpha);
+            transferMsPerMb = successes == 0 ? transfer / mb : ewma(transferMsPerMb, transfer / mb, alpha);
+            errorRate = ewma(errorRate, 0, alpha);
+            consecutiveFailures = 0;
+            unhealthyUntil = 0;
+            successes++;
+        }
+
+        synchronized void reachable() {
+            errorRate = ewma(errorRate, 0, properties.getEndpointStatsAlpha());
+            consecutiveFailures = 0;
+            unhealthyUntil = 0;
+        }
+
+        synchronized void failure() {
+            errorRate = ewma(errorRate, 1, properties.getEndpointStatsAlpha());
+            consecutiveFailures++;
+            failures++;
+            if (consecutiveFailures >= properties.getEndpointFailureThreshold()) {
+                unhealthyUntil = System.currentTimeMillis() + properties.getEndpointCooldownMs();
+            }
+        }
+
+        // After the cooldown the host is healthy again and gets one probe; another failure re-opens the window
+        synchronized boolean isHealthy() {
+            return System.currentTimeMillis() >= unhealthyUntil;
+        }
+
+        // Hosts without samples score 0 so they are probed before we settle on a favourite
+        synchronized double expectedMs(long bytes) {
+            if (successes == 0) return 0;
+            double ms = connectMs + transferMsPerMb * (bytes / (1024d * 1024d));
+            return ms * (1 + 4 * errorRate);
+        }
+
+        synchronized EndpointHealth snapshot() {
+            return EndpointHealth.builder()
+                    .endpoint(name)
+                    .healthy(isHealthy())
+                    .connectMs(connectMs)
+                    .transferMsPerMb(transferMsPerMb)
+                    .errorRate(errorRate)
+                    .consecutiveFailures(consecutiveFailures)
+                    .successes(successes)
+                    .failures(failures)
+                    .build();
+        }
+
+        private static double ewma(double current, double sample, double alpha) {
+            return current + alpha * (sample - current);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.harrbca.edirouter.transfer;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Long-lived HttpClients shared by all HTTP deliveries. Each client keeps its own connection pool, and
+// HTTP/2 multiplexes concurrent posts to the same partner over one TLS connection.
+@Slf4j
+@Component
+public class HttpClientPool {
+
+    private final Map<Integer, HttpClient> clients = new ConcurrentHashMap<>();
+
+    public HttpClient client(int connectTimeoutMs) {
+        return clients.computeIfAbsent(connectTimeoutMs, timeout -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(timeout))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build());
+    }
+
+    @PreDestroy
+    public void close() {
+        clients.values().forEach(HttpClient::close);
+        clients.clear();
+    }
+}
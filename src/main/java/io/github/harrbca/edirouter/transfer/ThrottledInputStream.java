@@ -0,0 +1,49 @@
+package io.github.harrbca.edirouter.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final TransferLimiter.Lease lease;
+    private final int chunkBytes;
+
+    ThrottledInputStream(InputStream in, TransferLimiter.Lease lease, int chunkBytes) {
+        super(in);
+        this.lease = lease;
+        this.chunkBytes = Math.max(chunkBytes, 512);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) onBytes(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        // Read in bounded chunks so one large stream cannot grab a burst the size of its buffer
+        int n = super.read(b, off, Math.min(len, chunkBytes));
+        if (n > 0) onBytes(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, chunkBytes));
+        if (skipped > 0) onBytes(skipped);
+        return skipped;
+    }
+
+    private void onBytes(long n) throws IOException {
+        try {
+            lease.onBytes(n);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling transfer");
+        }
+    }
+}
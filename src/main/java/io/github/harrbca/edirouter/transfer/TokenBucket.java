@@ -0,0 +1,47 @@
+package io.github.harrbca.edirouter.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+// Byte-rate token bucket. Callers reserve tokens up front and sleep off any deficit,
+// so concurrent streams are served in the order they asked rather than by who polls fastest.
+public class TokenBucket {
+
+    private final long bytesPerSecond;
+    private final long burstBytes;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstBytes = Math.max(burstBytes, 1);
+        this.tokens = this.burstBytes;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= bytes;
+            if (tokens >= 0) return;
+            waitNanos = (long) (-tokens * 1_000_000_000d / bytesPerSecond);
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    // Takes tokens without waiting; the debt is paid back by whoever calls acquire next
+    public synchronized void consume(long bytes) {
+        refill();
+        tokens -= bytes;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burstBytes, tokens + (now - lastRefillNanos) * bytesPerSecond / 1_000_000_000d);
+        lastRefillNanos = now;
+    }
+}
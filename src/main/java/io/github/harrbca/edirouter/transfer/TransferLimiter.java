@@ -0,0 +1,238 @@
+package io.github.harrbca.edirouter.transfer;
+
+import io.github.harrbca.edirouter.config.TransferProperties;
+import io.github.harrbca.edirouter.model.fileTransfer.DestinationUtilization;
+import io.github.harrbca.edirouter.model.fileTransfer.Protocol;
+import io.github.harrbca.edirouter.model.fileTransfer.TransferTarget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-destination and global session/bandwidth limits for FileTransferService. Transfers at or below
+// priorityThresholdBytes never wait for bandwidth and may use reserved session slots.
+@Slf4j
+@Component
+public class TransferLimiter {
+
+    private final TransferProperties properties;
+    private final Limits global;
+    private final Map<String, Limits> destinations = new ConcurrentHashMap<>();
+    private final Set<String> conflicts = ConcurrentHashMap.newKeySet();
+
+    public TransferLimiter(TransferProperties properties) {
+        this.properties = properties;
+        this.global = new Limits("global", properties.getGlobalMaxConcurrentSessions(),
+                properties.getGlobalMaxBytesPerSecond(), properties.getReservedPrioritySessions(),
+                properties.getThrottleChunkBytes());
+    }
+
+    public Lease acquire(TransferTarget target, long bytes) throws InterruptedException {
+        boolean priority = bytes <= properties.getPriorityThresholdBytes();
+        Limits destination = destination(target);
+
+        // Destination first, so a session queued behind its own partner does not hold a global slot
+        destination.enter(priority);
+        try {
+            global.enter(priority);
+        } catch (InterruptedException e) {
+            destination.exit(priority);
+            throw e;
+        }
+        return new Lease(destination, priority);
+    }
+
+    public DestinationUtilization getGlobalUtilization() {
+        return global.snapshot();
+    }
+
+    public List<DestinationUtilization> getDestinationUtilization() {
+        return destinations.values().stream()
+                .map(Limits::snapshot)
+                .sorted(Comparator.comparing(DestinationUtilization::getDestination))
+                .toList();
+    }
+
+    public static String destinationKey(TransferTarget t) {
+        if (t.getProtocol() == Protocol.LOCAL) return "LOCAL://" + t.getRemoteDirectory();
+        if (t.getProtocol() == Protocol.HTTP && t.getHttpUrl() != null && !t.getHttpUrl().isBlank()) {
+            return "HTTP://" + URI.create(t.getHttpUrl().replace("{filename}", "")).getAuthority();
+        }
+        return t.getProtocol() + "://" + t.getHost() + (t.getPort() > 0 ? ":" + t.getPort() : "");
+    }
+
+    // One Limits per host, whichever target reaches it first: replacing it would let sessions admitted under the
+    // old one run next to a fresh set of permits. Targets on the same host with other limits are warned about once.
+    private Limits destination(TransferTarget target) {
+        Limits limits = destinations.computeIfAbsent(destinationKey(target), k -> new Limits(k,
+                target.getMaxConcurrentSessions(), target.getMaxBytesPerSecond(),
+                properties.getReservedPrioritySessions(), properties.getThrottleChunkBytes()));
+        if (!limits.matches(target.getMaxConcurrentSessions(), target.getMaxBytesPerSecond())
+                && conflicts.add(limits.name + "|" + target.getMaxConcurrentSessions() + "|" + target.getMaxBytesPerSecond())) {
+            log.warn("Destinations sharing {} set different limits ({} sessions, {} B/s); keeping {} sessions, {} B/s",
+                    limits.name, target.getMaxConcurrentSessions(), target.getMaxBytesPerSecond(),
+                    limits.maxSessions, limits.maxBytesPerSecond);
+        }
+        return limits;
+    }
+
+    public class Lease implements AutoCloseable {
+        private final Limits destination;
+        private final boolean priority;
+        private boolean closed;
+
+        private Lease(Limits destination, boolean priority) {
+            this.destination = destination;
+            this.priority = priority;
+        }
+
+        public InputStream wrap(InputStream in) {
+            return new ThrottledInputStream(in, this, properties.getThrottleChunkBytes());
+        }
+
+        // The slowest this lease may be held to by its throttles, each shared by up to its session limit; 0 if
+        // neither limits the rate. Priority transfers only run up a debt, so they are not held back.
+        public long getGuaranteedBytesPerSecond() {
+            if (priority) return 0;
+            long rate = Math.min(share(destination), share(global));
+            return rate == Long.MAX_VALUE ? 0 : rate;
+        }
+
+        private static long share(Limits limits) {
+            if (limits.maxBytesPerSecond <= 0) return Long.MAX_VALUE;
+            return Math.max(1, limits.maxBytesPerSecond / Math.max(1, limits.maxSessions));
+        }
+
+        public void onBytes(long n) throws InterruptedException {
+            destination.meter.record(n);
+            global.meter.record(n);
+            destination.take(n, priority);
+            global.take(n, priority);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            global.exit(priority);
+            destination.exit(priority);
+        }
+    }
+
+    /* ============================ LIMIT STATE ============================ */
+
+    private static class Limits {
+        private final String name;
+        private final int maxSessions;
+        private final long maxBytesPerSecond;
+        private final Semaphore sessions;      // null = unlimited
+        private final Semaphore bulkSessions;  // null = no slots reserved for priority transfers
+        private final TokenBucket bucket;      // null = unlimited
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final Meter meter = new Meter();
+
+        Limits(String name, int maxSessions, long maxBytesPerSecond, int reservedPrioritySessions, int chunkBytes) {
+            this.name = name;
+            this.maxSessions = Math.max(maxSessions, 0);
+            this.maxBytesPerSecond = Math.max(maxBytesPerSecond, 0);
+            this.sessions = this.maxSessions > 0 ? new Semaphore(this.maxSessions, true) : null;
+            this.bulkSessions = this.maxSessions > 1 && reservedPrioritySessions > 0
+                    ? new Semaphore(Math.max(1, this.maxSessions - reservedPrioritySessions), true)
+                    : null;
+            this.bucket = this.maxBytesPerSecond > 0
+                    ? new TokenBucket(this.maxBytesPerSecond, Math.max(chunkBytes, this.maxBytesPerSecond / 10))
+                    : null;
+        }
+
+        boolean matches(int maxSessions, long maxBytesPerSecond) {
+            return this.maxSessions == Math.max(maxSessions, 0) && this.maxBytesPerSecond == Math.max(maxBytesPerSecond, 0);
+        }
+
+        void enter(boolean priority) throws InterruptedException {
+            waiting.incrementAndGet();
+            try {
+                if (!priority && bulkSessions != null) bulkSessions.acquire();
+                if (sessions != null) {
+                    try {
+                        sessions.acquire();
+                    } catch (InterruptedException e) {
+                        if (!priority && bulkSessions != null) bulkSessions.release();
+                        throw e;
+                    }
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+            active.incrementAndGet();
+        }
+
+        void exit(boolean priority) {
+            active.decrementAndGet();
+            completed.increment();
+            if (sessions != null) sessions.release();
+            if (!priority && bulkSessions != null) bulkSessions.release();
+        }
+
+        void take(long bytes, boolean priority) throws InterruptedException {
+            if (bucket == null) return;
+            if (priority) bucket.consume(bytes);
+            else bucket.acquire(bytes);
+        }
+
+        DestinationUtilization snapshot() {
+            return DestinationUtilization.builder()
+                    .destination(name)
+                    .activeSessions(active.get())
+                    .waitingSessions(waiting.get())
+                    .maxConcurrentSessions(maxSessions)
+                    .currentBytesPerSecond(meter.bytesPerSecond())
+                    .maxBytesPerSecond(maxBytesPerSecond)
+                    .totalBytes(meter.total())
+                    .completedTransfers(completed.sum())
+                    .build();
+        }
+    }
+
+    // Sliding window of one-second slots used to report the current transfer rate
+    static class Meter {
+        private static final int WINDOW_SECONDS = 5;
+        private final long[] slotBytes = new long[WINDOW_SECONDS];
+        private final long[] slotSecond = new long[WINDOW_SECONDS];
+        private final LongAdder total = new LongAdder();
+
+        synchronized void record(long bytes) {
+            long second = System.currentTimeMillis() / 1000;
+            int i = (int) (second % WINDOW_SECONDS);
+            if (slotSecond[i] != second) {
+                slotSecond[i] = second;
+                slotBytes[i] = 0;
+            }
+            slotBytes[i] += bytes;
+            total.add(bytes);
+        }
+
+        synchronized long bytesPerSecond() {
+            long second = System.currentTimeMillis() / 1000;
+            long sum = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (second - slotSecond[i] < WINDOW_SECONDS) sum += slotBytes[i];
+            }
+            return sum / WINDOW_SECONDS;
+        }
+
+        long total() {
+            return total.sum();
+        }
+    }
+}
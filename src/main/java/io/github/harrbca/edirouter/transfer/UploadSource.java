@@ -0,0 +1,39 @@
+package io.github.harrbca.edirouter.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+// What an upload sends: a whole file on disk, or content that only exists as a stream (an entry inside a
+// compressed file). Every protocol can send from open(); local delivery uses file() to link or copy in-kernel.
+public interface UploadSource {
+
+    // Used as the remote name unless the target sets one
+    String name();
+
+    long size() throws IOException;
+
+    // False when the content changes on the way out (e.g. is encrypted) and size() is only an estimate
+    default boolean exactSize() {
+        return true;
+    }
+
+    // A fresh stream from the start; called again if an upload is retried on another endpoint
+    InputStream open() throws IOException;
+
+    default Optional<Path> file() {
+        return Optional.empty();
+    }
+
+    static UploadSource of(Path file) {
+        return new UploadSource() {
+            @Override public String name() { return file.getFileName().toString(); }
+            @Override public long size() throws IOException { return Files.size(file); }
+            @Override public InputStream open() throws IOException { return Files.newInputStream(file); }
+            @Override public Optional<Path> file() { return Optional.of(file); }
+            @Override public String toString() { return file.toString(); }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.harrbca.edirouter.x12;
+
+import io.github.harrbca.edirouter.config.ClusterProperties;
+import io.github.harrbca.edirouter.config.FileMonitorProperties;
+import io.github.harrbca.edirouter.config.X12Properties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Issues ISA13 and GS06 numbers for interchanges we write, one sequence per sender/receiver pair. Each number
+// is committed to disk before it is handed out, so a restart never issues one twice; a crash can at most
+// leave a gap. Numbers wrap from 999999999 back to the start.
+@Slf4j
+@Component
+public class ControlNumberService {
+
+    private static final long MAX_CONTROL_NUMBER = 999_999_999L;
+
+    private final X12Properties properties;
+    private final Path file;
+    private MVStore store;
+    private MVMap<String, Long> last;
+
+    public ControlNumberService(X12Properties properties, FileMonitorProperties monitorProperties,
+                                ClusterProperties clusterProperties) {
+        this.properties = properties;
+        this.file = monitorProperties.resolveDirectory(properties.getControlNumberDirectory())
+                .resolve(clusterProperties.getNodeId() + ".mv.db");
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(file.getParent());
+        store = new MVStore.Builder().fileName(file.toString()).autoCommitDisabled().open();
+        last = store.openMap("last");
+        log.info("Control numbers at {}: {} sequences", file, last.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) store.close();
+    }
+
+    // ISA13 for an interchange from sender to receiver (qualifier and ID of each)
+    public String nextInterchange(String senderQualifier, String senderId, String receiverQualifier, String receiverId) {
+        return String.format("%09d", next("ISA\0" + senderQualifier.trim() + ":" + senderId.trim() + "\0"
+                + receiverQualifier.trim() + ":" + receiverId.trim()));
+    }
+
+    // GS06 for a group from application sender to application receiver
+    public String nextGroup(String applicationSender, String applicationReceiver) {
+        return Long.toString(next("GS\0" + applicationSender.trim() + "\0" + applicationReceiver.trim()));
+    }
+
+    private synchronized long next(String sequence) {
+        int step = Math.max(1, properties.getNodeCount());
+        int offset = Math.floorMod(properties.getNodeIndex(), step);
+        Long previous = last.get(sequence);
+        long next = previous == null ? firstNumber(offset, step) : previous + step;
+        if (next > MAX_CONTROL_NUMBER) next = firstNumber(offset, step);
+        last.put(sequence, next);
+        store.commit();
+        return next;
+    }
+
+    // Control numbers start at 1
+    private static long firstNumber(int offset, int step) {
+        return offset == 0 ? step : offset;
+    }
+}
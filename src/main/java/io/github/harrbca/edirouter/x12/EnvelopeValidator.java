@@ -0,0 +1,100 @@
+package io.github.harrbca.edirouter.x12;
+
+import io.github.harrbca.edirouter.x12.model.FunctionalGroup;
+import io.github.harrbca.edirouter.x12.model.TransactionSet;
+import io.github.harrbca.edirouter.x12.model.X12ParseResult;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks each group and transaction set against its own trailer: SE01 against the segments actually read,
+// SE02 against ST02, GE01 against the sets read and GE02 against GS06. Errors carry the X12 syntax error
+// codes used by AK5/IK5 and AK9 acknowledgments. Only meaningful for a full parse, not a peek.
+@Component
+public class EnvelopeValidator {
+
+    // AK502 / IK502 transaction set syntax error codes
+    public static final String SET_TRAILER_MISSING = "2";
+    public static final String SET_CONTROL_NUMBER_MISMATCH = "3";
+    public static final String SEGMENT_COUNT_MISMATCH = "4";
+
+    // AK905 functional group syntax error codes
+    public static final String GROUP_TRAILER_MISSING = "2";
+    public static final String GROUP_CONTROL_NUMBER_MISMATCH = "4";
+    public static final String SET_COUNT_MISMATCH = "5";
+
+    public List<GroupValidation> validate(X12ParseResult parseResult) {
+        List<GroupValidation> results = new ArrayList<>(parseResult.getFunctionalGroups().size());
+        for (FunctionalGroup group : parseResult.getFunctionalGroups()) {
+            results.add(validate(group));
+        }
+        return results;
+    }
+
+    public GroupValidation validate(FunctionalGroup group) {
+        List<SetValidation> sets = new ArrayList<>(group.getTransactionSets().size());
+        for (TransactionSet set : group.getTransactionSets()) {
+            sets.add(validate(set));
+        }
+        List<String> errors = new ArrayList<>(2);
+        if (group.getTrailerTransactionSetCount() == null) {
+            errors.add(GROUP_TRAILER_MISSING);
+        } else {
+            if (!sameNumber(group.getTrailerControlNumber(), group.getGs().getGroupControlNumber())) {
+                errors.add(GROUP_CONTROL_NUMBER_MISMATCH);
+            }
+            if (!sameNumber(group.getTrailerTransactionSetCount(), Integer.toString(sets.size()))) {
+                errors.add(SET_COUNT_MISMATCH);
+            }
+        }
+        return new GroupValidation(group, sets, errors);
+    }
+
+    public SetValidation validate(TransactionSet set) {
+        List<String> errors = new ArrayList<>(2);
+        if (set.getTrailerSegmentCount() == null) {
+            errors.add(SET_TRAILER_MISSING);
+        } else {
+            String header = set.getTransactionSetControlNumber();
+            String trailer = set.getTrailerControlNumber();
+            if (header == null || trailer == null || !header.trim().equals(trailer.trim())) {
+                errors.add(SET_CONTROL_NUMBER_MISMATCH);
+            }
+            if (!sameNumber(set.getTrailerSegmentCount(), Integer.toString(set.getSegmentCount()))) {
+                errors.add(SEGMENT_COUNT_MISMATCH);
+            }
+        }
+        return new SetValidation(set, errors);
+    }
+
+    // Numeric elements may be zero-padded on one side and not the other
+    private static boolean sameNumber(String a, String b) {
+        if (a == null || b == null) return false;
+        try {
+            return Long.parseLong(a.trim()) == Long.parseLong(b.trim());
+        } catch (NumberFormatException e) {
+            return a.trim().equals(b.trim());
+        }
+    }
+
+    public record SetValidation(TransactionSet set, List<String> errors) {
+        public boolean accepted() {
+            return errors.isEmpty();
+        }
+    }
+
+    // Rejected (R) with any group-level error or when no set was accepted, partially accepted (P) when some
+    // were, accepted (A) otherwise
+    public record GroupValidation(FunctionalGroup group, List<SetValidation> sets, List<String> errors) {
+        public long acceptedSets() {
+            return sets.stream().filter(SetValidation::accepted).count();
+        }
+
+        public String status() {
+            long accepted = acceptedSets();
+            if (!errors.isEmpty() || accepted == 0) return "R";
+            return accepted == sets.size() ? "A" : "P";
+        }
+    }
+}
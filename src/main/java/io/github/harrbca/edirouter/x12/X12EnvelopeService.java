@@ -9,12 +9,21 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 @Service
 @Slf4j
 public class X12EnvelopeService {
+
+    private static final int STREAM_HEAD_CHARS = 4096;
+    // A streamed file without segment terminators must not turn into one giant segment
+    private static final int MAX_SEGMENT_CHARS = 1024 * 1024;
+
     public X12ParseResult parse(@NonNull String edi) {
         return parse(new ByteArrayInputStream(edi.getBytes(StandardCharsets.UTF_8)));
     }
@@ -35,17 +44,118 @@ public class X12EnvelopeService {
         }
     }
 
+    // Parses only the first maxBytes of the file: enough for the ISA, GS and first ST headers without reading
+    // a large interchange. A segment cut off by the limit is dropped rather than parsed half-read.
+    public X12ParseResult peek(@NonNull Path path, int maxBytes) {
+        byte[] buffer = new byte[maxBytes];
+        int read = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while (read < maxBytes && (n = in.read(buffer, read, maxBytes - read)) > 0) {
+                read += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to peek EDI from path: " + path, e);
+        }
+
+        String content = new String(buffer, 0, read, StandardCharsets.UTF_8);
+        X12ParseResult result = parseInternal(content);
+        if (read < maxBytes) {
+            return result;
+        }
+        int lastTerminator = content.lastIndexOf(result.getIsa().getSegmentTerminator());
+        return lastTerminator > 0 ? parseInternal(content.substring(0, lastTerminator + 1)) : result;
+    }
+
     public X12ParseResult parse(@NonNull InputStream in) {
-        String content;
+        byte[] bytes;
         try {
-            content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            bytes = in.readAllBytes();
         } catch (IOException e) {
             throw new UncheckedIOException("Failed to read EDI content", e);
         }
-        return parseInternal(content);
+        X12ParseResult result = parseInternal(new String(bytes, StandardCharsets.UTF_8));
+        result.setContentHash(sha256(bytes));
+        return result;
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Parses a file of any size in one pass with bounded memory: segments are read from a buffered reader and
+    // dropped once handled, and the content hash is computed from the same read. Yields the same result as
+    // parse(Path), at some cost in speed.
+    public X12ParseResult parseStreaming(@NonNull Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return parseStreaming(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse EDI from path: " + path, e);
+        }
+    }
+
+    // Reads the stream to its end but leaves closing it to the caller, e.g. for the entries of a zip
+    public X12ParseResult parseStreaming(@NonNull InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        EnvelopeCollector collector = new EnvelopeCollector();
+        ISA isa = readSegments(new DigestInputStream(in, digest), collector);
+        X12ParseResult result = collector.build(isa);
+        result.setContentHash(HexFormat.of().formatHex(digest.digest()));
+        return result;
+    }
+
+    // Receives every segment of an interchange in order, the ISA included, trimmed and without its terminator
+    public interface SegmentHandler {
+        // Called once, with the ISA, before the first segment
+        default void start(ISA isa) throws IOException {
+        }
+
+        void accept(String segment) throws IOException;
+    }
+
+    // One pass over the stream with bounded memory, one segment at a time; the stream is left open
+    public ISA readSegments(@NonNull InputStream in, @NonNull SegmentHandler handler) throws IOException {
+        Reader reader = new InputStreamReader(new BufferedInputStream(in, 64 * 1024), StandardCharsets.UTF_8);
+        // The ISA is fixed-length, so the head is plenty to learn the delimiters from
+        char[] buffer = new char[8192];
+        StringBuilder headBuilder = new StringBuilder();
+        int n;
+        while (headBuilder.length() < STREAM_HEAD_CHARS && (n = reader.read(buffer)) > 0) {
+            headBuilder.append(buffer, 0, n);
+        }
+        String head = headBuilder.toString();
+        ISA isa = parseIsa(head);
+        handler.start(isa);
+
+        SegmentSplitter splitter = new SegmentSplitter(isa.getSegmentTerminator(), handler);
+        splitter.feed(head.toCharArray(), head.length());
+        while ((n = reader.read(buffer)) > 0) {
+            splitter.feed(buffer, n);
+        }
+        splitter.finish();
+        return isa;
     }
 
     private X12ParseResult parseInternal(String content) {
+        ISA isa = parseIsa(content);
+        EnvelopeCollector collector = new EnvelopeCollector();
+        collector.start(isa);
+        // Handle CRLF-friendly split: treat "\r\n" or "\n" or "~" etc.
+        for (String seg : splitSegments(content, isa.getSegmentTerminator())) {
+            collector.accept(seg);
+        }
+        return collector.build(isa);
+    }
+
+    private ISA parseIsa(String content) {
         // normalize any unicode oddities, but keep raw delimiters
         String edi = content;
 
@@ -110,7 +220,7 @@ public class X12EnvelopeService {
         char repetitionSep = isa11 != null && !isa11.isEmpty() ? isa11.charAt(0) : '^';
         char componentSep  = isa16 != null && !isa16.isEmpty() ? isa16.charAt(0) : ':';
 
-        ISA isa = ISA.builder()
+        return ISA.builder()
                 .authorizationInformationQualifier(isaFields.get(0))   // ISA01
                 .authorizationInformation(isaFields.get(1))            // ISA02
                 .securityInformationQualifier(isaFields.get(2))        // ISA03
@@ -132,64 +242,163 @@ public class X12EnvelopeService {
                 .repetitionSeparator(repetitionSep)
                 .componentSeparator(componentSep)
                 .build();
+    }
 
-        // Split all segments using the determined segment terminator
-        // Handle CRLF-friendly split: treat "\r\n" or "\n" or "~" etc.
-        List<String> segments = splitSegments(edi, segmentTerm);
+    // Collects GS & ST in order, linked, with their SE/GE trailers and, inside a 997/999, the acknowledgment
+    // segments; other segments are only counted
+    private static final class EnvelopeCollector implements SegmentHandler {
 
-        // Parse GS & ST in order, linked
-        List<FunctionalGroup> groups = new ArrayList<>();
-        FunctionalGroup currentGroup = null;
-        int stGlobalIndex = 0;
+        private final List<FunctionalGroup> groups = new ArrayList<>();
+        private char elementSep;
+        private FunctionalGroup currentGroup;
+        private TransactionSet currentSet;
+        private boolean acknowledgmentSet;
+        private int stGlobalIndex;
 
-        for (String seg : segments) {
-            if (seg.isBlank()) continue;
+        @Override
+        public void start(ISA isa) {
+            this.elementSep = isa.getElementSeparator();
+        }
+
+        @Override
+        public void accept(String seg) {
+            if (seg.isBlank()) return;
             int tagEnd = seg.indexOf(elementSep);
             String tag = tagEnd < 0 ? seg : seg.substring(0, tagEnd);
+            if (currentSet != null) {
+                currentSet.setSegmentCount(currentSet.getSegmentCount() + 1);
+                if (acknowledgmentSet && (tag.startsWith("AK") || tag.equals("IK5"))) {
+                    acknowledgment(tag, splitKeepEmpty(seg, elementSep));
+                    return;
+                }
+            }
+            if (!tag.equals("GS") && !tag.equals("ST") && !tag.equals("SE") && !tag.equals("GE")) return;
 
             // safe split into elements (keeping empty ones)
             String[] parts = splitKeepEmpty(seg, elementSep);
 
-            switch (tag) {
-                case "GS": {
-                    GS gs = GS.builder()
-                            .functionalIdentifierCode(value(parts, 1))   // GS01
-                            .applicationSenderCode(value(parts, 2))      // GS02
-                            .applicationReceiverCode(value(parts, 3))    // GS03
-                            .groupDateCCYYMMDD(value(parts, 4))          // GS04
-                            .groupTime(value(parts, 5))                  // GS05
-                            .groupControlNumber(value(parts, 6))         // GS06
-                            .responsibleAgencyCode(value(parts, 7))      // GS07
-                            .versionReleaseIndustryCode(value(parts, 8)) // GS08
-                            .build();
-                    currentGroup = FunctionalGroup.builder().gs(gs).build();
+            if (tag.equals("SE")) {
+                if (currentSet != null) {
+                    currentSet.setTrailerSegmentCount(value(parts, 1));
+                    currentSet.setTrailerControlNumber(value(parts, 2));
+                    currentSet = null;
+                }
+                return;
+            }
+            if (tag.equals("GE")) {
+                currentSet = null;
+                if (currentGroup != null) {
+                    currentGroup.setTrailerTransactionSetCount(value(parts, 1));
+                    currentGroup.setTrailerControlNumber(value(parts, 2));
+                }
+                return;
+            }
+            currentSet = null;
+
+            if (tag.equals("GS")) {
+                GS gs = GS.builder()
+                        .functionalIdentifierCode(value(parts, 1))   // GS01
+                        .applicationSenderCode(value(parts, 2))      // GS02
+                        .applicationReceiverCode(value(parts, 3))    // GS03
+                        .groupDateCCYYMMDD(value(parts, 4))          // GS04
+                        .groupTime(value(parts, 5))                  // GS05
+                        .groupControlNumber(value(parts, 6))         // GS06
+                        .responsibleAgencyCode(value(parts, 7))      // GS07
+                        .versionReleaseIndustryCode(value(parts, 8)) // GS08
+                        .build();
+                currentGroup = FunctionalGroup.builder().gs(gs).build();
+                groups.add(currentGroup);
+            } else {
+                TransactionSet ts = TransactionSet.builder()
+                        .transactionSetIdentifierCode(value(parts, 1)) // ST01
+                        .transactionSetControlNumber(value(parts, 2))  // ST02
+                        .indexInInterchange(stGlobalIndex++)
+                        .indexInGroup(currentGroup == null ? -1 : currentGroup.getTransactionSets().size())
+                        .segmentCount(1)
+                        .build();
+                currentSet = ts;
+                acknowledgmentSet = "997".equals(ts.getTransactionSetIdentifierCode())
+                        || "999".equals(ts.getTransactionSetIdentifierCode());
+                if (currentGroup == null) {
+                    currentGroup = FunctionalGroup.builder().gs(GS.builder().build()).build();
                     groups.add(currentGroup);
-                    break;
                 }
-                case "ST": {
-                    TransactionSet ts = TransactionSet.builder()
-                            .transactionSetIdentifierCode(value(parts, 1)) // ST01
-                            .transactionSetControlNumber(value(parts, 2))  // ST02
-                            .indexInInterchange(stGlobalIndex++)
-                            .indexInGroup(currentGroup == null ? -1 : currentGroup.getTransactionSets().size())
-                            .build();
-                    if (currentGroup == null) {
-                        currentGroup = FunctionalGroup.builder().gs(GS.builder().build()).build();
-                        groups.add(currentGroup);
+                currentGroup.getTransactionSets().add(ts);
+            }
+        }
+
+        private void acknowledgment(String tag, String[] parts) {
+            GroupAcknowledgment ack = currentSet.getAcknowledgment();
+            if (tag.equals("AK1")) {
+                currentSet.setAcknowledgment(GroupAcknowledgment.builder()
+                        .functionalIdentifierCode(value(parts, 1))
+                        .groupControlNumber(value(parts, 2))
+                        .build());
+                return;
+            }
+            if (ack == null) return;
+            switch (tag) {
+                case "AK2" -> ack.getTransactionSets().add(GroupAcknowledgment.SetAcknowledgment.builder()
+                        .transactionSetIdentifierCode(value(parts, 1))
+                        .transactionSetControlNumber(value(parts, 2))
+                        .build());
+                case "AK5", "IK5" -> {
+                    if (!ack.getTransactionSets().isEmpty()) {
+                        ack.getTransactionSets().get(ack.getTransactionSets().size() - 1).setStatus(value(parts, 1));
+                    }
+                }
+                case "AK9" -> ack.setStatus(value(parts, 1));
+                default -> {
+                }
+            }
+        }
+
+        X12ParseResult build(ISA isa) {
+            return X12ParseResult.builder()
+                    .isa(isa)
+                    .functionalGroups(groups)
+                    .build();
+        }
+    }
+
+    // Incremental splitSegments: same trimming and CRLF handling, one segment in memory at a time
+    private static final class SegmentSplitter {
+
+        private final char segmentTerm;
+        private final SegmentHandler handler;
+        private final StringBuilder current = new StringBuilder(256);
+        private boolean skipLf;
+
+        SegmentSplitter(char segmentTerm, SegmentHandler handler) {
+            this.segmentTerm = segmentTerm;
+            this.handler = handler;
+        }
+
+        void feed(char[] chars, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                if (skipLf) {
+                    skipLf = false;
+                    if (c == '\n') continue;
+                }
+                if (c == segmentTerm) {
+                    String segment = current.toString().trim();
+                    if (!segment.isEmpty()) handler.accept(segment);
+                    current.setLength(0);
+                    skipLf = segmentTerm == '\r';
+                } else {
+                    if (current.length() >= MAX_SEGMENT_CHARS) {
+                        throw new IllegalArgumentException("Segment longer than " + MAX_SEGMENT_CHARS + " characters");
                     }
-                    currentGroup.getTransactionSets().add(ts);
-                    break;
+                    current.append(c);
                 }
-                default:
-                    // ignore all other segments for this envelope parser
-                    break;
             }
         }
 
-        return X12ParseResult.builder()
-                .isa(isa)
-                .functionalGroups(groups)
-                .build();
+        void finish() throws IOException {
+            String tail = current.toString().trim();
+            if (!tail.isEmpty()) handler.accept(tail);
+        }
     }
 
     // --- Helpers ---
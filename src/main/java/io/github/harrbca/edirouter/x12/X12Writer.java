@@ -0,0 +1,94 @@
+package io.github.harrbca.edirouter.x12;
+
+import io.github.harrbca.edirouter.x12.model.GS;
+import io.github.harrbca.edirouter.x12.model.ISA;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Writes X12 segments with the delimiters of a template ISA. Envelope segments are built from the template's
+// fields, so an interchange written here addresses the same partner with the same settings as the template.
+public class X12Writer {
+
+    private static final DateTimeFormatter ISA_DATE = DateTimeFormatter.ofPattern("yyMMdd");
+    private static final DateTimeFormatter GS_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HHmm");
+
+    private final Writer out;
+    private final char elementSeparator;
+    private final String terminator;
+    private long segments;
+
+    public X12Writer(Writer out, ISA template, boolean lineBreaks) {
+        this.out = out;
+        this.elementSeparator = template.getElementSeparator();
+        this.terminator = template.getSegmentTerminator() + (lineBreaks && template.getSegmentTerminator() != '\n' ? "\n" : "");
+    }
+
+    // A segment as read, without its terminator and in this writer's delimiters
+    public void raw(String segment) throws IOException {
+        out.write(segment);
+        out.write(terminator);
+        segments++;
+    }
+
+    public void segment(String... elements) throws IOException {
+        raw(String.join(String.valueOf(elementSeparator), elements));
+    }
+
+    // ISA09, ISA10 and ISA13 are new; every other element is copied as is, including its padding
+    public void isa(ISA template, LocalDateTime at, String controlNumber) throws IOException {
+        segment("ISA",
+                template.getAuthorizationInformationQualifier(),
+                template.getAuthorizationInformation(),
+                template.getSecurityInformationQualifier(),
+                template.getSecurityInformation(),
+                template.getInterchangeIdQualifierSender(),
+                template.getInterchangeSenderId(),
+                template.getInterchangeIdQualifierReceiver(),
+                template.getInterchangeReceiverId(),
+                at.format(ISA_DATE),
+                at.format(TIME),
+                template.getRepetitionSeparatorChar(),
+                template.getInterchangeControlVersion(),
+                controlNumber,
+                template.getAcknowledgmentRequested(),
+                template.getUsageIndicator(),
+                template.getComponentElementSeparatorChar());
+    }
+
+    public void gs(GS template, LocalDateTime at, String controlNumber) throws IOException {
+        segment("GS",
+                template.getFunctionalIdentifierCode(),
+                template.getApplicationSenderCode(),
+                template.getApplicationReceiverCode(),
+                at.format(GS_DATE),
+                at.format(TIME),
+                controlNumber,
+                template.getResponsibleAgencyCode(),
+                template.getVersionReleaseIndustryCode());
+    }
+
+    public void ge(long transactionSets, String groupControlNumber) throws IOException {
+        segment("GE", Long.toString(transactionSets), groupControlNumber);
+    }
+
+    public void iea(long groups, String interchangeControlNumber) throws IOException {
+        segment("IEA", Long.toString(groups), interchangeControlNumber);
+    }
+
+    public long getSegmentCount() {
+        return segments;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // ST02/SE02: at least four digits, as most partners expect
+    public static String transactionSetControlNumber(long number) {
+        return String.format("%04d", number);
+    }
+}
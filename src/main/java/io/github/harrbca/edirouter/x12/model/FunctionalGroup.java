@@ -16,4 +16,7 @@ public class FunctionalGroup {
     private GS gs;
     @Builder.Default
     private List<TransactionSet> transactionSets = new ArrayList<>();
+    // What the GE trailer claims; null if GE is missing
+    private String trailerTransactionSetCount;   // GE01
+    private String trailerControlNumber;         // GE02
 }
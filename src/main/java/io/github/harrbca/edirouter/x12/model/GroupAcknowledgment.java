@@ -0,0 +1,32 @@
+package io.github.harrbca.edirouter.x12.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// What a received 997/999 transaction set says about one of our functional groups
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupAcknowledgment {
+    private String functionalIdentifierCode; // AK101
+    private String groupControlNumber;       // AK102
+    private String status;                   // AK901 (A/E/P/R); null if AK9 is missing
+    @Builder.Default
+    private List<SetAcknowledgment> transactionSets = new ArrayList<>();
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SetAcknowledgment {
+        private String transactionSetIdentifierCode; // AK201
+        private String transactionSetControlNumber;  // AK202
+        private String status;                       // AK501 / IK501
+    }
+}
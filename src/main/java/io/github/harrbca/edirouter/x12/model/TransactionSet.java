@@ -14,4 +14,10 @@ public class TransactionSet {
     private String transactionSetControlNumber;  // ST02
     private int indexInInterchange;
     private int indexInGroup;
+    // ST through SE as read, and what the SE trailer claims; the trailer fields stay null if SE is missing
+    private int segmentCount;
+    private String trailerSegmentCount;          // SE01
+    private String trailerControlNumber;         // SE02
+    // A 997 or 999: the group it acknowledges (AK1/AK2/AK5/IK5/AK9)
+    private GroupAcknowledgment acknowledgment;
 }
@@ -16,4 +16,6 @@ public class X12ParseResult {
     private ISA isa;
     @Builder.Default
     private List<FunctionalGroup> functionalGroups = new ArrayList<>();
+    // SHA-256 (hex) of the raw interchange bytes; not set by peek
+    private String contentHash;
 }